@@ -49,6 +49,8 @@ import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.stats.emitter
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.stats.listeners.IListener;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.stats.measurements.MeasurementSet;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.reader.ReaderMetricsProcessor;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rest.BoundedRequestHandler;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rest.BoundedRequestHandler.EndpointClass;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rest.QueryBatchRequestHandler;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rest.QueryMetricsRequestHandler;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.threads.ThreadProvider;
@@ -127,7 +129,8 @@ public class PerformanceAnalyzerApp {
       METRIC_COLLECTOR_EXECUTOR.start();
 
       final GRPCConnectionManager connectionManager =
-          new GRPCConnectionManager(settings.getHttpsEnabled());
+          new GRPCConnectionManager(
+              settings.getHttpsEnabled(), 0, settings.isRcaRpcCompressionEnabled());
       final ClientServers clientServers = createClientServers(connectionManager, appContext);
       startErrorHandlingThread(THREAD_PROVIDER, exceptionQueue);
 
@@ -283,7 +286,9 @@ public class PerformanceAnalyzerApp {
                                                   int webServerPort,
                                                   final String hostFromSetting,
                                                   final AppContext appContext) {
-    NetServer netServer = new NetServer(rpcPort, 1, useHttps);
+    PluginSettings settings = PluginSettings.instance();
+    NetServer netServer = new NetServer(rpcPort, settings.getRpcEventLoopThreads(), useHttps,
+        settings.getRpcHandlerThreads(), settings.getRpcMetricsHandlerThreads());
     NetClient netClient = new NetClient(connectionManager);
 
     if (metricsServerHandler != null) {
@@ -294,8 +299,10 @@ public class PerformanceAnalyzerApp {
         PerformanceAnalyzerWebServer.createInternalServer(webServerPort, hostFromSetting, useHttps);
 
     if (metricsRestUtil != null) {
-      httpServer.createContext(QUERY_URL, new QueryMetricsRequestHandler(netClient, metricsRestUtil, appContext));
-      httpServer.createContext(BATCH_METRICS_URL, new QueryBatchRequestHandler(netClient, metricsRestUtil));
+      httpServer.createContext(QUERY_URL, BoundedRequestHandler.wrap(
+          new QueryMetricsRequestHandler(netClient, metricsRestUtil, appContext), EndpointClass.METRICS));
+      httpServer.createContext(BATCH_METRICS_URL, BoundedRequestHandler.wrap(
+          new QueryBatchRequestHandler(netClient, metricsRestUtil), EndpointClass.BATCH));
     }
 
     return new ClientServers(httpServer, netServer, netClient);
@@ -35,6 +35,7 @@ public enum StatExceptionCode {
   RCA_SCHEDULER_RESTART_PROCESSING("RCASchedulerRestartProcessing"),
   RCA_NETWORK_ERROR("RcaNetworkError"),
   RCA_VERTEX_RX_BUFFER_FULL_ERROR("RcaVertexRxBufferFullError"),
+  RCA_NETWORK_TX_BUFFER_FULL_ERROR("RcaNetworkTxBufferFullError"),
   RCA_NETWORK_THREADPOOL_QUEUE_FULL_ERROR("RcaNetworkThreadpoolQueueFullError"),
   RCA_SCHEDULER_STOPPED_ERROR("RcaSchedulerStoppedError"),
   READER_THREAD_STOPPED("ReaderThreadStopped"),
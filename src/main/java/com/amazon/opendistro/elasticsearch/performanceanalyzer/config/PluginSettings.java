@@ -17,6 +17,8 @@ package com.amazon.opendistro.elasticsearch.performanceanalyzer.config;
 
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.ConfigStatus;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.core.Util;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.MetricsDBEngine;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.reader_writer_shared.EventLogFormat;
 import com.google.common.annotations.VisibleForTesting;
 
 import java.io.File;
@@ -48,14 +50,106 @@ public class PluginSettings {
   private static final long BATCH_METRICS_RETENTION_PERIOD_MINUTES_DEFAULT = 7;
   private static final long BATCH_METRICS_RETENTION_PERIOD_MINUTES_MIN = 1;
   private static final long BATCH_METRICS_RETENTION_PERIOD_MINUTES_MAX = 60;
+  private static final String BATCH_METRICS_RAW_RETENTION_PERIOD_MINUTES =
+      "batch-metrics-raw-retention-period-minutes";
+  private static final long BATCH_METRICS_RAW_RETENTION_PERIOD_MINUTES_DEFAULT = 2;
+  // The 1 minute bucket of a window is written about a minute after the window starts.
+  private static final long BATCH_METRICS_RAW_RETENTION_PERIOD_MINUTES_MIN = 2;
   public static final String RPC_PORT_CONF_NAME = "rpc-port";
   public static final int RPC_DEFAULT_PORT = 9650;
   public static final String WEBSERVICE_PORT_CONF_NAME = "webservice-listener-port";
   public static final int WEBSERVICE_DEFAULT_PORT = 9600;
 
+  /**
+   * Number of threads of the event loops that accept and serve the RPC connections, with 0 using
+   * twice the number of processors.
+   */
+  public static final String RPC_EVENT_LOOP_THREADS_CONF_NAME = "rpc-event-loop-threads";
+  private static final int RPC_EVENT_LOOP_THREADS_DEFAULT = 1;
+  private static final int RPC_EVENT_LOOP_THREADS_MAX = 64;
+
+  /**
+   * Number of threads that run the RPC handlers, with 0 running them on the transport threads. If
+   * not set, the handlers keep running on a single thread.
+   */
+  public static final String RPC_HANDLER_THREADS_CONF_NAME = "rpc-handler-threads";
+  public static final int RPC_HANDLER_THREADS_DEFAULT = -1;
+  private static final int RPC_HANDLER_THREADS_MAX = 64;
+
+  /**
+   * Number of threads dedicated to the GetMetrics RPC, with 0 serving it on the RPC handler
+   * threads like the other RPCs.
+   */
+  public static final String RPC_METRICS_HANDLER_THREADS_CONF_NAME = "rpc-metrics-handler-threads";
+  private static final int RPC_METRICS_HANDLER_THREADS_MAX = 16;
+
   /** Determines whether the metricsdb files should be cleaned up. */
   public static final String DB_FILE_CLEANUP_CONF_NAME = "cleanup-metrics-db-files";
 
+  /** Determines the storage engine used for the per-window metricsdb. */
+  public static final String METRICS_DB_ENGINE_CONF_NAME = "metrics-db-engine";
+  private static final MetricsDBEngine METRICS_DB_ENGINE_DEFAULT = MetricsDBEngine.SQLITE;
+
+  /** Determines whether the reader processes writer events on one worker per event processor. */
+  public static final String PARALLEL_EVENT_DISPATCH_CONF_NAME = "reader-parallel-event-dispatch";
+
+  /** Determines whether the reader tails the event file of the window being written. */
+  public static final String TAIL_EVENT_FILES_CONF_NAME = "reader-tail-event-files";
+
+  /** Determines whether closed batch metrics windows are rolled up into coarser aggregates. */
+  public static final String BATCH_METRICS_ROLLUP_CONF_NAME = "batch-metrics-rollup-enabled";
+
+  /** Determines whether the RCA scheduler only runs the graph nodes that are due on a tick. */
+  public static final String RCA_EVENT_DRIVEN_SCHEDULING_CONF_NAME =
+      "rca-event-driven-scheduling-enabled";
+
+  /**
+   * Determines whether the RCA graph nodes run on a work-stealing pool, ordered by their expected
+   * path to the end of the graph, instead of level by level.
+   */
+  public static final String RCA_CRITICAL_PATH_SCHEDULING_CONF_NAME =
+      "rca-critical-path-scheduling-enabled";
+
+  /**
+   * Determines whether the flow units for a remote host are sent in one batch per run of the RCA
+   * graph. Requires every node in the cluster to serve the PublishBatch RPC.
+   */
+  public static final String RCA_BATCHED_PUBLISH_CONF_NAME = "rca-batched-publish-enabled";
+
+  /**
+   * Determines whether batched flow units are sent as deltas against the summaries sent earlier on
+   * the same stream. Only takes effect when batched publishing is enabled.
+   */
+  public static final String RCA_DELTA_ENCODING_CONF_NAME = "rca-delta-encoding-enabled";
+
+  /** Determines whether the RPCs to the other nodes are gzip compressed. */
+  public static final String RCA_RPC_COMPRESSION_CONF_NAME = "rca-rpc-compression-enabled";
+
+  /**
+   * Determines whether a metrics query for all the nodes streams the result of each node as soon
+   * as it arrives, instead of waiting for all of them.
+   */
+  public static final String METRICS_STREAMING_FANOUT_CONF_NAME =
+      "metrics-streaming-fanout-enabled";
+
+  /**
+   * Determines whether the RCA results are queued and persisted in batches by a writer thread,
+   * instead of inline by the graph nodes.
+   */
+  public static final String RCA_WRITE_BEHIND_PERSISTENCE_CONF_NAME =
+      "rca-write-behind-persistence-enabled";
+
+  /**
+   * Determines whether the REST endpoints are served from bounded per endpoint class worker pools
+   * that reject requests with a 429 once full.
+   */
+  public static final String WEBSERVICE_BOUNDED_POOLS_CONF_NAME =
+      "webservice-bounded-pools-enabled";
+
+  /** Determines the format the writer uses for new event files. */
+  public static final String EVENT_LOG_FORMAT_CONF_NAME = "event-log-format";
+  private static final EventLogFormat EVENT_LOG_FORMAT_DEFAULT = EventLogFormat.TEXT;
+
   private String metricsLocation;
   private int metricsDeletionInterval;
   private int writerQueueSize;
@@ -63,6 +157,38 @@ public class PluginSettings {
   /** If set to true, the metricsdb files are cleaned up, or else the on-disk files are left out. */
   private boolean shouldCleanupMetricsDBFiles;
 
+  private MetricsDBEngine metricsDBEngine;
+
+  private boolean parallelEventDispatchEnabled;
+
+  private boolean tailEventFilesEnabled;
+
+  private boolean batchMetricsRollupEnabled;
+
+  private boolean rcaEventDrivenSchedulingEnabled;
+
+  private boolean rcaCriticalPathSchedulingEnabled;
+
+  private boolean rcaBatchedPublishEnabled;
+
+  private boolean rcaDeltaEncodingEnabled;
+
+  private boolean rcaRpcCompressionEnabled;
+
+  private boolean metricsStreamingFanoutEnabled;
+
+  private boolean webServiceBoundedPoolsEnabled;
+
+  private boolean rcaWriteBehindPersistenceEnabled;
+
+  private int rpcEventLoopThreads;
+
+  private int rpcHandlerThreads;
+
+  private int rpcMetricsHandlerThreads;
+
+  private EventLogFormat eventLogFormat;
+
   private boolean httpsEnabled;
   private Properties settings;
   private final String configFilePath;
@@ -70,6 +196,12 @@ public class PluginSettings {
   /** Determines how many minutes worth of metricsdb files will be retained if batch metrics is enabled. */
   private long batchMetricsRetentionPeriodMinutes;
 
+  /**
+   * Determines how many minutes worth of metricsdb files will be retained if batch metrics and its
+   * rollups are enabled. Older samples are served from the rollups.
+   */
+  private long batchMetricsRawRetentionPeriodMinutes;
+
   private int rpcPort;
   private int webServicePort;
 
@@ -97,6 +229,10 @@ public class PluginSettings {
     return batchMetricsRetentionPeriodMinutes;
   }
 
+  public long getBatchMetricsRawRetentionPeriodMinutes() {
+    return batchMetricsRawRetentionPeriodMinutes;
+  }
+
   public int getRpcPort() {
     return rpcPort;
   }
@@ -105,11 +241,28 @@ public class PluginSettings {
     return webServicePort;
   }
 
+  public int getRpcEventLoopThreads() {
+    return rpcEventLoopThreads;
+  }
+
+  public int getRpcHandlerThreads() {
+    return rpcHandlerThreads;
+  }
+
+  public int getRpcMetricsHandlerThreads() {
+    return rpcMetricsHandlerThreads;
+  }
+
   @VisibleForTesting
   public void setBatchMetricsRetentionPeriodMinutes(long batchMetricsRetentionPeriodMinutes) {
     this.batchMetricsRetentionPeriodMinutes = batchMetricsRetentionPeriodMinutes;
   }
 
+  @VisibleForTesting
+  public void setBatchMetricsRawRetentionPeriodMinutes(long batchMetricsRawRetentionPeriodMinutes) {
+    this.batchMetricsRawRetentionPeriodMinutes = batchMetricsRawRetentionPeriodMinutes;
+  }
+
   public String getSettingValue(String settingName) {
     return settings.getProperty(settingName);
   }
@@ -160,13 +313,136 @@ public class PluginSettings {
     this.shouldCleanupMetricsDBFiles = shouldCleanupMetricsDBFiles;
   }
 
+  public MetricsDBEngine getMetricsDBEngine() {
+    return metricsDBEngine;
+  }
+
+  @VisibleForTesting
+  public void setMetricsDBEngine(MetricsDBEngine metricsDBEngine) {
+    this.metricsDBEngine = metricsDBEngine;
+  }
+
+  public boolean isParallelEventDispatchEnabled() {
+    return parallelEventDispatchEnabled;
+  }
+
+  @VisibleForTesting
+  public void setParallelEventDispatchEnabled(boolean parallelEventDispatchEnabled) {
+    this.parallelEventDispatchEnabled = parallelEventDispatchEnabled;
+  }
+
+  public boolean isTailEventFilesEnabled() {
+    return tailEventFilesEnabled;
+  }
+
+  @VisibleForTesting
+  public void setTailEventFilesEnabled(boolean tailEventFilesEnabled) {
+    this.tailEventFilesEnabled = tailEventFilesEnabled;
+  }
+
+  public boolean isBatchMetricsRollupEnabled() {
+    return batchMetricsRollupEnabled;
+  }
+
+  @VisibleForTesting
+  public void setBatchMetricsRollupEnabled(boolean batchMetricsRollupEnabled) {
+    this.batchMetricsRollupEnabled = batchMetricsRollupEnabled;
+  }
+
+  public boolean isRcaEventDrivenSchedulingEnabled() {
+    return rcaEventDrivenSchedulingEnabled;
+  }
+
+  @VisibleForTesting
+  public void setRcaEventDrivenSchedulingEnabled(boolean rcaEventDrivenSchedulingEnabled) {
+    this.rcaEventDrivenSchedulingEnabled = rcaEventDrivenSchedulingEnabled;
+  }
+
+  public boolean isRcaCriticalPathSchedulingEnabled() {
+    return rcaCriticalPathSchedulingEnabled;
+  }
+
+  @VisibleForTesting
+  public void setRcaCriticalPathSchedulingEnabled(boolean rcaCriticalPathSchedulingEnabled) {
+    this.rcaCriticalPathSchedulingEnabled = rcaCriticalPathSchedulingEnabled;
+  }
+
+  public boolean isRcaBatchedPublishEnabled() {
+    return rcaBatchedPublishEnabled;
+  }
+
+  @VisibleForTesting
+  public void setRcaBatchedPublishEnabled(boolean rcaBatchedPublishEnabled) {
+    this.rcaBatchedPublishEnabled = rcaBatchedPublishEnabled;
+  }
+
+  public boolean isRcaDeltaEncodingEnabled() {
+    return rcaDeltaEncodingEnabled;
+  }
+
+  @VisibleForTesting
+  public void setRcaDeltaEncodingEnabled(boolean rcaDeltaEncodingEnabled) {
+    this.rcaDeltaEncodingEnabled = rcaDeltaEncodingEnabled;
+  }
+
+  public boolean isRcaRpcCompressionEnabled() {
+    return rcaRpcCompressionEnabled;
+  }
+
+  @VisibleForTesting
+  public void setRcaRpcCompressionEnabled(boolean rcaRpcCompressionEnabled) {
+    this.rcaRpcCompressionEnabled = rcaRpcCompressionEnabled;
+  }
+
+  public boolean isMetricsStreamingFanoutEnabled() {
+    return metricsStreamingFanoutEnabled;
+  }
+
+  @VisibleForTesting
+  public void setMetricsStreamingFanoutEnabled(boolean metricsStreamingFanoutEnabled) {
+    this.metricsStreamingFanoutEnabled = metricsStreamingFanoutEnabled;
+  }
+
+  public boolean isRcaWriteBehindPersistenceEnabled() {
+    return rcaWriteBehindPersistenceEnabled;
+  }
+
+  @VisibleForTesting
+  public void setRcaWriteBehindPersistenceEnabled(boolean rcaWriteBehindPersistenceEnabled) {
+    this.rcaWriteBehindPersistenceEnabled = rcaWriteBehindPersistenceEnabled;
+  }
+
+  public boolean isWebServiceBoundedPoolsEnabled() {
+    return webServiceBoundedPoolsEnabled;
+  }
+
+  @VisibleForTesting
+  public void setWebServiceBoundedPoolsEnabled(boolean webServiceBoundedPoolsEnabled) {
+    this.webServiceBoundedPoolsEnabled = webServiceBoundedPoolsEnabled;
+  }
+
+  public EventLogFormat getEventLogFormat() {
+    return eventLogFormat;
+  }
+
+  @VisibleForTesting
+  public void setEventLogFormat(EventLogFormat eventLogFormat) {
+    this.eventLogFormat = eventLogFormat;
+  }
+
   private PluginSettings(String cfPath) {
     metricsLocation = METRICS_LOCATION_DEFAULT;
     metricsDeletionInterval = DELETION_INTERVAL_DEFAULT;
     writerQueueSize = WRITER_QUEUE_SIZE_DEFAULT;
     batchMetricsRetentionPeriodMinutes = BATCH_METRICS_RETENTION_PERIOD_MINUTES_DEFAULT;
+    batchMetricsRawRetentionPeriodMinutes = BATCH_METRICS_RAW_RETENTION_PERIOD_MINUTES_DEFAULT;
     rpcPort = RPC_DEFAULT_PORT;
     webServicePort = WEBSERVICE_DEFAULT_PORT;
+    rpcEventLoopThreads = RPC_EVENT_LOOP_THREADS_DEFAULT;
+    rpcHandlerThreads = RPC_HANDLER_THREADS_DEFAULT;
+    rpcMetricsHandlerThreads = 0;
+    metricsDBEngine = METRICS_DB_ENGINE_DEFAULT;
+    eventLogFormat = EVENT_LOG_FORMAT_DEFAULT;
     if (cfPath == null || cfPath.isEmpty()) {
       this.configFilePath = DEFAULT_CONFIG_FILE_PATH;
     } else {
@@ -181,7 +457,25 @@ public class PluginSettings {
       loadWriterQueueSizeFromConfig();
       loadHttpsEnabled();
       loadMetricsDBFilesCleanupEnabled();
+      loadMetricsDBEngineFromConfig();
+      parallelEventDispatchEnabled = loadBooleanSetting(PARALLEL_EVENT_DISPATCH_CONF_NAME, false);
+      tailEventFilesEnabled = loadBooleanSetting(TAIL_EVENT_FILES_CONF_NAME, false);
+      loadEventLogFormatFromConfig();
       loadBatchMetricsRetentionPeriodMinutesFromConfig();
+      batchMetricsRollupEnabled = loadBooleanSetting(BATCH_METRICS_ROLLUP_CONF_NAME, false);
+      loadBatchMetricsRawRetentionPeriodMinutesFromConfig();
+      rcaEventDrivenSchedulingEnabled =
+          loadBooleanSetting(RCA_EVENT_DRIVEN_SCHEDULING_CONF_NAME, false);
+      rcaCriticalPathSchedulingEnabled =
+          loadBooleanSetting(RCA_CRITICAL_PATH_SCHEDULING_CONF_NAME, false);
+      rcaBatchedPublishEnabled = loadBooleanSetting(RCA_BATCHED_PUBLISH_CONF_NAME, false);
+      rcaDeltaEncodingEnabled = loadBooleanSetting(RCA_DELTA_ENCODING_CONF_NAME, false);
+      rcaRpcCompressionEnabled = loadBooleanSetting(RCA_RPC_COMPRESSION_CONF_NAME, false);
+      metricsStreamingFanoutEnabled = loadBooleanSetting(METRICS_STREAMING_FANOUT_CONF_NAME, false);
+      webServiceBoundedPoolsEnabled = loadBooleanSetting(WEBSERVICE_BOUNDED_POOLS_CONF_NAME, false);
+      rcaWriteBehindPersistenceEnabled =
+          loadBooleanSetting(RCA_WRITE_BEHIND_PERSISTENCE_CONF_NAME, false);
+      loadRpcHandlerThreadsFromConfig();
       loadPortsFromConfig();
     } catch (ConfigFileException e) {
       LOG.error(
@@ -198,13 +492,38 @@ public class PluginSettings {
     }
     LOG.info(
         "Config: metricsLocation: {}, metricsDeletionInterval: {}, httpsEnabled: {},"
-            + " cleanup-metrics-db-files: {}, batch-metrics-retention-period-minutes: {}, rpc-port: {}, "
-            +    "webservice-port {}",
+            + " cleanup-metrics-db-files: {}, metrics-db-engine: {}, reader-parallel-event-dispatch: {},"
+            + " reader-tail-event-files: {}, event-log-format: {}, batch-metrics-retention-period-minutes: {},"
+            + " batch-metrics-rollup-enabled: {}, batch-metrics-raw-retention-period-minutes: {},"
+            + " rca-event-driven-scheduling-enabled: {},"
+            + " rca-critical-path-scheduling-enabled: {}, rca-batched-publish-enabled: {},"
+            + " rca-delta-encoding-enabled: {}, rca-rpc-compression-enabled: {},"
+            + " metrics-streaming-fanout-enabled: {}, webservice-bounded-pools-enabled: {},"
+            + " rca-write-behind-persistence-enabled: {},"
+            + " rpc-event-loop-threads: {}, rpc-handler-threads: {}, rpc-metrics-handler-threads: {},"
+            + " rpc-port: {}, webservice-port {}",
         metricsLocation,
         metricsDeletionInterval,
         httpsEnabled,
         shouldCleanupMetricsDBFiles,
+        metricsDBEngine,
+        parallelEventDispatchEnabled,
+        tailEventFilesEnabled,
+        eventLogFormat,
         batchMetricsRetentionPeriodMinutes,
+        batchMetricsRollupEnabled,
+        batchMetricsRawRetentionPeriodMinutes,
+        rcaEventDrivenSchedulingEnabled,
+        rcaCriticalPathSchedulingEnabled,
+        rcaBatchedPublishEnabled,
+        rcaDeltaEncodingEnabled,
+        rcaRpcCompressionEnabled,
+        metricsStreamingFanoutEnabled,
+        webServiceBoundedPoolsEnabled,
+        rcaWriteBehindPersistenceEnabled,
+        rpcEventLoopThreads,
+        rpcHandlerThreads,
+        rpcMetricsHandlerThreads,
         rpcPort,
         webServicePort);
   }
@@ -318,6 +637,66 @@ public class PluginSettings {
     }
   }
 
+  /**
+   * Reads a true/false setting, ignoring case. The default is used if the setting is missing or
+   * holds anything else.
+   */
+  private boolean loadBooleanSetting(String confName, boolean defaultValue) {
+    String value = settings.getProperty(confName);
+    if (value == null) {
+      return defaultValue;
+    }
+    if (value.trim().equalsIgnoreCase("true")) {
+      return true;
+    }
+    if (value.trim().equalsIgnoreCase("false")) {
+      return false;
+    }
+    LOG.error(
+        "Unable to parse {} property with value {}. Only true/false expected. "
+            + "Using default value {}.",
+        confName,
+        value,
+        defaultValue);
+    return defaultValue;
+  }
+
+  private void loadMetricsDBEngineFromConfig() {
+    if (!settings.containsKey(METRICS_DB_ENGINE_CONF_NAME)) {
+      return;
+    }
+
+    String engine = settings.getProperty(METRICS_DB_ENGINE_CONF_NAME);
+    try {
+      metricsDBEngine = MetricsDBEngine.fromString(engine);
+    } catch (IllegalArgumentException e) {
+      LOG.error(
+          "Unable to parse {} property with value {}. Using default value {}.",
+          METRICS_DB_ENGINE_CONF_NAME,
+          engine,
+          METRICS_DB_ENGINE_DEFAULT);
+      metricsDBEngine = METRICS_DB_ENGINE_DEFAULT;
+    }
+  }
+
+  private void loadEventLogFormatFromConfig() {
+    if (!settings.containsKey(EVENT_LOG_FORMAT_CONF_NAME)) {
+      return;
+    }
+
+    String format = settings.getProperty(EVENT_LOG_FORMAT_CONF_NAME);
+    try {
+      eventLogFormat = EventLogFormat.fromString(format);
+    } catch (IllegalArgumentException e) {
+      LOG.error(
+          "Unable to parse {} property with value {}. Using default value {}.",
+          EVENT_LOG_FORMAT_CONF_NAME,
+          format,
+          EVENT_LOG_FORMAT_DEFAULT);
+      eventLogFormat = EVENT_LOG_FORMAT_DEFAULT;
+    }
+  }
+
   private void loadBatchMetricsRetentionPeriodMinutesFromConfig() {
     if (!settings.containsKey(BATCH_METRICS_RETENTION_PERIOD_MINUTES)) {
       return;
@@ -342,6 +721,64 @@ public class PluginSettings {
     }
   }
 
+  private void loadBatchMetricsRawRetentionPeriodMinutesFromConfig() {
+    if (!settings.containsKey(BATCH_METRICS_RAW_RETENTION_PERIOD_MINUTES)) {
+      return;
+    }
+
+    try {
+      long parsedRetentionPeriod =
+          Long.parseLong(settings.getProperty(BATCH_METRICS_RAW_RETENTION_PERIOD_MINUTES));
+      if (parsedRetentionPeriod < BATCH_METRICS_RAW_RETENTION_PERIOD_MINUTES_MIN
+              || parsedRetentionPeriod > BATCH_METRICS_RETENTION_PERIOD_MINUTES_MAX) {
+        LOG.error("{} out of range. Value should be in range [{}, {}]. Using default value {}.",
+                BATCH_METRICS_RAW_RETENTION_PERIOD_MINUTES,
+                BATCH_METRICS_RAW_RETENTION_PERIOD_MINUTES_MIN,
+                BATCH_METRICS_RETENTION_PERIOD_MINUTES_MAX,
+                batchMetricsRawRetentionPeriodMinutes);
+        return;
+      }
+      batchMetricsRawRetentionPeriodMinutes = parsedRetentionPeriod;
+    } catch (NumberFormatException e) {
+      LOG.error("Invalid batch-metrics-raw-retention-period-minutes {}. Using default value {}.",
+              settings.getProperty(BATCH_METRICS_RAW_RETENTION_PERIOD_MINUTES),
+              batchMetricsRawRetentionPeriodMinutes);
+    }
+  }
+
+  private void loadRpcHandlerThreadsFromConfig() {
+    rpcEventLoopThreads =
+        loadThreadCount(
+            RPC_EVENT_LOOP_THREADS_CONF_NAME,
+            RPC_EVENT_LOOP_THREADS_MAX,
+            RPC_EVENT_LOOP_THREADS_DEFAULT);
+    rpcHandlerThreads =
+        loadThreadCount(
+            RPC_HANDLER_THREADS_CONF_NAME, RPC_HANDLER_THREADS_MAX, RPC_HANDLER_THREADS_DEFAULT);
+    rpcMetricsHandlerThreads =
+        loadThreadCount(RPC_METRICS_HANDLER_THREADS_CONF_NAME, RPC_METRICS_HANDLER_THREADS_MAX, 0);
+  }
+
+  private int loadThreadCount(String confName, int max, int defaultValue) {
+    if (!settings.containsKey(confName)) {
+      return defaultValue;
+    }
+
+    try {
+      int threads = Integer.parseInt(settings.getProperty(confName));
+      if (threads < 0 || threads > max) {
+        LOG.error("{} out of range. Value should be in range [0, {}]. Using default value {}.",
+            confName, max, defaultValue);
+        return defaultValue;
+      }
+      return threads;
+    } catch (NumberFormatException e) {
+      LOG.error("Invalid {} {}. Using default value {}.",
+          confName, settings.getProperty(confName), defaultValue);
+      return defaultValue;
+    }
+  }
+
   public void loadPortsFromConfig() {
     try {
       String rpcPortValue = settings.getProperty(RPC_PORT_CONF_NAME);
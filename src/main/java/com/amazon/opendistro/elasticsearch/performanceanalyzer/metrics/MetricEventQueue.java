@@ -0,0 +1,338 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.PerformanceAnalyzerApp;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.metrics.WriterMetrics;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.reader_writer_shared.Event;
+import com.google.common.annotations.VisibleForTesting;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded queue of the events emitted by the collectors, with many producers and one consumer.
+ *
+ * <p>The capacity is split over stripes and a producer thread offers to its own stripe first, so
+ * collectors emitting at the same time rarely touch the same memory and never take a lock. Each
+ * stripe is a ring buffer whose slots are claimed with a compare and set. An event goes to the
+ * other stripes if its thread's stripe is full, and is dropped only when all of them are. Events
+ * of one thread keep their order unless its stripe fills up.
+ *
+ * <p>The purger drains all the stripes in one batch. Each drain reports how many events it found
+ * and how many were dropped since the previous drain to {@link WriterMetrics}.
+ *
+ * <p>It is a {@link BlockingQueue} so that it can stand in for the queue it replaced. Nothing
+ * signals a thread waiting in {@link #put}, {@link #take} or their timed forms, so they poll every
+ * millisecond; the collectors only ever {@link #offer(Event)}. The iterator is a snapshot
+ * that does not support removal.
+ */
+public class MetricEventQueue extends AbstractQueue<Event> implements BlockingQueue<Event> {
+  private static final long WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final int capacity;
+  private final Stripe[] stripes;
+  private final int mask;
+  private final LongAdder dropped = new LongAdder();
+  // Only read and written by the draining thread.
+  private long droppedReported;
+
+  public MetricEventQueue(int capacity) {
+    this(capacity, Runtime.getRuntime().availableProcessors());
+  }
+
+  @VisibleForTesting
+  MetricEventQueue(int capacity, int concurrency) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Capacity must be positive, got " + capacity);
+    }
+    this.capacity = capacity;
+    int stripeCount = Integer.highestOneBit(Math.max(1, Math.min(concurrency, capacity)));
+    stripes = new Stripe[stripeCount];
+    for (int i = 0; i < stripeCount; i++) {
+      stripes[i] = new Stripe(capacity / stripeCount + (i < capacity % stripeCount ? 1 : 0));
+    }
+    mask = stripeCount - 1;
+  }
+
+  /**
+   * Adds the event if there is room for it, without blocking.
+   *
+   * @param event The event to add.
+   * @return true if the event was added, false if the queue was full and it was dropped.
+   */
+  @Override
+  public boolean offer(Event event) {
+    if (tryOffer(event)) {
+      return true;
+    }
+    dropped.increment();
+    return false;
+  }
+
+  @Override
+  public boolean offer(Event event, long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (!tryOffer(event)) {
+      if (System.nanoTime() - deadline >= 0) {
+        dropped.increment();
+        return false;
+      }
+      await();
+    }
+    return true;
+  }
+
+  @Override
+  public void put(Event event) throws InterruptedException {
+    while (!tryOffer(event)) {
+      await();
+    }
+  }
+
+  @Override
+  public synchronized Event poll() {
+    for (Stripe stripe : stripes) {
+      Event event = stripe.poll();
+      if (event != null) {
+        return event;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public Event poll(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    Event event;
+    while ((event = poll()) == null) {
+      if (System.nanoTime() - deadline >= 0) {
+        return null;
+      }
+      await();
+    }
+    return event;
+  }
+
+  @Override
+  public Event take() throws InterruptedException {
+    Event event;
+    while ((event = poll()) == null) {
+      await();
+    }
+    return event;
+  }
+
+  @Override
+  public synchronized Event peek() {
+    for (Stripe stripe : stripes) {
+      Event event = stripe.peek();
+      if (event != null) {
+        return event;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public int remainingCapacity() {
+    return Math.max(0, capacity - size());
+  }
+
+  /** Returns a snapshot of the events in the queue, stripe by stripe. */
+  @Override
+  public synchronized Iterator<Event> iterator() {
+    List<Event> events = new ArrayList<>(size());
+    for (Stripe stripe : stripes) {
+      stripe.copyTo(events);
+    }
+    return Collections.unmodifiableList(events).iterator();
+  }
+
+  private boolean tryOffer(Event event) {
+    if (event == null) {
+      throw new NullPointerException();
+    }
+    int home = (int) Thread.currentThread().getId() & mask;
+    for (int i = 0; i < stripes.length; i++) {
+      if (stripes[(home + i) & mask].offer(event)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void await() throws InterruptedException {
+    LockSupport.parkNanos(WAIT_NANOS);
+    if (Thread.interrupted()) {
+      throw new InterruptedException();
+    }
+  }
+
+  /**
+   * Moves all the events in the queue to the collection.
+   *
+   * @param c The collection the events are added to.
+   * @return The number of events moved.
+   */
+  @Override
+  public int drainTo(Collection<? super Event> c) {
+    return drainTo(c, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Moves at most maxElements events in the queue to the collection. Only one thread drains at a
+   * time.
+   *
+   * @param c The collection the events are added to.
+   * @param maxElements The most events to move.
+   * @return The number of events moved.
+   */
+  @Override
+  public synchronized int drainTo(Collection<? super Event> c, int maxElements) {
+    if (c == this) {
+      throw new IllegalArgumentException();
+    }
+    int drained = 0;
+    for (Stripe stripe : stripes) {
+      if (drained >= maxElements) {
+        break;
+      }
+      drained += stripe.drainTo(c, maxElements - drained);
+    }
+
+    PerformanceAnalyzerApp.WRITER_METRICS_AGGREGATOR.updateStat(
+        WriterMetrics.METRIC_QUEUE_OCCUPANCY, "", drained);
+    long totalDropped = dropped.sum();
+    if (totalDropped > droppedReported) {
+      PerformanceAnalyzerApp.WRITER_METRICS_AGGREGATOR.updateStat(
+          WriterMetrics.METRIC_QUEUE_DROPPED, "", totalDropped - droppedReported);
+      droppedReported = totalDropped;
+    }
+    return drained;
+  }
+
+  /** Returns the number of events in the queue, including those still being added. */
+  @Override
+  public int size() {
+    int size = 0;
+    for (Stripe stripe : stripes) {
+      size += stripe.size();
+    }
+    return size;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  /** Returns the number of events dropped because the queue was full, since it was created. */
+  public long getDroppedCount() {
+    return dropped.sum();
+  }
+
+  @VisibleForTesting
+  int getStripeCount() {
+    return stripes.length;
+  }
+
+  /** A bounded ring buffer that any thread can add to and one thread at a time drains. */
+  private static final class Stripe {
+    private final AtomicReferenceArray<Event> slots;
+    // The next slot to drain, only moved by the draining thread.
+    private final AtomicLong head = new AtomicLong();
+    // The next slot to claim.
+    private final AtomicLong tail = new AtomicLong();
+
+    private Stripe(int capacity) {
+      slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    boolean offer(Event event) {
+      long claimed;
+      do {
+        claimed = tail.get();
+        if (claimed - head.get() >= slots.length()) {
+          return false;
+        }
+      } while (!tail.compareAndSet(claimed, claimed + 1));
+      slots.lazySet(index(claimed), event);
+      return true;
+    }
+
+    int drainTo(Collection<? super Event> c, int maxElements) {
+      long next = head.get();
+      int drained = 0;
+      while (drained < maxElements) {
+        int index = index(next);
+        Event event = slots.get(index);
+        // Either the stripe is empty or the slot was claimed and its event is not set yet, in
+        // which case it is picked up by the next drain.
+        if (event == null) {
+          break;
+        }
+        slots.lazySet(index, null);
+        head.lazySet(++next);
+        c.add(event);
+        drained++;
+      }
+      return drained;
+    }
+
+    Event poll() {
+      long next = head.get();
+      int index = index(next);
+      Event event = slots.get(index);
+      if (event != null) {
+        slots.lazySet(index, null);
+        head.lazySet(next + 1);
+      }
+      return event;
+    }
+
+    Event peek() {
+      return slots.get(index(head.get()));
+    }
+
+    void copyTo(List<Event> events) {
+      for (long next = head.get(); ; next++) {
+        Event event = slots.get(index(next));
+        if (event == null || next - head.get() >= slots.length()) {
+          return;
+        }
+        events.add(event);
+      }
+    }
+
+    int size() {
+      return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    private int index(long sequence) {
+      return (int) (sequence % slots.length());
+    }
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.MetricsField;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.MetricsRecord;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.MetricsResult;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.MetricsValue;
+import java.io.IOException;
+import java.io.Writer;
+import javax.annotation.Nullable;
+import org.jooq.Cursor;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.tools.json.JSONValue;
+
+/**
+ * Converts the result of a metrics query to the structured form sent between nodes, and writes
+ * that form as the same JSON the metrics API responds with for the local node.
+ */
+public class MetricsResultConverter {
+
+  private MetricsResultConverter() {}
+
+  /**
+   * Builds the structured form of a query result.
+   *
+   * @param timestamp The timestamp of the MetricsDB snapshot that was queried.
+   * @param result The query result, or null if there was nothing to query.
+   * @return The structured result.
+   */
+  public static MetricsResult toMessage(
+      final long timestamp, @Nullable final Result<Record> result) {
+    final MetricsResult.Builder builder = MetricsResult.newBuilder().setTimestamp(timestamp);
+    if (result == null) {
+      return builder.build();
+    }
+    final Field<?>[] fields = result.fields();
+    for (Field<?> field : fields) {
+      builder.addField(
+          MetricsField.newBuilder()
+              .setName(field.getName())
+              .setType(field.getDataType().getTypeName().toUpperCase()));
+    }
+    for (Record record : result) {
+      final MetricsRecord.Builder recordBuilder = builder.addRecordBuilder();
+      for (int i = 0; i < fields.length; i++) {
+        recordBuilder.addValue(toValue(record.get(i)));
+      }
+    }
+    return builder.build();
+  }
+
+  private static MetricsValue toValue(final Object value) {
+    final MetricsValue.Builder builder = MetricsValue.newBuilder();
+    if (value instanceof Double) {
+      builder.setDoubleValue((Double) value);
+    } else if (value instanceof Long
+        || value instanceof Integer
+        || value instanceof Short
+        || value instanceof Byte) {
+      builder.setLongValue(((Number) value).longValue());
+    } else if (value instanceof Number) {
+      builder.setDecimalValue(value.toString());
+    } else if (value != null) {
+      builder.setStringValue(value.toString());
+    }
+    return builder.build();
+  }
+
+  /**
+   * Writes the result as {"timestamp": ..., "data": ...}, with the data in the format of {@link
+   * Result#formatJSON()}.
+   *
+   * @param result The structured result.
+   * @param writer The writer to write the JSON to.
+   * @throws IOException if the writer fails.
+   */
+  public static void writeJson(final MetricsResult result, final Writer writer) throws IOException {
+    writer.write("{\"timestamp\": ");
+    writer.write(Long.toString(result.getTimestamp()));
+    writer.write(", \"data\": ");
+    if (result.getFieldCount() == 0) {
+      writer.write("{}");
+    } else {
+      writer.write("{\"fields\":[");
+      for (int i = 0; i < result.getFieldCount(); i++) {
+        final MetricsField field = result.getField(i);
+        if (i > 0) {
+          writer.write(',');
+        }
+        writer.write("{\"name\":");
+        writer.write(JSONValue.toJSONString(field.getName()));
+        writer.write(",\"type\":");
+        writer.write(JSONValue.toJSONString(field.getType()));
+        writer.write('}');
+      }
+      writer.write("],\"records\":[");
+      for (int i = 0; i < result.getRecordCount(); i++) {
+        final MetricsRecord record = result.getRecord(i);
+        writer.write(i > 0 ? ",[" : "[");
+        for (int j = 0; j < record.getValueCount(); j++) {
+          if (j > 0) {
+            writer.write(',');
+          }
+          writer.write(toJson(record.getValue(j)));
+        }
+        writer.write(']');
+      }
+      writer.write("]}");
+    }
+    writer.write('}');
+  }
+
+  /**
+   * Writes the rows of a cursor in the format of {@link Result#formatJSON()} as they are fetched,
+   * so that only one row is held at a time.
+   *
+   * @param cursor The rows to write. It is left open, past the last row written.
+   * @param maxRecords The most rows to write; the rest are left in the cursor.
+   * @param writer The writer to write the JSON to.
+   * @return The number of rows written.
+   * @throws IOException if the writer fails.
+   */
+  public static int writeJson(final Cursor<Record> cursor, final int maxRecords, final Writer writer)
+      throws IOException {
+    writer.write("{\"fields\":[");
+    final Field<?>[] fields = cursor.fields();
+    for (int i = 0; i < fields.length; i++) {
+      if (i > 0) {
+        writer.write(',');
+      }
+      writer.write("{\"name\":");
+      writer.write(JSONValue.toJSONString(fields[i].getName()));
+      writer.write(",\"type\":");
+      writer.write(JSONValue.toJSONString(fields[i].getDataType().getTypeName().toUpperCase()));
+      writer.write('}');
+    }
+    writer.write("],\"records\":[");
+    int written = 0;
+    while (written < maxRecords && cursor.hasNext()) {
+      final Record record = cursor.fetchNext();
+      writer.write(written > 0 ? ",[" : "[");
+      for (int i = 0; i < fields.length; i++) {
+        if (i > 0) {
+          writer.write(',');
+        }
+        writer.write(JSONValue.toJSONString(record.get(i)));
+      }
+      writer.write(']');
+      written++;
+    }
+    writer.write("]}");
+    return written;
+  }
+
+  private static String toJson(final MetricsValue value) {
+    switch (value.getValueOneofCase()) {
+      case STRINGVALUE:
+        return JSONValue.toJSONString(value.getStringValue());
+      case DOUBLEVALUE:
+        return JSONValue.toJSONString(value.getDoubleValue());
+      case LONGVALUE:
+        return Long.toString(value.getLongValue());
+      case DECIMALVALUE:
+        return value.getDecimalValue();
+      default:
+        return "null";
+    }
+  }
+}
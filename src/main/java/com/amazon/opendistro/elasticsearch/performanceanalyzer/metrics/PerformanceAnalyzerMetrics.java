@@ -23,7 +23,6 @@ import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -69,7 +68,7 @@ public class PerformanceAnalyzerMetrics {
   public static final int QUEUE_SIZE = PluginSettings.instance().getWriterQueueSize();
 
   // TODO: Comeup with a more sensible number.
-  public static final BlockingQueue<Event> metricQueue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+  public static final BlockingQueue<Event> metricQueue = new MetricEventQueue(QUEUE_SIZE);
 
   private static final int NUM_RETRIES_FOR_TMP_FILE = 10;
 
@@ -122,7 +121,7 @@ public class PerformanceAnalyzerMetrics {
 
   private static void emitMetric(BlockingQueue<Event> q, Event entry) {
     if (!q.offer(entry)) {
-      // TODO: Emit a metric here.
+      // The drop is counted by the queue and reported when it is drained.
       LOG.debug("Could not enter metric {}", entry);
     }
   }
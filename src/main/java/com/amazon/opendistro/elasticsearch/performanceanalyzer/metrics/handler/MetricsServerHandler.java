@@ -17,6 +17,7 @@ package com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.handler;
 
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.MetricsRequest;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.MetricsResponse;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.MetricsResultConverter;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.MetricsDB;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.reader.ReaderMetricsProcessor;
 import io.grpc.stub.StreamObserver;
@@ -45,7 +46,11 @@ public class MetricsServerHandler {
       List<String> aggList = request.getAggListList();
       List<String> dimList = request.getDimListList();
 
-      collectStats(db, dbTimestamp, metricList, aggList, dimList, responseObserver);
+      if (request.getStructured()) {
+        collectStructuredStats(db, dbTimestamp, metricList, aggList, dimList, responseObserver);
+      } else {
+        collectStats(db, dbTimestamp, metricList, aggList, dimList, responseObserver);
+      }
     } catch (Exception e) {
       e.printStackTrace();
     }
@@ -76,6 +81,28 @@ public class MetricsServerHandler {
     sendResponse(localResponseWithTimestamp, responseObserver);
   }
 
+  /**
+   * Same as {@link #collectStats}, but responds with the structured form of the result.
+   */
+  public void collectStructuredStats(
+      MetricsDB db,
+      Long dbTimestamp,
+      List<String> metricList,
+      List<String> aggList,
+      List<String> dimList,
+      StreamObserver<MetricsResponse> responseObserver)
+      throws Exception {
+    Result<Record> metricResult = null;
+    if (db != null) {
+      metricResult = db.queryMetric(metricList, aggList, dimList);
+    }
+    responseObserver.onNext(
+        MetricsResponse.newBuilder()
+            .setResult(MetricsResultConverter.toMessage(dbTimestamp, metricResult))
+            .build());
+    responseObserver.onCompleted();
+  }
+
   private void sendResponse(String result, StreamObserver<MetricsResponse> responseObserver) {
     responseObserver.onNext(MetricsResponse.newBuilder().setMetricsResult(result).build());
     responseObserver.onCompleted();
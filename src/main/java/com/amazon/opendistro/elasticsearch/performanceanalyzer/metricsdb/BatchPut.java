@@ -0,0 +1,45 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb;
+
+import org.jooq.exception.DataAccessException;
+
+/**
+ * Rows bound for one metricsdb table and written together. The values of a row are positional:
+ * the dimensions in the order the table was created with, then sum, avg, min and max. Values left
+ * out at the end of a row are null.
+ */
+public interface BatchPut {
+
+  /**
+   * Adds a row to the batch.
+   *
+   * @param values The values of the row.
+   * @return This batch.
+   */
+  BatchPut bind(Object... values) throws DataAccessException;
+
+  /**
+   * Writes the rows bound since the last call and empties the batch, which can be bound again.
+   *
+   * @return The number of rows written for each row bound.
+   */
+  int[] execute() throws DataAccessException;
+
+  /** Returns the number of rows bound and not written yet. */
+  int size();
+}
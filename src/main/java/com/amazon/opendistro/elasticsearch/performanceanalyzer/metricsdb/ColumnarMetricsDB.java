@@ -0,0 +1,516 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jooq.Cursor;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.TableLike;
+import org.jooq.exception.DataAccessException;
+import org.jooq.impl.DSL;
+
+/**
+ * MetricsDB engine that keeps a window in the reader's heap as primitive columns instead of an
+ * on-disk SQLite file. Every table is a {@link ColumnarTable}: dictionary-encoded dimensions plus
+ * double[] sum/avg/min/max. Writes through createMetric/startBatchPut/putMetric and reads through
+ * the queryMetric variants never touch SQL; group-by and the cross-metric merge are plain loops.
+ *
+ * <p>Two things still need SQLite and are served from it on demand:
+ *
+ * <ul>
+ *   <li>{@link #getDSLContext()}, for callers that run their own SQL against the window (for
+ *       example the temperature calculators). The window is copied into an in-memory SQLite
+ *       database the first time this is called.
+ *   <li>{@link #persist()}, used when batch metrics are enabled, writes the window to the usual
+ *       on-disk file so that {@link MetricsDB#fetchExisting(long)} keeps working.
+ * </ul>
+ */
+public class ColumnarMetricsDB extends MetricsDB {
+  private static final Logger LOG = LogManager.getLogger(ColumnarMetricsDB.class);
+
+  private static final List<String> AGGREGATIONS =
+      Arrays.asList(MetricsDB.SUM, MetricsDB.AVG, MetricsDB.MIN, MetricsDB.MAX);
+
+  private final Map<String, ColumnarTable> tables;
+  private final StringDictionary dictionary;
+
+  // Lazily created SQLite copy of this window, guarded by this.
+  private MetricsDB sqlView;
+  private volatile boolean persisted;
+
+  public ColumnarMetricsDB(long windowStartTime) {
+    super(windowStartTime, null);
+    this.tables = new ConcurrentHashMap<>();
+    this.dictionary = new StringDictionary();
+  }
+
+  @Override
+  public void close() throws Exception {
+    closeSqlView();
+  }
+
+  @Override
+  public void remove() throws Exception {
+    closeSqlView();
+  }
+
+  @Override
+  public void createMetric(Metric<?> metric, List<String> dimensions) {
+    tables.computeIfAbsent(
+        metric.getName(), name -> new ColumnarTable(name, dimensions, dictionary));
+  }
+
+  @Override
+  public BatchPut startBatchPut(Metric<?> metric, List<String> dimensions) {
+    return new ColumnarBatch(metric.getName());
+  }
+
+  @Override
+  public BatchPut startBatchPut(String tableName, int dimNum) {
+    if (dimNum < 1 || !tables.containsKey(tableName)) {
+      throw new IllegalArgumentException(
+          String.format("Incorrect arguments %s, %d", tableName, dimNum));
+    }
+    return new ColumnarBatch(tableName);
+  }
+
+  @Override
+  public void putMetric(Metric<Double> metric, Dimensions dimensions, long windowStartTime) {
+    ColumnarTable table = getTable(metric.getName());
+    Map<String, String> dimensionValues = new HashMap<>();
+    for (String dimension : dimensions.getDimensionNames()) {
+      if (table.dimensionColumn(dimension) < 0) {
+        throw new DataAccessException(
+            String.format("table %s has no column named %s", metric.getName(), dimension));
+      }
+      dimensionValues.put(dimension, dimensions.get(dimension));
+    }
+    table.append(
+        dimensionValues,
+        ColumnarTable.toValue(metric.getSum()),
+        ColumnarTable.toValue(metric.getAvg()),
+        ColumnarTable.toValue(metric.getMin()),
+        ColumnarTable.toValue(metric.getMax()));
+  }
+
+  @Override
+  public void deleteMetric(String metricName) {
+    tables.remove(metricName);
+  }
+
+  @Override
+  public List<TableLike<Record>> getAggregatedMetricTables(
+      List<String> metrics, List<String> aggregations, List<String> dimensions) throws Exception {
+    return getSqlView().getAggregatedMetricTables(metrics, aggregations, dimensions);
+  }
+
+  /**
+   * Columnar equivalent of {@link MetricsDB#queryMetric(List, List, List)}: every metric table is
+   * grouped by the requested dimensions with its own aggregation, and the per-metric groups are
+   * then merged into one row per dimension tuple. Rows are ordered by the dimension values, nulls
+   * first, which is the order SQLite's GROUP BY produces.
+   */
+  @Override
+  public Result<Record> queryMetric(
+      List<String> metrics, List<String> aggregations, List<String> dimensions) throws Exception {
+    for (String aggregation : aggregations) {
+      if (!AGG_VALUES.contains(aggregation)) {
+        throw new Exception("Unknown agg type");
+      }
+    }
+
+    Map<GroupKey, Double[]> groups = new HashMap<>();
+    boolean found = false;
+    for (int i = 0; i < metrics.size(); i++) {
+      String metric = metrics.get(i);
+      ColumnarTable table = tables.get(metric);
+      if (table == null) {
+        LOG.info(
+            String.format(
+                "%s metric table does not exist. " + "Returning null for the metric/dimension.",
+                metric));
+        continue;
+      }
+      found = true;
+      Map<GroupKey, Accumulator> metricGroups =
+          aggregate(table, dimensionColumns(table, dimensions), aggregations.get(i));
+      for (Map.Entry<GroupKey, Accumulator> entry : metricGroups.entrySet()) {
+        Double value = entry.getValue().get(aggregations.get(i));
+        Double[] row = groups.computeIfAbsent(entry.getKey(), k -> new Double[metrics.size()]);
+        // The same metric can be requested twice; like the SQL union, every column carrying
+        // this metric's name picks the value up and the merge keeps the maximum.
+        for (int j = 0; j < metrics.size(); j++) {
+          if (metrics.get(j).equals(metric) && value != null
+              && (row[j] == null || row[j] < value)) {
+            row[j] = value;
+          }
+        }
+      }
+    }
+    if (!found) {
+      return null;
+    }
+
+    Field<?>[] fields = new Field<?>[dimensions.size() + metrics.size()];
+    for (int i = 0; i < dimensions.size(); i++) {
+      fields[i] = DSL.field(DSL.name(dimensions.get(i)), String.class);
+    }
+    for (int i = 0; i < metrics.size(); i++) {
+      fields[dimensions.size() + i] = DSL.field(DSL.name(metrics.get(i)), Double.class);
+    }
+    List<GroupKey> keys = new ArrayList<>(groups.keySet());
+    keys.sort(this::compare);
+
+    DSLContext context = super.getDSLContext();
+    Result<Record> result = context.newResult(fields);
+    for (GroupKey key : keys) {
+      Object[] values = new Object[fields.length];
+      for (int i = 0; i < key.codes.length; i++) {
+        values[i] = dictionary.decode(key.codes[i]);
+      }
+      System.arraycopy(groups.get(key), 0, values, key.codes.length, metrics.size());
+      Record record = context.newRecord(fields);
+      record.fromArray(values);
+      result.add(record);
+    }
+    return result;
+  }
+
+  @Override
+  public Result<Record> queryMetric(String metric) throws DataAccessException {
+    ColumnarTable table = getTable(metric);
+    return select(table, table.getDimensionNames(), table.size());
+  }
+
+  /** The columns are copied into a Result first, as there is no SQLite query to fetch from. */
+  @Override
+  public Cursor<Record> queryMetricLazily(String metric) throws DataAccessException {
+    return super.getDSLContext().fetchLazy(queryMetric(metric).intoResultSet());
+  }
+
+  @Override
+  public Result<Record> queryMetric(String metric, Collection<String> dimensions, int limit)
+      throws DataAccessException {
+    ColumnarTable table = tables.get(metric);
+    if (table == null) {
+      return null;
+    }
+    if (limit < 0) {
+      throw new IllegalArgumentException("Limit must be non-negative");
+    }
+    return select(table, dimensions, limit);
+  }
+
+  /**
+   * The window is only ever appended to by the reader thread before it is published, so there is
+   * no transaction to commit.
+   */
+  @Override
+  public void commit() {
+  }
+
+  /**
+   * Writes the window to the on-disk SQLite file for consumers that read older windows from disk.
+   */
+  @Override
+  public void persist() throws Exception {
+    if (persisted) {
+      return;
+    }
+    MetricsDB onDisk = new MetricsDB(getWindowStartTime());
+    try {
+      copyTo(onDisk);
+      onDisk.commit();
+      persisted = true;
+    } finally {
+      onDisk.close();
+    }
+  }
+
+  @Override
+  public void deleteOnDiskFile() {
+    if (persisted) {
+      super.deleteOnDiskFile();
+    }
+  }
+
+  /**
+   * Returns a DSLContext over an in-memory SQLite copy of this window. The copy is built on the
+   * first call and reused until the window is removed.
+   */
+  @Override
+  public DSLContext getDSLContext() {
+    try {
+      return getSqlView().getDSLContext();
+    } catch (Exception e) {
+      throw new DataAccessException("Unable to build the SQL view of the columnar metricsdb", e);
+    }
+  }
+
+  @Override
+  public boolean metricExists(String metric) {
+    return tables.containsKey(metric);
+  }
+
+  private synchronized MetricsDB getSqlView() throws Exception {
+    if (sqlView == null) {
+      MetricsDB view = new MetricsDB(getWindowStartTime(), openConnection(DB_URL));
+      copyTo(view);
+      view.commit();
+      sqlView = view;
+    }
+    return sqlView;
+  }
+
+  private synchronized void closeSqlView() throws Exception {
+    if (sqlView != null) {
+      sqlView.close();
+      sqlView = null;
+    }
+  }
+
+  private void copyTo(MetricsDB target) {
+    for (ColumnarTable table : tables.values()) {
+      Metric<Double> metric = new Metric<>(table.getName(), 0d);
+      List<String> dimensionNames = table.getDimensionNames();
+      target.createMetric(metric, dimensionNames);
+      if (table.size() == 0) {
+        continue;
+      }
+      BatchPut handle = target.startBatchPut(metric, dimensionNames);
+      int numDimensions = dimensionNames.size();
+      for (int row = 0; row < table.size(); row++) {
+        Object[] values = new Object[numDimensions + AGGREGATIONS.size()];
+        for (int column = 0; column < numDimensions; column++) {
+          values[column] = table.dimensionValue(column, row);
+        }
+        for (int agg = 0; agg < AGGREGATIONS.size(); agg++) {
+          values[numDimensions + agg] = toNullable(table.values(AGGREGATIONS.get(agg))[row]);
+        }
+        handle.bind(values);
+      }
+      handle.execute();
+    }
+  }
+
+  private ColumnarTable getTable(String metric) {
+    ColumnarTable table = tables.get(metric);
+    if (table == null) {
+      throw new DataAccessException("no such table: " + metric);
+    }
+    return table;
+  }
+
+  private static int[] dimensionColumns(ColumnarTable table, Collection<String> dimensions) {
+    int[] columns = new int[dimensions.size()];
+    int i = 0;
+    for (String dimension : dimensions) {
+      columns[i] = table.dimensionColumn(dimension);
+      if (columns[i] < 0) {
+        throw new DataAccessException(
+            String.format("table %s has no column named %s", table.getName(), dimension));
+      }
+      i++;
+    }
+    return columns;
+  }
+
+  private Result<Record> select(ColumnarTable table, Collection<String> dimensions, int limit) {
+    int[] columns = dimensionColumns(table, dimensions);
+    Field<?>[] fields = new Field<?>[columns.length + AGGREGATIONS.size()];
+    int i = 0;
+    for (String dimension : dimensions) {
+      fields[i++] = DSL.field(DSL.name(dimension), String.class);
+    }
+    for (String aggregation : AGGREGATIONS) {
+      fields[i++] = DSL.field(DSL.name(aggregation), Double.class);
+    }
+
+    DSLContext context = super.getDSLContext();
+    Result<Record> result = context.newResult(fields);
+    int rows = Math.min(limit, table.size());
+    for (int row = 0; row < rows; row++) {
+      Object[] values = new Object[fields.length];
+      for (int column = 0; column < columns.length; column++) {
+        values[column] = table.dimensionValue(columns[column], row);
+      }
+      for (int agg = 0; agg < AGGREGATIONS.size(); agg++) {
+        values[columns.length + agg] = toNullable(table.values(AGGREGATIONS.get(agg))[row]);
+      }
+      Record record = context.newRecord(fields);
+      record.fromArray(values);
+      result.add(record);
+    }
+    return result;
+  }
+
+  private static Map<GroupKey, Accumulator> aggregate(
+      ColumnarTable table, int[] columns, String aggregation) {
+    double[] values = table.values(aggregation);
+    Map<GroupKey, Accumulator> groups = new HashMap<>();
+    if (columns.length == 0 && table.size() == 0) {
+      // An aggregate without GROUP BY returns a single row even for an empty table.
+      groups.put(new GroupKey(new int[0]), new Accumulator());
+      return groups;
+    }
+    GroupKey probe = new GroupKey(new int[columns.length]);
+    for (int row = 0; row < table.size(); row++) {
+      for (int i = 0; i < columns.length; i++) {
+        probe.codes[i] = table.dimensionCode(columns[i], row);
+      }
+      probe.rehash();
+      Accumulator accumulator = groups.get(probe);
+      if (accumulator == null) {
+        accumulator = new Accumulator();
+        groups.put(new GroupKey(probe.codes.clone()), accumulator);
+      }
+      accumulator.add(values[row]);
+    }
+    return groups;
+  }
+
+  private int compare(GroupKey key1, GroupKey key2) {
+    for (int i = 0; i < key1.codes.length; i++) {
+      int result = dictionary.compare(key1.codes[i], key2.codes[i]);
+      if (result != 0) {
+        return result;
+      }
+    }
+    return 0;
+  }
+
+  private static Double toNullable(double value) {
+    return Double.isNaN(value) ? null : value;
+  }
+
+  @Override
+  public String toString() {
+    return "ColumnarMetricsDB{windowStartTime=" + getWindowStartTime() + ", tables="
+        + tables.keySet() + "}";
+  }
+
+  /**
+   * Dictionary codes of one group's dimension values.
+   */
+  private static final class GroupKey {
+    private final int[] codes;
+    private int hash;
+
+    GroupKey(int[] codes) {
+      this.codes = codes;
+      rehash();
+    }
+
+    void rehash() {
+      hash = Arrays.hashCode(codes);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof GroupKey && Arrays.equals(codes, ((GroupKey) o).codes);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  /**
+   * Running sum, count, min and max of the non-null values of one group.
+   */
+  private static final class Accumulator {
+    private double sum;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    private int count;
+
+    void add(double value) {
+      if (Double.isNaN(value)) {
+        return;
+      }
+      sum += value;
+      min = Math.min(min, value);
+      max = Math.max(max, value);
+      count++;
+    }
+
+    Double get(String aggregation) {
+      if (count == 0) {
+        return null;
+      }
+      switch (aggregation) {
+        case MetricsDB.SUM:
+          return sum;
+        case MetricsDB.AVG:
+          return sum / count;
+        case MetricsDB.MIN:
+          return min;
+        default:
+          return max;
+      }
+    }
+  }
+
+  /**
+   * Buffers bound rows and appends them to the table on execute, the same point at which the
+   * SQLite batch would run its INSERTs.
+   */
+  private final class ColumnarBatch implements BatchPut {
+    private final String tableName;
+    private final List<Object[]> rows;
+
+    ColumnarBatch(String tableName) {
+      this.tableName = tableName;
+      this.rows = new ArrayList<>();
+    }
+
+    @Override
+    public BatchPut bind(Object... bindValues) {
+      rows.add(bindValues);
+      return this;
+    }
+
+    @Override
+    public int[] execute() throws DataAccessException {
+      ColumnarTable table = getTable(tableName);
+      for (Object[] row : rows) {
+        table.append(row);
+      }
+      int[] counts = new int[rows.size()];
+      Arrays.fill(counts, 1);
+      recordRowsWritten(rows.size());
+      rows.clear();
+      return counts;
+    }
+
+    @Override
+    public int size() {
+      return rows.size();
+    }
+  }
+}
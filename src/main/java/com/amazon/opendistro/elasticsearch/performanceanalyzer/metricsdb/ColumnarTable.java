@@ -0,0 +1,178 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One metric table of a {@link ColumnarMetricsDB}. Dimensions are stored as dictionary codes, one
+ * int[] per dimension, and the four aggregations as one double[] each. A missing aggregation value
+ * is stored as NaN, which is what SQLite turns NaN into anyway (NULL).
+ */
+class ColumnarTable {
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final String name;
+  private final List<String> dimensionNames;
+  private final Map<String, Integer> dimensionColumns;
+  private final StringDictionary dictionary;
+
+  private int[][] dimensions;
+  private double[] sum;
+  private double[] avg;
+  private double[] min;
+  private double[] max;
+  private int size;
+
+  ColumnarTable(String name, List<String> dimensionNames, StringDictionary dictionary) {
+    this.name = name;
+    this.dimensionNames = Collections.unmodifiableList(new ArrayList<>(dimensionNames));
+    this.dimensionColumns = new HashMap<>();
+    for (int i = 0; i < dimensionNames.size(); i++) {
+      dimensionColumns.put(dimensionNames.get(i), i);
+    }
+    this.dictionary = dictionary;
+    this.dimensions = new int[dimensionNames.size()][INITIAL_CAPACITY];
+    this.sum = new double[INITIAL_CAPACITY];
+    this.avg = new double[INITIAL_CAPACITY];
+    this.min = new double[INITIAL_CAPACITY];
+    this.max = new double[INITIAL_CAPACITY];
+  }
+
+  String getName() {
+    return name;
+  }
+
+  List<String> getDimensionNames() {
+    return dimensionNames;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * Returns the position of the given dimension, or -1 if the table does not have it.
+   */
+  int dimensionColumn(String dimensionName) {
+    Integer column = dimensionColumns.get(dimensionName);
+    return column == null ? -1 : column;
+  }
+
+  int dimensionCode(int column, int row) {
+    return dimensions[column][row];
+  }
+
+  String dimensionValue(int column, int row) {
+    return dictionary.decode(dimensions[column][row]);
+  }
+
+  /**
+   * Returns the backing array of one aggregation column. Only the first {@link #size()} entries
+   * are valid and the array must not be modified.
+   *
+   * @param aggregation one of {@link MetricsDB#AGG_VALUES}
+   * @return the column values
+   */
+  double[] values(String aggregation) {
+    switch (aggregation) {
+      case MetricsDB.SUM:
+        return sum;
+      case MetricsDB.AVG:
+        return avg;
+      case MetricsDB.MIN:
+        return min;
+      case MetricsDB.MAX:
+        return max;
+      default:
+        throw new IllegalArgumentException("Unknown agg type " + aggregation);
+    }
+  }
+
+  /**
+   * Appends a row laid out the way an INSERT into the SQLite table would be: the dimensions in
+   * table order followed by sum, avg, min and max. Missing trailing values are treated as null.
+   */
+  void append(Object[] row) {
+    ensureCapacity();
+    int numDimensions = dimensionNames.size();
+    for (int i = 0; i < numDimensions; i++) {
+      dimensions[i][size] = dictionary.encode(i < row.length ? toDimension(row[i]) : null);
+    }
+    sum[size] = toValue(row, numDimensions);
+    avg[size] = toValue(row, numDimensions + 1);
+    min[size] = toValue(row, numDimensions + 2);
+    max[size] = toValue(row, numDimensions + 3);
+    size++;
+  }
+
+  void append(Map<String, String> dimensionValues, double sumValue, double avgValue,
+      double minValue, double maxValue) {
+    ensureCapacity();
+    for (int i = 0; i < dimensionNames.size(); i++) {
+      dimensions[i][size] = dictionary.encode(dimensionValues.get(dimensionNames.get(i)));
+    }
+    sum[size] = sumValue;
+    avg[size] = avgValue;
+    min[size] = minValue;
+    max[size] = maxValue;
+    size++;
+  }
+
+  private void ensureCapacity() {
+    if (size < sum.length) {
+      return;
+    }
+    int capacity = sum.length * 2;
+    for (int i = 0; i < dimensions.length; i++) {
+      dimensions[i] = Arrays.copyOf(dimensions[i], capacity);
+    }
+    sum = Arrays.copyOf(sum, capacity);
+    avg = Arrays.copyOf(avg, capacity);
+    min = Arrays.copyOf(min, capacity);
+    max = Arrays.copyOf(max, capacity);
+  }
+
+  private static String toDimension(Object value) {
+    return value == null ? null : value.toString();
+  }
+
+  private static double toValue(Object[] row, int index) {
+    if (index >= row.length) {
+      return Double.NaN;
+    }
+    return toValue(row[index]);
+  }
+
+  static double toValue(Object value) {
+    if (value == null) {
+      return Double.NaN;
+    }
+    if (value instanceof Number) {
+      return ((Number) value).doubleValue();
+    }
+    try {
+      return Double.parseDouble(value.toString());
+    } catch (NumberFormatException e) {
+      return Double.NaN;
+    }
+  }
+}
@@ -35,22 +35,30 @@ import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Stream;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.jooq.BatchBindStep;
+import org.jooq.Cursor;
 import org.jooq.DSLContext;
 import org.jooq.Field;
 import org.jooq.Record;
 import org.jooq.Result;
+import org.jooq.ResultQuery;
 import org.jooq.SQLDialect;
 import org.jooq.Select;
 import org.jooq.TableLike;
@@ -74,7 +82,7 @@ public class MetricsDB implements Removable {
 
   private static final String DB_FILE_PREFIX_PATH_DEFAULT = "/tmp/metricsdb_";
   private static final String DB_FILE_PREFIX_PATH_CONF_NAME = "metrics-db-file-prefix-path";
-  private static final String DB_URL = "jdbc:sqlite:";
+  static final String DB_URL = "jdbc:sqlite:";
   private final Connection conn;
   private final DSLContext create;
   public static final String SUM = "sum";
@@ -84,7 +92,14 @@ public class MetricsDB implements Removable {
   public static final Set<String> AGG_VALUES =
       Collections.unmodifiableSet(new HashSet<>(Arrays.asList(SUM, AVG, MIN, MAX)));
 
-  private long windowStartTime;
+  private final long windowStartTime;
+  // Insert statements by their SQL, shared by all the windows.
+  private static final Map<String, String> INSERT_SQL = new ConcurrentHashMap<>();
+  // Prepared statements of this window's connection that no batch holds, by their SQL.
+  private final Map<String, Deque<PreparedStatement>> idleInsertStatements = new HashMap<>();
+  // All the statements prepared on this window's connection, closed with it.
+  private final List<PreparedStatement> insertStatements = new ArrayList<>();
+  private long rowsWritten;
 
   public static String getDBFilePath(long windowStartTime) {
     return getFilePrefix() + windowStartTime;
@@ -100,17 +115,36 @@ public class MetricsDB implements Removable {
   }
 
   public MetricsDB(long windowStartTime) throws Exception {
+    this(windowStartTime, openConnection(DB_URL + getDBFilePath(windowStartTime)));
+  }
+
+  /**
+   * Creates a handle over an already opened connection. Storage engines that do not keep the
+   * window in SQLite pass a null connection and override the data access methods.
+   *
+   * @param windowStartTime the start time of the window this database holds
+   * @param conn the connection to run queries on, or null if there is none
+   */
+  protected MetricsDB(long windowStartTime, Connection conn) {
     this.windowStartTime = windowStartTime;
-    String url = DB_URL + getDBFilePath();
+    this.conn = conn;
+    this.create = conn == null ? DSL.using(SQLDialect.SQLITE) : DSL.using(conn, SQLDialect.SQLITE);
+  }
+
+  static Connection openConnection(String url) throws Exception {
     try {
-      conn = DriverManager.getConnection(url);
+      Connection conn = DriverManager.getConnection(url);
       conn.setAutoCommit(false);
+      return conn;
     } catch (Exception e) {
       PerformanceAnalyzerApp.ERRORS_AND_EXCEPTIONS_AGGREGATOR.updateStat(
           ExceptionsAndErrors.READER_METRICSDB_ACCESS_ERRORS, "", 1);
       throw e;
     }
-    create = DSL.using(conn, SQLDialect.SQLITE);
+  }
+
+  public long getWindowStartTime() {
+    return windowStartTime;
   }
 
   /**
@@ -131,9 +165,22 @@ public class MetricsDB implements Removable {
   }
 
   public void close() throws Exception {
+    closeStatements();
     conn.close();
   }
 
+  private void closeStatements() {
+    for (PreparedStatement statement : insertStatements) {
+      try {
+        statement.close();
+      } catch (SQLException e) {
+        LOG.debug("Unable to close statement", e);
+      }
+    }
+    insertStatements.clear();
+    idleInsertStatements.clear();
+  }
+
   public void createMetric(Metric<?> metric, List<String> dimensions) {
     if (DBUtils.checkIfTableExists(create, metric.getName())) {
       return;
@@ -147,30 +194,68 @@ public class MetricsDB implements Removable {
     create.createTable(metric.getName()).columns(fields).execute();
   }
 
-  public BatchBindStep startBatchPut(Metric<?> metric, List<String> dimensions) {
-    List<?> dummyValues = new ArrayList<>();
-    for (String dim : dimensions) {
-      dummyValues.add(null);
-    }
-    // Finally add sum, avg, min, max
-    dummyValues.add(null);
-    dummyValues.add(null);
-    dummyValues.add(null);
-    dummyValues.add(null);
-    return create.batch(create.insertInto(DSL.table(metric.getName())).values(dummyValues));
+  public BatchPut startBatchPut(Metric<?> metric, List<String> dimensions) {
+    // The dimensions followed by sum, avg, min, max.
+    int columns = dimensions.size() + 4;
+    return new PreparedBatch(this, insertSql(metric.getName(), columns), columns);
   }
 
-  public BatchBindStep startBatchPut(String tableName, int dimNum) {
+  public BatchPut startBatchPut(String tableName, int dimNum) {
     if (dimNum < 1 || !DBUtils.checkIfTableExists(create, tableName)) {
       throw new IllegalArgumentException(
           String.format("Incorrect arguments %s, %d", tableName, dimNum));
     }
-    List<?> dummyValues = new ArrayList<>(dimNum);
-    for (int i = 0; i < dimNum; i++) {
-      dummyValues.add(null);
+    return new PreparedBatch(this, insertSql(tableName, dimNum), dimNum);
+  }
+
+  /**
+   * Returns the insert statement of a table. It only depends on the table name and its number of
+   * columns, so it is rendered once per process.
+   */
+  private static String insertSql(String tableName, int columns) {
+    return INSERT_SQL.computeIfAbsent(
+        tableName + ":" + columns,
+        k -> {
+          StringBuilder builder =
+              new StringBuilder("insert into ").append(tableName).append(" values (?");
+          for (int i = 1; i < columns; i++) {
+            builder.append(", ?");
+          }
+          return builder.append(")").toString();
+        });
+  }
+
+  /**
+   * Hands a batch a prepared statement for the SQL that no other batch holds. A statement is
+   * prepared once per window, unless batches on the same table are open at the same time.
+   */
+  PreparedStatement acquireInsert(String sql) {
+    Deque<PreparedStatement> idle = idleInsertStatements.get(sql);
+    if (idle != null && !idle.isEmpty()) {
+      return idle.pop();
+    }
+    PreparedStatement statement;
+    try {
+      statement = conn.prepareStatement(sql);
+    } catch (SQLException e) {
+      throw new DataAccessException("Unable to prepare " + sql, e);
     }
+    insertStatements.add(statement);
+    return statement;
+  }
+
+  /** Takes back a statement from a batch that has executed, for the next batch to use. */
+  void releaseInsert(String sql, PreparedStatement statement) {
+    idleInsertStatements.computeIfAbsent(sql, k -> new ArrayDeque<>()).push(statement);
+  }
 
-    return create.batch(create.insertInto(DSL.table(tableName)).values(dummyValues));
+  void recordRowsWritten(int rows) {
+    rowsWritten += rows;
+  }
+
+  /** Returns the number of rows written through batch puts into this window so far. */
+  public long getRowsWritten() {
+    return rowsWritten;
   }
 
   public void putMetric(Metric<Double> metric, Dimensions dimensions, long windowStartTime) {
@@ -302,6 +387,17 @@ public class MetricsDB implements Removable {
     return create.select().from(DSL.table(metric)).fetch();
   }
 
+  /**
+   * Queries all the data associated with the given metric, fetching the rows as they are read
+   * rather than into a Result. The cursor must be closed.
+   *
+   * @param metric the desired metric
+   * @return the open cursor over the rows
+   */
+  public Cursor<Record> queryMetricLazily(String metric) throws DataAccessException {
+    return create.select().from(DSL.table(metric)).fetchLazy();
+  }
+
   /**
    * Queries all the data associated with a given metric.
    *
@@ -311,6 +407,23 @@ public class MetricsDB implements Removable {
    * @return the result of the query
    */
   public Result<Record> queryMetric(String metric, Collection<String> dimensions, int limit) throws DataAccessException {
+    ResultQuery<Record> query = selectMetric(metric, dimensions, limit);
+    return query == null ? null : query.fetch();
+  }
+
+  /**
+   * Same as {@link #queryMetric(String, Collection, int)}, but fetches the rows as they are read
+   * rather than into a Result. The cursor must be closed.
+   *
+   * @return the open cursor over the rows, or null if the metric is not in this window
+   */
+  public Cursor<Record> queryMetricLazily(String metric, Collection<String> dimensions, int limit)
+      throws DataAccessException {
+    ResultQuery<Record> query = selectMetric(metric, dimensions, limit);
+    return query == null ? null : query.fetchLazy();
+  }
+
+  private ResultQuery<Record> selectMetric(String metric, Collection<String> dimensions, int limit) {
     if (!DBUtils.checkIfTableExists(create, metric)) {
       return null;
     }
@@ -322,15 +435,26 @@ public class MetricsDB implements Removable {
     fields.add(DSL.field(AVG, Double.class));
     fields.add(DSL.field(MIN, Double.class));
     fields.add(DSL.field(MAX, Double.class));
-    return create.select(fields).from(DSL.table(metric)).limit(limit).fetch();
+    return create.select(fields).from(DSL.table(metric)).limit(limit);
   }
 
   public void commit() throws Exception {
     conn.commit();
   }
 
+  /**
+   * Makes sure this window can be re-opened from disk through {@link #fetchExisting(long)}, which
+   * is how the batch metrics API reads older windows. The SQLite engine writes straight to the
+   * on-disk file, so there is nothing to do here.
+   *
+   * @throws Exception if the window could not be written to disk
+   */
+  public void persist() throws Exception {
+  }
+
   @Override
   public void remove() throws Exception {
+    closeStatements();
     conn.close();
   }
 
@@ -347,6 +471,7 @@ public class MetricsDB implements Removable {
    * @param windowStartTime the timestamp associated with an existing metricsdb file
    */
   public static void deleteOnDiskFile(long windowStartTime) {
+    MetricsDBPool.instance().invalidate(windowStartTime);
     Path dbFilePath = Paths.get(getDBFilePath(windowStartTime));
     try {
       Files.delete(dbFilePath);
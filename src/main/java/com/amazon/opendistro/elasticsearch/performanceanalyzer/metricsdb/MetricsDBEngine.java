@@ -0,0 +1,59 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb;
+
+/**
+ * Storage engines that can back a {@link MetricsDB} window. The engine is picked through the
+ * {@code metrics-db-engine} setting.
+ */
+public enum MetricsDBEngine {
+  /**
+   * One on-disk SQLite file per window. This is the default.
+   */
+  SQLITE("sqlite"),
+
+  /**
+   * Primitive column arrays kept in the reader's heap, see {@link ColumnarMetricsDB}.
+   */
+  COLUMNAR("columnar");
+
+  private final String value;
+
+  MetricsDBEngine(String value) {
+    this.value = value;
+  }
+
+  /**
+   * Returns the engine with the given setting value.
+   *
+   * @param value the setting value, case insensitive
+   * @return the matching engine
+   * @throws IllegalArgumentException if no engine matches the value
+   */
+  public static MetricsDBEngine fromString(String value) {
+    for (MetricsDBEngine engine : values()) {
+      if (engine.value.equalsIgnoreCase(value.trim())) {
+        return engine;
+      }
+    }
+    throw new IllegalArgumentException("Unknown metricsdb engine: " + value);
+  }
+
+  @Override
+  public String toString() {
+    return value;
+  }
+}
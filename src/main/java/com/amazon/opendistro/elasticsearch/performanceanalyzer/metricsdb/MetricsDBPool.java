@@ -0,0 +1,217 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A bounded pool of open handles on the on-disk metricsdb files, keyed by window start time, so
+ * that queries over many windows, such as the batch metrics API, do not open and close a SQLite
+ * connection per file on every request.
+ *
+ * <p>Handles are borrowed through {@link #acquire(long)} and given back by closing the returned
+ * {@link Lease}. A handle is reference counted: it is closed when it is evicted or invalidated and
+ * no lease on it is left. Once the pool is full, the least recently used handle that is not leased
+ * is evicted; leased handles are never closed under their readers.
+ *
+ * <p>The connection of a handle does not auto-commit, so its first query opens a read transaction
+ * that pins the SQLite snapshot it reads. The transaction is ended when the last lease on the
+ * handle is closed, so that an idle pooled handle holds no snapshot.
+ *
+ * <p>A pooled handle sees the file it opened, so a file must be invalidated when it is deleted or
+ * rewritten. {@link MetricsDB#deleteOnDiskFile(long)} does so.
+ */
+public class MetricsDBPool {
+  private static final Logger LOG = LogManager.getLogger(MetricsDBPool.class);
+
+  /** Ten minutes of windows. */
+  static final int DEFAULT_MAX_SIZE = 120;
+
+  private static final MetricsDBPool INSTANCE =
+      new MetricsDBPool(DEFAULT_MAX_SIZE, MetricsDB::fetchExisting);
+
+  /** Opens the metricsdb file of a window. */
+  @FunctionalInterface
+  interface Opener {
+    MetricsDB open(long windowStartTime) throws Exception;
+  }
+
+  private final int maxSize;
+  private final Opener opener;
+  // In access order, so that the first entries are the least recently used. Guarded by this.
+  private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+  @VisibleForTesting
+  MetricsDBPool(int maxSize, Opener opener) {
+    this.maxSize = maxSize;
+    this.opener = opener;
+  }
+
+  public static MetricsDBPool instance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Borrows the handle on the metricsdb file of a window, opening the file if it is not pooled.
+   *
+   * @param windowStartTime the timestamp associated with an existing metricsdb file
+   * @return a lease on the handle, to be closed once the handle is no longer used
+   * @throws Exception if the metricsdb file does not exist or is invalid
+   */
+  public synchronized Lease acquire(long windowStartTime) throws Exception {
+    Entry entry = entries.get(windowStartTime);
+    if (entry == null) {
+      // Opened under the lock, so that a file invalidated meanwhile is never pooled.
+      entry = new Entry(windowStartTime, opener.open(windowStartTime));
+      entries.put(windowStartTime, entry);
+    }
+    entry.leases++;
+    evictIdle();
+    return new Lease(entry);
+  }
+
+  /**
+   * Drops the handle on the metricsdb file of a window, if it is pooled. The handle is closed now
+   * if it is not leased, or else when its last lease is closed.
+   *
+   * @param windowStartTime the timestamp associated with the metricsdb file
+   */
+  public void invalidate(long windowStartTime) {
+    Entry entry;
+    synchronized (this) {
+      entry = entries.remove(windowStartTime);
+      if (entry == null || !entry.retire()) {
+        return;
+      }
+    }
+    close(entry);
+  }
+
+  /** Drops all the pooled handles, closing those that are not leased. */
+  public void clear() {
+    List<Entry> idle = new ArrayList<>();
+    synchronized (this) {
+      for (Entry entry : entries.values()) {
+        if (entry.retire()) {
+          idle.add(entry);
+        }
+      }
+      entries.clear();
+    }
+    idle.forEach(MetricsDBPool::close);
+  }
+
+  /** Returns the number of pooled handles. */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  private void release(Entry entry) {
+    synchronized (this) {
+      entry.leases--;
+      if (entry.leases > 0) {
+        return;
+      }
+      if (!entry.retired) {
+        // Under the lock, so that no new lease reads through the connection meanwhile.
+        if (endReadTransaction(entry)) {
+          evictIdle();
+          return;
+        }
+        entries.remove(entry.windowStartTime);
+        entry.retired = true;
+      }
+    }
+    close(entry);
+  }
+
+  /** Ends the read transaction of an idle handle, returning false if the handle is unusable. */
+  private static boolean endReadTransaction(Entry entry) {
+    try {
+      entry.db.commit();
+      return true;
+    } catch (Exception e) {
+      LOG.error("Unable to end the read transaction of metricsdb {}", entry.db.getDBFilePath(), e);
+      return false;
+    }
+  }
+
+  private void evictIdle() {
+    Iterator<Entry> iterator = entries.values().iterator();
+    while (entries.size() > maxSize && iterator.hasNext()) {
+      Entry entry = iterator.next();
+      if (entry.leases == 0) {
+        entry.retired = true;
+        iterator.remove();
+        close(entry);
+      }
+    }
+  }
+
+  private static void close(Entry entry) {
+    try {
+      entry.db.remove();
+    } catch (Exception e) {
+      LOG.error("Unable to close metricsdb {}", entry.db.getDBFilePath(), e);
+    }
+  }
+
+  private static final class Entry {
+    private final long windowStartTime;
+    private final MetricsDB db;
+    private int leases;
+    private boolean retired;
+
+    private Entry(long windowStartTime, MetricsDB db) {
+      this.windowStartTime = windowStartTime;
+      this.db = db;
+    }
+
+    /** Marks the handle as leaving the pool and returns true if it can be closed right away. */
+    private boolean retire() {
+      retired = true;
+      return leases == 0;
+    }
+  }
+
+  /** A borrowed handle, given back to the pool when closed. */
+  public final class Lease implements AutoCloseable {
+    private final Entry entry;
+    private boolean released;
+
+    private Lease(Entry entry) {
+      this.entry = entry;
+    }
+
+    public MetricsDB getMetricsDB() {
+      return entry.db;
+    }
+
+    @Override
+    public void close() {
+      if (!released) {
+        released = true;
+        release(entry);
+      }
+    }
+  }
+}
@@ -0,0 +1,539 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.DBUtils;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.PerformanceAnalyzerApp;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.metrics.ExceptionsAndErrors;
+import com.google.common.annotations.VisibleForTesting;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jooq.BatchBindStep;
+import org.jooq.Cursor;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.ResultQuery;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.jooq.impl.SQLDataType;
+
+/**
+ * Compacts the closed metricsdb windows kept for the batch metrics API into coarser aggregates, so
+ * that queries with a long sampling period read one bucket per sample instead of re-opening one
+ * metricsdb file per sample.
+ *
+ * <p>Windows are aggregated in memory into buckets of every {@link Resolution} as they are added.
+ * Once a window of a later bucket arrives, the bucket is appended to the segment of the hour it
+ * starts in: one SQLite file per hour, next to the metricsdb files, that is only ever inserted into
+ * and is deleted as a whole once it falls out of the retention period.
+ *
+ * <p>A bucket has the same columns as a window, so that it reads like one: for every combination of
+ * dimensions, sum and avg are the means of the window values and min and max their extremes, over
+ * the windows of the bucket that hold the dimensions.
+ *
+ * <p>Buckets are added on the reader thread and queried by the batch metrics handler.
+ */
+public class MetricsRollupStore {
+  private static final Logger LOG = LogManager.getLogger(MetricsRollupStore.class);
+
+  static final String FILE_INFIX = "rollup_";
+  static final long SEGMENT_MILLIS = TimeUnit.HOURS.toMillis(1);
+  static final String RESOLUTION = "resolution";
+  static final String TIME = "time";
+  // Lists the buckets written to a segment, so that they can be restored after a restart.
+  private static final String BUCKETS_TABLE = "rollup_buckets";
+  private static final List<String> AGGREGATIONS =
+      Arrays.asList(MetricsDB.SUM, MetricsDB.AVG, MetricsDB.MIN, MetricsDB.MAX);
+
+  /** The bucket sizes windows are rolled up into. */
+  public enum Resolution {
+    ONE_MINUTE(TimeUnit.MINUTES.toMillis(1)),
+    FIVE_MINUTES(TimeUnit.MINUTES.toMillis(5));
+
+    private final long millis;
+
+    Resolution(long millis) {
+      this.millis = millis;
+    }
+
+    public long getMillis() {
+      return millis;
+    }
+
+    long bucketOf(long timestamp) {
+      return timestamp - timestamp % millis;
+    }
+  }
+
+  private final String filePrefix;
+  // The dimensions rolled up for every metric.
+  private final Map<String, List<String>> metricDimensions;
+  // The bucket being aggregated for every resolution. Only used by the reader thread.
+  private final Map<Resolution, Bucket> openBuckets = new EnumMap<>(Resolution.class);
+  private final Map<Resolution, ConcurrentSkipListSet<Long>> buckets = new EnumMap<>(Resolution.class);
+  // Open segments by the start of their hour. Guarded by this.
+  private final TreeMap<Long, Segment> segments = new TreeMap<>();
+
+  /**
+   * Creates a store of the rollups of the given metrics.
+   *
+   * @param filePrefix the prefix of the segment files, followed by {@link #FILE_INFIX}
+   * @param metricDimensions the metrics to roll up, with the dimensions to group them by
+   */
+  public MetricsRollupStore(String filePrefix, Map<String, ? extends Collection<String>> metricDimensions) {
+    this.filePrefix = filePrefix;
+    this.metricDimensions = new TreeMap<>();
+    metricDimensions.forEach(
+        (metric, dimensions) -> this.metricDimensions.put(metric, new ArrayList<>(new TreeSet<>(dimensions))));
+    for (Resolution resolution : Resolution.values()) {
+      buckets.put(resolution, new ConcurrentSkipListSet<>());
+    }
+  }
+
+  /**
+   * Returns the coarsest resolution whose buckets line up with the given sampling period.
+   *
+   * @param samplingPeriod the sampling period in milliseconds
+   * @return the resolution, or null if the sampling period needs every window
+   */
+  public static Resolution coarsestResolution(long samplingPeriod) {
+    Resolution coarsest = null;
+    for (Resolution resolution : Resolution.values()) {
+      if (samplingPeriod % resolution.millis == 0) {
+        coarsest = resolution;
+      }
+    }
+    return coarsest;
+  }
+
+  /**
+   * Aggregates a closed window into the open buckets, after writing out the buckets it closes.
+   * Windows are expected in time order; a window older than an open bucket is ignored.
+   *
+   * @param window the committed metricsdb of the window
+   * @throws Exception if a closed bucket could not be written
+   */
+  public void add(MetricsDB window) throws Exception {
+    long windowStartTime = window.getWindowStartTime();
+    List<Bucket> targets = new ArrayList<>();
+    for (Resolution resolution : Resolution.values()) {
+      long bucketStartTime = resolution.bucketOf(windowStartTime);
+      Bucket bucket = openBuckets.get(resolution);
+      if (bucket != null && bucket.startTime > bucketStartTime) {
+        LOG.debug("Window {} is older than the open {} bucket. Skipping.", windowStartTime, resolution);
+        continue;
+      }
+      if (bucket != null && bucket.startTime < bucketStartTime) {
+        openBuckets.remove(resolution);
+        write(resolution, bucket);
+        bucket = null;
+      }
+      if (bucket == null) {
+        bucket = new Bucket(bucketStartTime);
+        openBuckets.put(resolution, bucket);
+      }
+      targets.add(bucket);
+    }
+    if (targets.isEmpty()) {
+      return;
+    }
+
+    for (Map.Entry<String, List<String>> entry : metricDimensions.entrySet()) {
+      String metric = entry.getKey();
+      if (!window.metricExists(metric)) {
+        continue;
+      }
+      List<String> dimensions = entry.getValue();
+      Result<Record> rows = window.queryMetric(metric, dimensions, Integer.MAX_VALUE);
+      for (Record row : rows) {
+        List<String> key = new ArrayList<>(dimensions.size());
+        for (String dimension : dimensions) {
+          Object value = row.get(dimension);
+          key.add(value == null ? null : value.toString());
+        }
+        for (Bucket bucket : targets) {
+          Map<List<String>, Aggregate> aggregates =
+              bucket.metrics.computeIfAbsent(metric, k -> new HashMap<>());
+          Aggregate aggregate = aggregates.get(key);
+          if (aggregate == null) {
+            aggregate = new Aggregate();
+            aggregates.put(key, aggregate);
+          }
+          aggregate.add(row);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the start times of the buckets of a resolution that can be queried.
+   *
+   * @param resolution the resolution of the buckets
+   * @return a read-only view of the bucket start times, in order
+   */
+  public NavigableSet<Long> getBuckets(Resolution resolution) {
+    return Collections.unmodifiableNavigableSet(buckets.get(resolution));
+  }
+
+  /**
+   * Returns the coarsest resolution, up to the given one, with a bucket that starts at the given
+   * time. A bucket is written once a window of the next one arrives, so the latest samples are only
+   * in the finer buckets for a while.
+   *
+   * @param coarsest the coarsest resolution to look at
+   * @param bucketStartTime the start time of the bucket, a multiple of coarsest
+   * @return the resolution, or null if no bucket starts at that time yet
+   */
+  public Resolution resolutionWithBucket(Resolution coarsest, long bucketStartTime) {
+    Resolution found = null;
+    for (Resolution resolution : Resolution.values()) {
+      if (resolution.compareTo(coarsest) > 0) {
+        break;
+      }
+      if (buckets.get(resolution).contains(bucketStartTime)) {
+        found = resolution;
+      }
+    }
+    return found;
+  }
+
+  /**
+   * Queries a metric in a bucket, in the same shape as {@link MetricsDB#queryMetric(String,
+   * Collection, int)}.
+   *
+   * @param resolution the resolution of the bucket
+   * @param bucketStartTime the start time of the bucket
+   * @param metric the desired metric
+   * @param dimensions the dimensions we want to return for the given metric
+   * @param limit the maximum number of records to return
+   * @return the result of the query, or null if the bucket does not hold the metric
+   */
+  public synchronized Result<Record> queryMetric(
+      Resolution resolution, long bucketStartTime, String metric, Collection<String> dimensions, int limit)
+      throws Exception {
+    ResultQuery<Record> query = selectMetric(resolution, bucketStartTime, metric, dimensions, limit);
+    return query == null ? null : query.fetch();
+  }
+
+  /**
+   * Same as {@link #queryMetric(Resolution, long, String, Collection, int)}, but fetches the rows
+   * as they are read rather than into a Result. The cursor must be closed. A bucket that is
+   * trimmed while the cursor is open fails the rows not read yet.
+   *
+   * @return the open cursor over the rows, or null if the bucket does not hold the metric
+   */
+  public synchronized Cursor<Record> queryMetricLazily(
+      Resolution resolution, long bucketStartTime, String metric, Collection<String> dimensions, int limit)
+      throws Exception {
+    ResultQuery<Record> query = selectMetric(resolution, bucketStartTime, metric, dimensions, limit);
+    return query == null ? null : query.fetchLazy();
+  }
+
+  private ResultQuery<Record> selectMetric(
+      Resolution resolution, long bucketStartTime, String metric, Collection<String> dimensions, int limit)
+      throws Exception {
+    if (limit < 0) {
+      throw new IllegalArgumentException("Limit must be non-negative");
+    }
+    if (!buckets.get(resolution).contains(bucketStartTime)) {
+      return null;
+    }
+    DSLContext segment = segment(segmentOf(bucketStartTime)).create;
+    if (!DBUtils.checkIfTableExists(segment, metric)) {
+      return null;
+    }
+    List<Field<?>> fields = DBUtils.getFieldsFromList(dimensions);
+    for (String aggregation : AGGREGATIONS) {
+      fields.add(DSL.field(aggregation, Double.class));
+    }
+    return segment
+        .select(fields)
+        .from(DSL.table(metric))
+        .where(DSL.field(RESOLUTION, Long.class).eq(resolution.millis)
+            .and(DSL.field(TIME, Long.class).eq(bucketStartTime)))
+        .limit(limit);
+  }
+
+  /**
+   * Drops the buckets that start before the given time, and the segments that end before it.
+   *
+   * @param minTime the start time of the oldest bucket to keep
+   * @param deleteFiles whether the segment files are deleted, or only closed
+   */
+  public synchronized void trim(long minTime, boolean deleteFiles) {
+    for (ConcurrentSkipListSet<Long> resolutionBuckets : buckets.values()) {
+      resolutionBuckets.headSet(minTime).clear();
+    }
+    Set<Long> expired = new TreeSet<>(segments.headMap(segmentOf(minTime)).keySet());
+    if (deleteFiles) {
+      for (Long segmentStartTime : listOnDiskSegments()) {
+        if (segmentStartTime < segmentOf(minTime)) {
+          expired.add(segmentStartTime);
+        }
+      }
+    }
+    for (Long segmentStartTime : expired) {
+      closeSegment(segmentStartTime);
+      if (deleteFiles) {
+        deleteSegment(segmentStartTime);
+      }
+    }
+  }
+
+  /**
+   * Restores the buckets written before a restart, deleting the segments that end before the given
+   * time if asked to.
+   *
+   * @param minTime the start time of the oldest bucket to restore
+   * @param deleteFiles whether the expired segment files are deleted
+   */
+  public synchronized void restore(long minTime, boolean deleteFiles) {
+    for (Long segmentStartTime : listOnDiskSegments()) {
+      if (segmentStartTime < segmentOf(minTime)) {
+        if (deleteFiles) {
+          deleteSegment(segmentStartTime);
+        }
+        continue;
+      }
+      try {
+        DSLContext segment = segment(segmentStartTime).create;
+        if (!DBUtils.checkIfTableExists(segment, BUCKETS_TABLE)) {
+          continue;
+        }
+        for (Record record : segment.select().from(DSL.table(BUCKETS_TABLE)).fetch()) {
+          long resolutionMillis = record.getValue(RESOLUTION, Long.class);
+          long bucketStartTime = record.getValue(TIME, Long.class);
+          for (Resolution resolution : Resolution.values()) {
+            if (resolution.millis == resolutionMillis && bucketStartTime >= minTime) {
+              buckets.get(resolution).add(bucketStartTime);
+            }
+          }
+        }
+      } catch (Exception e) {
+        LOG.error("Unable to restore the rollup segment {}", getSegmentFilePath(segmentStartTime), e);
+      }
+    }
+  }
+
+  /** Drops the open buckets and closes the segments. The segment files are left on disk. */
+  public synchronized void close() {
+    openBuckets.clear();
+    for (Long segmentStartTime : new ArrayList<>(segments.keySet())) {
+      closeSegment(segmentStartTime);
+    }
+  }
+
+  @VisibleForTesting
+  String getSegmentFilePath(long segmentStartTime) {
+    return filePrefix + FILE_INFIX + segmentStartTime;
+  }
+
+  private static long segmentOf(long timestamp) {
+    return timestamp - timestamp % SEGMENT_MILLIS;
+  }
+
+  private synchronized void write(Resolution resolution, Bucket bucket) throws Exception {
+    Segment target = segment(segmentOf(bucket.startTime));
+    DSLContext segment = target.create;
+    for (Map.Entry<String, Map<List<String>, Aggregate>> entry : bucket.metrics.entrySet()) {
+      String metric = entry.getKey();
+      List<String> dimensions = metricDimensions.get(metric);
+      List<Field<?>> fields = new ArrayList<>();
+      fields.add(DSL.field(RESOLUTION, Long.class));
+      fields.add(DSL.field(TIME, Long.class));
+      fields.addAll(DBUtils.getStringFieldsFromList(dimensions));
+      for (String aggregation : AGGREGATIONS) {
+        fields.add(DSL.field(aggregation, Double.class));
+      }
+      if (!DBUtils.checkIfTableExists(segment, metric)) {
+        segment.createTable(metric).columns(fields).execute();
+      }
+
+      BatchBindStep batch =
+          segment.batch(segment.insertInto(DSL.table(metric)).columns(fields).values(new Object[fields.size()]));
+      for (Map.Entry<List<String>, Aggregate> row : entry.getValue().entrySet()) {
+        Object[] values = new Object[fields.size()];
+        values[0] = resolution.millis;
+        values[1] = bucket.startTime;
+        int column = 2;
+        for (String dimensionValue : row.getKey()) {
+          values[column++] = dimensionValue;
+        }
+        row.getValue().fill(values, column);
+        batch.bind(values);
+      }
+      batch.execute();
+    }
+    segment
+        .insertInto(DSL.table(BUCKETS_TABLE))
+        .set(DSL.field(RESOLUTION, Long.class), resolution.millis)
+        .set(DSL.field(TIME, Long.class), bucket.startTime)
+        .execute();
+    target.conn.commit();
+    buckets.get(resolution).add(bucket.startTime);
+  }
+
+  private Segment segment(long segmentStartTime) throws Exception {
+    Segment segment = segments.get(segmentStartTime);
+    if (segment == null) {
+      segment = new Segment(
+          MetricsDB.openConnection(MetricsDB.DB_URL + getSegmentFilePath(segmentStartTime)));
+      if (!DBUtils.checkIfTableExists(segment.create, BUCKETS_TABLE)) {
+        segment.create
+            .createTable(BUCKETS_TABLE)
+            .column(RESOLUTION, SQLDataType.BIGINT)
+            .column(TIME, SQLDataType.BIGINT)
+            .execute();
+        segment.conn.commit();
+      }
+      segments.put(segmentStartTime, segment);
+    }
+    return segment;
+  }
+
+  private void closeSegment(long segmentStartTime) {
+    Segment segment = segments.remove(segmentStartTime);
+    if (segment != null) {
+      try {
+        segment.conn.close();
+      } catch (Exception e) {
+        LOG.error("Unable to close the rollup segment {}", getSegmentFilePath(segmentStartTime), e);
+      }
+    }
+  }
+
+  private void deleteSegment(long segmentStartTime) {
+    Path path = Paths.get(getSegmentFilePath(segmentStartTime));
+    try {
+      Files.deleteIfExists(path);
+    } catch (IOException | SecurityException e) {
+      LOG.error("Failed to delete File - {} with ExceptionCode: {}",
+          path, ExceptionsAndErrors.READER_METRICSDB_ACCESS_ERRORS, e);
+      PerformanceAnalyzerApp.ERRORS_AND_EXCEPTIONS_AGGREGATOR.updateStat(
+          ExceptionsAndErrors.READER_METRICSDB_ACCESS_ERRORS, "", 1);
+    }
+  }
+
+  private Set<Long> listOnDiskSegments() {
+    String prefix = filePrefix + FILE_INFIX;
+    Path parentPath = Paths.get(prefix).getParent();
+    Set<Long> found = new TreeSet<>();
+    if (parentPath == null || !new File(parentPath.toString()).isDirectory()) {
+      return found;
+    }
+    try (Stream<Path> paths = Files.list(parentPath)) {
+      PathMatcher matcher = FileSystems.getDefault().getPathMatcher("regex:" + prefix + "\\d+");
+      Iterator<Path> iterator = paths.filter(matcher::matches).iterator();
+      while (iterator.hasNext()) {
+        String path = iterator.next().toString();
+        try {
+          found.add(Long.parseUnsignedLong(path.substring(prefix.length()), 10));
+        } catch (NumberFormatException e) {
+          LOG.error("Unexpected file in metricsdb directory - {}", path);
+        }
+      }
+    } catch (IOException | SecurityException e) {
+      LOG.error("Failed to access metricsdb directory - {} with ExceptionCode: {}",
+          parentPath, ExceptionsAndErrors.READER_METRICSDB_ACCESS_ERRORS, e);
+      PerformanceAnalyzerApp.ERRORS_AND_EXCEPTIONS_AGGREGATOR.updateStat(
+          ExceptionsAndErrors.READER_METRICSDB_ACCESS_ERRORS, "", 1);
+    }
+    return found;
+  }
+
+  private static final class Segment {
+    private final Connection conn;
+    private final DSLContext create;
+
+    private Segment(Connection conn) {
+      this.conn = conn;
+      this.create = DSL.using(conn, SQLDialect.SQLITE);
+    }
+  }
+
+  private static final class Bucket {
+    private final long startTime;
+    private final Map<String, Map<List<String>, Aggregate>> metrics = new TreeMap<>();
+
+    private Bucket(long startTime) {
+      this.startTime = startTime;
+    }
+  }
+
+  /** The running aggregate of one combination of dimensions over the windows of a bucket. */
+  private static final class Aggregate {
+    private double sum;
+    private int sumCount;
+    private double avg;
+    private int avgCount;
+    private Double min;
+    private Double max;
+
+    private void add(Record row) {
+      Double value = row.getValue(MetricsDB.SUM, Double.class);
+      if (value != null) {
+        sum += value;
+        sumCount++;
+      }
+      value = row.getValue(MetricsDB.AVG, Double.class);
+      if (value != null) {
+        avg += value;
+        avgCount++;
+      }
+      value = row.getValue(MetricsDB.MIN, Double.class);
+      if (value != null && (min == null || value < min)) {
+        min = value;
+      }
+      value = row.getValue(MetricsDB.MAX, Double.class);
+      if (value != null && (max == null || value > max)) {
+        max = value;
+      }
+    }
+
+    private void fill(Object[] values, int offset) {
+      values[offset] = sumCount == 0 ? null : sum / sumCount;
+      values[offset + 1] = avgCount == 0 ? null : avg / avgCount;
+      values[offset + 2] = min;
+      values[offset + 3] = max;
+    }
+  }
+}
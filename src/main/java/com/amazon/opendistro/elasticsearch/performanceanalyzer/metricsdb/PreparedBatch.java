@@ -0,0 +1,106 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import org.jooq.exception.DataAccessException;
+
+/**
+ * A batch of inserts into one metricsdb table, bound straight to a JDBC prepared statement. Unlike
+ * a jOOQ batch, no SQL is rendered and no value goes through jOOQ's type conversion: doubles,
+ * which most bind values are, are set with {@link PreparedStatement#setDouble}.
+ *
+ * <p>The batch takes a statement from its MetricsDB on the first bind and gives it back on
+ * execute, so batches open on the same table at the same time never share a statement.
+ */
+final class PreparedBatch implements BatchPut {
+  private final MetricsDB db;
+  private final String sql;
+  private final int columns;
+  private PreparedStatement statement;
+  private int size;
+
+  PreparedBatch(MetricsDB db, String sql, int columns) {
+    this.db = db;
+    this.sql = sql;
+    this.columns = columns;
+  }
+
+  @Override
+  public BatchPut bind(Object... bindValues) {
+    if (statement == null) {
+      statement = db.acquireInsert(sql);
+    }
+    try {
+      for (int i = 0; i < bindValues.length; i++) {
+        Object value = bindValues[i];
+        if (value instanceof Double) {
+          statement.setDouble(i + 1, (Double) value);
+        } else if (value instanceof String) {
+          statement.setString(i + 1, (String) value);
+        } else if (value == null) {
+          statement.setNull(i + 1, Types.NULL);
+        } else {
+          statement.setObject(i + 1, value);
+        }
+      }
+      // Parameters keep their value from the previous row, so the missing ones are cleared.
+      for (int i = bindValues.length; i < columns; i++) {
+        statement.setNull(i + 1, Types.NULL);
+      }
+      statement.addBatch();
+    } catch (SQLException e) {
+      throw new DataAccessException("Unable to bind metricsdb row", e);
+    }
+    size++;
+    return this;
+  }
+
+  @Override
+  public int[] execute() throws DataAccessException {
+    if (statement == null) {
+      return new int[0];
+    }
+    try {
+      int[] counts = statement.executeBatch();
+      db.recordRowsWritten(size);
+      return counts;
+    } catch (SQLException e) {
+      throw new DataAccessException("Unable to write metricsdb rows", e);
+    } finally {
+      release();
+    }
+  }
+
+  private void release() {
+    try {
+      statement.clearBatch();
+      db.releaseInsert(sql, statement);
+    } catch (SQLException e) {
+      // The statement is not reused and is closed with the window's connection.
+    }
+    statement = null;
+    size = 0;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps dimension values to dense int codes so that columns can store an int per row instead of a
+ * String reference. A single dictionary is shared by all the tables of a window, as the same index
+ * names, shard ids and operations show up in most of them. Null values are encoded as
+ * {@link #NULL_CODE}.
+ *
+ * <p>Writes happen on the reader thread before the window is published; afterwards the dictionary
+ * is only read.
+ */
+class StringDictionary {
+  static final int NULL_CODE = -1;
+
+  private final Map<String, Integer> codes = new HashMap<>();
+  private final List<String> values = new ArrayList<>();
+
+  int encode(String value) {
+    if (value == null) {
+      return NULL_CODE;
+    }
+    Integer code = codes.get(value);
+    if (code == null) {
+      code = values.size();
+      values.add(value);
+      codes.put(value, code);
+    }
+    return code;
+  }
+
+  String decode(int code) {
+    return code == NULL_CODE ? null : values.get(code);
+  }
+
+  /**
+   * Compares two codes by the values they encode, ordering nulls first the way SQLite does.
+   */
+  int compare(int code1, int code2) {
+    if (code1 == code2) {
+      return 0;
+    }
+    if (code1 == NULL_CODE) {
+      return -1;
+    }
+    if (code2 == NULL_CODE) {
+      return 1;
+    }
+    return values.get(code1).compareTo(values.get(code2));
+  }
+
+  int size() {
+    return values.size();
+  }
+}
@@ -46,6 +46,7 @@ public class GRPCConnectionManager {
 
   private static final Logger LOG = LogManager.getLogger(GRPCConnectionManager.class);
   private static final int MAX_RETRY_ATTEMPTS = 2;
+  private static final String GZIP_COMPRESSION = "gzip";
   private final int port;
   // TLS certificate, private key, and trusted root CA files
   private File certFile;
@@ -68,14 +69,14 @@ public class GRPCConnectionManager {
    */
   private final boolean shouldUseHttps;
 
+  /**
+   * Flag that controls if the messages sent to other hosts are gzip compressed. The gRPC servers
+   * accept gzip compressed messages regardless.
+   */
+  private final boolean shouldCompress;
+
   public GRPCConnectionManager(final boolean shouldUseHttps) {
-    this.shouldUseHttps = shouldUseHttps;
-    this.port = 0;
-    if (shouldUseHttps) {
-      this.certFile = CertificateUtils.getClientCertificateFile();
-      this.pkeyFile = CertificateUtils.getClientPrivateKeyFile();
-      this.trustedCasFile = CertificateUtils.getClientTrustedCasFile();
-    }
+    this(shouldUseHttps, 0, false);
   }
 
   /**
@@ -84,8 +85,20 @@ public class GRPCConnectionManager {
    * @param port The port number that client stubs should attempt to connect to
    */
   public GRPCConnectionManager(final boolean shouldUseHttps, int port) {
+    this(shouldUseHttps, port, false);
+  }
+
+  /**
+   * Constructor that also allows you to turn on compression.
+   * @param shouldUseHttps Whether to enable TLS
+   * @param port The port number that client stubs should attempt to connect to, or 0 for the port
+   *             of each host
+   * @param shouldCompress Whether to gzip the messages sent to other hosts
+   */
+  public GRPCConnectionManager(final boolean shouldUseHttps, int port, boolean shouldCompress) {
     this.shouldUseHttps = shouldUseHttps;
     this.port = port;
+    this.shouldCompress = shouldCompress;
     if (shouldUseHttps) {
       this.certFile = CertificateUtils.getClientCertificateFile();
       this.pkeyFile = CertificateUtils.getClientPrivateKeyFile();
@@ -203,7 +216,9 @@ public class GRPCConnectionManager {
   }
 
   private InterNodeRpcServiceStub buildStubForHost(final InstanceDetails remoteHost) {
-    return InterNodeRpcServiceGrpc.newStub(getChannelForHost(remoteHost));
+    final InterNodeRpcServiceStub stub =
+        InterNodeRpcServiceGrpc.newStub(getChannelForHost(remoteHost));
+    return shouldCompress ? stub.withCompression(GZIP_COMPRESSION) : stub;
   }
 
   private void removeAllStubs() {
@@ -18,6 +18,8 @@ package com.amazon.opendistro.elasticsearch.performanceanalyzer.net;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.PerformanceAnalyzerApp;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatExceptionCode;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatsCollector;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitBatchMessage;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitEncoding;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitMessage;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.InterNodeRpcServiceGrpc;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.MetricsRequest;
@@ -28,10 +30,12 @@ import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.SubscribeRes
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.metrics.RcaGraphMetrics;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.util.InstanceDetails;
 import io.grpc.StatusRuntimeException;
+import io.grpc.stub.CallStreamObserver;
 import io.grpc.stub.StreamObserver;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -60,6 +64,9 @@ public class NetClient {
   private ConcurrentMap<InstanceDetails.Id, AtomicReference<StreamObserver<FlowUnitMessage>>> perHostOpenDataStreamMap =
       new ConcurrentHashMap<>();
 
+  private ConcurrentMap<InstanceDetails.Id, StreamObserver<FlowUnitBatchMessage>> perHostOpenBatchStreamMap =
+      new ConcurrentHashMap<>();
+
   /**
    * Sends a subscribe request to a remote host. If the subscribe request fails because the remote
    * host is not ready/encountered an exception, we still retry subscribing when we try reading from
@@ -104,9 +111,7 @@ public class NetClient {
       final StreamObserver<FlowUnitMessage> stream =
           getDataStreamForHost(remoteHost, serverResponseStream);
       stream.onNext(flowUnitMessage);
-      PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR
-          .updateStat(RcaGraphMetrics.NET_BYTES_OUT, flowUnitMessage.getGraphNode(),
-              flowUnitMessage.getSerializedSize());
+      reportBytesOut(flowUnitMessage);
     } catch (StatusRuntimeException sre) {
       LOG.error("rca: Encountered an error trying to publish a flow unit. Status: {}",
           sre.getStatus(), sre);
@@ -114,6 +119,79 @@ public class NetClient {
     }
   }
 
+  /**
+   * Writes a batch of flow units to the batch stream for the remote host, opening the stream if
+   * there is none. Callers are expected to check {@link #isBatchStreamReady} first, so that
+   * batches are not queued up in the gRPC buffers of a stream the host does not keep up with.
+   *
+   * @param remoteHost           The remote host to which we need to send flow units to.
+   * @param batchMessage         The flow units to send to the remote host.
+   * @param serverResponseStream The stream for the server to communicate back on, used if a new
+   *                             stream is opened.
+   */
+  public void publishBatch(
+      final InstanceDetails remoteHost,
+      final FlowUnitBatchMessage batchMessage,
+      final StreamObserver<PublishResponse> serverResponseStream) {
+    LOG.debug("Publishing a batch of {} flow units to {}", batchMessage.getFlowUnitCount(), remoteHost);
+    try {
+      final StreamObserver<FlowUnitBatchMessage> stream =
+          perHostOpenBatchStreamMap.computeIfAbsent(remoteHost.getInstanceId(),
+              id -> connectionManager.getClientStubForHost(remoteHost).publishBatch(serverResponseStream));
+      stream.onNext(batchMessage);
+      for (FlowUnitMessage flowUnitMessage : batchMessage.getFlowUnitList()) {
+        reportBytesOut(flowUnitMessage);
+      }
+    } catch (StatusRuntimeException sre) {
+      LOG.error("rca: Encountered an error trying to publish a flow unit batch. Status: {}",
+          sre.getStatus(), sre);
+      StatsCollector.instance().logException(StatExceptionCode.RCA_NETWORK_ERROR);
+      // The batch may not have made it, so the next one starts over on a new stream.
+      perHostOpenBatchStreamMap.remove(remoteHost.getInstanceId());
+    }
+  }
+
+  /**
+   * Checks whether there is an open batch stream to the host.
+   *
+   * @param remoteHost The remote host.
+   * @return true if the next batch to the host goes out on a stream earlier batches went out on.
+   */
+  public boolean hasBatchStream(final InstanceDetails.Id remoteHost) {
+    return perHostOpenBatchStreamMap.containsKey(remoteHost);
+  }
+
+  private static void reportBytesOut(final FlowUnitMessage flowUnitMessage) {
+    final String graphNode = flowUnitMessage.getGraphNode();
+    final int bytes = flowUnitMessage.getSerializedSize();
+    PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR
+        .updateStat(RcaGraphMetrics.NET_BYTES_OUT, graphNode, bytes);
+    final RcaGraphMetrics encodingMetric;
+    if (flowUnitMessage.getEncoding() == FlowUnitEncoding.UNCHANGED) {
+      encodingMetric = RcaGraphMetrics.NET_BYTES_OUT_UNCHANGED_ENCODING;
+    } else if (flowUnitMessage.getEncoding() == FlowUnitEncoding.DELTA) {
+      encodingMetric = RcaGraphMetrics.NET_BYTES_OUT_DELTA_ENCODING;
+    } else {
+      encodingMetric = RcaGraphMetrics.NET_BYTES_OUT_FULL_ENCODING;
+    }
+    PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR.updateStat(encodingMetric, graphNode, bytes);
+  }
+
+  /**
+   * Checks whether the batch stream to the host can take a message without it being buffered
+   * locally. A host without a stream is ready, as a new one will be opened.
+   *
+   * @param remoteHost The remote host.
+   * @return false if the transport has not yet drained the earlier messages to the host.
+   */
+  public boolean isBatchStreamReady(final InstanceDetails.Id remoteHost) {
+    final StreamObserver<FlowUnitBatchMessage> stream = perHostOpenBatchStreamMap.get(remoteHost);
+    if (stream instanceof CallStreamObserver) {
+      return ((CallStreamObserver<FlowUnitBatchMessage>) stream).isReady();
+    }
+    return true;
+  }
+
   public void getMetrics(
       InstanceDetails remoteNodeIP,
       MetricsRequest request,
@@ -123,6 +201,23 @@ public class NetClient {
     stub.getMetrics(request, responseObserver);
   }
 
+  /**
+   * Same as {@link #getMetrics(InstanceDetails, MetricsRequest, StreamObserver)}, but fails the
+   * call with DEADLINE_EXCEEDED if the host does not respond in time.
+   *
+   * @param deadlineMillis The time the host has to respond, in milliseconds.
+   */
+  public void getMetrics(
+      InstanceDetails remoteNodeIP,
+      MetricsRequest request,
+      StreamObserver<MetricsResponse> responseObserver,
+      long deadlineMillis) {
+    InterNodeRpcServiceGrpc.InterNodeRpcServiceStub stub =
+        connectionManager.getClientStubForHost(remoteNodeIP);
+    stub.withDeadlineAfter(deadlineMillis, TimeUnit.MILLISECONDS)
+        .getMetrics(request, responseObserver);
+  }
+
   public void stop() {
     LOG.debug("Shutting down client streaming connections..");
     closeAllDataStreams();
@@ -131,6 +226,7 @@ public class NetClient {
   public void flushStream(final InstanceDetails.Id remoteHost) {
     LOG.debug("removing data streams for {} as we are no publishing to it.", remoteHost);
     perHostOpenDataStreamMap.remove(remoteHost);
+    perHostOpenBatchStreamMap.remove(remoteHost);
   }
 
   private void closeAllDataStreams() {
@@ -142,6 +238,12 @@ public class NetClient {
       entry.getValue().get().onCompleted();
       perHostOpenDataStreamMap.remove(entry.getKey());
     }
+    for (Map.Entry<InstanceDetails.Id, StreamObserver<FlowUnitBatchMessage>> entry :
+        perHostOpenBatchStreamMap.entrySet()) {
+      LOG.debug("Closing batch stream for host: {}", entry.getKey());
+      entry.getValue().onCompleted();
+      perHostOpenBatchStreamMap.remove(entry.getKey());
+    }
   }
 
   private StreamObserver<FlowUnitMessage> getDataStreamForHost(
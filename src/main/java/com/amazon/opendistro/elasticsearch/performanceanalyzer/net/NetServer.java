@@ -16,6 +16,9 @@
 package com.amazon.opendistro.elasticsearch.performanceanalyzer.net;
 
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.CertificateUtils;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.PerformanceAnalyzerApp;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.config.PluginSettings;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitBatchMessage;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitMessage;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.InterNodeRpcServiceGrpc;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.MetricsRequest;
@@ -24,11 +27,14 @@ import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.PublishRespo
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.SubscribeMessage;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.SubscribeResponse;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.handler.MetricsServerHandler;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.metrics.RcaGraphMetrics;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net.handler.PublishRequestHandler;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net.handler.SubscribeServerHandler;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import io.grpc.Server;
+import io.grpc.Status;
 import io.grpc.netty.shaded.io.grpc.netty.GrpcSslContexts;
 import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
 import io.grpc.netty.shaded.io.netty.channel.nio.NioEventLoopGroup;
@@ -39,7 +45,12 @@ import io.grpc.stub.StreamObserver;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import javax.net.ssl.SSLException;
 
@@ -54,6 +65,20 @@ public class NetServer extends InterNodeRpcServiceGrpc.InterNodeRpcServiceImplBa
 
   private static final Logger LOG = LogManager.getLogger(NetServer.class);
 
+  static final String PUBLISH_RPC = "publish";
+  static final String PUBLISH_BATCH_RPC = "publishBatch";
+  static final String SUBSCRIBE_RPC = "subscribe";
+  static final String GET_METRICS_RPC = "getMetrics";
+
+  /** Number of GetMetrics calls that can wait for a thread of their dedicated pool. */
+  static final int METRICS_HANDLER_QUEUE_SIZE = 16;
+
+  /**
+   * Number of threads GetMetrics gets when the handlers run on the event loop threads and it was
+   * given none of its own.
+   */
+  static final int DIRECT_EXECUTOR_METRICS_HANDLER_THREADS = 1;
+
   /**
    * The RPC server port.
    */
@@ -69,6 +94,28 @@ public class NetServer extends InterNodeRpcServiceGrpc.InterNodeRpcServiceImplBa
    */
   private final boolean useHttps;
 
+  /**
+   * Number of threads that run the RPC handlers, 0 to run them on the event loop threads, or
+   * {@link PluginSettings#RPC_HANDLER_THREADS_DEFAULT} to keep the default of the server.
+   */
+  private final int handlerThreads;
+
+  /**
+   * Number of threads dedicated to the GetMetrics RPC, 0 to serve it on the handler threads. The
+   * metricsdb queries block, so it is never served on the event loop threads.
+   */
+  private final int metricsHandlerThreads;
+
+  /**
+   * The pool running the RPC handlers, if the server was given a sized one.
+   */
+  private final ThreadPoolExecutor handlerExecutor;
+
+  /**
+   * The pool running the GetMetrics RPC, if it has threads of its own.
+   */
+  private final ThreadPoolExecutor metricsExecutor;
+
   /**
    * Handler implementing publish RPC.
    */
@@ -92,10 +139,30 @@ public class NetServer extends InterNodeRpcServiceGrpc.InterNodeRpcServiceImplBa
   private volatile boolean attemptedShutdown;
 
   public NetServer(final int port, final int numServerThreads, final boolean useHttps) {
+    this(port, numServerThreads, useHttps, PluginSettings.RPC_HANDLER_THREADS_DEFAULT, 0);
+  }
+
+  public NetServer(final int port, final int numServerThreads, final boolean useHttps,
+      final int handlerThreads, final int metricsHandlerThreads) {
     this.port = port;
     this.numServerThreads = numServerThreads;
     this.useHttps = useHttps;
+    this.handlerThreads = handlerThreads;
+    if (handlerThreads == 0 && metricsHandlerThreads == 0) {
+      LOG.warn("The RPC handlers run on the event loop threads, so GetMetrics gets {} thread(s) of its "
+          + "own instead of none", DIRECT_EXECUTOR_METRICS_HANDLER_THREADS);
+      this.metricsHandlerThreads = DIRECT_EXECUTOR_METRICS_HANDLER_THREADS;
+    } else {
+      this.metricsHandlerThreads = metricsHandlerThreads;
+    }
     this.attemptedShutdown = false;
+    // gRPC does not expect its executor to reject calls, so the handler queue is not bounded. The
+    // work behind the calls is: flow units go to the bounded network pool, metrics to their own.
+    this.handlerExecutor = handlerThreads > 0
+        ? newHandlerPool(handlerThreads, new LinkedBlockingQueue<>(), "pa-rpc-%d") : null;
+    this.metricsExecutor = this.metricsHandlerThreads > 0
+        ? newHandlerPool(this.metricsHandlerThreads,
+            new ArrayBlockingQueue<>(METRICS_HANDLER_QUEUE_SIZE), "pa-rpc-metrics-%d") : null;
   }
 
   // postStartHook executes after the NetServer has successfully started its Server
@@ -117,9 +184,12 @@ public class NetServer extends InterNodeRpcServiceGrpc.InterNodeRpcServiceImplBa
   @Override
   public void run() {
     LOG.info(
-        "Starting the gRPC server on port {} with {} threads. Using HTTPS: {}",
+        "Starting the gRPC server on port {} with {} threads, {} handler threads and {} metrics "
+            + "handler threads. Using HTTPS: {}",
         port,
         numServerThreads,
+        handlerThreads,
+        metricsHandlerThreads,
         useHttps);
     try {
       if (useHttps) {
@@ -144,15 +214,32 @@ public class NetServer extends InterNodeRpcServiceGrpc.InterNodeRpcServiceImplBa
   }
 
   private NettyServerBuilder buildBaseServer() {
-    return NettyServerBuilder.forPort(port)
+    NettyServerBuilder builder = NettyServerBuilder.forPort(port)
             .addService(this)
             .bossEventLoopGroup(new NioEventLoopGroup(numServerThreads))
             .workerEventLoopGroup(new NioEventLoopGroup(numServerThreads))
             .channelType(NioServerSocketChannel.class);
+    if (handlerThreads == 0) {
+      // The handlers only hand their work off, or run on the metrics pool.
+      builder.directExecutor();
+    } else if (handlerExecutor != null) {
+      builder.executor(handlerExecutor);
+    }
+    return builder;
+  }
+
+  private static ThreadPoolExecutor newHandlerPool(int threads,
+      BlockingQueue<Runnable> queue, String nameFormat) {
+    return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, queue,
+        new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build());
   }
 
   private Server buildHttpServer() {
-    return buildBaseServer().executor(Executors.newSingleThreadExecutor()).build();
+    NettyServerBuilder builder = buildBaseServer();
+    if (handlerThreads == PluginSettings.RPC_HANDLER_THREADS_DEFAULT) {
+      builder.executor(Executors.newSingleThreadExecutor());
+    }
+    return builder.build();
   }
 
   protected Server buildHttpsServer(File trustedCasFile, File certFile, File pkeyFile) throws SSLException {
@@ -178,12 +265,32 @@ public class NetServer extends InterNodeRpcServiceGrpc.InterNodeRpcServiceImplBa
       final StreamObserver<PublishResponse> responseObserver) {
     LOG.debug("publish received");
     if (sendDataHandler != null) {
-      return sendDataHandler.getClientStream(responseObserver);
+      return new TimedStreamObserver<>(
+          PUBLISH_RPC, sendDataHandler.getClientStream(responseObserver));
     }
 
     throw new UnsupportedOperationException("No rpc handler found for publish/");
   }
 
+  /**
+   * <pre>
+   * Sends batches of flowunits to whoever is interested in them.
+   * </pre>
+   *
+   * @param responseObserver The response stream.
+   */
+  @Override
+  public StreamObserver<FlowUnitBatchMessage> publishBatch(
+      final StreamObserver<PublishResponse> responseObserver) {
+    LOG.debug("publishBatch received");
+    if (sendDataHandler != null) {
+      return new TimedStreamObserver<>(
+          PUBLISH_BATCH_RPC, sendDataHandler.getBatchClientStream(responseObserver));
+    }
+
+    throw new UnsupportedOperationException("No rpc handler found for publishBatch/");
+  }
+
   /**
    * <pre>
    * Sends a subscription request to a node for a particular metric.
@@ -196,7 +303,10 @@ public class NetServer extends InterNodeRpcServiceGrpc.InterNodeRpcServiceImplBa
   public void subscribe(
       final SubscribeMessage request, final StreamObserver<SubscribeResponse> responseObserver) {
     if (subscribeHandler != null) {
+      recordQueueDepth(SUBSCRIBE_RPC, handlerExecutor);
+      final long startTime = System.currentTimeMillis();
       subscribeHandler.handleSubscriptionRequest(request, responseObserver);
+      recordLatency(SUBSCRIBE_RPC, startTime);
     } else {
       LOG.error("Subscribe request received before handler is set.");
       responseObserver.onError(new UnsupportedOperationException("No rpc handler found for "
@@ -204,10 +314,85 @@ public class NetServer extends InterNodeRpcServiceGrpc.InterNodeRpcServiceImplBa
     }
   }
 
+  /**
+   * <pre>
+   * Sends the metrics of this node. If GetMetrics has threads of its own, the metricsdb query runs
+   * on them, and calls beyond what they and their queue can take fail with RESOURCE_EXHAUSTED.
+   * </pre>
+   *
+   * @param request          The metrics request.
+   * @param responseObserver The response stream to which the metrics are written to.
+   */
   @Override
   public void getMetrics(MetricsRequest request, StreamObserver<MetricsResponse> responseObserver) {
-    if (metricsServerHandler != null) {
-      metricsServerHandler.collectAPIData(request, responseObserver);
+    final MetricsServerHandler handler = metricsServerHandler;
+    if (handler == null) {
+      return;
+    }
+    if (metricsExecutor == null) {
+      recordQueueDepth(GET_METRICS_RPC, handlerExecutor);
+      collectMetrics(handler, request, responseObserver);
+      return;
+    }
+    try {
+      metricsExecutor.execute(() -> collectMetrics(handler, request, responseObserver));
+      recordQueueDepth(GET_METRICS_RPC, metricsExecutor);
+    } catch (RejectedExecutionException e) {
+      LOG.warn("Rejected a metrics request because the metrics handler pool is full");
+      PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR.updateStat(
+          RcaGraphMetrics.RPC_REJECTED_COUNT, GET_METRICS_RPC, 1);
+      responseObserver.onError(Status.RESOURCE_EXHAUSTED
+          .withDescription("Too many metrics requests in flight").asRuntimeException());
+    }
+  }
+
+  private void collectMetrics(MetricsServerHandler handler, MetricsRequest request,
+      StreamObserver<MetricsResponse> responseObserver) {
+    final long startTime = System.currentTimeMillis();
+    handler.collectAPIData(request, responseObserver);
+    recordLatency(GET_METRICS_RPC, startTime);
+  }
+
+  private static void recordQueueDepth(String rpc, ThreadPoolExecutor executor) {
+    if (executor != null) {
+      PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR.updateStat(
+          RcaGraphMetrics.RPC_HANDLER_QUEUE_DEPTH, rpc, executor.getQueue().size());
+    }
+  }
+
+  private static void recordLatency(String rpc, long startTime) {
+    PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR.updateStat(
+        RcaGraphMetrics.RPC_HANDLING_LATENCY, rpc, System.currentTimeMillis() - startTime);
+  }
+
+  /**
+   * Records the queue depth and handling latency of every message of a client streaming RPC.
+   */
+  private class TimedStreamObserver<T> implements StreamObserver<T> {
+    private final String rpc;
+    private final StreamObserver<T> delegate;
+
+    TimedStreamObserver(String rpc, StreamObserver<T> delegate) {
+      this.rpc = rpc;
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void onNext(T value) {
+      recordQueueDepth(rpc, handlerExecutor);
+      final long startTime = System.currentTimeMillis();
+      delegate.onNext(value);
+      recordLatency(rpc, startTime);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      delegate.onError(t);
+    }
+
+    @Override
+    public void onCompleted() {
+      delegate.onCompleted();
     }
   }
 
@@ -273,6 +458,12 @@ public class NetServer extends InterNodeRpcServiceGrpc.InterNodeRpcServiceImplBa
         Thread.currentThread().interrupt();
       }
     }
+    if (handlerExecutor != null) {
+      handlerExecutor.shutdown();
+    }
+    if (metricsExecutor != null) {
+      metricsExecutor.shutdown();
+    }
   }
 
   public void setAttemptedShutdown() {
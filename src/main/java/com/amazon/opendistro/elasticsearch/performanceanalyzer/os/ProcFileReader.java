@@ -0,0 +1,212 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.os;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads small /proc files into a direct buffer that is reused from one file to the next, and
+ * parses numeric fields in place, without creating Strings for the content.
+ *
+ * <p>Numbers are read as unsigned decimals, wrapping on overflow like Long.parseUnsignedLong. An
+ * instance is not thread safe; each collector keeps its own.
+ */
+class ProcFileReader {
+  private static final int INITIAL_BUFFER_SIZE = 4096;
+
+  private ByteBuffer buffer = ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE);
+  private int length;
+
+  /**
+   * Reads the whole file into the buffer, growing it if the file does not fit.
+   *
+   * @param file The file to read.
+   * @throws IOException If the file cannot be opened or read, which for /proc/pid/task/tid files
+   *     usually means that the thread has exited.
+   */
+  void read(Path file) throws IOException {
+    while (true) {
+      buffer.clear();
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+          // keep reading until the end of the file or until the buffer is full
+        }
+      }
+      if (buffer.hasRemaining()) {
+        length = buffer.position();
+        return;
+      }
+      // The content of a /proc file is generated on read, so it is read again in full rather than
+      // continued where the smaller buffer stopped.
+      buffer = ByteBuffer.allocateDirect(buffer.capacity() * 2);
+    }
+  }
+
+  /**
+   * Parses the given fields of /proc/[pid]/task/[tid]/stat, numbered from 1 as in proc(5). The
+   * fields are counted from the last ')' in the file, since the thread name in the second field can
+   * hold spaces and parentheses.
+   *
+   * @param fields The field numbers, in increasing order, all of them after the third field.
+   * @param values Where the values go, in the order of fields.
+   * @param offset The index in values of the first field.
+   * @return false if the file does not hold all the fields.
+   */
+  boolean parseStatFields(int[] fields, long[] values, int offset) {
+    int pos = length - 1;
+    while (pos >= 0 && buffer.get(pos) != ')') {
+      pos--;
+    }
+    if (pos < 0) {
+      return false;
+    }
+    pos++;
+    // The field after the thread name is the third one.
+    int field = 3;
+    int next = 0;
+    while (next < fields.length) {
+      pos = skipWhitespace(pos);
+      if (pos >= length) {
+        return false;
+      }
+      if (field == fields[next]) {
+        values[offset + next] = parseUnsignedLong(pos);
+        next++;
+      }
+      pos = skipToken(pos);
+      field++;
+    }
+    return true;
+  }
+
+  /**
+   * Parses the first whitespace separated values of the file, as in /proc/[pid]/task/[tid]/schedstat.
+   *
+   * @param count The number of values to parse.
+   * @param values Where the values go.
+   * @param offset The index in values of the first one.
+   * @return false if the file holds fewer than count values.
+   */
+  boolean parseFields(int count, long[] values, int offset) {
+    int pos = 0;
+    for (int i = 0; i < count; i++) {
+      pos = skipWhitespace(pos);
+      if (pos >= length) {
+        return false;
+      }
+      values[offset + i] = parseUnsignedLong(pos);
+      pos = skipToken(pos);
+    }
+    return true;
+  }
+
+  /**
+   * Parses lines of the form "key: value", as in /proc/[pid]/task/[tid]/io. Lines with other keys
+   * are skipped.
+   *
+   * @param keys The keys to parse, as ASCII bytes.
+   * @param values Where the values go, in the order of keys.
+   * @param offset The index in values of the first key.
+   * @return false if the file does not hold all the keys.
+   */
+  boolean parseKeyValueLines(byte[][] keys, long[] values, int offset) {
+    int found = 0;
+    int pos = 0;
+    while (pos < length) {
+      int lineEnd = pos;
+      while (lineEnd < length && buffer.get(lineEnd) != '\n') {
+        lineEnd++;
+      }
+      int separator = pos;
+      while (separator < lineEnd && buffer.get(separator) != ':') {
+        separator++;
+      }
+      if (separator < lineEnd) {
+        int key = findKey(keys, pos, separator);
+        if (key >= 0) {
+          int valuePos = skipWhitespace(separator + 1);
+          if (valuePos < lineEnd) {
+            values[offset + key] = parseUnsignedLong(valuePos);
+            found++;
+          }
+        }
+      }
+      pos = lineEnd + 1;
+    }
+    return found >= keys.length;
+  }
+
+  static byte[][] asciiKeys(String... keys) {
+    byte[][] bytes = new byte[keys.length][];
+    for (int i = 0; i < keys.length; i++) {
+      bytes[i] = keys[i].getBytes(StandardCharsets.US_ASCII);
+    }
+    return bytes;
+  }
+
+  private int findKey(byte[][] keys, int start, int end) {
+    for (int i = 0; i < keys.length; i++) {
+      byte[] key = keys[i];
+      if (key.length != end - start) {
+        continue;
+      }
+      int j = 0;
+      while (j < key.length && buffer.get(start + j) == key[j]) {
+        j++;
+      }
+      if (j == key.length) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private long parseUnsignedLong(int pos) {
+    long value = 0;
+    while (pos < length) {
+      int digit = buffer.get(pos) - '0';
+      if (digit < 0 || digit > 9) {
+        break;
+      }
+      value = value * 10 + digit;
+      pos++;
+    }
+    return value;
+  }
+
+  private int skipWhitespace(int pos) {
+    while (pos < length && isWhitespace(buffer.get(pos))) {
+      pos++;
+    }
+    return pos;
+  }
+
+  private int skipToken(int pos) {
+    while (pos < length && !isWhitespace(buffer.get(pos))) {
+      pos++;
+    }
+    return pos;
+  }
+
+  private static boolean isWhitespace(byte b) {
+    return b == ' ' || b == '\n' || b == '\t';
+  }
+}
@@ -15,10 +15,9 @@
 
 package com.amazon.opendistro.elasticsearch.performanceanalyzer.os;
 
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatExceptionCode;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics_generator.linux.LinuxCPUPagingActivityGenerator;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.message.ParameterizedMessage;
@@ -26,118 +25,43 @@ import org.apache.logging.log4j.util.Supplier;
 
 public final class ThreadCPU {
   private static final Logger LOGGER = LogManager.getLogger(ThreadCPU.class);
+  // The fields of /proc/pid/task/tid/stat that are used, numbered as in proc(5), and their columns
+  // in statTable. They are declared before INSTANCE, whose constructor uses them.
+  private static final int[] STAT_FIELDS = {
+    10, // minflt
+    12, // majflt
+    14, // utime
+    15, // stime
+    24 // rss
+  };
+  private static final int MINFLT = 0;
+  private static final int MAJFLT = 1;
+  private static final int UTIME = 2;
+  private static final int STIME = 3;
+  private static final int RSS = 4;
+
   public static final ThreadCPU INSTANCE = new ThreadCPU();
   private long scClkTck = 0;
   private String pid = null;
   private List<String> tids = null;
-  private Map<String, Map<String, Object>> tidKVMap = new HashMap<>();
-  private Map<String, Map<String, Object>> oldtidKVMap = new HashMap<>();
+  private ThreadProcTable statTable = null;
   private long kvTimestamp = 0;
   private long oldkvTimestamp = 0;
   private LinuxCPUPagingActivityGenerator cpuPagingActivityMap =
       new LinuxCPUPagingActivityGenerator();
 
-  // these two arrays map 1-1
-  private static String[] statKeys = {
-    "pid",
-    "comm",
-    "state",
-    "ppid",
-    "pgrp",
-    "session",
-    "ttynr",
-    "tpgid",
-    "flags",
-    "minflt",
-    "cminflt",
-    "majflt",
-    "cmajflt",
-    "utime",
-    "stime",
-    "cutime",
-    "cstime",
-    "prio",
-    "nice",
-    "nthreads",
-    "itrealvalue",
-    "starttime",
-    "vsize",
-    "rss",
-    "rsslim",
-    "startcode",
-    "endcode",
-    "startstack",
-    "kstkesp",
-    "kstkeip",
-    "signal",
-    "blocked",
-    "sigignore",
-    "sigcatch",
-    "wchan",
-    "nswap",
-    "cnswap",
-    "exitsig",
-    "cpu",
-    "rtprio",
-    "schedpolicy",
-    "bio_ticks",
-    "vmtime",
-    "cvmtime"
-    // more that we ignore
-  };
-
-  private static SchemaFileParser.FieldTypes[] statTypes = {
-    SchemaFileParser.FieldTypes.INT,
-    SchemaFileParser.FieldTypes.STRING,
-    SchemaFileParser.FieldTypes.CHAR,
-    SchemaFileParser.FieldTypes.INT,
-    SchemaFileParser.FieldTypes.INT,
-    SchemaFileParser.FieldTypes.INT,
-    SchemaFileParser.FieldTypes.INT,
-    SchemaFileParser.FieldTypes.INT,
-    SchemaFileParser.FieldTypes.INT,
-    SchemaFileParser.FieldTypes.ULONG, // 10
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG, // 20
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG, // 30
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.INT,
-    SchemaFileParser.FieldTypes.INT,
-    SchemaFileParser.FieldTypes.INT, // 40
-    SchemaFileParser.FieldTypes.INT,
-    SchemaFileParser.FieldTypes.INT,
-    SchemaFileParser.FieldTypes.INT,
-    SchemaFileParser.FieldTypes.INT
-  };
-
   private ThreadCPU() {
     try {
       pid = OSGlobals.getPid();
       scClkTck = OSGlobals.getScClkTck();
       tids = OSGlobals.getTids();
+      statTable =
+          new ThreadProcTable(
+              pid,
+              "stat",
+              STAT_FIELDS.length,
+              (reader, values, offset) -> reader.parseStatFields(STAT_FIELDS, values, offset),
+              StatExceptionCode.SCHEMA_PARSER_ERROR);
     } catch (Exception e) {
       LOGGER.error(
           (Supplier<?>)
@@ -149,20 +73,9 @@ public final class ThreadCPU {
   public synchronized void addSample() {
     tids = OSGlobals.getTids();
 
-    oldtidKVMap.clear();
-    oldtidKVMap.putAll(tidKVMap);
-
-    tidKVMap.clear();
     oldkvTimestamp = kvTimestamp;
     kvTimestamp = System.currentTimeMillis();
-    for (String tid : tids) {
-      Map<String, Object> sample =
-          // (new SchemaFileParser("/proc/"+tid+"/stat",
-          (new SchemaFileParser(
-                  "/proc/" + pid + "/task/" + tid + "/stat", statKeys, statTypes, true))
-              .parse();
-      tidKVMap.put(tid, sample);
-    }
+    statTable.sample(tids);
 
     calculateCPUDetails();
     calculatePagingActivity();
@@ -173,18 +86,11 @@ public final class ThreadCPU {
       return;
     }
 
-    for (Map.Entry<String, Map<String, Object>> entry : tidKVMap.entrySet()) {
-      Map<String, Object> v = entry.getValue();
-      Map<String, Object> oldv = oldtidKVMap.get(entry.getKey());
-      if (v != null && oldv != null) {
-        if (!v.containsKey("utime") || !oldv.containsKey("utime")) {
-          continue;
-        }
-        long diff =
-            ((long) (v.getOrDefault("utime", 0L)) - (long) (oldv.getOrDefault("utime", 0L)))
-                + ((long) (v.getOrDefault("stime", 0L)) - (long) (oldv.getOrDefault("stime", 0L)));
+    for (int slot = 0; slot < statTable.getSlotCount(); slot++) {
+      if (statTable.hasBothSamples(slot)) {
+        long diff = statTable.getDelta(slot, UTIME) + statTable.getDelta(slot, STIME);
         double util = (1.0e3 * diff / scClkTck) / (kvTimestamp - oldkvTimestamp);
-        cpuPagingActivityMap.setCPUUtilization(entry.getKey(), util);
+        cpuPagingActivityMap.setCPUUtilization(statTable.getTid(slot), util);
       }
     }
   }
@@ -195,22 +101,15 @@ public final class ThreadCPU {
       return;
     }
 
-    for (Map.Entry<String, Map<String, Object>> entry : tidKVMap.entrySet()) {
-      Map<String, Object> v = entry.getValue();
-      Map<String, Object> oldv = oldtidKVMap.get(entry.getKey());
-      if (v != null && oldv != null) {
-        if (!v.containsKey("majflt") || !oldv.containsKey("majflt")) {
-          continue;
-        }
-        double majdiff =
-            ((long) (v.getOrDefault("majflt", 0L)) - (long) (oldv.getOrDefault("majflt", 0L)));
+    for (int slot = 0; slot < statTable.getSlotCount(); slot++) {
+      if (statTable.hasBothSamples(slot)) {
+        double majdiff = statTable.getDelta(slot, MAJFLT);
         majdiff /= 1.0e-3 * (kvTimestamp - oldkvTimestamp);
-        double mindiff =
-            ((long) (v.getOrDefault("minflt", 0L)) - (long) (oldv.getOrDefault("minflt", 0L)));
+        double mindiff = statTable.getDelta(slot, MINFLT);
         mindiff /= 1.0e-3 * (kvTimestamp - oldkvTimestamp);
 
-        Double[] fltarr = {majdiff, mindiff, (double) ((long) v.getOrDefault("rss", 0L))};
-        cpuPagingActivityMap.setPagingActivities(entry.getKey(), fltarr);
+        Double[] fltarr = {majdiff, mindiff, (double) statTable.getCurrent(slot, RSS)};
+        cpuPagingActivityMap.setPagingActivities(statTable.getTid(slot), fltarr);
       }
     }
   }
@@ -16,25 +16,30 @@
 package com.amazon.opendistro.elasticsearch.performanceanalyzer.os;
 
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatExceptionCode;
-import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatsCollector;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics_generator.linux.LinuxDiskIOMetricsGenerator;
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
 
 public class ThreadDiskIO {
   private static String pid = OSGlobals.getPid();
   private static List<String> tids = null;
-  private static final Logger LOGGER = LogManager.getLogger(ThreadDiskIO.class);
 
-  private static Map<String, Map<String, Long>> tidKVMap = new HashMap<>();
-  private static Map<String, Map<String, Long>> oldtidKVMap = new HashMap<>();
+  // The keys of /proc/pid/task/tid/io that are used. Their indexes are their columns in ioTable.
+  private static final byte[][] IO_KEYS =
+      ProcFileReader.asciiKeys("rchar", "wchar", "syscr", "syscw", "read_bytes", "write_bytes");
+  private static final int RCHAR = 0;
+  private static final int WCHAR = 1;
+  private static final int SYSCR = 2;
+  private static final int SYSCW = 3;
+  private static final int READ_BYTES = 4;
+  private static final int WRITE_BYTES = 5;
+
+  private static ThreadProcTable ioTable =
+      new ThreadProcTable(
+          pid,
+          "io",
+          IO_KEYS.length,
+          (reader, values, offset) -> reader.parseKeyValueLines(IO_KEYS, values, offset),
+          StatExceptionCode.THREAD_IO_ERROR);
   private static long kvTimestamp = 0;
   private static long oldkvTimestamp = 0;
 
@@ -97,41 +102,11 @@ public class ThreadDiskIO {
     }
   }
 
-  private static void addSampleTid(String tid) {
-    try (FileReader fileReader = new FileReader(new File("/proc/" + pid + "/task/" + tid + "/io"));
-        BufferedReader bufferedReader = new BufferedReader(fileReader); ) {
-      String line = null;
-      Map<String, Long> kvmap = new HashMap<>();
-      while ((line = bufferedReader.readLine()) != null) {
-        String[] toks = line.split("[: ]+");
-        String key = toks[0];
-        long val = Long.parseLong(toks[1]);
-        kvmap.put(key, val);
-      }
-      tidKVMap.put(tid, kvmap);
-    } catch (FileNotFoundException e) {
-      LOGGER.debug("FileNotFound in parse with exception: {}", () -> e.toString());
-    } catch (Exception e) {
-      LOGGER.debug(
-          "Error In addSample Tid for: {}  with error: {} with ExceptionCode: {}",
-          () -> tid,
-          () -> e.toString(),
-          () -> StatExceptionCode.THREAD_IO_ERROR.toString());
-      StatsCollector.instance().logException(StatExceptionCode.THREAD_IO_ERROR);
-    }
-  }
-
   public static synchronized void addSample() {
     tids = OSGlobals.getTids();
-    oldtidKVMap.clear();
-    oldtidKVMap.putAll(tidKVMap);
-
-    tidKVMap.clear();
     oldkvTimestamp = kvTimestamp;
     kvTimestamp = System.currentTimeMillis();
-    for (String tid : tids) {
-      addSampleTid(tid);
-    }
+    ioTable.sample(tids);
   }
 
   public static synchronized LinuxDiskIOMetricsGenerator getIOUtilization() {
@@ -141,17 +116,15 @@ public class ThreadDiskIO {
       return linuxDiskIOMetricsHandler;
     }
 
-    for (Map.Entry<String, Map<String, Long>> entry : tidKVMap.entrySet()) {
-      Map<String, Long> v = entry.getValue();
-      Map<String, Long> oldv = oldtidKVMap.get(entry.getKey());
-      if (v != null && oldv != null) {
+    for (int slot = 0; slot < ioTable.getSlotCount(); slot++) {
+      if (ioTable.hasBothSamples(slot)) {
         double duration = 1.0e-3 * (kvTimestamp - oldkvTimestamp);
-        double readBytes = v.get("read_bytes") - oldv.get("read_bytes");
-        double writeBytes = v.get("write_bytes") - oldv.get("write_bytes");
-        double readSyscalls = v.get("syscr") - oldv.get("syscr");
-        double writeSyscalls = v.get("syscw") - oldv.get("syscw");
-        double readPcBytes = v.get("rchar") - oldv.get("rchar") - readBytes;
-        double writePcBytes = v.get("wchar") - oldv.get("wchar") - writeBytes;
+        double readBytes = ioTable.getDelta(slot, READ_BYTES);
+        double writeBytes = ioTable.getDelta(slot, WRITE_BYTES);
+        double readSyscalls = ioTable.getDelta(slot, SYSCR);
+        double writeSyscalls = ioTable.getDelta(slot, SYSCW);
+        double readPcBytes = ioTable.getDelta(slot, RCHAR) - readBytes;
+        double writePcBytes = ioTable.getDelta(slot, WCHAR) - writeBytes;
         readBytes /= duration;
         readSyscalls /= duration;
         writeBytes /= duration;
@@ -160,7 +133,7 @@ public class ThreadDiskIO {
         writePcBytes /= duration;
 
         linuxDiskIOMetricsHandler.setDiskIOMetrics(
-            entry.getKey(),
+            ioTable.getTid(slot),
             new IOMetrics(
                 readBytes,
                 readSyscalls,
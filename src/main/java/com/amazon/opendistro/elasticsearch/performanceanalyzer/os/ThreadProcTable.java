@@ -0,0 +1,207 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.os;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatExceptionCode;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatsCollector;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * The current and the previous sample of a /proc/[pid]/task/[tid] file for each thread, kept in
+ * primitive columns.
+ *
+ * <p>Each thread gets a slot when it is first seen and keeps it for as long as it is alive, so a
+ * sample only allocates for threads that are new since the last one. The slot of a thread that is
+ * gone is handed to the next new thread, which has no previous sample to compare with.
+ */
+class ThreadProcTable {
+  private static final Logger LOGGER = LogManager.getLogger(ThreadProcTable.class);
+  private static final int INITIAL_SLOTS = 256;
+
+  /** Parses the file that was just read into the values of one slot. */
+  @FunctionalInterface
+  interface Parser {
+    /**
+     * @return false if the file does not hold all the values.
+     */
+    boolean parse(ProcFileReader reader, long[] values, int offset);
+  }
+
+  private final String pid;
+  private final String procFile;
+  private final int columns;
+  private final Parser parser;
+  private final StatExceptionCode errorCode;
+  private final ProcFileReader reader = new ProcFileReader();
+
+  private final Map<String, Integer> slots = new HashMap<>();
+  private String[] tids = new String[INITIAL_SLOTS];
+  private Path[] paths = new Path[INITIAL_SLOTS];
+  private long[] seenInSample = new long[INITIAL_SLOTS];
+  private int[] freeSlots = new int[INITIAL_SLOTS];
+  private int freeSlotCount = 0;
+  private int slotCount = 0;
+  private long sampleCount = 0;
+
+  // values[slot * columns + column]
+  private long[] current;
+  private long[] previous;
+  private boolean[] currentValid = new boolean[INITIAL_SLOTS];
+  private boolean[] previousValid = new boolean[INITIAL_SLOTS];
+
+  /**
+   * @param pid The process whose threads are sampled.
+   * @param procFile The name of the file under /proc/[pid]/task/[tid].
+   * @param columns The number of values the parser reads from the file.
+   * @param parser Reads the values from the file.
+   * @param errorCode The code logged when a file that exists cannot be read or parsed.
+   */
+  ThreadProcTable(String pid, String procFile, int columns, Parser parser,
+      StatExceptionCode errorCode) {
+    this.pid = pid;
+    this.procFile = procFile;
+    this.columns = columns;
+    this.parser = parser;
+    this.errorCode = errorCode;
+    this.current = new long[INITIAL_SLOTS * columns];
+    this.previous = new long[INITIAL_SLOTS * columns];
+  }
+
+  /**
+   * Reads the file of each thread. What was the current sample becomes the previous one.
+   *
+   * @param threads The ids of the threads alive now.
+   */
+  void sample(List<String> threads) {
+    long[] values = previous;
+    previous = current;
+    current = values;
+    boolean[] valid = previousValid;
+    previousValid = currentValid;
+    currentValid = valid;
+    Arrays.fill(currentValid, false);
+    sampleCount++;
+
+    for (String tid : threads) {
+      Integer slot = slots.get(tid);
+      if (slot == null) {
+        slot = allocateSlot(tid);
+      }
+      seenInSample[slot] = sampleCount;
+      currentValid[slot] = read(slot);
+    }
+    releaseGoneThreads();
+  }
+
+  int getSlotCount() {
+    return slotCount;
+  }
+
+  /** The thread in the slot, or null if the slot is free. */
+  String getTid(int slot) {
+    return tids[slot];
+  }
+
+  /** Whether the thread in the slot was read both in the current and in the previous sample. */
+  boolean hasBothSamples(int slot) {
+    return currentValid[slot] && previousValid[slot];
+  }
+
+  long getCurrent(int slot, int column) {
+    return current[slot * columns + column];
+  }
+
+  long getDelta(int slot, int column) {
+    int index = slot * columns + column;
+    return current[index] - previous[index];
+  }
+
+  private boolean read(int slot) {
+    try {
+      reader.read(paths[slot]);
+    } catch (NoSuchFileException e) {
+      // The thread exited after the threads were listed.
+      LOGGER.debug("FileNotFound in parse with exception: {}", () -> e.toString());
+      return false;
+    } catch (Exception e) {
+      LOGGER.debug(
+          "Error in reading {} with exception: {} with ExceptionCode: {}",
+          () -> paths[slot],
+          () -> e.toString(),
+          () -> errorCode.toString());
+      StatsCollector.instance().logException(errorCode);
+      return false;
+    }
+    if (!parser.parse(reader, current, slot * columns)) {
+      LOGGER.debug(
+          "Fewer values than expected in {} with ExceptionCode: {}",
+          () -> paths[slot],
+          () -> errorCode.toString());
+      StatsCollector.instance().logException(errorCode);
+      return false;
+    }
+    return true;
+  }
+
+  private int allocateSlot(String tid) {
+    int slot;
+    if (freeSlotCount > 0) {
+      slot = freeSlots[--freeSlotCount];
+    } else {
+      if (slotCount == tids.length) {
+        grow();
+      }
+      slot = slotCount++;
+    }
+    tids[slot] = tid;
+    paths[slot] = Paths.get("/proc", pid, "task", tid, procFile);
+    // The slot might have been used by a thread that is gone.
+    previousValid[slot] = false;
+    slots.put(tid, slot);
+    return slot;
+  }
+
+  private void releaseGoneThreads() {
+    for (int slot = 0; slot < slotCount; slot++) {
+      if (tids[slot] != null && seenInSample[slot] != sampleCount) {
+        slots.remove(tids[slot]);
+        tids[slot] = null;
+        paths[slot] = null;
+        freeSlots[freeSlotCount++] = slot;
+      }
+    }
+  }
+
+  private void grow() {
+    int capacity = tids.length * 2;
+    tids = Arrays.copyOf(tids, capacity);
+    paths = Arrays.copyOf(paths, capacity);
+    seenInSample = Arrays.copyOf(seenInSample, capacity);
+    freeSlots = Arrays.copyOf(freeSlots, capacity);
+    current = Arrays.copyOf(current, capacity * columns);
+    previous = Arrays.copyOf(previous, capacity * columns);
+    currentValid = Arrays.copyOf(currentValid, capacity);
+    previousValid = Arrays.copyOf(previousValid, capacity);
+  }
+}
@@ -15,11 +15,10 @@
 
 package com.amazon.opendistro.elasticsearch.performanceanalyzer.os;
 
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatExceptionCode;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics_generator.SchedMetricsGenerator;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics_generator.linux.LinuxSchedMetricsGenerator;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.message.ParameterizedMessage;
@@ -30,8 +29,7 @@ public final class ThreadSched {
   public static final ThreadSched INSTANCE = new ThreadSched();
   private String pid = null;
   private List<String> tids = null;
-  private Map<String, Map<String, Object>> tidKVMap = new HashMap<>();
-  private Map<String, Map<String, Object>> oldtidKVMap = new HashMap<>();
+  private ThreadProcTable schedTable = null;
   private long kvTimestamp = 0;
   private long oldkvTimestamp = 0;
 
@@ -61,18 +59,23 @@ public final class ThreadSched {
 
   private LinuxSchedMetricsGenerator schedLatencyMap = new LinuxSchedMetricsGenerator();
 
-  private static String[] schedKeys = {"runticks", "waitticks", "totctxsws"};
-
-  private static SchemaFileParser.FieldTypes[] schedTypes = {
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG
-  };
+  // The columns of /proc/pid/task/tid/schedstat in schedTable.
+  private static final int RUNTICKS = 0;
+  private static final int WAITTICKS = 1;
+  private static final int TOTCTXSWS = 2;
+  private static final int SCHED_COLUMNS = 3;
 
   private ThreadSched() {
     try {
       pid = OSGlobals.getPid();
       tids = OSGlobals.getTids();
+      schedTable =
+          new ThreadProcTable(
+              pid,
+              "schedstat",
+              SCHED_COLUMNS,
+              (reader, values, offset) -> reader.parseFields(SCHED_COLUMNS, values, offset),
+              StatExceptionCode.SCHEMA_PARSER_ERROR);
     } catch (Exception e) {
       LOGGER.error(
           (Supplier<?>)
@@ -84,19 +87,9 @@ public final class ThreadSched {
   public synchronized void addSample() {
     tids = OSGlobals.getTids();
 
-    oldtidKVMap.clear();
-    oldtidKVMap.putAll(tidKVMap);
-
-    tidKVMap.clear();
     oldkvTimestamp = kvTimestamp;
     kvTimestamp = System.currentTimeMillis();
-    for (String tid : tids) {
-      Map<String, Object> sample =
-          (new SchemaFileParser(
-                  "/proc/" + pid + "/task/" + tid + "/schedstat", schedKeys, schedTypes))
-              .parse();
-      tidKVMap.put(tid, sample);
-    }
+    schedTable.sample(tids);
 
     calculateSchedLatency();
   }
@@ -106,23 +99,11 @@ public final class ThreadSched {
       return;
     }
 
-    for (Map.Entry<String, Map<String,Object>> entry : tidKVMap.entrySet()) {
-      Map<String, Object> v = entry.getValue();
-      Map<String, Object> oldv = oldtidKVMap.get(entry.getKey());
-      if (v != null && oldv != null) {
-        if (!v.containsKey("totctxsws") || !oldv.containsKey("totctxsws")) {
-          continue;
-        }
-        long ctxdiff =
-            (long) v.getOrDefault("totctxsws", 0L) - (long) oldv.getOrDefault("totctxsws", 0L);
-        double avgRuntime =
-            1.0e-9
-                * ((long) v.getOrDefault("runticks", 0L)
-                    - (long) oldv.getOrDefault("runticks", 0L));
-        double avgWaittime =
-            1.0e-9
-                * ((long) v.getOrDefault("waitticks", 0L)
-                    - (long) oldv.getOrDefault("waitticks", 0L));
+    for (int slot = 0; slot < schedTable.getSlotCount(); slot++) {
+      if (schedTable.hasBothSamples(slot)) {
+        long ctxdiff = schedTable.getDelta(slot, TOTCTXSWS);
+        double avgRuntime = 1.0e-9 * schedTable.getDelta(slot, RUNTICKS);
+        double avgWaittime = 1.0e-9 * schedTable.getDelta(slot, WAITTICKS);
         if (ctxdiff == 0) {
           avgRuntime = 0;
           avgWaittime = 0;
@@ -134,7 +115,7 @@ public final class ThreadSched {
         contextSwitchRate /= 1.0e-3 * (kvTimestamp - oldkvTimestamp);
 
         schedLatencyMap.setSchedMetric(
-            entry.getKey(), new SchedMetrics(avgRuntime, avgWaittime, contextSwitchRate));
+            schedTable.getTid(slot), new SchedMetrics(avgRuntime, avgWaittime, contextSwitchRate));
       }
     }
   }
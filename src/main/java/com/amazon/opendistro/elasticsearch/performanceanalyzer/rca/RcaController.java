@@ -38,6 +38,7 @@ import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.met
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.util.InstanceDetails;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.util.RcaConsts;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.util.RcaUtil;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net.FlowUnitBatcher;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net.NodeStateManager;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net.ReceivedFlowUnitStore;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net.SubscriptionManager;
@@ -49,6 +50,8 @@ import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.persistence.P
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.persistence.PersistenceFactory;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.scheduler.RCAScheduler;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.scheduler.RcaSchedulerState;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rest.BoundedRequestHandler;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rest.BoundedRequestHandler.EndpointClass;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rest.QueryActionRequestHandler;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rest.QueryRcaRequestHandler;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.threads.ThreadProvider;
@@ -209,9 +212,15 @@ public class RcaController {
       addActionsRequestHandler();
       queryActionRequestHandler.setPersistable(persistenceProvider);
       receivedFlowUnitStore = new ReceivedFlowUnitStore(rcaConf.getPerVertexBufferLength());
+      FlowUnitBatcher flowUnitBatcher = null;
+      if (PluginSettings.instance().isRcaBatchedPublishEnabled()) {
+        flowUnitBatcher = new FlowUnitBatcher(rcaNetClient, subscriptionManager, appContext,
+            rcaConf.getPerVertexBufferLength(),
+            PluginSettings.instance().isRcaDeltaEncodingEnabled());
+      }
       WireHopper net =
           new WireHopper(nodeStateManager, rcaNetClient, subscriptionManager,
-              networkThreadPoolReference, receivedFlowUnitStore, appContext);
+              networkThreadPoolReference, receivedFlowUnitStore, appContext, flowUnitBatcher);
 
       // RcaScheduler should be started with a snapshot of the AppContext as RcaController
       // monitors it for stale state and always restarts the scheduler if it finds its state
@@ -511,11 +520,14 @@ public class RcaController {
   }
 
   private void addRcaRequestHandler() {
-    httpServer.createContext(Util.RCA_QUERY_URL, queryRcaRequestHandler);
+    httpServer.createContext(
+        Util.RCA_QUERY_URL, BoundedRequestHandler.wrap(queryRcaRequestHandler, EndpointClass.RCA));
   }
 
   private void addActionsRequestHandler() {
-    httpServer.createContext(Util.ACTIONS_QUERY_URL, queryActionRequestHandler);
+    httpServer.createContext(
+        Util.ACTIONS_QUERY_URL,
+        BoundedRequestHandler.wrap(queryActionRequestHandler, EndpointClass.RCA));
   }
 
   public void setDeliberateInterrupt() {
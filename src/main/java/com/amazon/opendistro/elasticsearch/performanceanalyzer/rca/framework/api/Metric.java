@@ -19,6 +19,7 @@ import com.amazon.opendistro.elasticsearch.performanceanalyzer.PerformanceAnalyz
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.AllMetrics;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.MetricsDB;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.flow_units.MetricFlowUnit;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.flow_units.MetricTable;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.LeafNode;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.Queryable;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.metrics.ExceptionsAndErrors;
@@ -28,8 +29,6 @@ import java.util.Collections;
 import java.util.List;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.jooq.Record;
-import org.jooq.Result;
 import org.jooq.exception.DataAccessException;
 
 public abstract class Metric extends LeafNode<MetricFlowUnit> {
@@ -70,8 +69,8 @@ public abstract class Metric extends LeafNode<MetricFlowUnit> {
       return MetricFlowUnit.generic();
     }
     try {
-      Result<Record> result = queryable.queryMetrics(db, name);
-      return new MetricFlowUnit(queryable.getDBTimestamp(db), result);
+      MetricTable table = queryable.queryMetricTable(db, name);
+      return new MetricFlowUnit(queryable.getDBTimestamp(db), table);
     } catch (DataAccessException dex) {
       // This can happen if the RCA started querying for metrics before the Reader obtained them.
       // This is not an error.
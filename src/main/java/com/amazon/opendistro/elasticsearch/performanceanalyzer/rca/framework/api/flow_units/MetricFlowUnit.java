@@ -25,7 +25,10 @@ import org.jooq.Result;
 
 public class MetricFlowUnit extends GenericFlowUnit {
 
-  private Result<Record> data = null;
+  // At least one of the two is set on a non-empty flow unit, and the other is built from it on
+  // first use. Building it twice in a race is harmless.
+  private volatile Result<Record> data = null;
+  private volatile MetricTable table = null;
 
   public MetricFlowUnit(long timeStamp) {
     super(timeStamp);
@@ -37,12 +40,39 @@ public class MetricFlowUnit extends GenericFlowUnit {
     this.empty = false;
   }
 
+  public MetricFlowUnit(long timeStamp, MetricTable table) {
+    super(timeStamp);
+    this.table = table;
+    this.empty = false;
+  }
+
   /**
-   * read SQL result from flowunit
+   * read SQL result from flowunit. Metric gathers build the flow unit from a {@link MetricTable},
+   * which is copied into a Result on the first call.
    * @return SQL result
    */
   public Result<Record> getData() {
-    return data;
+    Result<Record> result = data;
+    if (result == null && table != null) {
+      result = table.toResult();
+      data = result;
+    }
+    return result;
+  }
+
+  /**
+   * Reads the flow unit as columns, which is cheaper than walking {@link #getData()} by field name
+   * when every row is read.
+   *
+   * @return the columnar metrics, or null if the flow unit holds no data
+   */
+  public MetricTable getTable() {
+    MetricTable columns = table;
+    if (columns == null && data != null) {
+      columns = MetricTable.fromResult(data);
+      table = columns;
+    }
+    return columns;
   }
 
   public static MetricFlowUnit generic() {
@@ -0,0 +1,313 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.flow_units;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+
+/**
+ * A read-only, columnar copy of the metrics held by a {@link MetricFlowUnit}.
+ *
+ * <p>Numeric fields, such as the sum, avg, min and max of a metric, are held in primitive double
+ * columns, with null values read as NaN. The other fields are dimensions, held as string columns
+ * whose equal values share one instance. Fields are addressed by their position, which {@link
+ * #indexOf(String)} resolves once per flow unit rather than once per row, and rows are walked with
+ * a {@link Cursor}:
+ *
+ * <pre>
+ *   int shard = table.indexOf("ShardID");
+ *   int sum = table.indexOf(MetricsDB.SUM);
+ *   for (MetricTable.Cursor cursor = table.cursor(); cursor.next(); ) {
+ *     total += cursor.getDouble(sum);
+ *   }
+ * </pre>
+ */
+public final class MetricTable {
+  private static final DSLContext CONTEXT = DSL.using(SQLDialect.SQLITE);
+
+  private final Field<?>[] fields;
+  private final Map<String, Integer> fieldIndex;
+  private final int rows;
+  // For every field, its column: a dimension column or a value column, the other being null.
+  private final String[][] dimensions;
+  private final double[][] values;
+
+  private MetricTable(Field<?>[] fields, int rows, String[][] dimensions, double[][] values) {
+    this.fields = fields;
+    this.rows = rows;
+    this.dimensions = dimensions;
+    this.values = values;
+    this.fieldIndex = new HashMap<>();
+    for (int i = fields.length - 1; i >= 0; i--) {
+      fieldIndex.put(fields[i].getName(), i);
+    }
+  }
+
+  /**
+   * Copies a query result into columns.
+   *
+   * @param result the result to copy
+   * @return the columnar copy of the result
+   */
+  public static MetricTable fromResult(Result<Record> result) {
+    return fromRecords(result.fields(), result.iterator());
+  }
+
+  /**
+   * Reads records into columns as they come, so that a lazily fetched query is never held as a
+   * whole {@link Result}.
+   *
+   * @param fields the fields of the records
+   * @param records the records, read once
+   * @return the columnar copy of the records
+   */
+  public static MetricTable fromRecords(Field<?>[] fields, Iterator<? extends Record> records) {
+    ColumnBuilder[] columns = new ColumnBuilder[fields.length];
+    for (int field = 0; field < fields.length; field++) {
+      columns[field] = new ColumnBuilder(fields[field].getType());
+    }
+    int rows = 0;
+    while (records.hasNext()) {
+      Record record = records.next();
+      for (int field = 0; field < fields.length; field++) {
+        columns[field].add(record.get(field), rows);
+      }
+      rows++;
+    }
+    String[][] dimensions = new String[fields.length][];
+    double[][] values = new double[fields.length][];
+    for (int field = 0; field < fields.length; field++) {
+      columns[field].build(rows, dimensions, values, field);
+    }
+    return new MetricTable(fields, rows, dimensions, values);
+  }
+
+  /** Returns the number of rows. */
+  public int size() {
+    return rows;
+  }
+
+  /** Returns the number of fields. */
+  public int fieldCount() {
+    return fields.length;
+  }
+
+  /** Returns the name of a field. */
+  public String fieldName(int field) {
+    return fields[field].getName();
+  }
+
+  /**
+   * Returns the position of a field.
+   *
+   * @param fieldName the name of the field
+   * @return the position of the first field with that name, or -1 if there is none
+   */
+  public int indexOf(String fieldName) {
+    Integer field = fieldIndex.get(fieldName);
+    return field == null ? -1 : field;
+  }
+
+  /** Returns true if a field is held as a double column. */
+  public boolean isNumeric(int field) {
+    return values[field] != null;
+  }
+
+  /**
+   * Returns the value of a field as a string.
+   *
+   * @param field the position of the field
+   * @param row the row
+   * @return the value, or null if it is null
+   */
+  public String getString(int field, int row) {
+    if (dimensions[field] != null) {
+      return dimensions[field][row];
+    }
+    double value = values[field][row];
+    return Double.isNaN(value) ? null : String.valueOf(value);
+  }
+
+  /**
+   * Returns the value of a field as a double. Dimension values are parsed.
+   *
+   * @param field the position of the field
+   * @param row the row
+   * @return the value, or NaN if it is null
+   * @throws NumberFormatException if the value of a dimension is not a number
+   */
+  public double getDouble(int field, int row) {
+    if (values[field] != null) {
+      return values[field][row];
+    }
+    String value = dimensions[field][row];
+    return value == null ? Double.NaN : Double.parseDouble(value);
+  }
+
+  /** Returns a cursor positioned before the first row. */
+  public Cursor cursor() {
+    return new Cursor();
+  }
+
+  /**
+   * Copies the rows back into a query result, with the fields and field types of the result this
+   * table was built from.
+   *
+   * @return the rows as a query result
+   */
+  public Result<Record> toResult() {
+    Result<Record> result = CONTEXT.newResult(fields);
+    for (int row = 0; row < rows; row++) {
+      Object[] array = new Object[fields.length];
+      for (int field = 0; field < fields.length; field++) {
+        if (dimensions[field] != null) {
+          array[field] = dimensions[field][row];
+        } else if (!Double.isNaN(values[field][row])) {
+          array[field] = fields[field].getDataType().convert(values[field][row]);
+        }
+      }
+      Record record = CONTEXT.newRecord(fields);
+      record.fromArray(array);
+      record.changed(false);
+      result.add(record);
+    }
+    return result;
+  }
+
+  /**
+   * Grows one column as records are read. Numeric fields go to a double column and the others to
+   * a string column. Fields of untyped tables are held as they come until all the rows are read,
+   * and are numeric if all their values are.
+   */
+  private static final class ColumnBuilder {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final boolean numeric;
+    private final boolean untyped;
+    private double[] doubles;
+    private String[] strings;
+    private Object[] objects;
+    private Map<String, String> interned;
+
+    ColumnBuilder(Class<?> type) {
+      numeric = Number.class.isAssignableFrom(type);
+      untyped = type == Object.class;
+      if (numeric) {
+        doubles = new double[INITIAL_CAPACITY];
+      } else if (untyped) {
+        objects = new Object[INITIAL_CAPACITY];
+      } else {
+        strings = new String[INITIAL_CAPACITY];
+        interned = new HashMap<>();
+      }
+    }
+
+    void add(Object value, int row) {
+      if (numeric) {
+        if (row == doubles.length) {
+          doubles = Arrays.copyOf(doubles, row * 2);
+        }
+        doubles[row] = value == null ? Double.NaN : ((Number) value).doubleValue();
+      } else if (untyped) {
+        if (row == objects.length) {
+          objects = Arrays.copyOf(objects, row * 2);
+        }
+        objects[row] = value;
+      } else {
+        if (row == strings.length) {
+          strings = Arrays.copyOf(strings, row * 2);
+        }
+        strings[row] = value == null ? null : intern(value.toString());
+      }
+    }
+
+    void build(int rows, String[][] dimensions, double[][] values, int field) {
+      if (numeric) {
+        values[field] = Arrays.copyOf(doubles, rows);
+      } else if (!untyped) {
+        dimensions[field] = Arrays.copyOf(strings, rows);
+      } else if (allNumbers(rows)) {
+        double[] column = new double[rows];
+        for (int row = 0; row < rows; row++) {
+          column[row] = objects[row] == null ? Double.NaN : ((Number) objects[row]).doubleValue();
+        }
+        values[field] = column;
+      } else {
+        interned = new HashMap<>();
+        String[] column = new String[rows];
+        for (int row = 0; row < rows; row++) {
+          column[row] = objects[row] == null ? null : intern(objects[row].toString());
+        }
+        dimensions[field] = column;
+      }
+    }
+
+    private boolean allNumbers(int rows) {
+      boolean numbers = false;
+      for (int row = 0; row < rows; row++) {
+        if (objects[row] != null) {
+          if (!(objects[row] instanceof Number)) {
+            return false;
+          }
+          numbers = true;
+        }
+      }
+      return numbers;
+    }
+
+    private String intern(String value) {
+      String previous = interned.putIfAbsent(value, value);
+      return previous == null ? value : previous;
+    }
+  }
+
+  /** Walks the rows of the table, without allocating per row. */
+  public final class Cursor {
+    private int row = -1;
+
+    private Cursor() {
+    }
+
+    /** Moves to the next row, returning false if there is none. */
+    public boolean next() {
+      return ++row < rows;
+    }
+
+    public int getRow() {
+      return row;
+    }
+
+    public String getString(int field) {
+      return MetricTable.this.getString(field, row);
+    }
+
+    public double getDouble(int field) {
+      return MetricTable.this.getDouble(field, row);
+    }
+
+    public boolean isNull(int field) {
+      return dimensions[field] != null ? dimensions[field][row] == null : Double.isNaN(values[field][row]);
+    }
+  }
+}
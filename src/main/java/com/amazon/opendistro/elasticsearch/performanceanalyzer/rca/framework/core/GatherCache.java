@@ -0,0 +1,113 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.PerformanceAnalyzerApp;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.MetricsDB;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.metrics.RcaGraphMetrics;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Caches the results of the metric queries run while the RCA graph evaluates one MetricsDB, so that
+ * the metric nodes that the graph instantiates once per RCA query each table once per tick.
+ *
+ * <p>Results are kept until the next tick clears them, as a MetricsDB can be updated in place, and
+ * only for the window of the latest MetricsDB queried: the first query on a newer window drops
+ * them, and queries on an older window are not cached. Concurrent queries of the same
+ * key wait for the first one instead of running the query again. A failed query is not cached, but
+ * its failure is handed to the queries waiting on it.
+ *
+ * <p>Cached results are shared by all the callers and must not be modified.
+ *
+ * @param <T> the type of the query results
+ */
+class GatherCache<T> {
+  // The window the cached results were queried from, guarded by this.
+  private long windowStartTime = Long.MIN_VALUE;
+  private final Map<String, CompletableFuture<T>> results = new HashMap<>();
+
+  /**
+   * Returns the cached result of a query on the given MetricsDB, running it if it is not cached.
+   *
+   * @param db the MetricsDB the query runs on
+   * @param key identifies the query among the queries on the same MetricsDB
+   * @param query runs the query
+   * @return the result of the query
+   * @throws Exception if the query failed
+   */
+  T get(MetricsDB db, String key, Callable<T> query) throws Exception {
+    CompletableFuture<T> result;
+    boolean owner = false;
+    synchronized (this) {
+      if (db.getWindowStartTime() < windowStartTime) {
+        result = null;
+      } else {
+        if (db.getWindowStartTime() > windowStartTime) {
+          windowStartTime = db.getWindowStartTime();
+          results.clear();
+        }
+        result = results.get(key);
+        if (result == null) {
+          result = new CompletableFuture<>();
+          results.put(key, result);
+          owner = true;
+        }
+      }
+    }
+    if (result == null) {
+      return query.call();
+    }
+    if (!owner) {
+      PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR.updateStat(
+          RcaGraphMetrics.METRIC_GATHER_CACHE_HIT, "", 1);
+      try {
+        return result.get();
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof Exception) {
+          throw (Exception) e.getCause();
+        }
+        throw e;
+      }
+    }
+
+    PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR.updateStat(
+        RcaGraphMetrics.METRIC_GATHER_CACHE_MISS, "", 1);
+    try {
+      T value = query.call();
+      result.complete(value);
+      return value;
+    } catch (Exception | Error e) {
+      synchronized (this) {
+        results.remove(key, result);
+      }
+      result.completeExceptionally(e);
+      throw e;
+    }
+  }
+
+  /** Drops all the cached results. Queries running now still complete their waiters. */
+  synchronized void clear() {
+    results.clear();
+  }
+
+  synchronized int size() {
+    return results.size();
+  }
+}
@@ -16,6 +16,7 @@
 package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core;
 
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.MetricsDB;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.flow_units.MetricTable;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.reader.ReaderMetricsProcessor;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -25,12 +26,16 @@ import java.util.Map;
 import java.util.stream.Collectors;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.jooq.Cursor;
 import org.jooq.Field;
 import org.jooq.Record;
 import org.jooq.Result;
 
 public class MetricsDBProvider implements Queryable {
   private static final Logger LOG = LogManager.getLogger(MetricsDBProvider.class);
+  // Every metric node queries the MetricsDB of the tick through here. Cleared on every tick.
+  private final GatherCache<MetricTable> tableCache = new GatherCache<>();
+  private final GatherCache<Result<Record>> gatherCache = new GatherCache<>();
 
   @Override
   public MetricsDB getMetricsDB() throws Exception {
@@ -52,13 +57,43 @@ public class MetricsDBProvider implements Queryable {
    *
    * <p>If we query for a metric that does not exist then {@code queryMetrics()} with throw
    * {@code exception}, which is not handled here. The caller might handle if it wants to.
+   *
+   * <p>The result is shared with the other callers querying the same metric on the same MetricsDB,
+   * and must not be modified.
    * @param db The MetricsDB file to query
    * @param metricName The table for the metric that will be queried.
    * @return Returns the metrics data in a tabular form.
    */
   @Override
   public Result<Record> queryMetrics(MetricsDB db, String metricName) {
-    return db.queryMetric(metricName);
+    try {
+      return gatherCache.get(db, metricName, () -> db.queryMetric(metricName));
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      // MetricsDB.queryMetric(String) only throws unchecked exceptions.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Same as {@link #queryMetrics(MetricsDB, String)}, with the rows read from the MetricsDB
+   * straight into columns instead of into a Result first.
+   */
+  @Override
+  public MetricTable queryMetricTable(MetricsDB db, String metricName) {
+    try {
+      return tableCache.get(db, metricName, () -> {
+        try (Cursor<Record> cursor = db.queryMetricLazily(metricName)) {
+          return MetricTable.fromRecords(cursor.fields(), cursor.iterator());
+        }
+      });
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      // MetricsDB.queryMetricLazily(String) only throws unchecked exceptions.
+      throw new IllegalStateException(e);
+    }
   }
 
   @Override
@@ -67,16 +102,24 @@ public class MetricsDBProvider implements Queryable {
       final String metricName,
       final String dimension,
       final String aggregation) throws Exception {
-      Result<Record> queryResult =
-          db.queryMetric(
-              Collections.singletonList(metricName),
-              Collections.singletonList(aggregation),
-              Collections.singletonList(dimension));
-      return queryResult;
+      return gatherCache.get(
+          db,
+          String.join("/", metricName, dimension, aggregation),
+          () ->
+              db.queryMetric(
+                  Collections.singletonList(metricName),
+                  Collections.singletonList(aggregation),
+                  Collections.singletonList(dimension)));
   }
 
   @Override
   public long getDBTimestamp(MetricsDB db) {
     return 0;
   }
+
+  @Override
+  public void startTick() {
+    tableCache.clear();
+    gatherCache.clear();
+  }
 }
@@ -16,6 +16,7 @@
 package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core;
 
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.MetricsDB;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.flow_units.MetricTable;
 import java.util.List;
 import org.jooq.Record;
 import org.jooq.Result;
@@ -26,8 +27,23 @@ public interface Queryable {
 
   Result<Record> queryMetrics(MetricsDB db, String metricName);
 
+  /**
+   * Queries all the data for the given metric as columns. By default, the result of {@link
+   * #queryMetrics(MetricsDB, String)} is copied.
+   */
+  default MetricTable queryMetricTable(MetricsDB db, String metricName) {
+    Result<Record> result = queryMetrics(db, metricName);
+    return result == null ? null : MetricTable.fromResult(result);
+  }
+
   Result<Record> queryMetrics(
       MetricsDB db, String metricName, String dimension, String aggregation) throws Exception;
 
   long getDBTimestamp(MetricsDB db);
+
+  /**
+   * Called by the scheduler before each tick, so that what was queried on the previous tick is not
+   * served again.
+   */
+  default void startTick() {}
 }
@@ -29,6 +29,26 @@ public enum RcaGraphMetrics implements MeasurementSet {
       Arrays.asList(
           Statistics.MAX, Statistics.MIN, Statistics.MEAN, Statistics.COUNT, Statistics.SUM)),
 
+  /**
+   * Time the scheduler thread takes per run to create the futures of the graph nodes, not
+   * counting the time the nodes take to execute.
+   */
+  GRAPH_SCHEDULING_OVERHEAD(
+      "RcaGraphSchedulingOverhead",
+      "micros",
+      Arrays.asList(Statistics.MAX, Statistics.MEAN, Statistics.SUM)),
+
+  /**
+   * Time taken by the scheduler to evaluate a graph node, including the gather or operate call,
+   * the persistence and the hand off to remote subscribers.
+   */
+  TASKLET_EXECUTION_TIME(
+      "TaskletExecution", "micros", Arrays.asList(Statistics.MAX, Statistics.MEAN, Statistics.SUM)),
+
+  /** Number of runs in which a graph node was on the critical path of the RCA graph. */
+  RCA_CRITICAL_PATH_NODE_COUNT("RcaCriticalPathNodeCount", "namedCount",
+      Collections.singletonList(Statistics.NAMED_COUNTERS)),
+
   /** Measures the time spent in the operate() method of a graph node. */
   GRAPH_NODE_OPERATE_CALL(
       "OperateCall", "millis", Arrays.asList(Statistics.MAX, Statistics.MEAN, Statistics.SUM)),
@@ -37,15 +57,38 @@ public enum RcaGraphMetrics implements MeasurementSet {
   METRIC_GATHER_CALL(
       "MetricGatherCall", "millis", Arrays.asList(Statistics.MAX, Statistics.MEAN, Statistics.SUM)),
 
+  /** Number of metric queries answered from the results of the same query on the same MetricsDB. */
+  METRIC_GATHER_CACHE_HIT(
+      "MetricGatherCacheHit", "count", Collections.singletonList(Statistics.COUNT)),
+
+  /** Number of metric queries that ran against the MetricsDB. */
+  METRIC_GATHER_CACHE_MISS(
+      "MetricGatherCacheMiss", "count", Collections.singletonList(Statistics.COUNT)),
+
   /** Measures the time spent in the persistence layer. */
   RCA_PERSIST_CALL(
       "RcaPersistCall", "micros", Arrays.asList(Statistics.MAX, Statistics.MEAN, Statistics.SUM)),
 
+  /** Number of writes the write-behind persistor committed in one transaction. */
+  RCA_PERSIST_BATCH_SIZE(
+      "RcaPersistBatchSize", "count", Arrays.asList(Statistics.MAX, Statistics.MEAN, Statistics.SUM)),
+
+  /** Time the write-behind persistor took to write and commit one batch. */
+  RCA_PERSIST_BATCH_TIME(
+      "RcaPersistBatchTime", "millis", Arrays.asList(Statistics.MAX, Statistics.MEAN)),
+
+  /** Number of writes dropped because the queue of the write-behind persistor was full. */
+  RCA_PERSIST_DROPPED("RcaPersistDropped", "count", Collections.singletonList(Statistics.COUNT)),
+
   NUM_GRAPH_NODES("NumGraphNodes", "count", Collections.singletonList(Statistics.SAMPLE)),
 
   NUM_GRAPH_NODES_MUTED(
       "NUMOfMutedGraphNodes", "count", Collections.singletonList(Statistics.SAMPLE)),
 
+  /** Number of graph nodes not due on a run, when the scheduler only runs the due nodes. */
+  NUM_GRAPH_NODES_NOT_DUE(
+      "NumOfGraphNodesNotDue", "count", Collections.singletonList(Statistics.SAMPLE)),
+
   NUM_NODES_EXECUTED_LOCALLY(
       "NodesExecutedLocally", "count", Collections.singletonList(Statistics.COUNT)),
 
@@ -58,6 +101,35 @@ public enum RcaGraphMetrics implements MeasurementSet {
   /** Measures number of bytes that was received as part of a protobuf message. */
   NET_BYTES_IN("TotalRcaBytesInSerialized", "bytes", Collections.singletonList(Statistics.SUM)),
 
+  /** The part of NET_BYTES_OUT sent as flow units with their summary in full. */
+  NET_BYTES_OUT_FULL_ENCODING(
+      "RcaBytesOutFullEncoding", "bytes", Collections.singletonList(Statistics.SUM)),
+
+  /** The part of NET_BYTES_OUT sent as flow units whose summary was left out as unchanged. */
+  NET_BYTES_OUT_UNCHANGED_ENCODING(
+      "RcaBytesOutUnchangedEncoding", "bytes", Collections.singletonList(Statistics.SUM)),
+
+  /** The part of NET_BYTES_OUT sent as flow units with delta encoded shard summaries. */
+  NET_BYTES_OUT_DELTA_ENCODING(
+      "RcaBytesOutDeltaEncoding", "bytes", Collections.singletonList(Statistics.SUM)),
+
+  /** Number of flow units sent in one batch to a subscriber host. */
+  NET_BATCH_SIZE(
+      "RcaFlowUnitBatchSize",
+      "count",
+      Arrays.asList(Statistics.MAX, Statistics.MEAN, Statistics.COUNT)),
+
+  /**
+   * Bytes saved by sending the flow units for a host in a batch, rather than as one stream message
+   * each, counting the per message gRPC and HTTP/2 framing and the delta encoding of the batch.
+   */
+  NET_BATCH_BYTES_SAVED(
+      "RcaFlowUnitBatchBytesSaved", "bytes", Collections.singletonList(Statistics.SUM)),
+
+  /** Number of times a batch was held back because the stream to the host was not ready. */
+  NET_BATCH_DEFERRED(
+      "RcaFlowUnitBatchDeferred", "count", Collections.singletonList(Statistics.COUNT)),
+
   /** Number of nodes that are currently publishing flow units to downstream nodes. */
   RCA_NODES_FU_PUBLISH_COUNT("RcaFlowUnitPublishCount", "namedCount",
       Collections.singletonList(Statistics.NAMED_COUNTERS)),
@@ -72,6 +144,27 @@ public enum RcaGraphMetrics implements MeasurementSet {
 
   /** Number of subscriptions acknowledged per node. */
   RCA_NODES_SUB_ACK_COUNT("RcaSubscriptionAckCount", "namedCount",
+      Collections.singletonList(Statistics.NAMED_COUNTERS)),
+
+  /** Number of calls waiting for an RPC handler thread when a call is dispatched, per RPC. */
+  RPC_HANDLER_QUEUE_DEPTH(
+      "RpcHandlerQueueDepth", "count", Arrays.asList(Statistics.MAX, Statistics.MEAN)),
+
+  /** Time spent in the handler of an RPC, or of a message of a streaming RPC, per RPC. */
+  RPC_HANDLING_LATENCY(
+      "RpcHandlingLatency",
+      "millis",
+      Arrays.asList(Statistics.MAX, Statistics.MEAN, Statistics.COUNT)),
+
+  /** Number of calls or messages per RPC that were turned away because a pool was full. */
+  RPC_REJECTED_COUNT("RpcRejectedCount", "namedCount",
+      Collections.singletonList(Statistics.NAMED_COUNTERS)),
+
+  /**
+   * Number of received flow units per vertex dropped because the vertex buffer was full. Together
+   * with RCA_NODES_FU_CONSUME_COUNT, this gives the drop rate.
+   */
+  RCA_NODES_FU_DROP_COUNT("RcaFlowUnitDropCount", "namedCount",
       Collections.singletonList(Statistics.NAMED_COUNTERS));
 
   /** What we want to appear as the metric name. */
@@ -14,6 +14,19 @@ public enum ReaderMetrics implements MeasurementSet {
      */
     METRICSDB_FILE_SIZE("MetricsdbFileSize", "bytes", Arrays.asList(Statistics.MAX, Statistics.MEAN)),
 
+    /**
+     * Number of rows written into the metricsdb of a window.
+     */
+    METRICSDB_ROWS_WRITTEN("MetricsdbRowsWritten", "count",
+        Arrays.asList(Statistics.MAX, Statistics.MEAN, Statistics.SUM)),
+
+    /**
+     * Rate at which rows were written into the metricsdb of a window, from the start of the
+     * emission to its commit.
+     */
+    METRICSDB_WRITE_THROUGHPUT("MetricsdbWriteThroughput", "rows/sec",
+        Arrays.asList(Statistics.MAX, Statistics.MIN, Statistics.MEAN)),
+
     /**
      * Number of compressed and uncompressed metricsdb files.
      */
@@ -65,6 +78,11 @@ public enum ReaderMetrics implements MeasurementSet {
     BATCH_METRICS_QUERY_PROCESSING_TIME("BatchMetricsQueryProcessingTime", "millis",
         Arrays.asList(Statistics.MAX, Statistics.MEAN, Statistics.SUM)),
 
+    /**
+     * Number of samples of batch metrics requests served from rollup buckets instead of windows.
+     */
+    BATCH_METRICS_ROLLUP_SAMPLES("BatchMetricsRollupSamples", "count", Statistics.COUNT),
+
     /**
      * Amount of time taken to emit Shard State metrics.
      */
@@ -78,7 +96,30 @@ public enum ReaderMetrics implements MeasurementSet {
         Arrays.asList(Statistics.MAX, Statistics.MIN, Statistics.MEAN, Statistics.COUNT, Statistics.SUM)),
 
     FAULT_DETECTION_METRICS_EMITTER_EXECUTION_TIME("FaultDetectionMetricsEmitterExecutionTime", "millis",
-        Arrays.asList(Statistics.MAX, Statistics.MIN, Statistics.MEAN, Statistics.COUNT, Statistics.SUM));
+        Arrays.asList(Statistics.MAX, Statistics.MIN, Statistics.MEAN, Statistics.COUNT, Statistics.SUM)),
+
+    /**
+     * Amount of time a REST request waited in the queue of its endpoint class before a worker picked
+     * it up, keyed by the endpoint class.
+     */
+    WEB_REQUEST_QUEUE_TIME("WebRequestQueueTime", "millis",
+        Arrays.asList(Statistics.MAX, Statistics.MEAN)),
+
+    /**
+     * Amount of time a worker spent serving a REST request, keyed by the endpoint class.
+     */
+    WEB_REQUEST_LATENCY("WebRequestLatency", "millis",
+        Arrays.asList(Statistics.MAX, Statistics.MEAN, Statistics.COUNT)),
+
+    /**
+     * Number of REST requests per endpoint class and latency bucket, for example metrics_le_100ms.
+     */
+    WEB_REQUEST_LATENCY_HISTOGRAM("WebRequestLatencyHistogram", "namedCount", Statistics.NAMED_COUNTERS),
+
+    /**
+     * Number of REST requests rejected with a 429 because the pool of their endpoint class was full.
+     */
+    WEB_REQUEST_REJECTED("WebRequestRejected", "namedCount", Statistics.NAMED_COUNTERS);
     /** What we want to appear as the metric name. */
     private String name;
 
@@ -36,6 +36,13 @@ public enum WriterMetrics implements MeasurementSet {
     Statistics.MAX, Statistics.MIN, Statistics.MEAN, Statistics.COUNT, Statistics.SUM)),
 
     STALE_METRICS("StaleMetrics", "count", Arrays.asList(Statistics.COUNT)),
+
+    /** Events dropped because the metric queue was full, reported when the queue is drained. */
+    METRIC_QUEUE_DROPPED("MetricQueueDropped", "count", Arrays.asList(Statistics.SUM)),
+
+    /** Events found in the metric queue by each drain. */
+    METRIC_QUEUE_OCCUPANCY("MetricQueueOccupancy", "count", Arrays.asList(
+            Statistics.MAX, Statistics.MEAN)),
     ;
 
     /** What we want to appear as the metric name. */
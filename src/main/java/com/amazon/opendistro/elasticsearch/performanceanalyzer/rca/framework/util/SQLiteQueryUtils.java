@@ -36,6 +36,8 @@ import java.util.Set;
 import org.jooq.DSLContext;
 import org.jooq.Field;
 import org.jooq.Record;
+import org.jooq.Record2;
+import org.jooq.ResultQuery;
 import org.jooq.SelectJoinStep;
 import org.jooq.impl.DSL;
 
@@ -121,6 +123,42 @@ public class SQLiteQueryUtils {
     return rcaQuery;
   }
 
+  /**
+   * This function build SQL query to fetch the rows of a rca persisted within a time range from
+   * RCA table, oldest first
+   *
+   * @param ctx DSLContext
+   * @param rca The rca that will be queried
+   * @param startTime the earliest timestamp to fetch, inclusive
+   * @param endTime the latest timestamp to fetch, inclusive
+   * @return jooq query object
+   */
+  public static ResultQuery<Record> buildRcaHistoryQuery(final DSLContext ctx,
+                                                         final String rca,
+                                                         final long startTime,
+                                                         final long endTime) {
+    Field<Long> timestampField = DSL.field(
+        ResourceFlowUnitFieldValue.TIMESTAMP_FIELD.getName(), Long.class);
+    return ctx.select()
+        .from(ResourceFlowUnit.RCA_TABLE_NAME)
+        .where(DSL.field(ResourceFlowUnitFieldValue.RCA_NAME_FILELD.getName(), String.class).equal(rca))
+        .and(timestampField.between(startTime, endTime))
+        .orderBy(timestampField.asc());
+  }
+
+  /**
+   * This function build SQL query to fetch the earliest and the latest timestamp in RCA table
+   *
+   * @param ctx DSLContext
+   * @return jooq query object
+   */
+  public static ResultQuery<Record2<Long, Long>> buildRcaTimeSpanQuery(final DSLContext ctx) {
+    Field<Long> timestampField = DSL.field(
+        ResourceFlowUnitFieldValue.TIMESTAMP_FIELD.getName(), Long.class);
+    return ctx.select(DSL.min(timestampField), DSL.max(timestampField))
+        .from(ResourceFlowUnit.RCA_TABLE_NAME);
+  }
+
   /**
    * This function build SQL query to fetch summary from a summay table
    * @param ctx DSLContext
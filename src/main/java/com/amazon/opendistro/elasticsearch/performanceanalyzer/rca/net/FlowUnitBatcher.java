@@ -0,0 +1,298 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.AppContext;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.PerformanceAnalyzerApp;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatExceptionCode;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatsCollector;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitBatchMessage;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitMessage;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.PublishResponse;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.PublishResponse.PublishResponseStatus;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.net.NetClient;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.GenericFlowUnit;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.metrics.RcaGraphMetrics;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.util.InstanceDetails;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.messages.DataMsg;
+import com.google.common.annotations.VisibleForTesting;
+import io.grpc.stub.StreamObserver;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Buffers the flow units to be published, per subscriber host, so that all the flow units a run of
+ * the RCA graph produces for a host go out as one batch on the PublishBatch stream. If a flow unit
+ * of a graph node is still buffered when the node produces a new one, the new one replaces it.
+ *
+ * <p>With delta encoding, the batches for each host are encoded by a {@link FlowUnitEncoder}
+ * against what was sent on the current stream to the host.
+ */
+public class FlowUnitBatcher {
+
+  private static final Logger LOG = LogManager.getLogger(FlowUnitBatcher.class);
+
+  /**
+   * The framing every message on a gRPC stream carries: the 5 byte length prefix of the gRPC
+   * message and the 9 byte header of the HTTP/2 DATA frame.
+   */
+  static final int PER_MESSAGE_FRAMING_BYTES = 14;
+
+  private final NetClient client;
+  private final SubscriptionManager subscriptionManager;
+  private final AppContext appContext;
+
+  /** The most flow units buffered for a host before the oldest ones are dropped. */
+  private final int maxPendingFlowUnitsPerHost;
+
+  private final boolean deltaEncoding;
+
+  private final ConcurrentMap<InstanceDetails.Id, HostBuffer> hostBuffers =
+      new ConcurrentHashMap<>();
+
+  /** The flow units waiting to be sent to one subscriber host. */
+  private static class HostBuffer {
+
+    /** The latest flow units of each graph node, in the order the nodes published them. */
+    private final LinkedHashMap<String, List<FlowUnitMessage>> pending = new LinkedHashMap<>();
+
+    private int pendingCount = 0;
+
+    /** The graph nodes that were sent to the host, to unsubscribe if the host goes away. */
+    private final Set<String> sentGraphNodes = new HashSet<>();
+
+    /** Encodes the batches sent to the host, if delta encoding is on. */
+    private final FlowUnitEncoder encoder;
+
+    HostBuffer(final boolean deltaEncoding) {
+      this.encoder = deltaEncoding ? new FlowUnitEncoder() : null;
+    }
+
+    synchronized void put(
+        final String graphNode, final List<FlowUnitMessage> flowUnits, final int maxPending) {
+      List<FlowUnitMessage> replaced = pending.remove(graphNode);
+      if (replaced != null) {
+        pendingCount -= replaced.size();
+      }
+      pending.put(graphNode, flowUnits);
+      pendingCount += flowUnits.size();
+
+      int dropped = 0;
+      Iterator<Map.Entry<String, List<FlowUnitMessage>>> it = pending.entrySet().iterator();
+      while (pendingCount > maxPending && pending.size() > 1) {
+        int evicted = it.next().getValue().size();
+        it.remove();
+        pendingCount -= evicted;
+        dropped += evicted;
+      }
+      if (pendingCount > maxPending) {
+        List<FlowUnitMessage> only = pending.get(graphNode);
+        pending.put(graphNode, new ArrayList<>(only.subList(only.size() - maxPending, only.size())));
+        dropped += pendingCount - maxPending;
+        pendingCount = maxPending;
+      }
+      if (dropped > 0) {
+        LOG.warn("Dropped {} flow units because the send buffer for a host is full", dropped);
+        StatsCollector.instance().logException(StatExceptionCode.RCA_NETWORK_TX_BUFFER_FULL_ERROR);
+      }
+    }
+
+    synchronized List<FlowUnitMessage> drain() {
+      List<FlowUnitMessage> drained = new ArrayList<>(pendingCount);
+      pending.values().forEach(drained::addAll);
+      sentGraphNodes.addAll(pending.keySet());
+      pending.clear();
+      pendingCount = 0;
+      return drained;
+    }
+
+    synchronized boolean isEmpty() {
+      return pending.isEmpty();
+    }
+
+    synchronized Set<String> getSentGraphNodes() {
+      return new HashSet<>(sentGraphNodes);
+    }
+  }
+
+  public FlowUnitBatcher(
+      final NetClient client,
+      final SubscriptionManager subscriptionManager,
+      final AppContext appContext,
+      final int maxPendingFlowUnitsPerHost) {
+    this(client, subscriptionManager, appContext, maxPendingFlowUnitsPerHost, false);
+  }
+
+  public FlowUnitBatcher(
+      final NetClient client,
+      final SubscriptionManager subscriptionManager,
+      final AppContext appContext,
+      final int maxPendingFlowUnitsPerHost,
+      final boolean deltaEncoding) {
+    this.client = client;
+    this.subscriptionManager = subscriptionManager;
+    this.appContext = appContext;
+    this.maxPendingFlowUnitsPerHost = Math.max(1, maxPendingFlowUnitsPerHost);
+    this.deltaEncoding = deltaEncoding;
+  }
+
+  /**
+   * Buffers the flow units in the data message for every host subscribed to its graph node. The
+   * protobuf messages are built once and shared across the hosts.
+   *
+   * @param dataMsg The flow units a graph node produced.
+   */
+  public void add(final DataMsg dataMsg) {
+    final String sourceGraphNode = dataMsg.getSourceGraphNode();
+    if (!subscriptionManager.isNodeSubscribed(sourceGraphNode)) {
+      LOG.debug("No subscribers for {}.", sourceGraphNode);
+      return;
+    }
+    final InstanceDetails.Id myInstanceId = appContext.getMyInstanceDetails().getInstanceId();
+    final List<FlowUnitMessage> flowUnitMessages = new ArrayList<>(dataMsg.getFlowUnits().size());
+    for (final GenericFlowUnit flowUnit : dataMsg.getFlowUnits()) {
+      flowUnitMessages.add(flowUnit.buildFlowUnitMessage(sourceGraphNode, myInstanceId));
+    }
+    for (final InstanceDetails.Id downstreamHostId :
+        subscriptionManager.getSubscribersFor(sourceGraphNode)) {
+      hostBuffers
+          .computeIfAbsent(downstreamHostId, id -> new HostBuffer(deltaEncoding))
+          .put(sourceGraphNode, flowUnitMessages, maxPendingFlowUnitsPerHost);
+    }
+  }
+
+  /**
+   * The hosts that have flow units waiting to be sent.
+   *
+   * @return The ids of the hosts.
+   */
+  public List<InstanceDetails.Id> getPendingHosts() {
+    List<InstanceDetails.Id> pendingHosts = new ArrayList<>();
+    hostBuffers.forEach(
+        (hostId, buffer) -> {
+          if (!buffer.isEmpty()) {
+            pendingHosts.add(hostId);
+          }
+        });
+    return pendingHosts;
+  }
+
+  /**
+   * Sends everything buffered for the host as one batch, unless the stream to the host is not
+   * ready to take more, in which case the flow units stay buffered for the next flush.
+   *
+   * @param downstreamHostId The host to send to.
+   */
+  public void flush(final InstanceDetails.Id downstreamHostId) {
+    final HostBuffer buffer = hostBuffers.get(downstreamHostId);
+    if (buffer == null) {
+      return;
+    }
+    if (!client.isBatchStreamReady(downstreamHostId)) {
+      LOG.debug("rca: [pub-tx]: stream to {} is not ready, holding back the batch", downstreamHostId);
+      PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR.updateStat(
+          RcaGraphMetrics.NET_BATCH_DEFERRED, "", 1);
+      return;
+    }
+    final List<FlowUnitMessage> flowUnitMessages = buffer.drain();
+    if (flowUnitMessages.isEmpty()) {
+      return;
+    }
+
+    LOG.debug("rca: [pub-tx]: {} flow units -> {}", flowUnitMessages.size(), downstreamHostId);
+    final InstanceDetails downstreamHost = appContext.getInstanceById(downstreamHostId);
+    final StreamObserver<PublishResponse> responseObserver =
+        new StreamObserver<PublishResponse>() {
+          @Override
+          public void onNext(final PublishResponse value) {
+            LOG.debug("rca: Received acknowledgement from the server. status: {}", value.getDataStatus());
+            if (value.getDataStatus() == PublishResponseStatus.NODE_SHUTDOWN) {
+              terminate(downstreamHostId);
+            }
+          }
+
+          @Override
+          public void onError(final Throwable t) {
+            LOG.error("rca: Encountered an exception at the server: ", t);
+            StatsCollector.instance().logException(StatExceptionCode.RCA_NETWORK_ERROR);
+            terminate(downstreamHostId);
+          }
+
+          @Override
+          public void onCompleted() {
+            LOG.debug("rca: Server closed the data channel!");
+          }
+        };
+    final FlowUnitBatchMessage batchMessage;
+    if (buffer.encoder == null) {
+      batchMessage = FlowUnitBatchMessage.newBuilder().addAllFlowUnit(flowUnitMessages).build();
+      client.publishBatch(downstreamHost, batchMessage, responseObserver);
+    } else {
+      // The batches must go out in the order they were encoded in.
+      synchronized (buffer.encoder) {
+        if (!client.hasBatchStream(downstreamHostId)) {
+          // A new stream is opened, whose receiver has not seen anything to decode against.
+          buffer.encoder.reset();
+        }
+        batchMessage = buffer.encoder.encode(flowUnitMessages);
+        client.publishBatch(downstreamHost, batchMessage, responseObserver);
+      }
+    }
+
+    long unbatchedBytes = 0;
+    for (final FlowUnitMessage flowUnitMessage : flowUnitMessages) {
+      unbatchedBytes += flowUnitMessage.getSerializedSize() + PER_MESSAGE_FRAMING_BYTES;
+      PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR
+          .updateStat(RcaGraphMetrics.RCA_NODES_FU_PUBLISH_COUNT, flowUnitMessage.getGraphNode(), 1);
+    }
+    PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR.updateStat(
+        RcaGraphMetrics.NET_BATCH_SIZE, "", flowUnitMessages.size());
+    PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR.updateStat(
+        RcaGraphMetrics.NET_BATCH_BYTES_SAVED,
+        "",
+        unbatchedBytes - (batchMessage.getSerializedSize() + PER_MESSAGE_FRAMING_BYTES));
+  }
+
+  private void terminate(final InstanceDetails.Id downstreamHostId) {
+    final HostBuffer buffer = hostBuffers.remove(downstreamHostId);
+    if (buffer != null) {
+      for (final String graphNode : buffer.getSentGraphNodes()) {
+        subscriptionManager.unsubscribeAndTerminateConnection(graphNode, downstreamHostId);
+      }
+    }
+    client.flushStream(downstreamHostId);
+  }
+
+  @VisibleForTesting
+  int getPendingCount(final InstanceDetails.Id downstreamHostId) {
+    final HostBuffer buffer = hostBuffers.get(downstreamHostId);
+    if (buffer == null) {
+      return 0;
+    }
+    synchronized (buffer) {
+      return buffer.pendingCount;
+    }
+  }
+}
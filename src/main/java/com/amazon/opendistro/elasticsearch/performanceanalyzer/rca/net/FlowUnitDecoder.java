@@ -0,0 +1,112 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitBatchMessage;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitEncoding;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitMessage;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.HotNodeSummaryMessage;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.HotShardSummaryList;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.HotShardSummaryMessage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes the flow units received on one PublishBatch stream, which a {@link FlowUnitEncoder}
+ * encoded against the flow units sent on the stream before. It is not thread safe, and the
+ * batches must be decoded in the order they were received.
+ */
+public class FlowUnitDecoder {
+
+  /** The summary of the last flow unit received for each graph node. */
+  private final Map<String, FlowUnitMessage> lastSummaries = new HashMap<>();
+
+  /** The index names received on the stream, in the order they were sent. */
+  private final List<String> indexNames = new ArrayList<>();
+
+  /**
+   * Decodes the flow units of the batch.
+   *
+   * @param batchMessage The batch received on the stream.
+   * @return The fully encoded flow units.
+   * @throws IllegalStateException if a flow unit refers to something that was not received on the
+   *     stream.
+   */
+  public List<FlowUnitMessage> decode(final FlowUnitBatchMessage batchMessage) {
+    indexNames.addAll(batchMessage.getIndexNameList());
+    final List<FlowUnitMessage> flowUnits = new ArrayList<>(batchMessage.getFlowUnitCount());
+    for (final FlowUnitMessage flowUnit : batchMessage.getFlowUnitList()) {
+      final FlowUnitMessage decoded = decode(flowUnit);
+      lastSummaries.put(decoded.getGraphNode(), FlowUnitEncoder.summaryOf(decoded));
+      flowUnits.add(decoded);
+    }
+    return flowUnits;
+  }
+
+  private FlowUnitMessage decode(final FlowUnitMessage flowUnit) {
+    final FlowUnitMessage lastSummary = lastSummaries.get(flowUnit.getGraphNode());
+    switch (flowUnit.getEncoding()) {
+      case UNCHANGED:
+        if (lastSummary == null) {
+          throw new IllegalStateException(
+              "No summary received for " + flowUnit.getGraphNode() + " to reuse");
+        }
+        return flowUnit.toBuilder()
+            .mergeFrom(lastSummary)
+            .setEncoding(FlowUnitEncoding.FULL)
+            .build();
+      case DELTA:
+        return flowUnit.toBuilder()
+            .setHotNodeSummary(decodeShards(flowUnit.getHotNodeSummary(), lastSummary))
+            .setEncoding(FlowUnitEncoding.FULL)
+            .build();
+      default:
+        return flowUnit;
+    }
+  }
+
+  private HotNodeSummaryMessage decodeShards(
+      final HotNodeSummaryMessage nodeSummary, final FlowUnitMessage lastSummary) {
+    final List<HotShardSummaryMessage> lastShards =
+        lastSummary != null && lastSummary.hasHotNodeSummary()
+            ? lastSummary.getHotNodeSummary().getHotShardSummaryList().getHotShardSummaryList()
+            : new ArrayList<>();
+
+    final HotShardSummaryList.Builder shardsBuilder = HotShardSummaryList.newBuilder();
+    for (final HotShardSummaryMessage shard :
+        nodeSummary.getHotShardSummaryList().getHotShardSummaryList()) {
+      final int baseRef = shard.getBaseRef();
+      final int indexNameRef = shard.getIndexNameRef();
+      if (baseRef > 0) {
+        if (baseRef > lastShards.size()) {
+          throw new IllegalStateException("Shard summary " + baseRef + " was not received");
+        }
+        shardsBuilder.addHotShardSummary(lastShards.get(baseRef - 1));
+      } else if (indexNameRef > 0) {
+        if (indexNameRef > indexNames.size()) {
+          throw new IllegalStateException("Index name " + indexNameRef + " was not received");
+        }
+        shardsBuilder.addHotShardSummary(
+            shard.toBuilder().clearIndexNameRef().setIndexName(indexNames.get(indexNameRef - 1)));
+      } else {
+        shardsBuilder.addHotShardSummary(shard);
+      }
+    }
+    return nodeSummary.toBuilder().setHotShardSummaryList(shardsBuilder).build();
+  }
+}
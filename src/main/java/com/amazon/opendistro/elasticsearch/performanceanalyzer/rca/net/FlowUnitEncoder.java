@@ -0,0 +1,158 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitBatchMessage;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitEncoding;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitMessage;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.HotNodeSummaryMessage;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.HotShardSummaryList;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.HotShardSummaryMessage;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes the flow units sent on one PublishBatch stream against the flow units sent on it before.
+ * A summary that is the same as the last one of its graph node is left out, and the shard
+ * summaries of a hot node summary refer to the matching shard summaries of the last one. Index
+ * names are sent once per stream and referred to by their position afterwards.
+ *
+ * <p>gRPC delivers the messages of a stream in order, so everything written to the stream is what
+ * the {@link FlowUnitDecoder} on the other end decodes against. The encoder must be {@link
+ * #reset()} whenever a new stream is opened. It is not thread safe.
+ */
+public class FlowUnitEncoder {
+
+  /** The most index names coded per stream. Names past it are sent as is. */
+  static final int MAX_DICTIONARY_SIZE = 1 << 16;
+
+  /** The summary of the last flow unit sent for each graph node. */
+  private final Map<String, FlowUnitMessage> lastSummaries = new HashMap<>();
+
+  /** The position, starting at 1, of every index name sent on the stream. */
+  private final Map<String, Integer> indexNameRefs = new HashMap<>();
+
+  /** Forgets what was sent, for the encoding to start over on a new stream. */
+  public void reset() {
+    lastSummaries.clear();
+    indexNameRefs.clear();
+  }
+
+  /**
+   * Builds the batch message for the flow units.
+   *
+   * @param flowUnits The fully encoded flow units.
+   * @return The batch of encoded flow units.
+   */
+  public FlowUnitBatchMessage encode(final List<FlowUnitMessage> flowUnits) {
+    final FlowUnitBatchMessage.Builder batchBuilder = FlowUnitBatchMessage.newBuilder();
+    for (final FlowUnitMessage flowUnit : flowUnits) {
+      batchBuilder.addFlowUnit(encode(flowUnit, batchBuilder));
+    }
+    return batchBuilder.build();
+  }
+
+  private FlowUnitMessage encode(
+      final FlowUnitMessage flowUnit, final FlowUnitBatchMessage.Builder batchBuilder) {
+    final FlowUnitMessage summary = summaryOf(flowUnit);
+    final FlowUnitMessage lastSummary = lastSummaries.put(flowUnit.getGraphNode(), summary);
+    if (flowUnit.getSummaryOneofCase() == FlowUnitMessage.SummaryOneofCase.SUMMARYONEOF_NOT_SET) {
+      return flowUnit;
+    }
+    if (summary.equals(lastSummary)) {
+      return flowUnit.toBuilder()
+          .clearSummaryOneof()
+          .setEncoding(FlowUnitEncoding.UNCHANGED)
+          .build();
+    }
+    if (flowUnit.hasHotNodeSummary() && flowUnit.getHotNodeSummary().hasHotShardSummaryList()) {
+      return flowUnit.toBuilder()
+          .setHotNodeSummary(encodeShards(flowUnit.getHotNodeSummary(), lastSummary, batchBuilder))
+          .setEncoding(FlowUnitEncoding.DELTA)
+          .build();
+    }
+    return flowUnit;
+  }
+
+  private HotNodeSummaryMessage encodeShards(
+      final HotNodeSummaryMessage nodeSummary,
+      final FlowUnitMessage lastSummary,
+      final FlowUnitBatchMessage.Builder batchBuilder) {
+    final Map<HotShardSummaryMessage, Integer> baseRefs = new HashMap<>();
+    if (lastSummary != null && lastSummary.hasHotNodeSummary()) {
+      final List<HotShardSummaryMessage> lastShards =
+          lastSummary.getHotNodeSummary().getHotShardSummaryList().getHotShardSummaryList();
+      for (int i = 0; i < lastShards.size(); i++) {
+        baseRefs.putIfAbsent(lastShards.get(i), i + 1);
+      }
+    }
+
+    final HotShardSummaryList.Builder shardsBuilder = HotShardSummaryList.newBuilder();
+    for (final HotShardSummaryMessage shard :
+        nodeSummary.getHotShardSummaryList().getHotShardSummaryList()) {
+      final Integer baseRef = baseRefs.get(shard);
+      if (baseRef != null) {
+        shardsBuilder.addHotShardSummary(HotShardSummaryMessage.newBuilder().setBaseRef(baseRef));
+        continue;
+      }
+      final int indexNameRef = getIndexNameRef(shard.getIndexName(), batchBuilder);
+      if (indexNameRef > 0) {
+        shardsBuilder.addHotShardSummary(
+            shard.toBuilder().clearIndexName().setIndexNameRef(indexNameRef));
+      } else {
+        shardsBuilder.addHotShardSummary(shard);
+      }
+    }
+    return nodeSummary.toBuilder().setHotShardSummaryList(shardsBuilder).build();
+  }
+
+  /**
+   * Gets the dictionary position of the index name, adding the name to the dictionary and to the
+   * batch if it was not sent before.
+   *
+   * @return The position, or 0 if the name is to be sent as is.
+   */
+  private int getIndexNameRef(
+      final String indexName, final FlowUnitBatchMessage.Builder batchBuilder) {
+    if (indexName.isEmpty()) {
+      return 0;
+    }
+    Integer ref = indexNameRefs.get(indexName);
+    if (ref == null) {
+      if (indexNameRefs.size() >= MAX_DICTIONARY_SIZE) {
+        return 0;
+      }
+      ref = indexNameRefs.size() + 1;
+      indexNameRefs.put(indexName, ref);
+      batchBuilder.addIndexName(indexName);
+    }
+    return ref;
+  }
+
+  /**
+   * Strips the flow unit down to its summary, which is what the encodings compare.
+   */
+  static FlowUnitMessage summaryOf(final FlowUnitMessage flowUnit) {
+    return flowUnit.toBuilder()
+        .clearGraphNode()
+        .clearEsNode()
+        .clearTimeStamp()
+        .clearResourceContext()
+        .clearEncoding()
+        .build();
+  }
+}
@@ -26,6 +26,7 @@ import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.messages.Data
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.messages.IntentMsg;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.messages.UnicastIntentMsg;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net.tasks.BroadcastSubscriptionTxTask;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net.tasks.FlowUnitBatchTxTask;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net.tasks.FlowUnitTxTask;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net.tasks.UnicastSubscriptionTxTask;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.util.ClusterUtils;
@@ -52,6 +53,12 @@ public class WireHopper {
   private final ReceivedFlowUnitStore receivedFlowUnitStore;
   private final AppContext appContext;
 
+  /**
+   * If set, flow units are buffered per subscriber host and sent out in batches when the scheduler
+   * calls {@link #flushData()}, instead of as one message each.
+   */
+  private final FlowUnitBatcher flowUnitBatcher;
+
   public WireHopper(
       final NodeStateManager nodeStateManager,
       final NetClient netClient,
@@ -59,6 +66,19 @@ public class WireHopper {
       final AtomicReference<ExecutorService> executorReference,
       final ReceivedFlowUnitStore receivedFlowUnitStore,
       final AppContext appContext) {
+    this(nodeStateManager, netClient, subscriptionManager, executorReference,
+        receivedFlowUnitStore, appContext, null);
+  }
+
+  public WireHopper(
+      final NodeStateManager nodeStateManager,
+      final NetClient netClient,
+      final SubscriptionManager subscriptionManager,
+      final AtomicReference<ExecutorService> executorReference,
+      final ReceivedFlowUnitStore receivedFlowUnitStore,
+      final AppContext appContext,
+      final FlowUnitBatcher flowUnitBatcher) {
+    this.flowUnitBatcher = flowUnitBatcher;
     this.netClient = netClient;
     this.subscriptionManager = subscriptionManager;
     this.nodeStateManager = nodeStateManager;
@@ -86,6 +106,10 @@ public class WireHopper {
   }
 
   public void sendData(DataMsg msg) {
+    if (flowUnitBatcher != null) {
+      flowUnitBatcher.add(msg);
+      return;
+    }
     ExecutorService executor = executorReference.get();
     if (executor != null) {
       try {
@@ -98,6 +122,30 @@ public class WireHopper {
     }
   }
 
+  /**
+   * Sends out the flow units buffered since the last call, one batch per subscriber host. This is
+   * called by the scheduler at the end of every run of the graph. Without a batcher, flow units
+   * are sent as they are produced and this does nothing.
+   */
+  public void flushData() {
+    if (flowUnitBatcher == null) {
+      return;
+    }
+    ExecutorService executor = executorReference.get();
+    if (executor == null) {
+      return;
+    }
+    for (final InstanceDetails.Id downstreamHostId : flowUnitBatcher.getPendingHosts()) {
+      try {
+        executor.execute(new FlowUnitBatchTxTask(flowUnitBatcher, downstreamHostId));
+      } catch (final RejectedExecutionException ree) {
+        LOG.warn("Deferred sending flow units because the threadpool queue is full");
+        StatsCollector.instance()
+                      .logException(StatExceptionCode.RCA_NETWORK_THREADPOOL_QUEUE_FULL_ERROR);
+      }
+    }
+  }
+
   @VisibleForTesting
   public AppContext getAppContext() {
     return appContext;
@@ -18,13 +18,16 @@ package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net.handler;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.PerformanceAnalyzerApp;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatExceptionCode;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatsCollector;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitBatchMessage;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitMessage;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.PublishResponse;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.PublishResponse.PublishResponseStatus;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.metrics.RcaGraphMetrics;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net.FlowUnitDecoder;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net.NodeStateManager;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net.ReceivedFlowUnitStore;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net.tasks.FlowUnitRxTask;
+import io.grpc.Status;
 import io.grpc.stub.StreamObserver;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -62,6 +65,12 @@ public class PublishRequestHandler {
     return new SendDataClientStreamUpdateConsumer(serviceResponse);
   }
 
+  public StreamObserver<FlowUnitBatchMessage> getBatchClientStream(
+      final StreamObserver<PublishResponse> serviceResponse) {
+    upstreamResponseStreamList.add(serviceResponse);
+    return new SendBatchClientStreamUpdateConsumer(serviceResponse);
+  }
+
   public void terminateUpstreamConnections() {
     for (final StreamObserver<PublishResponse> responseStream : upstreamResponseStreamList) {
       responseStream.onNext(
@@ -98,6 +107,8 @@ public class PublishRequestHandler {
               + "full");
           StatsCollector.instance()
                         .logException(StatExceptionCode.RCA_NETWORK_THREADPOOL_QUEUE_FULL_ERROR);
+          PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR
+              .updateStat(RcaGraphMetrics.RPC_REJECTED_COUNT, "publish", 1);
         }
       }
     }
@@ -124,4 +135,73 @@ public class PublishRequestHandler {
       return PublishResponse.newBuilder().setDataStatus(status).build();
     }
   }
+
+  private class SendBatchClientStreamUpdateConsumer implements StreamObserver<FlowUnitBatchMessage> {
+
+    private final SendDataClientStreamUpdateConsumer streamUpdateConsumer;
+
+    private final StreamObserver<PublishResponse> serviceResponse;
+
+    /** Decodes the batches of this stream against the ones received on it before. */
+    private final FlowUnitDecoder decoder = new FlowUnitDecoder();
+
+    SendBatchClientStreamUpdateConsumer(final StreamObserver<PublishResponse> serviceResponse) {
+      this.streamUpdateConsumer = new SendDataClientStreamUpdateConsumer(serviceResponse);
+      this.serviceResponse = serviceResponse;
+    }
+
+    /**
+     * Persist the flow units sent by the client. The whole batch is handed to the network
+     * threadpool as one task, so that it takes up a single slot in the queue. The batch is decoded
+     * here, as every batch of the stream has to be decoded, and in order.
+     *
+     * @param batchMessage The flow units that the client just streamed to the server.
+     */
+    @Override
+    public void onNext(FlowUnitBatchMessage batchMessage) {
+      final List<FlowUnitMessage> flowUnitMessages;
+      try {
+        flowUnitMessages = decoder.decode(batchMessage);
+      } catch (final IllegalStateException ise) {
+        // The client starts over on a new stream once this one fails.
+        LOG.error("rca: Unable to decode a flow unit batch, closing the stream.", ise);
+        StatsCollector.instance().logException(StatExceptionCode.RCA_NETWORK_ERROR);
+        serviceResponse.onError(
+            Status.DATA_LOSS.withDescription(ise.getMessage()).asRuntimeException());
+        return;
+      }
+      final ExecutorService executorService = executorReference.get();
+      if (executorService != null) {
+        try {
+          executorService.execute(() -> {
+            for (final FlowUnitMessage flowUnitMessage : flowUnitMessages) {
+              new FlowUnitRxTask(nodeStateManager, receivedFlowUnitStore, flowUnitMessage).run();
+            }
+          });
+          for (final FlowUnitMessage flowUnitMessage : batchMessage.getFlowUnitList()) {
+            PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR
+                .updateStat(RcaGraphMetrics.NET_BYTES_IN, flowUnitMessage.getGraphNode(),
+                    flowUnitMessage.getSerializedSize());
+          }
+        } catch (final RejectedExecutionException ree) {
+          LOG.warn("Dropped handling received flow unit batch because the network threadpool queue "
+              + "is full");
+          StatsCollector.instance()
+                        .logException(StatExceptionCode.RCA_NETWORK_THREADPOOL_QUEUE_FULL_ERROR);
+          PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR
+              .updateStat(RcaGraphMetrics.RPC_REJECTED_COUNT, "publishBatch", 1);
+        }
+      }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      streamUpdateConsumer.onError(throwable);
+    }
+
+    @Override
+    public void onCompleted() {
+      streamUpdateConsumer.onCompleted();
+    }
+  }
 }
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net.tasks;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.util.InstanceDetails;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net.FlowUnitBatcher;
+
+/**
+ * Task that sends the flow units buffered for a remote host as a single batch.
+ */
+public class FlowUnitBatchTxTask implements Runnable {
+
+  /**
+   * The buffer holding the flow units to send.
+   */
+  private final FlowUnitBatcher batcher;
+
+  /**
+   * The host to send the batch to.
+   */
+  private final InstanceDetails.Id downstreamHostId;
+
+  public FlowUnitBatchTxTask(
+      final FlowUnitBatcher batcher, final InstanceDetails.Id downstreamHostId) {
+    this.batcher = batcher;
+    this.downstreamHostId = downstreamHostId;
+  }
+
+  /**
+   * Sends the batch across the network.
+   *
+   * @see Thread#run()
+   */
+  @Override
+  public void run() {
+    batcher.flush(downstreamHostId);
+  }
+}
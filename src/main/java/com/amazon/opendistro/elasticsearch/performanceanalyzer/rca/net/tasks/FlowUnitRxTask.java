@@ -71,6 +71,8 @@ public class FlowUnitRxTask implements Runnable {
     if (!receivedFlowUnitStore.enqueue(vertex, flowUnitMessage)) {
       LOG.warn("Dropped a flow unit because the vertex buffer was full for vertex: {}", vertex);
       StatsCollector.instance().logMetric(RcaConsts.VERTEX_BUFFER_FULL_METRIC);
+      PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR
+          .updateStat(RcaGraphMetrics.RCA_NODES_FU_DROP_COUNT, vertex, 1);
     }
 
     PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR
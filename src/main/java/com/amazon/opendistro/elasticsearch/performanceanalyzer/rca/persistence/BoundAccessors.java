@@ -0,0 +1,88 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.persistence;
+
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Resolves the getters, setters and no-arg constructors of persisted classes once per class, when
+ * the persistor builds its field registry, so that reading and writing a row does not look them
+ * up again for every column.
+ *
+ * <p>The accessors are made accessible up front, which skips the access check that
+ * {@link Method#invoke} otherwise makes on every call. If that is not permitted, they are used
+ * with the check.
+ */
+final class BoundAccessors {
+  private static final Logger LOG = LogManager.getLogger(BoundAccessors.class);
+
+  private BoundAccessors() {
+  }
+
+  /**
+   * An accessor that reads a column value from an object.
+   */
+  @FunctionalInterface
+  interface Getter {
+    Object get(Object obj) throws InvocationTargetException, IllegalAccessException;
+  }
+
+  /**
+   * An accessor that writes a column value into an object.
+   */
+  @FunctionalInterface
+  interface Setter {
+    void set(Object obj, Object value) throws InvocationTargetException, IllegalAccessException;
+  }
+
+  /**
+   * An accessor that creates an empty instance of a persisted class.
+   */
+  @FunctionalInterface
+  interface Factory {
+    Object newInstance()
+        throws InvocationTargetException, IllegalAccessException, InstantiationException;
+  }
+
+  static Getter getter(Method method) {
+    makeAccessible(method);
+    return method::invoke;
+  }
+
+  static Setter setter(Method method) {
+    makeAccessible(method);
+    return method::invoke;
+  }
+
+  static Factory factory(Class<?> clz) throws NoSuchMethodException {
+    Constructor<?> constructor = clz.getDeclaredConstructor();
+    makeAccessible(constructor);
+    return constructor::newInstance;
+  }
+
+  private static void makeAccessible(AccessibleObject accessor) {
+    try {
+      accessor.setAccessible(true);
+    } catch (SecurityException e) {
+      LOG.debug("Could not make {} accessible, calls will be access checked", accessor, e);
+    }
+  }
+}
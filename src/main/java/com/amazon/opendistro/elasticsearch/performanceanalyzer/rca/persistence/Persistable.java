@@ -24,6 +24,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.sql.SQLException;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.jooq.Field;
@@ -131,6 +132,15 @@ public interface Persistable {
    */
   List<String> getAllPersistedRcas();
 
+  /**
+   * Read a page of the flow units an RCA persisted within a time range, oldest first, from the
+   * current DB file and the rotated files that are still retained.
+   * @param query The RCA, the time range and the page to read.
+   * @param sink Receives the json response of each flow unit of the page as it is read.
+   * @return The cursor to read the next page with, or null if this is the last page.
+   */
+  @Nullable String readRcaHistory(RcaHistoryQuery query, Consumer<JsonElement> sink);
+
   /**
    * Get records for all the tables
    * @return A map of table and all the data contained in the table.
@@ -15,6 +15,7 @@
 
 package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.persistence;
 
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.config.PluginSettings;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.exceptions.MalformedConfig;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.RcaConf;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.util.RcaConsts;
@@ -36,11 +37,15 @@ public class PersistenceFactory {
     Map<String, String> datastore = rcaConf.getDatastore();
     switch (datastore.get(RcaConsts.DATASTORE_TYPE_KEY).toLowerCase()) {
       case "sqlite":
-        return new SQLitePersistor(
+        PersistorBase persistor = new SQLitePersistor(
             datastore.get(RcaConsts.DATASTORE_LOC_KEY),
             datastore.get(RcaConsts.DATASTORE_FILENAME),
             datastore.get(RcaConsts.DATASTORE_STORAGE_FILE_RETENTION_COUNT),
                 RcaConsts.DB_FILE_ROTATION_TIME_UNIT, RcaConsts.ROTATION_PERIOD);
+        if (PluginSettings.instance().isRcaWriteBehindPersistenceEnabled()) {
+          return new WriteBehindPersistor(persistor);
+        }
+        return persistor;
       default:
         String err = "The datastore value can only be sqlite in any case format";
         throw new MalformedConfig(rcaConf.getConfigFileLoc(), err);
@@ -18,6 +18,7 @@ package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.persistence;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.flow_units.ResourceFlowUnit;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.GenericSummary;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.Node;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.util.SQLiteQueryUtils;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
@@ -31,15 +32,19 @@ import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.jooq.Field;
 import org.jooq.Record;
 import org.jooq.Result;
@@ -62,6 +67,18 @@ public abstract class PersistorBase implements Persistable {
 
   private final FileRotate fileRotate;
   private final FileGC fileGC;
+  private final RcaHistoryIndex historyIndex;
+
+  /**
+   * The last response of readRca() for each RCA name, kept until the next flow unit of that RCA is
+   * written or the DB file is rotated. Dashboards poll /rca every few seconds, while each RCA
+   * writes at most one flow unit per evaluation period; this spares most polls the SQLite queries
+   * and the nested summary reads.
+   */
+  private final Map<String, JsonElement> latestRcaResponses = new ConcurrentHashMap<>();
+
+  /** The result of readPersistedRcas(), or null once a write or a rotation outdates it. */
+  private volatile List<String> persistedRcas;
 
   enum RotationType {
     TRY_ROTATE,
@@ -92,13 +109,17 @@ public abstract class PersistorBase implements Persistable {
 
     fileGC =  new FileGC(Paths.get(dir), filenameParam, fileRotationTimeUnit, fileRotationPeriod,
             STORAGE_FILE_RETENTION_COUNT);
+    historyIndex = new RcaHistoryIndex(Paths.get(dir), filenameParam, dbProtocol);
     openNewDBFile();
   }
 
   @Override
   public synchronized void close() throws SQLException {
     if (conn != null) {
-      // conn.commit();
+      if (!conn.isClosed() && !conn.getAutoCommit()) {
+        // Keeps what a batch wrote so far when the file is rotated in the middle of it.
+        conn.commit();
+      }
       conn.close();
     }
   }
@@ -117,6 +138,14 @@ public abstract class PersistorBase implements Persistable {
 
   abstract JsonElement readRca(String rca);
 
+  abstract List<String> readPersistedRcas();
+
+  /**
+   * Reads the flow units of the page's RCA within the page's time range from one DB file, oldest
+   * first, and adds them to the page until it is full.
+   */
+  abstract void readRcaHistory(Connection connection, RcaHistoryQuery.Page page);
+
   abstract void createNewDSLContext();
 
   @VisibleForTesting
@@ -138,20 +167,122 @@ public abstract class PersistorBase implements Persistable {
   //  The current API does not support range query because nobody is using it at this moment.
   //  we will revisit this function to decide what are the inputs of the new API which support range query and
   //  we might want to define a separate abstract method in interface to address that use case.
+  //
+  // The response of the latest flow unit is served from memory if it has not changed since the
+  // last read. The returned JsonElement is shared between callers and must not be modified.
   @Override
-  public synchronized JsonElement read(String rca) {
+  public JsonElement read(String rca) {
     JsonArray rcaJson = new JsonArray();
-    JsonElement response = readRca(rca);
+    JsonElement response = latestRcaResponses.get(rca);
+    if (response == null) {
+      response = readAndIndexRca(rca);
+    }
     if (response != null) {
       rcaJson.add(response);
     }
     return rcaJson;
   }
 
+  private synchronized JsonElement readAndIndexRca(String rca) {
+    JsonElement response = latestRcaResponses.get(rca);
+    if (response != null) {
+      return response;
+    }
+    response = readRca(rca);
+    // Before the first RCA is written, readRca() reports missing tables rather than an empty result,
+    // so such responses are not kept.
+    if (response != null && tableNames.contains(ResourceFlowUnit.RCA_TABLE_NAME)) {
+      latestRcaResponses.put(rca, response);
+    }
+    return response;
+  }
+
+  @Override
+  public List<String> getAllPersistedRcas() {
+    List<String> rcas = persistedRcas;
+    if (rcas == null) {
+      synchronized (this) {
+        rcas = readPersistedRcas();
+        if (tableNames.contains(ResourceFlowUnit.RCA_TABLE_NAME)) {
+          persistedRcas = rcas;
+        }
+      }
+    }
+    return new ArrayList<>(rcas);
+  }
+
+  /**
+   * Reads the rotated files that overlap the time range first, each through its own read-only
+   * connection and without holding the lock, and then the current file. Rows of the current file
+   * are read under the lock, as the writers share its connection, and handed to the sink only once
+   * the lock is released, so that a slow client does not hold up the writers.
+   */
+  @Override
+  public @Nullable String readRcaHistory(RcaHistoryQuery query, Consumer<JsonElement> sink) {
+    RcaHistoryQuery.Page page = new RcaHistoryQuery.Page(query, sink);
+    while (true) {
+      long lastRotatedMillis;
+      synchronized (this) {
+        lastRotatedMillis = fileRotate.getLastRotatedMillis();
+      }
+      readRotatedFiles(page);
+      if (page.hasMore()) {
+        break;
+      }
+
+      List<JsonElement> currentFileRows = new ArrayList<>();
+      synchronized (this) {
+        // The current file was rotated after the rotated files were listed, so the rows of the
+        // newly rotated file are read from it before the new current file.
+        if (fileRotate.getLastRotatedMillis() != lastRotatedMillis) {
+          continue;
+        }
+        Consumer<JsonElement> clientSink = page.redirect(currentFileRows::add);
+        readRcaHistory(conn, page);
+        page.redirect(clientSink);
+      }
+      currentFileRows.forEach(sink);
+      break;
+    }
+    return page.nextCursor();
+  }
+
+  private void readRotatedFiles(RcaHistoryQuery.Page page) {
+    for (Path file : historyIndex.filesOverlapping(page.getStartTimeMillis(), page.getEndTimeMillis())) {
+      // The last timestamp read is read again from the files after it, but not from the same file.
+      if (!page.markRead(file)) {
+        continue;
+      }
+      try (Connection connection = historyIndex.openReadOnly(file)) {
+        readRcaHistory(connection, page);
+      } catch (SQLException e) {
+        // FileGC might have deleted the file since it was listed.
+        LOG.warn("Could not read RCA history from file: {}", file, e);
+      }
+      if (page.hasMore()) {
+        return;
+      }
+    }
+  }
+
+  private synchronized void invalidateLatestRca(String rca) {
+    latestRcaResponses.remove(rca);
+    if (SQLiteQueryUtils.temperatureProfileDimensionRCASet.contains(rca)) {
+      // The full temperature profile is put together from all the dimensions.
+      latestRcaResponses.remove(SQLiteQueryUtils.ALL_TEMPERATURE_DIMENSIONS);
+    }
+    List<String> rcas = persistedRcas;
+    if (rcas != null && !rcas.contains(rca)) {
+      persistedRcas = null;
+    }
+  }
+
   private synchronized void openNewDBFile() throws SQLException {
     this.fileCreateTime = new Date(System.currentTimeMillis());
     this.filename = Paths.get(dir, filenameParam).toString();
     this.tableNames = new HashSet<>();
+    latestRcaResponses.clear();
+    persistedRcas = null;
     String url = String.format("%s%s", this.dbProtocol, this.filename);
     close();
     conn = DriverManager.getConnection(url);
@@ -179,6 +310,7 @@ public abstract class PersistorBase implements Persistable {
     }
 
     rotateRegisterGarbageThenCreateNewDB(RotationType.TRY_ROTATE);
+    invalidateLatestRca(node.name());
 
     try {
       writeFlowUnit(flowUnit, node.name());
@@ -212,6 +344,34 @@ public abstract class PersistorBase implements Persistable {
     }
   }
 
+  /** A group of writes to this persistor. */
+  @FunctionalInterface
+  interface WriteBatch {
+    void writeTo(PersistorBase persistor);
+  }
+
+  /**
+   * Runs the writes of the batch in one transaction, rather than committing every row of them on
+   * its own. The writes still rotate the DB file if they have to, in which case what the batch
+   * wrote so far is committed to the rotated file.
+   *
+   * @param batch The writes. They are expected to handle their own errors.
+   * @throws SQLException If the transaction cannot be started or committed.
+   * @throws IOException If the DB file could not be rotated.
+   */
+  synchronized void writeInTransaction(WriteBatch batch) throws SQLException, IOException {
+    rotateRegisterGarbageThenCreateNewDB(RotationType.TRY_ROTATE);
+    conn.setAutoCommit(false);
+    try {
+      batch.writeTo(this);
+    } finally {
+      if (!conn.getAutoCommit()) {
+        conn.commit();
+        conn.setAutoCommit(true);
+      }
+    }
+  }
+
   abstract <T> void writeImpl(T obj) throws IllegalAccessException, InvocationTargetException, NoSuchMethodException, SQLException;
 
   private synchronized void rotateRegisterGarbageThenCreateNewDB(RotationType type) throws IOException, SQLException {
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.persistence;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.util.SQLiteQueryUtils;
+import java.io.File;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.commons.io.filefilter.WildcardFileFilter;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jooq.Record2;
+import org.jooq.SQLDialect;
+import org.jooq.exception.DataAccessException;
+import org.jooq.impl.DSL;
+import org.sqlite.SQLiteConfig;
+
+/**
+ * Indexes the rotated RCA DB files by the span of the flow unit timestamps they hold, so that a
+ * history query opens only the files that overlap its time range.
+ *
+ * <p>A rotated file is not written to anymore, so its span is read once, when the file is first
+ * seen, and kept until FileGC deletes the file. The span comes from the rows rather than from the
+ * rotation time in the file name, as the file of a previous run is rotated on startup and can hold
+ * rows much older than that.
+ */
+class RcaHistoryIndex {
+  private static final Logger LOG = LogManager.getLogger(RcaHistoryIndex.class);
+  private static final String WILDCARD_CHARACTER = "*";
+  private static final String[] SQLITE_TEMP_FILE_SUFFIXES = {"-journal", "-wal", "-shm"};
+
+  private final File dbDir;
+  private final String baseDbFilename;
+  private final String dbProtocol;
+
+  private final Map<String, TimeSpan> spans = new ConcurrentHashMap<>();
+
+  static class TimeSpan {
+    private final Path file;
+    private final long minTimestamp;
+    private final long maxTimestamp;
+    private final long lastModified;
+
+    TimeSpan(Path file, long minTimestamp, long maxTimestamp, long lastModified) {
+      this.file = file;
+      this.minTimestamp = minTimestamp;
+      this.maxTimestamp = maxTimestamp;
+      this.lastModified = lastModified;
+    }
+
+    /** The span of a file that holds no flow unit, which overlaps no time range. */
+    static TimeSpan empty(Path file, long lastModified) {
+      return new TimeSpan(file, Long.MAX_VALUE, Long.MIN_VALUE, lastModified);
+    }
+
+    boolean overlaps(long startTimeMillis, long endTimeMillis) {
+      return minTimestamp <= endTimeMillis && maxTimestamp >= startTimeMillis;
+    }
+  }
+
+  RcaHistoryIndex(Path dbDir, String baseDbFilename, String dbProtocol) {
+    this.dbDir = dbDir.toFile();
+    this.baseDbFilename = baseDbFilename;
+    this.dbProtocol = dbProtocol;
+  }
+
+  /**
+   * Lists the rotated files that hold flow units within the time range, oldest first.
+   *
+   * @param startTimeMillis The earliest timestamp of the range, inclusive.
+   * @param endTimeMillis The latest timestamp of the range, inclusive.
+   * @return The paths to the files.
+   */
+  List<Path> filesOverlapping(long startTimeMillis, long endTimeMillis) {
+    String[] filenames = dbDir.list(new WildcardFileFilter(baseDbFilename + "." + WILDCARD_CHARACTER));
+    if (filenames == null) {
+      return Collections.emptyList();
+    }
+    Set<String> rotatedFiles = new HashSet<>(Arrays.asList(filenames));
+    // Forget the files FileGC has deleted.
+    spans.keySet().retainAll(rotatedFiles);
+
+    List<TimeSpan> overlapping = new ArrayList<>();
+    for (String filename : rotatedFiles) {
+      if (isSqliteTempFile(filename)) {
+        continue;
+      }
+      TimeSpan span = getSpan(filename);
+      if (span.overlaps(startTimeMillis, endTimeMillis)) {
+        overlapping.add(span);
+      }
+    }
+    overlapping.sort(Comparator.comparingLong(span -> span.minTimestamp));
+
+    List<Path> files = new ArrayList<>(overlapping.size());
+    overlapping.forEach(span -> files.add(span.file));
+    return files;
+  }
+
+  /**
+   * Opens a rotated file for reading. The file is opened read-only, so that a file FileGC deleted
+   * in the meantime is not created again as an empty DB.
+   */
+  Connection openReadOnly(Path file) throws SQLException {
+    SQLiteConfig config = new SQLiteConfig();
+    config.setReadOnly(true);
+    return DriverManager.getConnection(dbProtocol + file, config.toProperties());
+  }
+
+  private TimeSpan getSpan(String filename) {
+    File file = new File(dbDir, filename);
+    long lastModified = file.lastModified();
+    TimeSpan span = spans.get(filename);
+    // A file can be rotated to a name that is in use already, in which case it replaces that file.
+    if (span == null || span.lastModified != lastModified) {
+      span = readSpan(file.toPath(), lastModified);
+      spans.put(filename, span);
+    }
+    return span;
+  }
+
+  private TimeSpan readSpan(Path file, long lastModified) {
+    try (Connection conn = openReadOnly(file)) {
+      Record2<Long, Long> span = SQLiteQueryUtils.buildRcaTimeSpanQuery(
+          DSL.using(conn, SQLDialect.SQLITE)).fetchOne();
+      if (span == null || span.value1() == null || span.value2() == null) {
+        return TimeSpan.empty(file, lastModified);
+      }
+      return new TimeSpan(file, span.value1(), span.value2(), lastModified);
+    } catch (DataAccessException dex) {
+      // The file has no RCA table if no flow unit was written to it before it was rotated.
+      if (!dex.getMessage().contains("no such table")) {
+        LOG.error("Failed to read the time span of RCA file: {}", file, dex);
+      }
+    } catch (SQLException e) {
+      LOG.error("Could not open RCA file: {}", file, e);
+    }
+    return TimeSpan.empty(file, lastModified);
+  }
+
+  private static boolean isSqliteTempFile(String filename) {
+    for (String suffix : SQLITE_TEMP_FILE_SUFFIXES) {
+      if (filename.endsWith(suffix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
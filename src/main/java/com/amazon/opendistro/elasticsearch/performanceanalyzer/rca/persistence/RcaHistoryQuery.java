@@ -0,0 +1,170 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.persistence;
+
+import com.google.gson.JsonElement;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * A page of the flow units an RCA persisted within a time range, read oldest first.
+ *
+ * <p>The cursor of a page is the timestamp of the last flow unit it returned, and the page after
+ * it starts right after that timestamp. So that no flow unit is skipped, a page holds all the flow
+ * units of that timestamp, even past the limit. The cursor stays valid across file rotations,
+ * because a rotated file keeps the rows it had while it was the current file.
+ */
+public class RcaHistoryQuery {
+  public static final int MAX_LIMIT = 1000;
+
+  private final String rca;
+  private final long startTimeMillis;
+  private final long endTimeMillis;
+  private final int limit;
+
+  /**
+   * @param rca The name of the RCA to read.
+   * @param startTimeMillis The earliest timestamp to read, inclusive.
+   * @param endTimeMillis The latest timestamp to read, inclusive.
+   * @param cursor The cursor returned with the previous page, or null for the first page.
+   * @param limit The most flow units to return in this page, unless more share the timestamp of
+   *     the last one.
+   * @throws IllegalArgumentException If the cursor cannot be parsed, or the limit or the time range
+   *     are not valid.
+   */
+  public RcaHistoryQuery(String rca, long startTimeMillis, long endTimeMillis,
+                         @Nullable String cursor, int limit) {
+    if (limit <= 0 || limit > MAX_LIMIT) {
+      throw new IllegalArgumentException("limit should be between 1 and " + MAX_LIMIT);
+    }
+    if (startTimeMillis > endTimeMillis) {
+      throw new IllegalArgumentException("start should not be after end");
+    }
+    this.rca = rca;
+    this.endTimeMillis = endTimeMillis;
+    this.limit = limit;
+    if (cursor == null) {
+      this.startTimeMillis = startTimeMillis;
+    } else {
+      long lastTimestamp;
+      try {
+        lastTimestamp = Long.parseLong(cursor);
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid cursor: " + cursor);
+      }
+      this.startTimeMillis = Math.max(startTimeMillis, lastTimestamp + 1);
+    }
+  }
+
+  public String getRca() {
+    return rca;
+  }
+
+  public long getStartTimeMillis() {
+    return startTimeMillis;
+  }
+
+  public long getEndTimeMillis() {
+    return endTimeMillis;
+  }
+
+  public int getLimit() {
+    return limit;
+  }
+
+  /** Tracks what has been read so far for a query, as it goes over one DB file after another. */
+  static class Page {
+    private final RcaHistoryQuery query;
+    private final Set<Path> readFiles = new HashSet<>();
+    private Consumer<JsonElement> sink;
+    private int count;
+    private long lastTimestamp;
+    private boolean hasMore;
+
+    Page(RcaHistoryQuery query, Consumer<JsonElement> sink) {
+      this.query = query;
+      this.sink = sink;
+      this.lastTimestamp = query.startTimeMillis;
+    }
+
+    String getRca() {
+      return query.rca;
+    }
+
+    /**
+     * The earliest timestamp that is still to be read. The files not read yet can still hold flow
+     * units of the last timestamp read.
+     */
+    long getStartTimeMillis() {
+      return lastTimestamp;
+    }
+
+    long getEndTimeMillis() {
+      return query.endTimeMillis;
+    }
+
+    /**
+     * Whether the next flow unit that matches the query goes in the page. Once the page is full,
+     * only those that share the timestamp of the last one do.
+     */
+    boolean accepts(long timestamp) {
+      return count < query.limit || timestamp == lastTimestamp;
+    }
+
+    /**
+     * Records that the rows of a rotated file are being read.
+     *
+     * @return false if they were read already for this page.
+     */
+    boolean markRead(Path file) {
+      return readFiles.add(file);
+    }
+
+    /** Adds the next flow unit that matches the query to the page, if it accepts it. */
+    void add(long timestamp, JsonElement response) {
+      sink.accept(response);
+      count++;
+      lastTimestamp = timestamp;
+    }
+
+    /** Records that a flow unit matched the query that the page did not accept. */
+    void setHasMore() {
+      hasMore = true;
+    }
+
+    boolean hasMore() {
+      return hasMore;
+    }
+
+    /**
+     * Hands the flow units offered from now on to another sink.
+     *
+     * @return The sink they went to so far.
+     */
+    Consumer<JsonElement> redirect(Consumer<JsonElement> newSink) {
+      Consumer<JsonElement> oldSink = sink;
+      sink = newSink;
+      return oldSink;
+    }
+
+    @Nullable String nextCursor() {
+      return hasMore ? Long.toString(lastTimestamp) : null;
+    }
+  }
+}
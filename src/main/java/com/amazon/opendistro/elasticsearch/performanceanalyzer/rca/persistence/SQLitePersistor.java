@@ -41,6 +41,7 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -54,12 +55,14 @@ import javax.annotation.Nullable;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jooq.CreateTableConstraintStep;
+import org.jooq.Cursor;
 import org.jooq.DSLContext;
 import org.jooq.Field;
 import org.jooq.InsertValuesStepN;
 import org.jooq.JSONFormat;
 import org.jooq.Record;
 import org.jooq.Result;
+import org.jooq.ResultQuery;
 import org.jooq.SQLDialect;
 import org.jooq.SelectJoinStep;
 import org.jooq.Table;
@@ -76,6 +79,9 @@ class SQLitePersistor extends PersistorBase {
   private static class GetterSetterPairs {
     Method getter = null;
     Method setter = null;
+    // The getter and setter above, made accessible once so that per-row calls skip access checks.
+    BoundAccessors.Getter boundGetter = null;
+    BoundAccessors.Setter boundSetter = null;
   }
 
   private static class ColumnValuePair {
@@ -106,6 +112,8 @@ class SQLitePersistor extends PersistorBase {
 
   private Map<Class<?>, Map<String, GetterSetterPairs>> classFieldNamesToGetterSetterMap;
 
+  private Map<Class<?>, BoundAccessors.Factory> classFactoryMap;
+
   // When persisting an object in the DB, is a getter for the Object is annotated with @AColumn and @ATable, then the return type Object is
   // persisted in a a different table and the primary key of the other table is persisted as a pointer in the outer object table.
   private static final String NESTED_OBJECT_COLUMN_PREFIX = "__table__";
@@ -120,6 +128,7 @@ class SQLitePersistor extends PersistorBase {
     tableNameToJavaClassMap = new HashMap<>();
     this.fieldGetterSetterPairsMap = new HashMap<>();
     this.classFieldNamesToGetterSetterMap = new HashMap<>();
+    this.classFactoryMap = new HashMap<>();
   }
 
   // This updates the DSL context based on a new SQLite connection
@@ -300,7 +309,12 @@ class SQLitePersistor extends PersistorBase {
     Map<String, GetterSetterPairs> fieldNameToGetterSetterMap = classFieldNamesToGetterSetterMap.get(clz);
     String primaryKeyCol = SQLiteQueryUtils.getPrimaryKeyColumnName(tableName);
     Field<?>[] fields = record.fields();
-    T obj = clz.getDeclaredConstructor().newInstance();
+    BoundAccessors.Factory factory = classFactoryMap.get(clz);
+    if (factory == null) {
+      factory = BoundAccessors.factory(clz);
+      classFactoryMap.put(clz, factory);
+    }
+    T obj = clz.cast(factory.newInstance());
 
     for (Field<?> jooqField : fields) {
       String columnName = jooqField.getName();
@@ -319,7 +333,7 @@ class SQLitePersistor extends PersistorBase {
         if (jooqField.getType() == String.class) {
           String value = (String) jooqField.getValue(record);
           JsonArray array = new JsonParser().parse(value).getAsJsonArray();
-          Method setter = fieldNameToGetterSetterMap.get(nestedTableName).setter;
+          BoundAccessors.Setter setter = fieldNameToGetterSetterMap.get(nestedTableName).boundSetter;
 
           List<Object> collection = new ArrayList<>();
           for (JsonElement element: array) {
@@ -338,7 +352,7 @@ class SQLitePersistor extends PersistorBase {
               collection.add(nestedObj);
             }
           }
-          setter.invoke(obj, collection);
+          setter.set(obj, collection);
         } else if (jooqField.getType() == Integer.class) {
           // This references a row in a table.
           if (fieldNameToGetterSetterMap.get(nestedTableName) == null) {
@@ -359,15 +373,15 @@ class SQLitePersistor extends PersistorBase {
           // is to be filled with; we call the read method recursively to create the referenced Object
           // and then invoke the setter with it.
           Object nestedObj = read(setterType, nestedRowId);
-          setter.invoke(obj, nestedObj);
+          fieldNameToGetterSetterMap.get(nestedTableName).boundSetter.set(obj, nestedObj);
         }
         else {
           throw new IllegalStateException("ReferenceColumn can be either Integer or String.");
         }
       } else {
         // For all the other columns, we look for the corresponding setter.
-        Method setter = fieldNameToGetterSetterMap.get(jooqField.getName()).setter;
-        setter.invoke(obj, jooqField.getType().cast(jooqField.getValue(record)));
+        BoundAccessors.Setter setter = fieldNameToGetterSetterMap.get(jooqField.getName()).boundSetter;
+        setter.set(obj, jooqField.getType().cast(jooqField.getValue(record)));
       }
     }
     return obj;
@@ -459,18 +473,19 @@ class SQLitePersistor extends PersistorBase {
 
   /**
    * Go over all the fields of the class and then filter out all that are annotated as @AColumn or @ATable. For those fields,
-   * try to figure out the getter and setters.
+   * try to figure out the getter and setters. This is done once per class, as the registry outlives the DB file rotations, and
+   * the registry of a class is only kept if all its getters and setters were found.
    * @param clz The class whose field registry is to be created.
    * @param <T> The Generic type of the class.
    * @throws IllegalStateException When getters and setters are not found for the field that is required to be persisted or they exist but
    *     are not public.
    */
   private <T> void createFieldRegistry(Class<T> clz) throws IllegalStateException, NoSuchMethodException {
-    fieldGetterSetterPairsMap.putIfAbsent(clz, new HashMap<>());
-    classFieldNamesToGetterSetterMap.putIfAbsent(clz, new HashMap<>());
-
-    Map<java.lang.reflect.Field, GetterSetterPairs> fieldToGetterSetterMap = fieldGetterSetterPairsMap.get(clz);
-    Map<String, GetterSetterPairs> fieldNameToGetterSetterMap = classFieldNamesToGetterSetterMap.get(clz);
+    if (fieldGetterSetterPairsMap.containsKey(clz)) {
+      return;
+    }
+    Map<java.lang.reflect.Field, GetterSetterPairs> fieldToGetterSetterMap = new HashMap<>();
+    Map<String, GetterSetterPairs> fieldNameToGetterSetterMap = new HashMap<>();
 
     for (java.lang.reflect.Field field : clz.getDeclaredFields()) {
       if (field.isAnnotationPresent(ValueColumn.class) || field.isAnnotationPresent(RefColumn.class)) {
@@ -522,10 +537,14 @@ class SQLitePersistor extends PersistorBase {
         if (pair.setter == null) {
           throw new NoSuchMethodException(getNoGetterSetterExist(clz, field, GetterOrSetter.SETTER));
         }
+        pair.boundGetter = BoundAccessors.getter(pair.getter);
+        pair.boundSetter = BoundAccessors.setter(pair.setter);
         fieldToGetterSetterMap.put(field, pair);
         fieldNameToGetterSetterMap.put(field.getName(), pair);
       }
     }
+    fieldGetterSetterPairsMap.put(clz, fieldToGetterSetterMap);
+    classFieldNamesToGetterSetterMap.put(clz, fieldNameToGetterSetterMap);
   }
 
   private String getNoGetterSetterExist(Class<?> clz, java.lang.reflect.Field field, GetterOrSetter getterOrSetter) {
@@ -552,12 +571,13 @@ class SQLitePersistor extends PersistorBase {
     return sb.toString();
   }
 
-  private <T> ColumnValuePair writeCollectionReferenceColumn(java.lang.reflect.Field field, Method getter, T obj)
+  private <T> ColumnValuePair writeCollectionReferenceColumn(java.lang.reflect.Field field, GetterSetterPairs pair, T obj)
       throws InvocationTargetException, IllegalAccessException, SQLException, NoSuchMethodException {
     ColumnValuePair columnValuePair = new ColumnValuePair();
     String columnName = NESTED_OBJECT_COLUMN_PREFIX + field.getName();
+    Method getter = pair.getter;
 
-    Collection<?> collection = (Collection<?>) getter.getReturnType().cast(getter.invoke(obj));
+    Collection<?> collection = (Collection<?>) getter.getReturnType().cast(pair.boundGetter.get(obj));
     Map<String, List<Integer>> nestedPrimaryKeys = new HashMap<>();
     for (Object o: collection) {
       String myActualType = o.getClass().getSimpleName();
@@ -614,6 +634,7 @@ class SQLitePersistor extends PersistorBase {
 
     for (Map.Entry<java.lang.reflect.Field, GetterSetterPairs> entry: fieldToGetterSetterMap.entrySet()) {
       Method getter = entry.getValue().getter;
+      BoundAccessors.Getter boundGetter = entry.getValue().boundGetter;
       java.lang.reflect.Field classField = entry.getKey();
 
       String columnName = classField.getName();
@@ -622,12 +643,12 @@ class SQLitePersistor extends PersistorBase {
       if (classField.isAnnotationPresent(RefColumn.class)) {
         columnName = NESTED_OBJECT_COLUMN_PREFIX + columnName;
         if (Collection.class.isAssignableFrom(retType)) {
-          ColumnValuePair columnValuePair = writeCollectionReferenceColumn(classField, getter, obj);
+          ColumnValuePair columnValuePair = writeCollectionReferenceColumn(classField, entry.getValue(), obj);
           fields.add(columnValuePair.field);
           values.add(columnValuePair.value);
         } else {
           // This is a user-defined class Type
-          int id = writeImplInner(retType.cast(getter.invoke(obj)));
+          int id = writeImplInner(retType.cast(boundGetter.get(obj)));
           // Although the ID is long, we are persisting it as string because if there are multiple rows in the child table, that refer to
           // the parent table row, then, the parent table should have a list of them. IN which case the value stored in the column will be
           // of the form: [id1, id2, ..].
@@ -636,10 +657,10 @@ class SQLitePersistor extends PersistorBase {
         }
       } else if (retType.isPrimitive()) {
         fields.add(DSL.field(DSL.name(columnName), retType));
-        values.add(getter.invoke(obj));
+        values.add(boundGetter.get(obj));
       } else if (retType == String.class) {
         fields.add(DSL.field(DSL.name(columnName), String.class));
-        values.add(getter.invoke(obj));
+        values.add(boundGetter.get(obj));
       }
     }
 
@@ -708,7 +729,7 @@ class SQLitePersistor extends PersistorBase {
   }
 
   @Override
-  public synchronized List<String> getAllPersistedRcas() {
+  synchronized List<String> readPersistedRcas() {
     List<String> uniquePersistedRcas = new ArrayList<>();
     try {
           uniquePersistedRcas =
@@ -814,6 +835,10 @@ class SQLitePersistor extends PersistorBase {
   }
 
   private synchronized void readSummary(GenericSummary upperLevelSummary, int upperLevelPrimaryKey) {
+    readSummary(create, upperLevelSummary, upperLevelPrimaryKey);
+  }
+
+  private static void readSummary(DSLContext ctx, GenericSummary upperLevelSummary, int upperLevelPrimaryKey) {
     String upperLevelTable = upperLevelSummary.getTableName();
 
     // stop the recursion here if the summary does not have any nested summary table.
@@ -825,7 +850,7 @@ class SQLitePersistor extends PersistorBase {
       Field<Integer> foreignKeyField = DSL.field(
           SQLiteQueryUtils.getPrimaryKeyColumnName(upperLevelTable), Integer.class);
       SelectJoinStep<Record> rcaQuery = SQLiteQueryUtils
-          .buildSummaryQuery(create, nestedTableName, upperLevelPrimaryKey, foreignKeyField);
+          .buildSummaryQuery(ctx, nestedTableName, upperLevelPrimaryKey, foreignKeyField);
       try {
         Result<Record> recordList = rcaQuery.fetch();
         for (Record record : recordList) {
@@ -833,7 +858,7 @@ class SQLitePersistor extends PersistorBase {
           if (summary != null) {
             Field<Integer> primaryKeyField = DSL.field(
                 SQLiteQueryUtils.getPrimaryKeyColumnName(summary.getTableName()), Integer.class);
-            readSummary(summary, record.get(primaryKeyField));
+            readSummary(ctx, summary, record.get(primaryKeyField));
           }
         }
       } catch (DataAccessException de) {
@@ -884,8 +909,38 @@ class SQLitePersistor extends PersistorBase {
     return ret;
   }
 
-  // TODO: we only query the most recent RCA entry in this API. might need to extend this
-  // to support range query based on timestamp.
+  // Reads the same json as getNonTemperatureRcas() for each flow unit in the range. The connection
+  // is either the one of the current file, which the caller holds the lock for, or a read-only
+  // connection to a rotated file.
+  @Override
+  void readRcaHistory(Connection connection, RcaHistoryQuery.Page page) {
+    DSLContext ctx = DSL.using(connection, SQLDialect.SQLITE);
+    Field<Integer> primaryKeyField = DSL.field(
+        SQLiteQueryUtils.getPrimaryKeyColumnName(ResourceFlowUnit.RCA_TABLE_NAME), Integer.class);
+    ResultQuery<Record> rcaQuery = SQLiteQueryUtils.buildRcaHistoryQuery(
+        ctx, page.getRca(), page.getStartTimeMillis(), page.getEndTimeMillis());
+    try (Cursor<Record> records = rcaQuery.fetchLazy()) {
+      for (Record record : records) {
+        RcaResponse response = RcaResponse.buildResponse(record);
+        if (response == null) {
+          continue;
+        }
+        if (!page.accepts(response.getTimeStamp())) {
+          page.setHasMore();
+          return;
+        }
+        if (response.getState().equals(State.UNHEALTHY.toString())) {
+          readSummary(ctx, response, record.get(primaryKeyField));
+        }
+        page.add(response.getTimeStamp(), response.toJson());
+      }
+    } catch (DataAccessException de) {
+      if (!de.getMessage().contains("no such table")) {
+        LOG.error("Fail to read RCA history : {}.", page.getRca(), de);
+      }
+    }
+  }
+
   @Override
   public synchronized JsonElement readRca(String rca) {
     JsonElement json;
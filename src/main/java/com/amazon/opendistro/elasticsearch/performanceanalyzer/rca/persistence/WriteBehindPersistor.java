@@ -0,0 +1,225 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.persistence;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.PerformanceAnalyzerApp;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.flow_units.ResourceFlowUnit;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.Node;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.metrics.ExceptionsAndErrors;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.metrics.RcaGraphMetrics;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.gson.JsonElement;
+import java.lang.reflect.InvocationTargetException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.exception.DataAccessException;
+
+/**
+ * A persistor that queues the writes and has a single writer thread persist them in the wrapped
+ * persistor, one transaction per batch. The graph nodes then only pay for the enqueue, and the
+ * readers only wait on the persistor while a batch commits. The writes of a tick arrive together,
+ * so they usually make up one batch.
+ *
+ * <p>Reads go to the wrapped persistor as they are, so a read sees a write once its batch is
+ * committed.
+ */
+public class WriteBehindPersistor implements Persistable {
+  private static final Logger LOG = LogManager.getLogger(WriteBehindPersistor.class);
+
+  static final int DEFAULT_QUEUE_SIZE = 4096;
+  private static final long POLL_TIMEOUT_MILLIS = 100;
+  private static final long CLOSE_TIMEOUT_MILLIS = 10_000;
+
+  /** A write waiting in the queue, along with the name to report its failure under. */
+  private static class PendingWrite {
+    private final String name;
+    private final Write write;
+
+    PendingWrite(String name, Write write) {
+      this.name = name;
+      this.write = write;
+    }
+  }
+
+  @FunctionalInterface
+  private interface Write {
+    void writeTo(Persistable persistable) throws Exception;
+  }
+
+  private final PersistorBase persistor;
+  private final BlockingQueue<PendingWrite> queue;
+  private final Thread writer;
+  private volatile boolean closed;
+
+  WriteBehindPersistor(PersistorBase persistor) {
+    this(persistor, DEFAULT_QUEUE_SIZE);
+  }
+
+  @VisibleForTesting
+  WriteBehindPersistor(PersistorBase persistor, int queueSize) {
+    this.persistor = persistor;
+    this.queue = new ArrayBlockingQueue<>(queueSize);
+    this.writer = new Thread(this::runWriter, "rca-write-behind-persistor");
+    this.writer.setDaemon(true);
+    this.writer.start();
+  }
+
+  @Override
+  public <T extends ResourceFlowUnit> void write(Node<?> node, T flowUnit) {
+    if (flowUnit.isEmpty()) {
+      LOG.debug("RCA: Flow unit isEmpty");
+      return;
+    }
+    enqueue(new PendingWrite(node.name(), persistable -> persistable.write(node, flowUnit)));
+  }
+
+  @Override
+  public <T> void write(@NonNull T object) {
+    Objects.requireNonNull(object);
+    enqueue(new PendingWrite(
+        object.getClass().getSimpleName(), persistable -> persistable.write(object)));
+  }
+
+  private void enqueue(PendingWrite pendingWrite) {
+    if (closed || !queue.offer(pendingWrite)) {
+      LOG.warn("RCA: Dropped the write for {} because the persistor queue is full or closed.",
+          pendingWrite.name);
+      PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR.updateStat(
+          RcaGraphMetrics.RCA_PERSIST_DROPPED, pendingWrite.name, 1);
+    }
+  }
+
+  private void runWriter() {
+    List<PendingWrite> batch = new ArrayList<>();
+    while (!closed || !queue.isEmpty()) {
+      try {
+        PendingWrite first = queue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+        queue.drainTo(batch);
+        writeBatch(batch);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      } finally {
+        batch.clear();
+      }
+    }
+  }
+
+  private void writeBatch(List<PendingWrite> batch) {
+    long startTime = System.currentTimeMillis();
+    try {
+      persistor.writeInTransaction(p -> {
+        for (PendingWrite pendingWrite : batch) {
+          try {
+            pendingWrite.write.writeTo(p);
+          } catch (Exception e) {
+            LOG.error("RCA: Caught exception while persisting {}", pendingWrite.name, e);
+            PerformanceAnalyzerApp.ERRORS_AND_EXCEPTIONS_AGGREGATOR.updateStat(
+                ExceptionsAndErrors.EXCEPTION_IN_PERSIST, pendingWrite.name, 1);
+          }
+        }
+      });
+    } catch (Exception e) {
+      LOG.error("RCA: Unable to commit a batch of {} writes", batch.size(), e);
+      PerformanceAnalyzerApp.ERRORS_AND_EXCEPTIONS_AGGREGATOR.updateStat(
+          ExceptionsAndErrors.EXCEPTION_IN_PERSIST, "", 1);
+    }
+    PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR.updateStat(
+        RcaGraphMetrics.RCA_PERSIST_BATCH_SIZE, "", batch.size());
+    PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR.updateStat(
+        RcaGraphMetrics.RCA_PERSIST_BATCH_TIME, "", System.currentTimeMillis() - startTime);
+  }
+
+  /**
+   * Waits for the queued writes to be persisted, and then closes the wrapped persistor.
+   */
+  @Override
+  public void close() throws SQLException {
+    closed = true;
+    try {
+      writer.join(CLOSE_TIMEOUT_MILLIS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (writer.isAlive()) {
+      LOG.warn("RCA: Closing the persistor with {} writes still queued", queue.size());
+      writer.interrupt();
+    }
+    persistor.close();
+  }
+
+  @Override
+  public List<ResourceFlowUnit> read(Node<?> node) {
+    return persistor.read(node);
+  }
+
+  @Override
+  public String read() {
+    return persistor.read();
+  }
+
+  @Override
+  public JsonElement read(String rca) {
+    return persistor.read(rca);
+  }
+
+  @Override
+  public <T> @Nullable T read(Class<T> clz)
+      throws NoSuchMethodException, IllegalAccessException, InvocationTargetException,
+      InstantiationException, DataAccessException {
+    return persistor.read(clz);
+  }
+
+  @Override
+  public <T, E> @Nullable List<T> readAllForMaxField(Class<T> clz, String fieldName,
+      Class<E> fieldClz)
+      throws NoSuchMethodException, IllegalAccessException, InvocationTargetException,
+      InstantiationException, DataAccessException {
+    return persistor.readAllForMaxField(clz, fieldName, fieldClz);
+  }
+
+  @Override
+  public List<String> getAllPersistedRcas() {
+    return persistor.getAllPersistedRcas();
+  }
+
+  @Override
+  public @Nullable String readRcaHistory(RcaHistoryQuery query, Consumer<JsonElement> sink) {
+    return persistor.readRcaHistory(query, sink);
+  }
+
+  @Override
+  public Map<String, Result<Record>> getRecordsForAllTables() {
+    return persistor.getRecordsForAllTables();
+  }
+}
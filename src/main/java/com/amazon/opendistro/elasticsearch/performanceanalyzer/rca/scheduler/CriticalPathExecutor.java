@@ -0,0 +1,230 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.scheduler;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.ConnectedComponent;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.Node;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Runs the tasklets of a run of the RCA graph without chaining them level by level. A tasklet is
+ * queued as soon as all of its predecessors are done, and whenever a thread of the pool frees up,
+ * it picks the queued tasklet with the longest expected path to the end of the graph. The expected
+ * cost of a tasklet is the moving average of its past executions, so a slow node and everything
+ * upstream of it get ahead of the nodes that have time to spare.
+ */
+class CriticalPathExecutor {
+  private static final Logger LOG = LogManager.getLogger(CriticalPathExecutor.class);
+
+  /** The cost assumed for a tasklet that has not run yet, so that the depth of the graph counts. */
+  private static final long DEFAULT_COST_MICROS = 1;
+
+  private final ExecutorService executorPool;
+
+  CriticalPathExecutor(final ExecutorService executorPool) {
+    this.executorPool = executorPool;
+  }
+
+  /**
+   * Starts running the tasklets.
+   *
+   * @param levelledTasklets The tasklets to run, in dependency order. Predecessors of a tasklet that
+   *     are not in this list are not waited on.
+   * @return A future that completes with the timeline of the run once all the tasklets are done.
+   */
+  CompletableFuture<TickTimeline> execute(final List<List<Tasklet>> levelledTasklets) {
+    Run run = new Run(levelledTasklets);
+    run.start();
+    return run.done;
+  }
+
+  /**
+   * Creates a work-stealing pool as wide as the widest level of the graph, as no more nodes than
+   * that can be ready at the same time, but no wider than the number of processors.
+   *
+   * @param connectedComponents The connected components of the RCA graph.
+   * @param threadNamePrefix The prefix for the names of the pool threads.
+   * @return The pool.
+   */
+  static ForkJoinPool createPool(
+      final List<ConnectedComponent> connectedComponents, final String threadNamePrefix) {
+    int parallelism =
+        getParallelism(connectedComponents, Runtime.getRuntime().availableProcessors());
+    LOG.info("RCA: Creating work-stealing pool of {} threads for the graph nodes.", parallelism);
+    return new ForkJoinPool(
+        parallelism,
+        pool -> {
+          ForkJoinWorkerThread thread =
+              ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+          thread.setName(threadNamePrefix + thread.getPoolIndex());
+          thread.setDaemon(true);
+          return thread;
+        },
+        null,
+        true);
+  }
+
+  static int getParallelism(
+      final List<ConnectedComponent> connectedComponents, final int availableProcessors) {
+    List<Integer> levelWidths = new ArrayList<>();
+    for (ConnectedComponent component : connectedComponents) {
+      List<List<Node<?>>> levels = component.getAllNodesByDependencyOrder();
+      for (int idx = 0; idx < levels.size(); idx++) {
+        if (idx == levelWidths.size()) {
+          levelWidths.add(0);
+        }
+        levelWidths.set(idx, levelWidths.get(idx) + levels.get(idx).size());
+      }
+    }
+    int maxWidth = levelWidths.stream().max(Integer::compare).orElse(1);
+    return Math.max(1, Math.min(maxWidth, Math.max(2, availableProcessors)));
+  }
+
+  /** The state of one run of the graph. */
+  private class Run {
+    private final long startTime = System.nanoTime();
+    private final Map<Tasklet, List<Tasklet>> successors = new HashMap<>();
+    private final Map<Tasklet, AtomicInteger> pendingPredecessors = new HashMap<>();
+    private final Map<Tasklet, Long> pathCosts = new HashMap<>();
+    private final PriorityBlockingQueue<Tasklet> readyQueue;
+    private final AtomicInteger remaining;
+    private final TickTimeline timeline = new TickTimeline();
+    private final CompletableFuture<TickTimeline> done = new CompletableFuture<>();
+
+    Run(final List<List<Tasklet>> levelledTasklets) {
+      for (List<Tasklet> taskletsAtThisLevel : levelledTasklets) {
+        for (Tasklet tasklet : taskletsAtThisLevel) {
+          successors.put(tasklet, new ArrayList<>());
+          pendingPredecessors.put(tasklet, new AtomicInteger(0));
+        }
+      }
+      for (Tasklet tasklet : successors.keySet()) {
+        for (Tasklet predecessor : tasklet.predecessors) {
+          List<Tasklet> successorsOfPredecessor = successors.get(predecessor);
+          if (successorsOfPredecessor != null) {
+            successorsOfPredecessor.add(tasklet);
+            pendingPredecessors.get(tasklet).incrementAndGet();
+          }
+        }
+      }
+      successors.keySet().forEach(this::getPathCost);
+      this.remaining = new AtomicInteger(successors.size());
+      this.readyQueue =
+          new PriorityBlockingQueue<>(
+              Math.max(1, successors.size()),
+              Comparator.comparingLong((Tasklet t) -> pathCosts.get(t)).reversed());
+    }
+
+    /** The expected cost of the tasklet and of the most expensive path of its successors. */
+    private long getPathCost(Tasklet tasklet) {
+      Long pathCost = pathCosts.get(tasklet);
+      if (pathCost == null) {
+        long successorsCost = 0;
+        for (Tasklet successor : successors.get(tasklet)) {
+          successorsCost = Math.max(successorsCost, getPathCost(successor));
+        }
+        long cost = tasklet.getEstimatedCostMicros();
+        pathCost = (cost < 0 ? DEFAULT_COST_MICROS : cost) + successorsCost;
+        pathCosts.put(tasklet, pathCost);
+      }
+      return pathCost;
+    }
+
+    void start() {
+      if (successors.isEmpty()) {
+        done.complete(timeline);
+        return;
+      }
+      pendingPredecessors.forEach(
+          (tasklet, pending) -> {
+            if (pending.get() == 0) {
+              readyQueue.add(tasklet);
+            }
+          });
+      for (int idx = readyQueue.size(); idx > 0; idx--) {
+        submit();
+      }
+    }
+
+    /**
+     * Every tasklet added to the ready queue is followed by exactly one submission, so each
+     * submission finds a tasklet to run, though not necessarily the one that was added with it.
+     */
+    private void submit() {
+      try {
+        executorPool.execute(this::runNext);
+      } catch (RejectedExecutionException e) {
+        LOG.error("RCA: Could not submit graph node for execution.", e);
+        done.completeExceptionally(e);
+      }
+    }
+
+    private void runNext() {
+      Tasklet tasklet = readyQueue.poll();
+      if (tasklet == null) {
+        return;
+      }
+      try {
+        evaluate(tasklet);
+        for (Tasklet successor : successors.get(tasklet)) {
+          if (pendingPredecessors.get(successor).decrementAndGet() == 0) {
+            readyQueue.add(successor);
+            submit();
+          }
+        }
+        if (remaining.decrementAndGet() == 0) {
+          done.complete(timeline);
+        }
+      } catch (Throwable t) {
+        // An Error leaves the successors of the node waiting forever, so the run fails instead of
+        // never completing. The tasklets already running finish, but none is started after them.
+        LOG.error("RCA: Error while evaluating node {}", tasklet.getNode().name(), t);
+        readyQueue.clear();
+        done.completeExceptionally(t);
+      }
+    }
+
+    private void evaluate(Tasklet tasklet) {
+      long taskletStartTime = System.nanoTime();
+      try {
+        tasklet.evaluate();
+      } catch (Exception e) {
+        // The successors are still run, but see no data from this node.
+        LOG.error("RCA: Exception while evaluating node {}", tasklet.getNode().name(), e);
+        tasklet.skip();
+      }
+      timeline.add(
+          tasklet,
+          TimeUnit.NANOSECONDS.toMicros(taskletStartTime - startTime),
+          TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startTime),
+          Thread.currentThread().getName());
+    }
+  }
+}
@@ -16,6 +16,7 @@
 package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.scheduler;
 
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.AppContext;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.config.PluginSettings;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.AllMetrics.NodeRole;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.ConnectedComponent;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.Queryable;
@@ -136,7 +137,9 @@ public class RCAScheduler {
         persistable,
         rcaConf,
         net,
-        appContext);
+        appContext,
+        PluginSettings.instance().isRcaEventDrivenSchedulingEnabled(),
+        PluginSettings.instance().isRcaCriticalPathSchedulingEnabled());
 
     schedulerState = RcaSchedulerState.STATE_STARTED;
     LOG.info("RCA scheduler thread started successfully on node: {}",
@@ -205,7 +208,12 @@ public class RCAScheduler {
 
   private void createExecutorPools() {
     scheduledPool = Executors.newScheduledThreadPool(1, schedThreadFactory);
-    rcaSchedulerPeriodicExecutor = Executors.newFixedThreadPool(2, taskThreadFactory);
+    if (PluginSettings.instance().isRcaCriticalPathSchedulingEnabled()) {
+      rcaSchedulerPeriodicExecutor = CriticalPathExecutor.createPool(connectedComponents,
+          appContext.getMyInstanceDetails().getInstanceId() + "-task-");
+    } else {
+      rcaSchedulerPeriodicExecutor = Executors.newFixedThreadPool(2, taskThreadFactory);
+    }
   }
 
   /**
@@ -34,11 +34,13 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -51,6 +53,9 @@ public class RCASchedulerTask implements Runnable {
   // This is to be used for tests only.
   private Queryable newDb = null;
 
+  // The queryable the tasklets read the metrics from.
+  private Queryable db;
+
   /**
    * This is a wrapper class for return type of createTaskletAndSendIntent method. This is required
    * because this method usually returns the tasklet created for a given graphNode. Occasionally, it
@@ -71,6 +76,37 @@ public class RCASchedulerTask implements Runnable {
     }
   }
 
+  /**
+   * The tasklets to be run on a tick, when the scheduler runs in the event-driven mode. Tasklets
+   * that are not due are left alone, unless a due tasklet reads from them; those are cleared
+   * inline on the scheduler thread so that the downstream node sees no data for the tick.
+   */
+  private static class TickPlan {
+
+    /** The due tasklets, levelled in dependency order. */
+    final List<List<Tasklet>> dueTasklets;
+
+    /** The tasklets that are not due but are predecessors of a due tasklet. */
+    final List<Tasklet> idlePredecessors;
+
+    /** All the tasklets that are not due on the tick. */
+    final List<Tasklet> idleTasklets;
+
+    /** The number of tasklets that are due on the tick. */
+    final int dueCount;
+
+    TickPlan(
+        List<List<Tasklet>> dueTasklets,
+        List<Tasklet> idlePredecessors,
+        List<Tasklet> idleTasklets,
+        int dueCount) {
+      this.dueTasklets = dueTasklets;
+      this.idlePredecessors = idlePredecessors;
+      this.idleTasklets = idleTasklets;
+      this.dueCount = dueCount;
+    }
+  }
+
   /** Maximum ticks after which the counter will be reset. */
   private int maxTicks;
 
@@ -80,6 +116,9 @@ public class RCASchedulerTask implements Runnable {
   /** The thread pool to execute the tasklets. */
   private final ExecutorService executorPool;
 
+  /** The network proxy, told at the end of each run to send out what the run produced. */
+  private final WireHopper hopper;
+
   /**
    * List of locally executable nodes whose data might be needed by downstream remote nodes. We keep
    * track of such nodes, so that the data can be sent to the network thread (wireHopper) as soon as
@@ -94,6 +133,31 @@ public class RCASchedulerTask implements Runnable {
    */
   private final List<List<Tasklet>> locallyExecutableTasklets;
 
+  /**
+   * If true, a tick only creates futures for the tasklets that are due, instead of calling every
+   * tasklet in the graph.
+   */
+  private final boolean eventDriven;
+
+  /**
+   * The number of ticks after which the set of due tasklets repeats. This is the least common
+   * multiple of the evaluation intervals of all the tasklets, or maxTicks + 1 if that is larger,
+   * so that ticks never share a plan.
+   */
+  private final int schedulePeriod;
+
+  /** The plans computed so far, keyed by the tick modulo the schedulePeriod. */
+  private final Map<Integer, TickPlan> tickPlans;
+
+  /**
+   * If set, the due tasklets are run by this executor, critical path first, instead of being
+   * chained level by level.
+   */
+  private final CriticalPathExecutor criticalPathExecutor;
+
+  /** The timeline of the last run, when the tasklets are run by the criticalPathExecutor. */
+  private volatile TickTimeline lastTimeline;
+
   // TODO: Q/ : maybe the max Ticks should be determined by what the max periodicity the user has
   // specified for a
   //  graph node? If this periodicity is lower than that, then some nodes may never get executed. I
@@ -109,7 +173,26 @@ public class RCASchedulerTask implements Runnable {
       final RcaConf conf,
       final WireHopper hopper,
       final AppContext appContext) {
+    this(maxTicks, executorPool, connectedComponents, db, persistable, conf, hopper, appContext,
+        false, false);
+  }
+
+  public RCASchedulerTask(
+      int maxTicks,
+      final ExecutorService executorPool,
+      final List<ConnectedComponent> connectedComponents,
+      final Queryable db,
+      final Persistable persistable,
+      final RcaConf conf,
+      final WireHopper hopper,
+      final AppContext appContext,
+      final boolean eventDriven,
+      final boolean criticalPathFirst) {
     this.maxTicks = maxTicks;
+    this.hopper = hopper;
+    this.db = db;
+    this.eventDriven = eventDriven;
+    this.criticalPathExecutor = criticalPathFirst ? new CriticalPathExecutor(executorPool) : null;
     this.executorPool = executorPool;
     this.remotelyDesirableNodeSet = new HashMap<>();
     Map<Node<?>, Tasklet> nodeTaskletMap = new HashMap<>();
@@ -133,6 +216,35 @@ public class RCASchedulerTask implements Runnable {
     this.locallyExecutableTasklets =
         Collections.unmodifiableList(dependencyOrderedLocallyExecutables);
     LOG.debug("rca: locally executable tasklet size: {}", locallyExecutableTasklets.size());
+    this.schedulePeriod = getSchedulePeriod(locallyExecutableTasklets, maxTicks);
+    this.tickPlans = new HashMap<>();
+  }
+
+  /**
+   * Calculates the period after which the tasklets due on a tick repeat.
+   *
+   * @param tasklets The levelled list of tasklets.
+   * @param maxTicks Maximum ticks after which the scheduler resets the counter.
+   * @return The least common multiple of the evaluation intervals, or maxTicks + 1 if it exceeds
+   *     maxTicks.
+   */
+  @VisibleForTesting
+  static int getSchedulePeriod(List<List<Tasklet>> tasklets, int maxTicks) {
+    long period = 1;
+    for (List<Tasklet> taskletsAtThisLevel : tasklets) {
+      for (Tasklet tasklet : taskletsAtThisLevel) {
+        long interval = tasklet.getNode().getEvaluationIntervalSeconds();
+        period = period / gcd(period, interval) * interval;
+        if (period > maxTicks) {
+          return maxTicks + 1;
+        }
+      }
+    }
+    return (int) period;
+  }
+
+  private static long gcd(long a, long b) {
+    return b == 0 ? a : gcd(b, a % b);
   }
 
   /**
@@ -364,9 +476,21 @@ public class RCASchedulerTask implements Runnable {
         RcaGraphMetrics.NUM_GRAPH_NODES, "", Stats.getInstance().getTotalNodesCount());
 
     changeDbForTasklets();
-    List<CompletableFuture<Void>> lastLevelTasks = createAsyncTasks();
+    if (db != null) {
+      // The MetricsDB might have been updated in place since the last tick.
+      db.startTick();
+    }
+    long schedulingStartTime = System.nanoTime();
+    List<CompletableFuture<Void>> tasksToWaitOn = createAsyncTasks();
+    PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR.updateStat(
+        RcaGraphMetrics.GRAPH_SCHEDULING_OVERHEAD,
+        "",
+        TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - schedulingStartTime));
     preWait();
-    lastLevelTasks.forEach(CompletableFuture::join);
+    tasksToWaitOn.forEach(CompletableFuture::join);
+    if (hopper != null) {
+      hopper.flushData();
+    }
     postCompletion(runStartTime);
   }
 
@@ -384,6 +508,7 @@ public class RCASchedulerTask implements Runnable {
           tasklet.setDb(newDb);
         }
       }
+      db = newDb;
       // We change the newDB back to null, so that we don't go over the loop unless the metricsDB
       // is changed again.
       newDb = null;
@@ -391,6 +516,12 @@ public class RCASchedulerTask implements Runnable {
   }
 
   protected List<CompletableFuture<Void>> createAsyncTasks() {
+    if (criticalPathExecutor != null) {
+      return createCriticalPathTasks();
+    }
+    if (eventDriven) {
+      return createDueAsyncTasks();
+    }
     Map<Tasklet, CompletableFuture<Void>> taskletFutureMap = new HashMap<>();
     List<CompletableFuture<Void>> lastLevel = new ArrayList<>();
     for (List<Tasklet> taskletsAtThisLevel : locallyExecutableTasklets) {
@@ -404,6 +535,100 @@ public class RCASchedulerTask implements Runnable {
     return lastLevel;
   }
 
+  /**
+   * Creates the futures for the tasklets due on the current tick. Unlike createAsyncTasks, this
+   * does not touch the tasklets that are not due, except for clearing the ones a due tasklet reads
+   * from. As the due tasklets need not include the last level of the graph, all of their futures
+   * are returned to be waited upon.
+   *
+   * @return The futures of all the due tasklets.
+   */
+  private List<CompletableFuture<Void>> createDueAsyncTasks() {
+    TickPlan plan = getCurrentTickPlan();
+    plan.idlePredecessors.forEach(Tasklet::skip);
+
+    Map<Tasklet, CompletableFuture<Void>> taskletFutureMap = new HashMap<>();
+    List<CompletableFuture<Void>> dueTasks = new ArrayList<>(plan.dueCount);
+    for (List<Tasklet> taskletsAtThisLevel : plan.dueTasklets) {
+      for (Tasklet tasklet : taskletsAtThisLevel) {
+        CompletableFuture<Void> taskletFuture = tasklet.executeDue(executorPool, taskletFutureMap);
+        dueTasks.add(taskletFuture);
+        taskletFutureMap.put(tasklet, taskletFuture);
+      }
+    }
+    return dueTasks;
+  }
+
+  /**
+   * Hands the due tasklets to the criticalPathExecutor. The tasklets that are not due are cleared
+   * here first, all of them or, in the event-driven mode, only the ones a due tasklet reads from.
+   *
+   * @return A single future that completes when all the due tasklets are done.
+   */
+  private List<CompletableFuture<Void>> createCriticalPathTasks() {
+    TickPlan plan = getCurrentTickPlan();
+    (eventDriven ? plan.idlePredecessors : plan.idleTasklets).forEach(Tasklet::skip);
+    return Collections.singletonList(
+        criticalPathExecutor.execute(plan.dueTasklets).thenAccept(this::reportTimeline));
+  }
+
+  private void reportTimeline(TickTimeline timeline) {
+    lastTimeline = timeline;
+    for (TickTimeline.Entry entry : timeline.getCriticalPath()) {
+      PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR.updateStat(
+          RcaGraphMetrics.RCA_CRITICAL_PATH_NODE_COUNT, entry.getNodeName(), 1);
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("rca: timeline for tick {}: {}, critical path: {}",
+          currTick, timeline, timeline.getCriticalPath());
+    }
+  }
+
+  private TickPlan getCurrentTickPlan() {
+    TickPlan plan = tickPlans.computeIfAbsent(currTick % schedulePeriod, this::createTickPlan);
+    PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR.updateStat(
+        RcaGraphMetrics.NUM_GRAPH_NODES_NOT_DUE, "", plan.idleTasklets.size());
+    return plan;
+  }
+
+  private TickPlan createTickPlan(int tick) {
+    Set<Tasklet> dueSet = new HashSet<>();
+    List<List<Tasklet>> dueTasklets = new ArrayList<>();
+    List<Tasklet> idleTasklets = new ArrayList<>();
+    for (List<Tasklet> taskletsAtThisLevel : locallyExecutableTasklets) {
+      List<Tasklet> dueInThisLevel = new ArrayList<>();
+      for (Tasklet tasklet : taskletsAtThisLevel) {
+        if (tasklet.isDueAt(tick)) {
+          dueInThisLevel.add(tasklet);
+          dueSet.add(tasklet);
+        } else {
+          idleTasklets.add(tasklet);
+        }
+      }
+      if (!dueInThisLevel.isEmpty()) {
+        dueTasklets.add(dueInThisLevel);
+      }
+    }
+
+    Set<Tasklet> idlePredecessors = new LinkedHashSet<>();
+    for (List<Tasklet> dueInThisLevel : dueTasklets) {
+      for (Tasklet tasklet : dueInThisLevel) {
+        for (Tasklet predecessor : tasklet.predecessors) {
+          if (!dueSet.contains(predecessor)) {
+            idlePredecessors.add(predecessor);
+          }
+        }
+      }
+    }
+    LOG.debug(
+        "rca: tick plan for {}: {} due, {} idle predecessors",
+        tick,
+        dueSet.size(),
+        idlePredecessors.size());
+    return new TickPlan(
+        dueTasklets, new ArrayList<>(idlePredecessors), idleTasklets, dueSet.size());
+  }
+
   protected void preWait() {}
 
   protected void postCompletion(long runStartTime) {
@@ -421,6 +646,11 @@ public class RCASchedulerTask implements Runnable {
         RcaGraphMetrics.NUM_GRAPH_NODES_MUTED, "", Stats.getInstance().getMutedGraphNodesCount());
   }
 
+  @VisibleForTesting
+  TickTimeline getLastTimeline() {
+    return lastTimeline;
+  }
+
   @VisibleForTesting
   public void setNewDb(Queryable newDb) {
     this.newDb = newDb;
@@ -15,8 +15,10 @@
 
 package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.scheduler;
 
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.PerformanceAnalyzerApp;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.Node;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.Queryable;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.metrics.RcaGraphMetrics;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.messages.DataMsg;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net.WireHopper;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.persistence.NetPersistor;
@@ -25,8 +27,10 @@ import com.google.common.annotations.VisibleForTesting;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import org.apache.logging.log4j.LogManager;
@@ -54,6 +58,12 @@ public class Tasklet {
   private Consumer<FlowUnitOperationArgWrapper> exec;
   private boolean isNet = false;
 
+  /**
+   * Moving average of the time it takes to evaluate the node, or -1 if it has not been evaluated
+   * yet. Written by the thread that evaluated the tasklet and read by the scheduler thread.
+   */
+  private volatile long costMicros = -1;
+
   /**
    * A tasklet is always built on top of a Node.
    *
@@ -94,16 +104,47 @@ public class Tasklet {
   public CompletableFuture<Void> execute(
       ExecutorService executorPool, Map<Tasklet, CompletableFuture<Void>> taskletToFutureMap) {
     ticks += 1;
-    if (ticks % node.getEvaluationIntervalSeconds() != 0) {
-      // If its not time to run this tasklet, return an isEmpty flowUnit.
-      node.setEmptyFlowUnitList();
-      node.setEmptyLocalFlowUnit();
-      return CompletableFuture.supplyAsync(() -> null);
+    if (!isDueAt(ticks)) {
+      // If its not time to run this tasklet, return an isEmpty flowUnit. There is nothing to
+      // wait on, so the future is completed right here instead of on another thread.
+      skip();
+      return CompletableFuture.completedFuture(null);
     }
+    return executeDue(executorPool, taskletToFutureMap);
+  }
+
+  /**
+   * Whether the node wrapped by this tasklet is to be evaluated on the given tick.
+   *
+   * @param tick The tick of the scheduler.
+   * @return true if the evaluation interval of the node divides the tick.
+   */
+  boolean isDueAt(int tick) {
+    return tick % node.getEvaluationIntervalSeconds() == 0;
+  }
 
+  /** Clears the flow units of the node, so that downstream nodes see no data for this tick. */
+  void skip() {
+    node.setEmptyFlowUnitList();
+    node.setEmptyLocalFlowUnit();
+  }
+
+  /**
+   * Creates the future that evaluates the node once all its predecessors that are being evaluated
+   * in this tick are done. Predecessors not present in the map are not waited on.
+   *
+   * @param executorPool The pool the node is evaluated on.
+   * @param taskletToFutureMap The futures of the tasklets scheduled so far in this tick.
+   * @return The future for this tasklet.
+   */
+  CompletableFuture<Void> executeDue(
+      ExecutorService executorPool, Map<Tasklet, CompletableFuture<Void>> taskletToFutureMap) {
     // Create a list of the Futures that corresponds to my predecessor nodes.
     List<CompletableFuture<Void>> predecessorResultFutures =
-        predecessors.stream().map(p -> taskletToFutureMap.get(p)).collect(Collectors.toList());
+        predecessors.stream()
+            .map(taskletToFutureMap::get)
+            .filter(Objects::nonNull)
+            .collect(Collectors.toList());
 
     // Create a future that will wait for all the predecessors to complete.
     CompletableFuture<Void> completedPredecessorTasks =
@@ -111,16 +152,37 @@ public class Tasklet {
 
     // Now execute me and send the response to remote if there are subscribers.
     CompletableFuture<Void> retCompletableFuture =
-        completedPredecessorTasks.thenAcceptAsync(
-            a -> {
-              exec.accept(new FlowUnitOperationArgWrapper(node, db, persistable, hopper));
-              sendToRemote();
-            },
-            executorPool);
+        completedPredecessorTasks.thenAcceptAsync(a -> evaluate(), executorPool);
     LOG.debug("RCA: Finished creating executable future for tasklet: {}", node.name());
     return retCompletableFuture;
   }
 
+  /**
+   * Evaluates the node in the calling thread and sends the response to remote if there are
+   * subscribers. The time taken is recorded, per node, in the RCA graph metrics and folded into the
+   * estimated cost of the tasklet.
+   */
+  void evaluate() {
+    long startTime = System.nanoTime();
+    exec.accept(new FlowUnitOperationArgWrapper(node, db, persistable, hopper));
+    sendToRemote();
+    long durationMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startTime);
+
+    PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR.updateStat(
+        RcaGraphMetrics.TASKLET_EXECUTION_TIME, node.name(), durationMicros);
+    long prevCostMicros = costMicros;
+    costMicros = prevCostMicros < 0 ? durationMicros : (3 * prevCostMicros + durationMicros) / 4;
+  }
+
+  /**
+   * The estimated time it takes to evaluate the node.
+   *
+   * @return The moving average of the past evaluations, or -1 if the node has not been evaluated.
+   */
+  long getEstimatedCostMicros() {
+    return costMicros;
+  }
+
   private void sendToRemote() {
     if (remotelyDesirableNodeSet.containsKey(node)) {
       LOG.debug("Publishing to subscribers: {}", node.name());
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.scheduler;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * When each tasklet of a run of the RCA graph started and finished, relative to the start of the
+ * run, and on which thread. From this the critical path of the run can be derived: the chain of
+ * tasklets, each waiting on the one before it, that ends with the tasklet that finished last.
+ */
+public class TickTimeline {
+
+  /** The execution of one tasklet. */
+  public static class Entry {
+    private final Tasklet tasklet;
+    private final long startMicros;
+    private final long endMicros;
+    private final String threadName;
+
+    Entry(Tasklet tasklet, long startMicros, long endMicros, String threadName) {
+      this.tasklet = tasklet;
+      this.startMicros = startMicros;
+      this.endMicros = endMicros;
+      this.threadName = threadName;
+    }
+
+    public String getNodeName() {
+      return tasklet.getNode().name();
+    }
+
+    public long getStartMicros() {
+      return startMicros;
+    }
+
+    public long getEndMicros() {
+      return endMicros;
+    }
+
+    public String getThreadName() {
+      return threadName;
+    }
+
+    @Override
+    public String toString() {
+      return getNodeName() + "[" + startMicros + "-" + endMicros + "us]@" + threadName;
+    }
+  }
+
+  private final Map<Tasklet, Entry> entries = new ConcurrentHashMap<>();
+
+  void add(Tasklet tasklet, long startMicros, long endMicros, String threadName) {
+    entries.put(tasklet, new Entry(tasklet, startMicros, endMicros, threadName));
+  }
+
+  /**
+   * The entries of the run.
+   *
+   * @return The entries ordered by their start time.
+   */
+  public List<Entry> getEntries() {
+    List<Entry> ret = new ArrayList<>(entries.values());
+    ret.sort(Comparator.comparingLong(Entry::getStartMicros));
+    return ret;
+  }
+
+  /**
+   * Walks back from the tasklet that finished last, each time to the predecessor that finished
+   * last, as that is the one the tasklet waited on.
+   *
+   * @return The critical path of the run, in execution order.
+   */
+  public List<Entry> getCriticalPath() {
+    LinkedList<Entry> path = new LinkedList<>();
+    Entry current = latest(entries.values());
+    while (current != null) {
+      path.addFirst(current);
+      List<Entry> predecessors = new ArrayList<>();
+      for (Tasklet predecessor : current.tasklet.predecessors) {
+        Entry entry = entries.get(predecessor);
+        if (entry != null) {
+          predecessors.add(entry);
+        }
+      }
+      current = latest(predecessors);
+    }
+    return path;
+  }
+
+  private static Entry latest(Iterable<Entry> candidates) {
+    Entry latest = null;
+    for (Entry entry : candidates) {
+      if (latest == null || entry.endMicros > latest.endMicros) {
+        latest = entry;
+      }
+    }
+    return latest;
+  }
+
+  @Override
+  public String toString() {
+    return getEntries().toString();
+  }
+}
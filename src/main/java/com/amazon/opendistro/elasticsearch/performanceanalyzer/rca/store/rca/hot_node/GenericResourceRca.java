@@ -23,6 +23,7 @@ import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.aggregators.SlidingWindowData;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.contexts.ResourceContext;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.flow_units.MetricFlowUnit;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.flow_units.MetricTable;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.flow_units.ResourceFlowUnit;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.summaries.HotResourceSummary;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.summaries.TopConsumerSummary;
@@ -33,7 +34,6 @@ import java.util.concurrent.TimeUnit;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jooq.Record;
-import org.jooq.Result;
 import org.jooq.exception.DataTypeException;
 
 /**
@@ -115,27 +115,27 @@ public class GenericResourceRca extends Rca<ResourceFlowUnit<HotResourceSummary>
       if (flowunit.isEmpty()) {
         continue;
       }
-      final Result<Record> result = flowunit.getData();
-      if (result == null) {
+      final MetricTable table = flowunit.getTable();
+      if (table == null) {
         continue;
       }
       boolean recordParsingError = false;
       double totalUsage = 0.0;
-      for (Record record : result) {
-        int fieldSize = record.size();
-        if (fieldSize < 2) {
-          LOG.error("Field size {} is less than 2, the SQL record has wrong data format", fieldSize);
-          recordParsingError = true;
-          break;
-        }
+      int fieldSize = table.fieldCount();
+      if (table.size() > 0 && fieldSize < 2) {
+        LOG.error("Field size {} is less than 2, the SQL record has wrong data format", fieldSize);
+        recordParsingError = true;
+      }
+      for (MetricTable.Cursor cursor = table.cursor(); !recordParsingError && cursor.next(); ) {
         try {
-          double num = record.getValue(fieldSize - 1, Double.class);
-          totalUsage += num;
+          if (cursor.isNull(fieldSize - 1)) {
+            throw new NumberFormatException("null");
+          }
+          totalUsage += cursor.getDouble(fieldSize - 1);
         }
-        catch (DataTypeException de) {
-          LOG.error("Fail to data field from SQL record, field index : {}, trace : {}", fieldSize - 1, de.getStackTrace());
+        catch (NumberFormatException e) {
+          LOG.error("Fail to data field from SQL record, field index : {}, trace : {}", fieldSize - 1, e.getStackTrace());
           recordParsingError = true;
-          break;
         }
       }
       if (!recordParsingError) {
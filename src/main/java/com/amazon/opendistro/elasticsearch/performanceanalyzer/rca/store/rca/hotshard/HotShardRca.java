@@ -30,6 +30,7 @@ import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.aggregators.SlidingWindowData;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.contexts.ResourceContext;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.flow_units.MetricFlowUnit;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.flow_units.MetricTable;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.flow_units.ResourceFlowUnit;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.summaries.HotNodeSummary;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.summaries.HotShardSummary;
@@ -45,7 +46,6 @@ import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.jooq.Record;
 
 /**
  * This RCA is to identify a hot shard within an index. A Hot shard is an outlier within its counterparts.
@@ -103,23 +103,41 @@ public class HotShardRca extends Rca<ResourceFlowUnit<HotNodeSummary>> {
 
     private void consumeFlowUnit(final MetricFlowUnit metricFlowUnit, final String metricType,
                                  final HashMap<IndexShardKey, SlidingWindow<SlidingWindowData>> metricMap) {
-        for (Record record : metricFlowUnit.getData()) {
+        MetricTable table = metricFlowUnit.getTable();
+        if (table == null) {
+            return;
+        }
+        int indexNameField = table.indexOf(INDEX_NAME.toString());
+        int shardIdField = table.indexOf(SHARD_ID.toString());
+        int sumField = table.indexOf(MetricsDB.SUM);
+        if (indexNameField < 0 || shardIdField < 0 || sumField < 0) {
+            if (table.size() > 0) {
+                StatsCollector.instance().logMetric(HOT_SHARD_RCA_ERROR_METRIC);
+                LOG.error("Failed to parse metric in FlowUnit from {}: missing fields", metricType);
+            }
+            return;
+        }
+        long now = this.clock.millis();
+        for (MetricTable.Cursor cursor = table.cursor(); cursor.next(); ) {
             try {
-                String indexName = record.getValue(INDEX_NAME.toString(), String.class);
-                Integer shardId = record.getValue(SHARD_ID.toString(), Integer.class);
-                if (indexName != null &&  shardId != null) {
-                    IndexShardKey indexShardKey = IndexShardKey.buildIndexShardKey(record);
-                    double usage = record.getValue(MetricsDB.SUM, Double.class);
+                String indexName = cursor.getString(indexNameField);
+                if (indexName != null && !cursor.isNull(shardIdField)) {
+                    IndexShardKey indexShardKey =
+                        new IndexShardKey(indexName, (int) cursor.getDouble(shardIdField));
+                    if (cursor.isNull(sumField)) {
+                        throw new IllegalArgumentException("null " + MetricsDB.SUM);
+                    }
+                    double usage = cursor.getDouble(sumField);
                     SlidingWindow<SlidingWindowData> usageDeque = metricMap.get(indexShardKey);
                     if (null == usageDeque) {
                         usageDeque = new SlidingWindow<>(SLIDING_WINDOW_IN_SECONDS, TimeUnit.SECONDS);
                         metricMap.put(indexShardKey, usageDeque);
                     }
-                    usageDeque.next(new SlidingWindowData(this.clock.millis(), usage));
+                    usageDeque.next(new SlidingWindowData(now, usage));
                 }
             } catch (Exception e) {
                 StatsCollector.instance().logMetric(HOT_SHARD_RCA_ERROR_METRIC);
-                LOG.error("Failed to parse metric in FlowUnit: {} from {}", record, metricType);
+                LOG.error("Failed to parse metric in FlowUnit: row {} from {}", cursor.getRow(), metricType);
             }
         }
     }
@@ -72,7 +72,7 @@ public class ClusterDetailsEventProcessor implements EventProcessor {
 
   @Override
   public void processEvent(Event event) {
-    String[] lines = event.value.split(System.lineSeparator());
+    String[] lines = event.value().split(System.lineSeparator());
     if (lines.length < 4) {
       // We expect at-least 4 lines as the first line is always timestamp,
       // the second line is the list of overridden rca conf values,
@@ -80,7 +80,7 @@ public class ClusterDetailsEventProcessor implements EventProcessor {
       // and there must be at least one ElasticSearch node in a cluster.
       LOG.error(
           "ClusterDetails contain less items than expected. " + "Expected 4, found: {}",
-          event.value);
+          event.value());
       return;
     }
 
@@ -119,7 +119,7 @@ public class ClusterDetailsEventProcessor implements EventProcessor {
 
   @Override
   public boolean shouldProcessEvent(Event event) {
-    return event.key.contains(PerformanceAnalyzerMetrics.sNodesPath);
+    return event.keyContains(PerformanceAnalyzerMetrics.sNodesPath);
   }
 
   @Override
@@ -127,6 +127,12 @@ public class ClusterDetailsEventProcessor implements EventProcessor {
 
   }
 
+  /** The node details are kept in memory, away from the reader's sqlite connection. */
+  @Override
+  public boolean canProcessInParallel() {
+    return true;
+  }
+
   public void setNodesDetails(final List<NodeDetails> nodesDetails) {
     this.nodesDetails = ImmutableList.copyOf(nodesDetails);
   }
@@ -16,16 +16,69 @@
 package com.amazon.opendistro.elasticsearch.performanceanalyzer.reader;
 
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.reader_writer_shared.Event;
+import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import javax.annotation.Nullable;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+/**
+ * Hands the events read from a writer file to the registered {@link EventProcessor}s. Each event
+ * goes to the first processor whose {@link EventProcessor#shouldProcessEvent} accepts it.
+ *
+ * <p>By default events are processed on the calling thread. When built with an executor, each
+ * processor that {@link EventProcessor#canProcessInParallel() can process in parallel} instead
+ * gets a bounded queue drained by its own worker, while the other processors, which write through
+ * the reader's shared sqlite connection, still run on the calling thread. {@link
+ * #finalizeProcessing()} waits for every queue to drain before finalizing the processors, so the
+ * caller sees the same state as in the serial mode.
+ *
+ * <p>Keys that differ only in their numeric segments, such as thread and request ids, go to the
+ * same processor, so the processor found for such a key is remembered and later events of the
+ * same shape skip the {@link EventProcessor#shouldProcessEvent} scan.
+ */
 public class EventDispatcher {
 
   private static final Logger LOG = LogManager.getLogger(EventDispatcher.class);
 
+  static final int QUEUE_CAPACITY = 1024;
+  // Bounds the routes remembered, as keys with non-numeric variable segments, such as index names,
+  // each have their own shape.
+  static final int MAX_ROUTES = 4096;
+  private static final Integer NO_PROCESSOR = -1;
+  // Queued after the last event of a file to stop the workers.
+  private static final Event END_OF_EVENTS = new Event("", "", 0);
+
   private List<EventProcessor> eventProcessors = new ArrayList<>();
+  @Nullable private final ExecutorService executor;
+  // The queue of each processor, null for the ones processed on the calling thread.
+  private final List<BlockingQueue<Event>> queues = new ArrayList<>();
+  private final List<Future<?>> workers = new ArrayList<>();
+  // The index of the processor of each key shape, NO_PROCESSOR when none accepts it.
+  private final Map<String, Integer> routes = new HashMap<>();
+
+  public EventDispatcher() {
+    this(null);
+  }
+
+  /**
+   * Creates a dispatcher that runs each processor that can process in parallel on its own worker.
+   * The executor needs a free thread per such processor, as a worker only returns once its queue
+   * is closed or it is cancelled.
+   *
+   * @param executor executor for the per processor workers, or null to dispatch serially
+   */
+  public EventDispatcher(@Nullable ExecutorService executor) {
+    this.executor = executor;
+  }
 
   void registerEventProcessor(EventProcessor processor) {
     eventProcessors.add(processor);
@@ -35,27 +88,180 @@ public class EventDispatcher {
     for (EventProcessor p : eventProcessors) {
       p.initializeProcessing(startTime, endTime);
     }
+    if (executor == null) {
+      return;
+    }
+    try {
+      for (EventProcessor p : eventProcessors) {
+        if (!p.canProcessInParallel()) {
+          queues.add(null);
+          continue;
+        }
+        BlockingQueue<Event> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        queues.add(queue);
+        workers.add(
+            executor.submit(
+                () -> {
+                  drain(p, queue);
+                  return null;
+                }));
+      }
+    } catch (RuntimeException e) {
+      cancelProcessing();
+      throw e;
+    }
   }
 
   void finalizeProcessing() {
+    if (!queues.isEmpty()) {
+      awaitWorkers();
+    }
     for (EventProcessor p : eventProcessors) {
       p.finalizeProcessing();
     }
   }
 
+  /**
+   * Stops the workers of a window that is abandoned before {@link #finalizeProcessing()}, so that
+   * they do not stay blocked on their queues. Does nothing once the workers are done.
+   */
+  void cancelProcessing() {
+    for (Future<?> worker : workers) {
+      worker.cancel(true);
+    }
+    queues.clear();
+    workers.clear();
+  }
+
   public void processEvent(Event event) {
-    boolean eventProcessed = false;
-    for (EventProcessor p : eventProcessors) {
-      if (p.shouldProcessEvent(event)) {
+    String shape = keyShape(event.key());
+    Integer route = routes.get(shape);
+    if (route == null) {
+      route = findProcessor(event);
+      if (routes.size() >= MAX_ROUTES) {
+        routes.clear();
+      }
+      routes.put(shape, route);
+    }
+    if (route < 0) {
+      LOG.error("Event not processed - {}", event.key());
+      return;
+    }
+
+    EventProcessor p = eventProcessors.get(route);
+    BlockingQueue<Event> queue = queues.isEmpty() ? null : queues.get(route);
+    if (queue == null) {
+      p.processEvent(event);
+      p.commitBatchIfRequired();
+    } else {
+      // The reader reuses the event for the next one, so the worker gets its own copy.
+      enqueue(queue, event.detach());
+    }
+  }
+
+  private Integer findProcessor(Event event) {
+    for (int i = 0; i < eventProcessors.size(); i++) {
+      if (eventProcessors.get(i).shouldProcessEvent(event)) {
+        return i;
+      }
+    }
+    return NO_PROCESSOR;
+  }
+
+  /**
+   * Returns the key with each path segment made only of digits replaced by a single '#', e.g.
+   * threads/29013/shardbulk/806214/start becomes threads/#/shardbulk/#/start. The processors match
+   * keys by their named path segments, so keys of the same shape go to the same processor.
+   */
+  static String keyShape(String key) {
+    StringBuilder shape = null;
+    int segmentStart = 0;
+    for (int i = 0; i <= key.length(); i++) {
+      if (i < key.length() && key.charAt(i) != '/' && key.charAt(i) != File.separatorChar) {
+        continue;
+      }
+      if (i > segmentStart && isDigits(key, segmentStart, i)) {
+        if (shape == null) {
+          shape = new StringBuilder(key.length()).append(key, 0, segmentStart);
+        }
+        shape.append('#');
+      } else if (shape != null) {
+        shape.append(key, segmentStart, i);
+      }
+      if (shape != null && i < key.length()) {
+        shape.append(key.charAt(i));
+      }
+      segmentStart = i + 1;
+    }
+    return shape == null ? key : shape.toString();
+  }
+
+  private static boolean isDigits(String key, int start, int end) {
+    for (int i = start; i < end; i++) {
+      char c = key.charAt(i);
+      if (c < '0' || c > '9') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void drain(EventProcessor p, BlockingQueue<Event> queue) throws Exception {
+    Exception failure = null;
+    while (true) {
+      Event event = queue.take();
+      if (event == END_OF_EVENTS) {
+        break;
+      }
+      // Keep draining after a failure so that the reader thread never blocks on a full queue.
+      if (failure != null) {
+        continue;
+      }
+      try {
         p.processEvent(event);
         p.commitBatchIfRequired();
-        eventProcessed = true;
-        break;
+      } catch (Exception e) {
+        failure = e;
       }
     }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private static void enqueue(BlockingQueue<Event> queue, Event event) {
+    try {
+      queue.put(event);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while dispatching event " + event.key(), e);
+    }
+  }
 
-    if (!eventProcessed) {
-      LOG.error("Event not processed - {}", event.key);
+  private void awaitWorkers() {
+    for (BlockingQueue<Event> queue : queues) {
+      if (queue != null) {
+        enqueue(queue, END_OF_EVENTS);
+      }
+    }
+    RuntimeException failure = null;
+    for (Future<?> worker : workers) {
+      try {
+        worker.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while waiting for event processors", e);
+      } catch (ExecutionException e) {
+        LOG.error("Event processor failed", e.getCause());
+        if (failure == null) {
+          failure = new IllegalStateException("Event processor failed", e.getCause());
+        }
+      }
+    }
+    queues.clear();
+    workers.clear();
+    if (failure != null) {
+      throw failure;
     }
   }
 }
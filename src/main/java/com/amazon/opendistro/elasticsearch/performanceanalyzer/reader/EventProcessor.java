@@ -29,4 +29,13 @@ public interface EventProcessor {
   boolean shouldProcessEvent(Event event);
 
   void commitBatchIfRequired();
+
+  /**
+   * Whether the events of this processor can be processed on a worker thread while the other
+   * processors run. Processors that write through the reader's shared sqlite connection must not,
+   * as a JDBC connection is not thread safe.
+   */
+  default boolean canProcessInParallel() {
+    return false;
+  }
 }
@@ -78,7 +78,7 @@ public class FaultDetectionMetricsProcessor implements EventProcessor {
 
     @Override
     public void processEvent(Event event) {
-        String[] keyItems = event.key.split(File.separatorChar == '\\' ? "\\\\" : File.separator);
+        String[] keyItems = event.key().split(File.separatorChar == '\\' ? "\\\\" : File.separator);
         assert keyItems.length == 4;
         if (keyItems[0].equals(PerformanceAnalyzerMetrics.sFaultDetection)) {
             if (keyItems[3].equals(PerformanceAnalyzerMetrics.START_FILE_NAME)) {
@@ -91,7 +91,7 @@ public class FaultDetectionMetricsProcessor implements EventProcessor {
 
     @Override
     public boolean shouldProcessEvent(Event event) {
-        return event.key.contains(PerformanceAnalyzerMetrics.sFaultDetection);
+        return event.keyContains(PerformanceAnalyzerMetrics.sFaultDetection);
     }
 
     @Override
@@ -114,7 +114,7 @@ public class FaultDetectionMetricsProcessor implements EventProcessor {
      * @param keyItems keys extracted from metrics path
      */
     private void emitStartMetric(Event entry, String[] keyItems) {
-        Map<String, String> keyValueMap = ReaderMetricsProcessor.extractEntryData(entry.value);
+        Map<String, String> keyValueMap = ReaderMetricsProcessor.extractEntryData(entry.value());
 
         String sourceNodeId = keyValueMap.get(FaultDetectionDimension.SOURCE_NODE_ID.toString());
         String targetNodeId = keyValueMap.get(FaultDetectionDimension.TARGET_NODE_ID.toString());
@@ -147,7 +147,7 @@ public class FaultDetectionMetricsProcessor implements EventProcessor {
      * @param keyItems keys extracted from metrics path
      */
     private void emitFinishMetric(Event entry, String[] keyItems) {
-        Map<String, String> keyValueMap = ReaderMetricsProcessor.extractEntryData(entry.value);
+        Map<String, String> keyValueMap = ReaderMetricsProcessor.extractEntryData(entry.value());
 
         String sourceNodeId = keyValueMap.get(FaultDetectionDimension.SOURCE_NODE_ID.toString());
         String targetNodeId = keyValueMap.get(FaultDetectionDimension.TARGET_NODE_ID.toString());
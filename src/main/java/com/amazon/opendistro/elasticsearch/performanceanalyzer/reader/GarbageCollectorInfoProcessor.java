@@ -75,7 +75,7 @@ public class GarbageCollectorInfoProcessor implements EventProcessor {
   }
 
   private void handleGarbageCollectorInfoEvent(Event event) {
-    String[] lines = event.value.split(System.getProperty("line.separator"));
+    String[] lines = event.value().split(System.getProperty("line.separator"));
     // first line is the timestamp
     for (int i = 1; i < lines.length; ++i) {
       parseJsonLine(lines[i]);
@@ -102,7 +102,7 @@ public class GarbageCollectorInfoProcessor implements EventProcessor {
 
   @Override
   public boolean shouldProcessEvent(Event event) {
-    return event.key.contains(PerformanceAnalyzerMetrics.sGcInfoPath);
+    return event.keyContains(PerformanceAnalyzerMetrics.sGcInfoPath);
   }
 
   @Override
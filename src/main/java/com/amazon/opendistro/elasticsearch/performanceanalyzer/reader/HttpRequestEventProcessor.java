@@ -74,7 +74,7 @@ public class HttpRequestEventProcessor implements EventProcessor {
   }
 
   public void processEvent(Event event) {
-    String[] keyItems = event.key.split(File.separatorChar == '\\' ? "\\\\" : File.separator);
+    String[] keyItems = event.key().split(File.separatorChar == '\\' ? "\\\\" : File.separator);
     // If the item in the index 1 is http, then proceed.
     if (keyItems[1].equals(PerformanceAnalyzerMetrics.sHttpPath)) {
       if (keyItems[4].equals(PerformanceAnalyzerMetrics.START_FILE_NAME)) {
@@ -87,7 +87,7 @@ public class HttpRequestEventProcessor implements EventProcessor {
 
   @Override
   public boolean shouldProcessEvent(Event event) {
-    return event.key.contains(PerformanceAnalyzerMetrics.sHttpPath);
+    return event.keyContains(PerformanceAnalyzerMetrics.sHttpPath);
   }
 
   @Override
@@ -106,7 +106,7 @@ public class HttpRequestEventProcessor implements EventProcessor {
   // Indices:
   // HTTP_RequestDocs:10000$
   private void emitStartHttpMetric(Event entry, String[] keyItems) {
-    Map<String, String> keyValueMap = ReaderMetricsProcessor.extractEntryData(entry.value);
+    Map<String, String> keyValueMap = ReaderMetricsProcessor.extractEntryData(entry.value());
 
     String startTimeVal = keyValueMap.get(HttpMetric.START_TIME.toString());
     String itemCountVal = keyValueMap.get(HttpMetric.HTTP_REQUEST_DOCS.toString());
@@ -126,7 +126,7 @@ public class HttpRequestEventProcessor implements EventProcessor {
           startTimeVal,
           itemCountVal,
           StatExceptionCode.READER_PARSER_ERROR.toString(),
-          entry.key);
+          entry.key());
       StatsCollector.instance().logException(StatExceptionCode.READER_PARSER_ERROR);
       throw e;
     }
@@ -139,7 +139,7 @@ public class HttpRequestEventProcessor implements EventProcessor {
   // HTTPRespCode:200
   // Exception:
   private void emitFinishHttpMetric(Event entry, String[] keyItems) {
-    Map<String, String> keyValueMap = ReaderMetricsProcessor.extractEntryData(entry.value);
+    Map<String, String> keyValueMap = ReaderMetricsProcessor.extractEntryData(entry.value());
 
     String finishTimeVal = keyValueMap.get(HttpMetric.FINISH_TIME.toString());
     String status = keyValueMap.get(HttpDimension.HTTP_RESP_CODE.toString());
@@ -154,7 +154,7 @@ public class HttpRequestEventProcessor implements EventProcessor {
           "Unable to parse string. FinishTime:{} ExcepionCode: {} \n finishMetrics:{}",
           finishTimeVal,
           StatExceptionCode.READER_PARSER_ERROR.toString(),
-          entry.key);
+          entry.key());
       StatsCollector.instance().logException(StatExceptionCode.READER_PARSER_ERROR);
       throw e;
     }
@@ -77,7 +77,7 @@ public class MasterThrottlingMetricsEventProcessor implements EventProcessor {
      */
     @Override
     public void processEvent(Event event) {
-        String[] lines = event.value.split(System.lineSeparator());
+        String[] lines = event.value().split(System.lineSeparator());
         for (String line : lines) {
             Map<String, String> masterThrottlingMap = extractEntryData(line);
             if (!masterThrottlingMap.containsKey(PerformanceAnalyzerMetrics.METRIC_CURRENT_TIME)) {
@@ -96,7 +96,7 @@ public class MasterThrottlingMetricsEventProcessor implements EventProcessor {
 
     @Override
     public boolean shouldProcessEvent(Event event) {
-        return event.key.contains(PerformanceAnalyzerMetrics.sMasterThrottledTasksPath);
+        return event.keyContains(PerformanceAnalyzerMetrics.sMasterThrottledTasksPath);
     }
 
     @Override
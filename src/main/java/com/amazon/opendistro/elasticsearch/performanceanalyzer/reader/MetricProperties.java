@@ -214,10 +214,10 @@ public class MetricProperties {
       long lastSnapTimestamp,
       BatchBindStep batchHandle) {
 
-    if (event.value.isEmpty()) {
+    if (event.isValueEmpty()) {
       return false;
     }
-    String[] lines = event.value.split(System.getProperty("line.separator"));
+    String[] lines = event.value().split(System.getProperty("line.separator"));
 
     // First line should be
     // {"current_time":1566152878118}
@@ -229,7 +229,7 @@ public class MetricProperties {
       LOG.warn(
           String.format(
               "Fail to get last modified time of %s ExceptionCode: %s",
-              event.key, StatExceptionCode.JSON_PARSER_ERROR.toString()),
+              event.key(), StatExceptionCode.JSON_PARSER_ERROR.toString()),
           ex);
       StatsCollector.instance().logException(StatExceptionCode.JSON_PARSER_ERROR);
       return false;
@@ -245,7 +245,10 @@ public class MetricProperties {
       LOG.warn(
           String.format(
               "I/O exception processing metric %s with value: %s.%s" + "ExceptionCode: %s",
-              event.key, lines[0], File.separator, StatExceptionCode.JSON_PARSER_ERROR.toString()),
+              event.key(),
+              lines[0],
+              File.separator,
+              StatExceptionCode.JSON_PARSER_ERROR.toString()),
           ex);
       StatsCollector.instance().logException(StatExceptionCode.JSON_PARSER_ERROR);
       return false;
@@ -264,7 +267,7 @@ public class MetricProperties {
       snap.setLastUpdatedTime(lastModifiedTime);
     }
 
-    String[] derivedDimension = handler.processExtraDimensions(event.key);
+    String[] derivedDimension = handler.processExtraDimensions(event.key());
 
     int numMetrics = derivedDimension.length + directDimensions.length + metadata.length;
     Object[] templateMetricVals = new Object[numMetrics];
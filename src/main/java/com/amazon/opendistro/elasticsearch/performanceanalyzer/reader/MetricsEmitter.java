@@ -26,12 +26,16 @@ import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.AllMetric
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.AllMetrics.GCInfoValue;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.AllMetrics.OSMetrics;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.PerformanceAnalyzerMetrics;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.BatchPut;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.Dimensions;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.Metric;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.MetricsDB;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.metrics.ReaderMetrics;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -41,8 +45,8 @@ import java.util.regex.Pattern;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.jooq.BatchBindStep;
 import org.jooq.Condition;
+import org.jooq.Cursor;
 import org.jooq.DSLContext;
 import org.jooq.Field;
 import org.jooq.Record;
@@ -113,6 +117,15 @@ public class MetricsEmitter {
             }
           };
 
+  /**
+   * Joins the per-request thread utilization ratios with the aligned per-thread OS metrics on tid
+   * and emits sum/avg/min/max of tUtil * metric for each (shard, index, operation, role).
+   *
+   * <p>The OS snapshot is indexed by tid once and the join and aggregation run over its primitive
+   * columns; a missing OS value is skipped, as sql aggregates skip nulls. The request snapshot is
+   * still a sqlite table, as its latency and utilization are windowed sql shared with the latency
+   * emitters, so its rows are streamed from the query rather than fetched into a Result.
+   */
   public static void emitAggregatedOSMetrics(
       final DSLContext create,
       final MetricsDB db,
@@ -121,121 +134,49 @@ public class MetricsEmitter {
       throws Exception {
 
     SelectHavingStep<Record> rqTable = rqMetricsSnap.fetchThreadUtilizationRatioTable();
-    SelectHavingStep<Record> osTable = osMetricsSnap.selectAll();
-
-    List<SelectField<?>> fields =
-        new ArrayList<SelectField<?>>() {
-          {
-            this.add(
-                DSL.field(
-                    DSL.name(ShardRequestMetricsSnapshot.Fields.SHARD_ID.toString()),
-                    String.class));
-            this.add(
-                DSL.field(
-                    DSL.name(ShardRequestMetricsSnapshot.Fields.INDEX_NAME.toString()),
-                    String.class));
-            this.add(
-                DSL.field(
-                    DSL.name(ShardRequestMetricsSnapshot.Fields.OPERATION.toString()),
-                    String.class));
-            this.add(
-                DSL.field(
-                    DSL.name(ShardRequestMetricsSnapshot.Fields.SHARD_ROLE.toString()),
-                    String.class));
-          }
-        };
-
-    for (OSMetrics metric : OSMetrics.values()) {
-      fields.add(
-          DSL.field(ShardRequestMetricsSnapshot.Fields.TUTIL.toString(), Double.class)
-              .mul(DSL.field(DSL.name(metric.toString()), Double.class))
-              .as(metric.toString()));
-    }
-
-    ArrayList<Field<?>> groupByFields =
-        new ArrayList<Field<?>>() {
-          {
-            this.add(
-                DSL.field(
-                    DSL.name(ShardRequestMetricsSnapshot.Fields.SHARD_ID.toString()),
-                    String.class));
-            this.add(
-                DSL.field(
-                    DSL.name(ShardRequestMetricsSnapshot.Fields.INDEX_NAME.toString()),
-                    String.class));
-            this.add(
-                DSL.field(
-                    DSL.name(ShardRequestMetricsSnapshot.Fields.OPERATION.toString()),
-                    String.class));
-            this.add(
-                DSL.field(
-                    DSL.name(ShardRequestMetricsSnapshot.Fields.SHARD_ROLE.toString()),
-                    String.class));
-          }
-        };
 
-    List<SelectField<?>> aggFields =
-        new ArrayList<SelectField<?>>() {
-          {
-            this.add(
-                DSL.field(
-                    DSL.name(ShardRequestMetricsSnapshot.Fields.SHARD_ID.toString()),
-                    String.class));
-            this.add(
-                DSL.field(
-                    DSL.name(ShardRequestMetricsSnapshot.Fields.INDEX_NAME.toString()),
-                    String.class));
-            this.add(
-                DSL.field(
-                    DSL.name(ShardRequestMetricsSnapshot.Fields.OPERATION.toString()),
-                    String.class));
-            this.add(
-                DSL.field(
-                    DSL.name(ShardRequestMetricsSnapshot.Fields.SHARD_ROLE.toString()),
-                    String.class));
+    long mCurrT = System.currentTimeMillis();
+    Map<String, List<Integer>> osRowsByTid = osMetricsSnap.getRowsByTid();
+    int numMetrics = osMetricsSnap.getMetricColumns().size();
+    Map<List<String>, OSMetricsAggregate> groups = new LinkedHashMap<>();
+    try (Cursor<Record> rqRes = create.select().from(rqTable).fetchLazy()) {
+      for (Record r : rqRes) {
+        List<Integer> osRows =
+            osRowsByTid.get(toString(r.get(ShardRequestMetricsSnapshot.Fields.TID.toString())));
+        Object tUtilValue = r.get(ShardRequestMetricsSnapshot.Fields.TUTIL.toString());
+        if (osRows == null || tUtilValue == null) {
+          continue;
+        }
+        // Read as the double sqlite computed, so that the products below are the ones the sql join
+        // produced.
+        double tUtil =
+            tUtilValue instanceof Double
+                ? (Double) tUtilValue
+                : Double.parseDouble(tUtilValue.toString());
+        List<String> key =
+            Arrays.asList(
+                toString(r.get(ShardRequestMetricsSnapshot.Fields.SHARD_ID.toString())),
+                toString(r.get(ShardRequestMetricsSnapshot.Fields.INDEX_NAME.toString())),
+                toString(r.get(ShardRequestMetricsSnapshot.Fields.OPERATION.toString())),
+                toString(r.get(ShardRequestMetricsSnapshot.Fields.SHARD_ROLE.toString())));
+        OSMetricsAggregate aggregate =
+            groups.computeIfAbsent(key, k -> new OSMetricsAggregate(numMetrics));
+        // Request rows outer and OS rows inner, as the sql join visited them, so that the sums add
+        // up in the same order and match the sql aggregates bit for bit.
+        for (int osRow : osRows) {
+          for (int i = 0; i < numMetrics; i++) {
+            aggregate.add(i, tUtil * osMetricsSnap.getMetric(i, osRow));
           }
-        };
-
-    for (OSMetrics metric : OSMetrics.values()) {
-      aggFields.add(
-          DSL.sum(DSL.field(DSL.name(metric.toString()), Double.class))
-              .as(MetricsDB.SUM + "_" + metric.toString()));
-      aggFields.add(
-          DSL.avg(DSL.field(DSL.name(metric.toString()), Double.class))
-              .as(MetricsDB.AVG + "_" + metric.toString()));
-      aggFields.add(
-          DSL.min(DSL.field(DSL.name(metric.toString()), Double.class))
-              .as(MetricsDB.MIN + "_" + metric.toString()));
-      aggFields.add(
-          DSL.max(DSL.field(DSL.name(metric.toString()), Double.class))
-              .as(MetricsDB.MAX + "_" + metric.toString()));
+        }
+      }
     }
-
-    long mCurrT = System.currentTimeMillis();
-    Result<Record> res =
-        create
-            .select(aggFields)
-            .from(
-                create
-                    .select(fields)
-                    .from(rqTable)
-                    .join(osTable)
-                    .on(
-                        osTable
-                            .field(OSMetricsSnapshot.Fields.tid.toString(), String.class)
-                            .eq(
-                                rqTable.field(
-                                    OSMetricsSnapshot.Fields.tid.toString(), String.class))))
-            .groupBy(groupByFields)
-            .fetch();
     long mFinalT = System.currentTimeMillis();
     LOG.debug("Total time taken for tid corelation: {}", mFinalT - mCurrT);
-    checkInvalidData(rqTable, osTable, create);
-
-    Set<String> metricColumns = osMetricsSnap.getMetricColumns();
+    checkInvalidData(rqTable, osMetricsSnap, create);
 
     mCurrT = System.currentTimeMillis();
-    for (String metricColumn : metricColumns) {
+    int column = 0;
+    for (String metricColumn : osMetricsSnap.getMetricColumns()) {
       List<String> dims =
           new ArrayList<String>() {
             {
@@ -246,57 +187,97 @@ public class MetricsEmitter {
             }
           };
       db.createMetric(new Metric<Double>(metricColumn, 0d), dims);
-      BatchBindStep handle = db.startBatchPut(new Metric<Double>(metricColumn, 0d), dims);
-      for (Record r : res) {
-        if (r.get(MetricsDB.SUM + "_" + metricColumn) == null) {
+      BatchPut handle = db.startBatchPut(new Metric<Double>(metricColumn, 0d), dims);
+      for (Map.Entry<List<String>, OSMetricsAggregate> group : groups.entrySet()) {
+        OSMetricsAggregate aggregate = group.getValue();
+        if (aggregate.count[column] == 0) {
           continue;
         }
-
-        Double sumMetric = Double.parseDouble(r.get(MetricsDB.SUM + "_" + metricColumn).toString());
-        Double avgMetric = Double.parseDouble(r.get(MetricsDB.AVG + "_" + metricColumn).toString());
-        Double minMetric = Double.parseDouble(r.get(MetricsDB.MIN + "_" + metricColumn).toString());
-        Double maxMetric = Double.parseDouble(r.get(MetricsDB.MAX + "_" + metricColumn).toString());
+        List<String> key = group.getKey();
         handle.bind(
-            r.get(ShardRequestMetricsSnapshot.Fields.SHARD_ID.toString()).toString(),
-            r.get(ShardRequestMetricsSnapshot.Fields.INDEX_NAME.toString()).toString(),
-            r.get(ShardRequestMetricsSnapshot.Fields.OPERATION.toString()).toString(),
-            r.get(ShardRequestMetricsSnapshot.Fields.SHARD_ROLE.toString()).toString(),
-            sumMetric,
-            avgMetric,
-            minMetric,
-            maxMetric);
+            key.get(0),
+            key.get(1),
+            key.get(2),
+            key.get(3),
+            aggregate.sum[column],
+            aggregate.sum[column] / aggregate.count[column],
+            aggregate.min[column],
+            aggregate.max[column]);
       }
 
       if (handle.size() > 0) {
         handle.execute();
       }
+      column++;
     }
     mFinalT = System.currentTimeMillis();
     LOG.debug("Total time taken for writing resource metrics metricsdb: {}", mFinalT - mCurrT);
   }
 
+  private static String toString(Object value) {
+    return value == null ? null : value.toString();
+  }
+
+  /** Running sum/count/min/max per OS metric for one (shard, index, operation, role) group. */
+  private static final class OSMetricsAggregate {
+    private final double[] sum;
+    private final double[] min;
+    private final double[] max;
+    private final int[] count;
+
+    OSMetricsAggregate(int numMetrics) {
+      sum = new double[numMetrics];
+      min = new double[numMetrics];
+      max = new double[numMetrics];
+      count = new int[numMetrics];
+    }
+
+    void add(int metric, double value) {
+      if (Double.isNaN(value)) {
+        return;
+      }
+      if (count[metric] == 0) {
+        min[metric] = value;
+        max[metric] = value;
+      } else {
+        min[metric] = Math.min(min[metric], value);
+        max[metric] = Math.max(max[metric], value);
+      }
+      sum[metric] += value;
+      count[metric]++;
+    }
+  }
+
   /**
    * Check if there is any invalid data. Invalid data is if we have tid in request table but not in
    * OS tables.
    *
    * @param rqTable request table select
-   * @param osTable OS table select
+   * @param osMetricsSnap OS snapshot
    * @param create db connection
    */
   @SuppressWarnings("unchecked")
   private static void checkInvalidData(
-      SelectHavingStep<Record> rqTable, SelectHavingStep<Record> osTable, final DSLContext create) {
+      SelectHavingStep<Record> rqTable,
+      OSMetricsSnapshot osMetricsSnap,
+      final DSLContext create) {
     if (!TroubleshootingConfig.getEnableDevAssert()) {
       return;
     }
 
     Condition condition = DSL.trueCondition();
     Field tidField = DSL.field(DSL.name(OSMetricsSnapshot.Fields.tid.toString()), String.class);
-    Field tNameField = DSL.field(DSL.name(OSMetricsSnapshot.Fields.tName.toString()), String.class);
 
     Set<String> rqSet = DBUtils.getRecordSetByField(rqTable, tidField, condition, create);
-    condition = tNameField.contains("[bulk]").or(tNameField.contains("[search]"));
-    Set<String> osSet = DBUtils.getRecordSetByField(osTable, tidField, condition, create);
+    Set<String> osSet = new HashSet<>();
+    List<String> osRows = new ArrayList<>();
+    for (int row = 0; row < osMetricsSnap.size(); row++) {
+      String tName = osMetricsSnap.getThreadName(row);
+      if (tName != null && (tName.contains("[bulk]") || tName.contains("[search]"))) {
+        osSet.add(osMetricsSnap.getTid(row));
+        osRows.add(osMetricsSnap.getTid(row) + ":" + tName);
+      }
+    }
 
     if (!osSet.containsAll(rqSet)) {
       String msg =
@@ -304,7 +285,7 @@ public class MetricsEmitter {
               "[Invalid Data] Unmatched tid between %s and %s", rqSet.toString(), osSet.toString());
       LOG.error(msg);
       LOG.error(create.select().from(rqTable).fetch().toString());
-      LOG.error(create.select().from(osTable).where(condition).fetch().toString());
+      LOG.error(osRows.toString());
       throw new RuntimeException(msg);
     }
   }
@@ -317,7 +298,7 @@ public class MetricsEmitter {
 
     db.createMetric(
         new Metric<Double>(CommonMetric.LATENCY.toString(), 0d), LATENCY_TABLE_DIMENSIONS);
-    BatchBindStep handle =
+    BatchPut handle =
         db.startBatchPut(
             new Metric<Double>(CommonMetric.LATENCY.toString(), 0d), LATENCY_TABLE_DIMENSIONS);
 
@@ -335,14 +316,14 @@ public class MetricsEmitter {
     db.createMetric(
         new Metric<Double>(AllMetrics.ShardOperationMetric.SHARD_OP_COUNT.toString(), 0d),
         shardDims);
-    BatchBindStep countHandle =
+    BatchPut countHandle =
         db.startBatchPut(
             new Metric<Double>(AllMetrics.ShardOperationMetric.SHARD_OP_COUNT.toString(), 0d),
             shardDims);
 
     db.createMetric(
         new Metric<Double>(AllMetrics.ShardBulkMetric.DOC_COUNT.toString(), 0d), shardDims);
-    BatchBindStep bulkDocHandle =
+    BatchPut bulkDocHandle =
         db.startBatchPut(
             new Metric<Double>(AllMetrics.ShardBulkMetric.DOC_COUNT.toString(), 0d), shardDims);
 
@@ -429,28 +410,27 @@ public class MetricsEmitter {
       final DSLContext create, final MetricsDB db, final OSMetricsSnapshot osMetricsSnap)
       throws Exception {
     long mCurrT = System.currentTimeMillis();
-    Result<Record> res = osMetricsSnap.getOSMetrics();
-
     Set<String> metricColumns = osMetricsSnap.getMetricColumns();
-    for (Record r : res) {
+    for (int row = 0; row < osMetricsSnap.size(); row++) {
       Dimensions dimensions = new Dimensions();
-      Object threadName = r.get(OSMetricsSnapshot.Fields.tName.toString());
+      String threadName = osMetricsSnap.getThreadName(row);
 
       if (threadName == null) {
-        LOG.debug("Could not find tName: {}", r);
+        LOG.debug("Could not find tName for tid: {}", osMetricsSnap.getTid(row));
         continue;
       }
-      String operation = categorizeThreadName(threadName.toString(), dimensions);
+      String operation = categorizeThreadName(threadName, dimensions);
       if (operation == null) {
         continue;
       }
 
       dimensions.put(ShardRequestMetricsSnapshot.Fields.OPERATION.toString(), operation);
+      int column = 0;
       for (String metricColumn : metricColumns) {
-        if (r.get(metricColumn) == null) {
+        double metric = osMetricsSnap.getMetric(column++, row);
+        if (Double.isNaN(metric)) {
           continue;
         }
-        Double metric = Double.parseDouble(r.get(metricColumn).toString());
         if (operation.equals("merge") && metricColumn.equals("cpu")) {
           LOG.debug("Putting merge metric {}", metric);
         }
@@ -651,7 +631,7 @@ public class MetricsEmitter {
     };
 
     metricsDB.createMetric(new Metric<>(GCInfoValue.GARBAGE_COLLECTOR_TYPE.toString(), 0d), dims);
-    BatchBindStep handle =
+    BatchPut handle =
         metricsDB.startBatchPut(new Metric<>(GCInfoValue.GARBAGE_COLLECTOR_TYPE.toString(), 0d),
             dims);
     for (Record record : gcTypeRecords) {
@@ -703,7 +683,7 @@ public class MetricsEmitter {
         new Metric<Double>(AllMetrics.MasterMetricValues.MASTER_TASK_RUN_TIME.toString(), 0d),
         dims);
 
-    BatchBindStep handle =
+    BatchPut handle =
         metricsDB.startBatchPut(
             new Metric<Double>(AllMetrics.MasterMetricValues.MASTER_TASK_RUN_TIME.toString(), 0d),
             dims);
@@ -763,7 +743,7 @@ public class MetricsEmitter {
         new Metric<Double>(AllMetrics.MasterMetricValues.MASTER_TASK_QUEUE_TIME.toString(), 0d),
         dims);
 
-    BatchBindStep handle =
+    BatchPut handle =
         metricsDB.startBatchPut(
             new Metric<Double>(AllMetrics.MasterMetricValues.MASTER_TASK_QUEUE_TIME.toString(), 0d),
             dims);
@@ -857,7 +837,7 @@ public class MetricsEmitter {
 
       db.createMetric(new Metric<Double>(tableName, 0d), dimensionNames);
 
-      BatchBindStep handle = db.startBatchPut(tableName, selectFields.size());
+      BatchPut handle = db.startBatchPut(tableName, selectFields.size());
       for (Record r : fetchedData) {
         int columnNum = selectFields.size();
         Object[] bindValues = new Object[columnNum];
@@ -1026,7 +1006,7 @@ public class MetricsEmitter {
             new Metric<Double>(AllMetrics.MasterThrottlingValue.MASTER_THROTTLED_PENDING_TASK_COUNT.toString(), 0d),
             dims);
 
-    BatchBindStep handle =
+    BatchPut handle =
             metricsDB.startBatchPut(
                     new Metric<Double>(AllMetrics.MasterThrottlingValue.MASTER_THROTTLED_PENDING_TASK_COUNT.toString(), 0d),
                     dims);
@@ -1080,7 +1060,7 @@ public class MetricsEmitter {
             new Metric<Double>(AllMetrics.MasterThrottlingValue.DATA_RETRYING_TASK_COUNT.toString(), 0d),
             dims);
 
-    BatchBindStep handle =
+    BatchPut handle =
             metricsDB.startBatchPut(
                     new Metric<Double>(AllMetrics.MasterThrottlingValue.DATA_RETRYING_TASK_COUNT.toString(), 0d),
                     dims);
@@ -1136,7 +1116,7 @@ public class MetricsEmitter {
             new Metric<Double>(AllMetrics.ShardStateValue.SHARD_STATE.toString(), 0d),
             SHARD_STATE_TABLE_DIMENSIONS);
 
-    BatchBindStep handle =
+    BatchPut handle =
             metricsDB.startBatchPut(
                     new Metric<Double>(AllMetrics.ShardStateValue.SHARD_STATE.toString(), 0d),
                     SHARD_STATE_TABLE_DIMENSIONS);
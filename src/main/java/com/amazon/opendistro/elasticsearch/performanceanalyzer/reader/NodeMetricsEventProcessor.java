@@ -101,7 +101,7 @@ public class NodeMetricsEventProcessor implements EventProcessor {
   @Override
   public boolean shouldProcessEvent(Event event) {
     for (String metric : MetricPropertiesConfig.getInstance().getMetricPathMap().values()) {
-      if (event.key.contains(metric)) {
+      if (event.keyContains(metric)) {
         return true;
       }
     }
@@ -122,7 +122,7 @@ public class NodeMetricsEventProcessor implements EventProcessor {
 
   @Override
   public void processEvent(Event nodeMetric) {
-    String key = nodeMetric.key.split(File.separatorChar == '\\' ? "\\\\" : File.separator)[0];
+    String key = nodeMetric.key().split(File.separatorChar == '\\' ? "\\\\" : File.separator)[0];
     AllMetrics.MetricName name =
         MetricPropertiesConfig.getInstance().getEventKeyToMetricNameMap().get(key);
 
@@ -142,7 +142,7 @@ public class NodeMetricsEventProcessor implements EventProcessor {
       BatchBindStep batchHandle,
       MetricProperties metricProperties) {
 
-    String[] lines = event.value.split(System.getProperty("line.separator"));
+    String[] lines = event.value().split(System.getProperty("line.separator"));
 
     // First line should be
     // {"current_time":1566152878118}
@@ -154,7 +154,7 @@ public class NodeMetricsEventProcessor implements EventProcessor {
       LOG.warn(
           String.format(
               "Fail to get last modified time of %s ExceptionCode: %s",
-              event.key, StatExceptionCode.JSON_PARSER_ERROR.toString()),
+              event.key(), StatExceptionCode.JSON_PARSER_ERROR.toString()),
           ex);
       StatsCollector.instance().logException(StatExceptionCode.JSON_PARSER_ERROR);
       return false;
@@ -170,7 +170,10 @@ public class NodeMetricsEventProcessor implements EventProcessor {
       LOG.warn(
           String.format(
               "I/O exception processing metric %s with value: %s.%s" + "ExceptionCode: %s",
-              event.key, lines[0], File.separator, StatExceptionCode.JSON_PARSER_ERROR.toString()),
+              event.key(),
+              lines[0],
+              File.separator,
+              StatExceptionCode.JSON_PARSER_ERROR.toString()),
           ex);
       StatsCollector.instance().logException(StatExceptionCode.JSON_PARSER_ERROR);
       return false;
@@ -182,7 +185,7 @@ public class NodeMetricsEventProcessor implements EventProcessor {
       snap.setLastUpdatedTime(lastModifiedTime);
     }
 
-    String[] derivedDimension = metricProperties.getHandler().processExtraDimensions(event.key);
+    String[] derivedDimension = metricProperties.getHandler().processExtraDimensions(event.key());
 
     int numMetrics =
         derivedDimension.length
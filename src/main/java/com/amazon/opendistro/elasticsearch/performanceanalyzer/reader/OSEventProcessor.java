@@ -20,7 +20,6 @@ import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.AllMetric
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.PerformanceAnalyzerMetrics;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.reader_writer_shared.Event;
 import java.io.File;
-import java.sql.Connection;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -49,11 +48,10 @@ public class OSEventProcessor implements EventProcessor {
   static EventProcessor buildOSMetricEventsProcessor(
       long startTime,
       long endTime,
-      Connection conn,
       NavigableMap<Long, OSMetricsSnapshot> osMetricsMap)
       throws Exception {
     if (osMetricsMap.get(endTime) == null) {
-      OSMetricsSnapshot osSnap = new OSMetricsSnapshot(conn, "os_", endTime);
+      OSMetricsSnapshot osSnap = new OSMetricsSnapshot("os_", endTime);
       osMetricsMap.put(endTime, osSnap);
     }
     OSMetricsSnapshot osSnap = osMetricsMap.get(endTime);
@@ -75,10 +73,10 @@ public class OSEventProcessor implements EventProcessor {
   }
 
   public void processEvent(Event event) {
-    String key = event.key;
+    String key = event.key();
     String threadID = key.split(File.separatorChar == '\\' ? "\\\\" : File.separator)[1];
-    processOSEvent(event.value, threadID);
-    // Flush data to sqlite when batch size is 500
+    processOSEvent(event.value(), threadID);
+    // Flush data to the snapshot when batch size is 500
     if (handle.size() == 500) {
       handle.execute();
       handle = osSnap.startBatchPut();
@@ -87,7 +85,7 @@ public class OSEventProcessor implements EventProcessor {
 
   @Override
   public boolean shouldProcessEvent(Event event) {
-    return event.key.contains(PerformanceAnalyzerMetrics.sOSPath);
+    return event.keyContains(PerformanceAnalyzerMetrics.sOSPath);
   }
 
   @Override
@@ -98,6 +96,12 @@ public class OSEventProcessor implements EventProcessor {
     }
   }
 
+  /** The OS snapshot keeps its rows in memory rather than in the reader's sqlite connection. */
+  @Override
+  public boolean canProcessInParallel() {
+    return true;
+  }
+
   private Map<String, String> extrackKeyValFromData(String osMetricsData) {
     String[] lines = osMetricsData.split(System.lineSeparator());
     Map<String, String> osMetricsKeyValPairs = new HashMap<>();
@@ -16,9 +16,12 @@
 package com.amazon.opendistro.elasticsearch.performanceanalyzer.reader;
 
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.AllMetrics.OSMetrics;
-import java.sql.Connection;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -27,26 +30,33 @@ import java.util.stream.Collectors;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jooq.BatchBindStep;
-import org.jooq.Condition;
 import org.jooq.DSLContext;
 import org.jooq.Field;
 import org.jooq.Record;
 import org.jooq.Result;
 import org.jooq.SQLDialect;
-import org.jooq.SelectField;
-import org.jooq.SelectHavingStep;
 import org.jooq.impl.DSL;
 
-@SuppressWarnings("serial")
+/**
+ * Per-thread OS metrics for one sampling window.
+ *
+ * <p>Rows are kept in primitive column buffers rather than an in-memory sqlite table, as a busy
+ * node can report thousands of threads every window. A missing metric value is stored as {@link
+ * Double#NaN} and a missing update time as {@link #NO_UPDATE_TIME}; both are surfaced as null in
+ * the {@link Result} views.
+ */
 public class OSMetricsSnapshot implements Removable {
   private static final Logger LOG = LogManager.getLogger(OSMetricsSnapshot.class);
 
-  private final DSLContext create;
-  private final String tableName;
-  private Set<String> dimensionColumns;
   private static final String LAST_UPDATE_TIME_FIELD = "lastUpdateTime";
+  private static final long NO_UPDATE_TIME = Long.MIN_VALUE;
+  private static final int INITIAL_CAPACITY = 64;
+  // Used only to build detached records for the Result views.
+  private static final DSLContext RESULT_CONTEXT = DSL.using(SQLDialect.SQLITE);
 
   private static final LinkedHashSet<String> METRIC_COLUMNS;
+  private static final String[] METRIC_NAMES;
+  private static final Map<String, Integer> METRIC_INDEX;
 
   public enum Fields {
     tid,
@@ -59,89 +69,68 @@ public class OSMetricsSnapshot implements Removable {
     for (OSMetrics metric : OSMetrics.values()) {
       METRIC_COLUMNS.add(metric.toString());
     }
+    METRIC_NAMES = METRIC_COLUMNS.toArray(new String[0]);
+    METRIC_INDEX = new HashMap<>();
+    for (int i = 0; i < METRIC_NAMES.length; i++) {
+      METRIC_INDEX.put(METRIC_NAMES[i], i);
+    }
   }
 
-  public DSLContext getDSLContext() {
-    return create;
-  }
-
-  public OSMetricsSnapshot(Connection conn, String tableNamePrefix, Long windowEndTime) {
+  private final String tableName;
+  private String[] tids;
+  private String[] tNames;
+  // Indexed by metric column first, then by row.
+  private double[][] metrics;
+  private long[] lastUpdateTimes;
+  private int size;
+
+  public OSMetricsSnapshot(String tableNamePrefix, Long windowEndTime) {
     this.tableName = tableNamePrefix + windowEndTime;
-    this.create = DSL.using(conn, SQLDialect.SQLITE);
-
-    this.dimensionColumns =
-        new LinkedHashSet<String>() {
-          {
-            this.add(Fields.tid.toString());
-            this.add(Fields.tName.toString());
-          }
-        };
-
-    LOG.debug("Creating a new os snapshot table - {}", tableName);
-    create.createTable(this.tableName).columns(getFields()).execute();
+    LOG.debug("Creating a new os snapshot - {}", tableName);
+    allocate(INITIAL_CAPACITY);
   }
 
-  public OSMetricsSnapshot(Connection conn, Long windowEndTime) {
-    this(conn, "os_", windowEndTime);
+  public OSMetricsSnapshot(Long windowEndTime) {
+    this("os_", windowEndTime);
   }
 
-  public void putMetric(
+  public synchronized void putMetric(
       Map<String, Double> metrics, Map<String, String> dimensions, long updateTime) {
-    Map<Field<?>, String> dimensionMap = new HashMap<Field<?>, String>();
-    Map<Field<?>, Double> metricMap = new HashMap<Field<?>, Double>();
-    Map<Field<?>, Long> updateTimeMap = new HashMap<Field<?>, Long>();
-
-    for (Map.Entry<String, String> dimension : dimensions.entrySet()) {
-      dimensionMap.put(DSL.field(DSL.name(dimension.getKey()), String.class), dimension.getValue());
-    }
-
-    for (Map.Entry<String, Double> metricName : metrics.entrySet()) {
-      metricMap.put(DSL.field(DSL.name(metricName.getKey()), Double.class), metricName.getValue());
-    }
-
-    updateTimeMap.put(DSL.field(LAST_UPDATE_TIME_FIELD, Long.class), updateTime);
-
-    create
-        .insertInto(DSL.table(this.tableName))
-        .set(metricMap)
-        .set(dimensionMap)
-        .set(updateTimeMap)
-        .execute();
+    int row =
+        appendRow(dimensions.get(Fields.tid.toString()), dimensions.get(Fields.tName.toString()));
+    putMetricValues(row, metrics);
+    lastUpdateTimes[row] = updateTime;
   }
 
-  public void putMetric(Map<String, Double> metrics, String tid, String tName) {
-    Map<Field<?>, Double> metricMap = new HashMap<Field<?>, Double>();
-
-    for (Map.Entry<String, Double> metricName : metrics.entrySet()) {
-      metricMap.put(DSL.field(DSL.name(metricName.getKey()), Double.class), metricName.getValue());
-    }
-
-    create
-        .insertInto(DSL.table(this.tableName))
-        .set(DSL.field(Fields.tid.toString()), tid)
-        .set(DSL.field(Fields.tName.toString()), tName)
-        .set(metricMap)
-        .execute();
+  public synchronized void putMetric(Map<String, Double> metrics, String tid, String tName) {
+    putMetricValues(appendRow(tid, tName), metrics);
   }
 
+  /**
+   * Returns a batch that takes positional rows of the form (tid, tName, metrics in {@link
+   * #getMetricColumns()} order, lastUpdateTime). Trailing values may be omitted.
+   */
   public BatchBindStep startBatchPut() {
-    List<Object> dummyValues = new ArrayList<>();
-    for (int i = 0; i < dimensionColumns.size(); i++) {
-      dummyValues.add(null);
-    }
-    for (int i = 0; i < METRIC_COLUMNS.size(); i++) {
-      dummyValues.add(null);
-    }
-    // last update time column
-    dummyValues.add(null);
-    return create.batch(create.insertInto(DSL.table(this.tableName)).values(dummyValues));
+    return new SnapshotBatch();
   }
 
-  public void deleteByTid(List<String> tids) {
-    create
-        .delete(DSL.table(this.tableName))
-        .where(DSL.field(Fields.tid.name(), String.class).in(tids))
-        .execute();
+  public synchronized void deleteByTid(List<String> tids) {
+    if (tids.isEmpty()) {
+      return;
+    }
+    Set<String> toDelete = new HashSet<>(tids);
+    int kept = 0;
+    for (int row = 0; row < size; row++) {
+      if (toDelete.contains(this.tids[row])) {
+        continue;
+      }
+      if (kept != row) {
+        moveRow(row, kept);
+      }
+      kept++;
+    }
+    clearRows(kept, size);
+    size = kept;
   }
 
   public List<Field<?>> getMetricColumnFields() {
@@ -154,69 +143,89 @@ public class OSMetricsSnapshot implements Removable {
     return this.tableName;
   }
 
-  public Result<Record> fetchAll() {
-    return create.select().from(DSL.table(this.tableName)).fetch();
+  public synchronized int size() {
+    return size;
   }
 
-  public Result<Record> fetchNegative() {
-    return create
-        .select()
-        .from(DSL.table(this.tableName))
-        .where(DSL.field(OSMetrics.CPU_UTILIZATION.toString()).lt(0L))
-        .fetch();
+  public synchronized Result<Record> fetchAll() {
+    return toResult(getFields(), row -> true);
   }
 
-  public SelectHavingStep<Record> selectAll() {
-    return create.select(getFields()).from(this.tableName);
+  public synchronized Result<Record> fetchNegative() {
+    int cpu = METRIC_INDEX.get(OSMetrics.CPU_UTILIZATION.toString());
+    return toResult(getFields(), row -> metrics[cpu][row] < 0);
   }
 
   @Override
-  public void remove() {
+  public synchronized void remove() {
     LOG.debug("Dropping {}", this.tableName);
-    create.dropTable(DSL.table(this.tableName)).execute();
+    size = 0;
+    allocate(0);
   }
 
   public void logSnap() {
     LOG.debug(() -> getDebugSnap());
   }
 
-  public Result<?> getDebugSnap() {
-    return create
-        .select(
-            DSL.field(Fields.tid.toString()).as(Fields.tid.toString()),
-            DSL.field(Fields.tName.toString()).as(Fields.tName.toString()),
-            DSL.field(OSMetrics.CPU_UTILIZATION.toString()),
-            DSL.field(OSMetrics.PAGING_MIN_FLT_RATE.toString()))
-        .from(this.tableName)
-        .where(DSL.field(OSMetrics.CPU_UTILIZATION.toString(), Double.class).ne(0d))
-        .fetch();
+  public synchronized Result<?> getDebugSnap() {
+    int cpu = METRIC_INDEX.get(OSMetrics.CPU_UTILIZATION.toString());
+    List<Field<?>> fields = new ArrayList<>();
+    fields.add(DSL.field(Fields.tid.toString(), String.class));
+    fields.add(DSL.field(Fields.tName.toString(), String.class));
+    fields.add(DSL.field(OSMetrics.CPU_UTILIZATION.toString(), Double.class));
+    fields.add(DSL.field(OSMetrics.PAGING_MIN_FLT_RATE.toString(), Double.class));
+    // NaN != 0 holds in Java, so the null check keeps this in line with sql semantics.
+    return toResult(fields, row -> !Double.isNaN(metrics[cpu][row]) && metrics[cpu][row] != 0d);
   }
 
-  public Result<Record> getOSMetrics() {
-    List<SelectField<?>> fields = new ArrayList<SelectField<?>>();
-    fields.add(DSL.field(Fields.tid.toString()).as(Fields.tid.toString()));
-    fields.add(DSL.field(Fields.tName.toString()).as(Fields.tName.toString()));
+  public synchronized Result<Record> getOSMetrics() {
+    List<Field<?>> fields = new ArrayList<>();
+    fields.add(DSL.field(Fields.tid.toString(), String.class));
+    fields.add(DSL.field(Fields.tName.toString(), String.class));
     for (String metricColumn : METRIC_COLUMNS) {
-      fields.add(DSL.field(metricColumn, Double.class).as(metricColumn));
+      fields.add(DSL.field(metricColumn, Double.class));
     }
-    return create.select(fields).from(this.tableName).fetch();
+    return toResult(fields, row -> true);
   }
 
-  public Map<String, Long> getLastUpdateTimePerTid() {
-    List<SelectField<?>> fields = new ArrayList<SelectField<?>>();
-    fields.add(DSL.field(Fields.tid.name()).as(Fields.tid.name()));
-    fields.add(DSL.field(LAST_UPDATE_TIME_FIELD).as(LAST_UPDATE_TIME_FIELD));
-    Result<Record> ret = create.select(fields).from(this.tableName).fetch();
-
+  public synchronized Map<String, Long> getLastUpdateTimePerTid() {
     Map<String, Long> lastUpdateTimePerTid = new HashMap<>();
-    for (int i = 0; i < ret.size(); i++) {
-      lastUpdateTimePerTid.put(
-          ret.get(i).get(Fields.tid.name()).toString(),
-          Long.parseLong(ret.get(i).get(LAST_UPDATE_TIME_FIELD).toString()));
+    for (int row = 0; row < size; row++) {
+      if (lastUpdateTimes[row] != NO_UPDATE_TIME) {
+        lastUpdateTimePerTid.put(tids[row], lastUpdateTimes[row]);
+      }
     }
     return lastUpdateTimePerTid;
   }
 
+  String getTid(int row) {
+    return tids[row];
+  }
+
+  String getThreadName(int row) {
+    return tNames[row];
+  }
+
+  /**
+   * Returns the value of a metric for a row, {@link Double#NaN} if it was not reported.
+   *
+   * @param column index of the metric in {@link #getMetricColumns()} order
+   * @param row row index
+   * @return the metric value
+   */
+  double getMetric(int column, int row) {
+    return metrics[column][row];
+  }
+
+  /** Returns the row indexes for each thread id. */
+  synchronized Map<String, List<Integer>> getRowsByTid() {
+    Map<String, List<Integer>> rowsByTid = new HashMap<>();
+    for (int row = 0; row < size; row++) {
+      rowsByTid.computeIfAbsent(tids[row], k -> new ArrayList<>(1)).add(row);
+    }
+    return rowsByTid;
+  }
+
   /**
    * Given metrics in two windows calculates a new window which overlaps with the given windows.
    * |------leftWindow-------|-------rightWindow--------| leftLastUpdateTime rightLastUpdateTime
@@ -227,6 +236,17 @@ public class OSMetricsSnapshot implements Removable {
    *
    * <p>This method assumes that both left/right windows are greater than or equal to 5 seconds.
    *
+   * <p>Rows are first grouped by tid, keeping the max of each column. Threads present in both
+   * windows are weighted as MetricValue = ((l_updateTime - a) * l_Metric + (b - l_updateTime) *
+   * r_metric) / (b - a); threads present in only one window keep that window's values. The aligned
+   * window holds the threads present in both windows, then those only in the left window, then
+   * those only in the right window, each sorted by tid. A thread counts as present in a window
+   * only if it has an update time there.
+   *
+   * <p>Example: Left window |tid|lastModifiTime|cpu| | 1| 3| 10| | 2| 4| 10|, right window
+   * |tid|lastModifiTime|cpu| | 1| 7| 20| | 3| 8| 10|, a = 0, b = 5 gives aligned window
+   * |tid|lastModifiTime|cpu| | 1| 3| 16| | 2| 4| 10| | 3| | 10|.
+   *
    * @param leftWindow a snapshot of the left window metrics
    * @param rightWindow a snapshot of the right window metrics
    * @param alignedWindow aligned window combinging left and right window
@@ -236,246 +256,277 @@ public class OSMetricsSnapshot implements Removable {
   public static void alignWindow(
       OSMetricsSnapshot leftWindow,
       OSMetricsSnapshot rightWindow,
-      String alignedWindow,
+      OSMetricsSnapshot alignedWindow,
       long a,
       long b) {
-    DSLContext create = leftWindow.getDSLContext();
+    Map<String, AlignedThread> threads = new HashMap<>();
+    leftWindow.collectThreads(threads, true);
+    rightWindow.collectThreads(threads, false);
+
+    List<AlignedThread> sorted = new ArrayList<>(threads.values());
+    sorted.sort(Comparator.comparing(t -> t.tid, Comparator.nullsFirst(Comparator.naturalOrder())));
+
+    synchronized (alignedWindow) {
+      for (AlignedThread thread : sorted) {
+        if (thread.hasLeft() && thread.hasRight()) {
+          int row = alignedWindow.appendRow(thread.tid, thread.tName);
+          for (int i = 0; i < METRIC_NAMES.length; i++) {
+            alignedWindow.metrics[i][row] =
+                ((thread.leftUpdateTime - a) * thread.left[i]
+                        + (b - thread.leftUpdateTime) * thread.right[i])
+                    / (b - a);
+          }
+          alignedWindow.lastUpdateTimes[row] = thread.leftUpdateTime;
+        }
+      }
+      for (AlignedThread thread : sorted) {
+        if (thread.hasLeft() && !thread.hasRight()) {
+          int row = alignedWindow.appendRow(thread.tid, thread.tName);
+          for (int i = 0; i < METRIC_NAMES.length; i++) {
+            alignedWindow.metrics[i][row] = thread.left[i];
+          }
+          alignedWindow.lastUpdateTimes[row] = thread.leftUpdateTime;
+        }
+      }
+      for (AlignedThread thread : sorted) {
+        if (!thread.hasLeft() && thread.hasRight()) {
+          int row = alignedWindow.appendRow(thread.tid, thread.tName);
+          for (int i = 0; i < METRIC_NAMES.length; i++) {
+            alignedWindow.metrics[i][row] = thread.right[i];
+          }
+        }
+      }
+    }
+  }
+
+  public List<Field<?>> getFields() {
+    List<Field<?>> fields = new ArrayList<Field<?>>();
+    fields.add(DSL.field(Fields.tid.toString(), String.class));
+    fields.add(DSL.field(Fields.tName.toString(), String.class));
+    for (String metric : METRIC_COLUMNS) {
+      fields.add(DSL.field(metric, Double.class));
+    }
+    fields.add(DSL.field(DSL.name(LAST_UPDATE_TIME_FIELD), Long.class));
+    return fields;
+  }
 
-    String leftPrefix = "l_";
-    String rightPrefix = "r_";
+  public Set<String> getMetricColumns() {
+    return OSMetricsSnapshot.METRIC_COLUMNS;
+  }
 
-    SelectHavingStep<Record> alignWindow =
-        selectAlignWindow(
-            create, leftWindow.tableName, rightWindow.tableName, leftPrefix, rightPrefix);
+  private synchronized void collectThreads(Map<String, AlignedThread> threads, boolean left) {
+    for (int row = 0; row < size; row++) {
+      AlignedThread thread = threads.computeIfAbsent(tids[row], AlignedThread::new);
+      if (thread.tName == null) {
+        thread.tName = tNames[row];
+      }
+      double[] values = left ? thread.left : thread.right;
+      if (values == null) {
+        values = new double[METRIC_NAMES.length];
+        Arrays.fill(values, Double.NaN);
+        if (left) {
+          thread.left = values;
+        } else {
+          thread.right = values;
+        }
+      }
+      for (int i = 0; i < METRIC_NAMES.length; i++) {
+        values[i] = max(values[i], metrics[i][row]);
+      }
+      if (left) {
+        thread.leftUpdateTime = Math.max(thread.leftUpdateTime, lastUpdateTimes[row]);
+      } else {
+        thread.rightUpdateTime = Math.max(thread.rightUpdateTime, lastUpdateTimes[row]);
+      }
+    }
+  }
 
-    create
-        .insertInto(DSL.table(alignedWindow))
-        .select(
-            selectFieldsHasLeftAndRight(create, leftPrefix, rightPrefix, a, b, alignWindow)
-                .unionAll(selectFieldsHasLeftOnly(create, leftPrefix, rightPrefix, alignWindow))
-                .unionAll(selectFieldsHasRightOnly(create, leftPrefix, rightPrefix, alignWindow)))
-        .execute();
+  /** Max that ignores missing values, like sql MAX() ignores nulls. */
+  private static double max(double current, double value) {
+    if (Double.isNaN(current)) {
+      return value;
+    }
+    return Double.isNaN(value) ? current : Math.max(current, value);
   }
 
-  /**
-   * Select records that exists in both left window and right window. Calc result by its weight.
-   *
-   * <p>MetricValue = ((l_updateTime - a) * l_Metric + (b - l_updateTime) * r_metric) / 5
-   *
-   * <p>Example: alignWindow: |tid|l_lastModifiTime|l_cpu|l_rss|r_lastModifiTime|r_cpu|r_rss|
-   * +---+----------------+-----+-----+----------------+-----+-----+ | 1| 3| 10| 10| | | | | 1| | |
-   * | 7| 20| 20| | 2| 4| 10| 10| | | | | 3| | | | 8| 10| 10|
-   *
-   * <p>Return: |tid|lastModifiTime|cpu|rss| +---+--------------+---+---+ | 1| 3| 16| 16|
-   *
-   * @param leftPrefix field prefix when merge from left table to align table
-   * @param rightPrefix field prefix when merge from right table to align table
-   * @param alignWindow align window return from selectAlignWindow
-   * @return see above example
-   */
-  private static SelectHavingStep<Record> selectFieldsHasLeftAndRight(
-      DSLContext create,
-      String leftPrefix,
-      String rightPrefix,
-      long a,
-      long b,
-      SelectHavingStep<Record> alignWindow) {
-    ArrayList<SelectField<?>> fieldsHasLeftAndRight = new ArrayList<SelectField<?>>();
-    fieldsHasLeftAndRight.add(DSL.field(Fields.tid.name()).as(Fields.tid.name()));
-    fieldsHasLeftAndRight.add(DSL.field(Fields.tName.name()).as(Fields.tName.name()));
-    for (String metricName : METRIC_COLUMNS) {
-      fieldsHasLeftAndRight.add(
-          DSL.field(leftPrefix + LAST_UPDATE_TIME_FIELD, Long.class)
-              .sub(a)
-              .mul(DSL.field(leftPrefix + metricName, Double.class))
-              .add(
-                  DSL.val(b)
-                      .sub(DSL.field(leftPrefix + LAST_UPDATE_TIME_FIELD, Long.class))
-                      .mul(DSL.field(rightPrefix + metricName, Double.class)))
-              .div(b - a)
-              .as(metricName));
+  private int appendRow(String tid, String tName) {
+    if (size == tids.length) {
+      grow();
     }
-    fieldsHasLeftAndRight.add(
-        DSL.field(leftPrefix + LAST_UPDATE_TIME_FIELD).as(LAST_UPDATE_TIME_FIELD));
+    int row = size++;
+    tids[row] = tid;
+    tNames[row] = tName;
+    for (double[] column : metrics) {
+      column[row] = Double.NaN;
+    }
+    lastUpdateTimes[row] = NO_UPDATE_TIME;
+    return row;
+  }
 
-    Condition conditionHasLeftAndRight =
-        DSL.field(leftPrefix + LAST_UPDATE_TIME_FIELD, Long.class)
-            .isNotNull()
-            .and(DSL.field(rightPrefix + LAST_UPDATE_TIME_FIELD, Long.class).isNotNull());
+  private void putMetricValues(int row, Map<String, Double> values) {
+    for (Map.Entry<String, Double> metric : values.entrySet()) {
+      Integer column = METRIC_INDEX.get(metric.getKey());
+      if (column != null && metric.getValue() != null) {
+        metrics[column][row] = metric.getValue();
+      }
+    }
+  }
 
-    return create.select(fieldsHasLeftAndRight).from(alignWindow).where(conditionHasLeftAndRight);
+  private synchronized void appendBatch(Collection<Object[]> rows) {
+    for (Object[] values : rows) {
+      int row =
+          appendRow(
+              values.length > 0 ? (String) values[0] : null,
+              values.length > 1 ? (String) values[1] : null);
+      for (int i = 0; i < METRIC_NAMES.length && i + 2 < values.length; i++) {
+        if (values[i + 2] != null) {
+          metrics[i][row] = ((Number) values[i + 2]).doubleValue();
+        }
+      }
+      int updateTimeIndex = METRIC_NAMES.length + 2;
+      if (values.length > updateTimeIndex && values[updateTimeIndex] != null) {
+        lastUpdateTimes[row] = ((Number) values[updateTimeIndex]).longValue();
+      }
+    }
   }
 
-  /**
-   * Select records that only exists in the left window.
-   *
-   * <p>Example: alignWindow: |tid|l_lastModifiTime|l_cpu|l_rss|r_lastModifiTime|r_cpu|r_rss|
-   * +---+----------------+-----+-----+----------------+-----+-----+ | 1| 3| 10| 10| | | | | 1| | |
-   * | 7| 20| 20| | 2| 4| 10| 10| | | | | 3| | | | 8| 10| 10|
-   *
-   * <p>Return: |tid|lastModifiTime|cpu|rss| +---+--------------+---+---+ | 2| 4| 10| 10|
-   *
-   * @param leftPrefix field prefix when merge from left table to align table
-   * @param rightPrefix field prefix when merge from right table to align table
-   * @param alignWindow align window return from selectAlignWindow
-   * @return see above example
-   */
-  private static SelectHavingStep<Record> selectFieldsHasLeftOnly(
-      DSLContext create,
-      String leftPrefix,
-      String rightPrefix,
-      SelectHavingStep<Record> alignWindow) {
-    ArrayList<SelectField<?>> fieldsHasLeftOnly = new ArrayList<SelectField<?>>();
-    fieldsHasLeftOnly.add(DSL.field(Fields.tid.name()).as(Fields.tid.name()));
-    fieldsHasLeftOnly.add(DSL.field(Fields.tName.name()).as(Fields.tName.name()));
-    for (String metricName : METRIC_COLUMNS) {
-      fieldsHasLeftOnly.add(DSL.field(leftPrefix + metricName, Double.class).as(metricName));
+  private void moveRow(int from, int to) {
+    tids[to] = tids[from];
+    tNames[to] = tNames[from];
+    for (double[] column : metrics) {
+      column[to] = column[from];
     }
-    fieldsHasLeftOnly.add(
-        DSL.field(leftPrefix + LAST_UPDATE_TIME_FIELD).as(LAST_UPDATE_TIME_FIELD));
+    lastUpdateTimes[to] = lastUpdateTimes[from];
+  }
 
-    Condition conditionHasLeftOnly =
-        DSL.field(leftPrefix + LAST_UPDATE_TIME_FIELD, Long.class)
-            .isNotNull()
-            .and(DSL.field(rightPrefix + LAST_UPDATE_TIME_FIELD, Long.class).isNull());
+  private void clearRows(int from, int to) {
+    Arrays.fill(tids, from, to, null);
+    Arrays.fill(tNames, from, to, null);
+  }
 
-    return create.select(fieldsHasLeftOnly).from(alignWindow).where(conditionHasLeftOnly);
+  private void allocate(int capacity) {
+    tids = new String[capacity];
+    tNames = new String[capacity];
+    metrics = new double[METRIC_NAMES.length][capacity];
+    lastUpdateTimes = new long[capacity];
   }
 
-  /**
-   * Select records that only exists in the right window.
-   *
-   * <p>Example: alignWindow: |tid|l_lastModifiTime|l_cpu|l_rss|r_lastModifiTime|r_cpu|r_rss|
-   * +---+----------------+-----+-----+----------------+-----+-----+ | 1| 3| 10| 10| | | | | 1| | |
-   * | 7| 20| 20| | 2| 4| 10| 10| | | | | 3| | | | 8| 10| 10|
-   *
-   * <p>Return: |tid|lastModifiTime|cpu|rss| +---+--------------+---+---+ | 3| | 10| 10|
-   *
-   * @param leftPrefix field prefix when merge from left table to align table
-   * @param rightPrefix field prefix when merge from right table to align table
-   * @param alignWindow align window return from selectAlignWindow
-   * @return see above example
-   */
-  private static SelectHavingStep<Record> selectFieldsHasRightOnly(
-      DSLContext create,
-      String leftPrefix,
-      String rightPrefix,
-      SelectHavingStep<Record> alignWindow) {
-    ArrayList<SelectField<?>> fieldsHasRightOnly = new ArrayList<SelectField<?>>();
-    fieldsHasRightOnly.add(DSL.field(Fields.tid.name()).as(Fields.tid.name()));
-    fieldsHasRightOnly.add(DSL.field(Fields.tName.name()).as(Fields.tName.name()));
-    for (String metricName : METRIC_COLUMNS) {
-      fieldsHasRightOnly.add(DSL.field(rightPrefix + metricName, Double.class).as(metricName));
+  private void grow() {
+    int capacity = Math.max(INITIAL_CAPACITY, tids.length * 2);
+    tids = Arrays.copyOf(tids, capacity);
+    tNames = Arrays.copyOf(tNames, capacity);
+    for (int i = 0; i < metrics.length; i++) {
+      metrics[i] = Arrays.copyOf(metrics[i], capacity);
     }
-    fieldsHasRightOnly.add(
-        DSL.field(leftPrefix + LAST_UPDATE_TIME_FIELD).as(LAST_UPDATE_TIME_FIELD));
+    lastUpdateTimes = Arrays.copyOf(lastUpdateTimes, capacity);
+  }
 
-    Condition conditionHasRightOnly =
-        DSL.field(leftPrefix + LAST_UPDATE_TIME_FIELD, Long.class)
-            .isNull()
-            .and(DSL.field(rightPrefix + LAST_UPDATE_TIME_FIELD, Long.class).isNotNull());
+  private interface RowFilter {
+    boolean accept(int row);
+  }
 
-    return create.select(fieldsHasRightOnly).from(alignWindow).where(conditionHasRightOnly);
+  private Result<Record> toResult(List<Field<?>> fields, RowFilter filter) {
+    Field<?>[] fieldArray = fields.toArray(new Field<?>[0]);
+    Result<Record> result = RESULT_CONTEXT.newResult(fieldArray);
+    for (int row = 0; row < size; row++) {
+      if (!filter.accept(row)) {
+        continue;
+      }
+      Object[] values = new Object[fieldArray.length];
+      for (int i = 0; i < fieldArray.length; i++) {
+        values[i] = valueOf(fieldArray[i].getName(), row);
+      }
+      Record record = RESULT_CONTEXT.newRecord(fieldArray);
+      record.fromArray(values);
+      result.add(record);
+    }
+    return result;
   }
 
-  /**
-   * Merge left window table and right window table into align window.
-   *
-   * <p>Example: Left window table |tid|lastModifiTime|cpu|rss| +---+--------------+---+---+ | 1| 3|
-   * 10| 10| | 2| 4| 10| 10|
-   *
-   * <p>Right window table |tid|lastModifiTime|cpu|rss| +---+--------------+---+---+ | 1| 7| 20| 20|
-   * | 3| 8| 10| 10|
-   *
-   * <p>Return align window |tid|l_lastModifiTime|l_cpu|l_rss|r_lastModifiTime|r_cpu|r_rss|
-   * +---+----------------+-----+-----+----------------+-----+-----+ | 1| 3| 10| 10| | | | | 1| | |
-   * | 7| 20| 20| | 2| 4| 10| 10| | | | | 3| | | | 8| 10| 10|
-   *
-   * @param create DSLContext
-   * @param leftTableName left table name
-   * @param rightTableName right table name
-   * @param leftPrefix field prefix when merge from left table to align table
-   * @param rightPrefix field prefix when merge from right table to align table
-   * @return see above example
-   */
-  private static SelectHavingStep<Record> selectAlignWindow(
-      DSLContext create,
-      String leftTableName,
-      String rightTableName,
-      String leftPrefix,
-      String rightPrefix) {
-    List<SelectField<?>> fields = new ArrayList<SelectField<?>>();
-    fields.add(DSL.field(Fields.tid.name(), String.class).as(Fields.tid.name()));
-    fields.add(DSL.field(Fields.tName.name(), String.class).as(Fields.tName.name()));
-    fields.add(
-        DSL.max(DSL.field(leftPrefix + LAST_UPDATE_TIME_FIELD, Long.class))
-            .as(leftPrefix + LAST_UPDATE_TIME_FIELD));
-    for (String c : METRIC_COLUMNS) {
-      fields.add(DSL.max(DSL.field(leftPrefix + c, Double.class)).as(leftPrefix + c));
+  private Object valueOf(String column, int row) {
+    if (Fields.tid.toString().equals(column)) {
+      return tids[row];
     }
-    fields.add(
-        DSL.max(DSL.field(rightPrefix + LAST_UPDATE_TIME_FIELD, Long.class))
-            .as(rightPrefix + LAST_UPDATE_TIME_FIELD));
-    for (String c : METRIC_COLUMNS) {
-      fields.add(DSL.max(DSL.field(rightPrefix + c, Double.class)).as(rightPrefix + c));
+    if (Fields.tName.toString().equals(column)) {
+      return tNames[row];
     }
+    if (LAST_UPDATE_TIME_FIELD.equals(column)) {
+      return lastUpdateTimes[row] == NO_UPDATE_TIME ? null : lastUpdateTimes[row];
+    }
+    double value = metrics[METRIC_INDEX.get(column)][row];
+    return Double.isNaN(value) ? null : value;
+  }
 
-    return create
-        .select(fields)
-        .from(
-            selectAlignWindowFromLeft(create, leftTableName, leftPrefix, rightPrefix)
-                .unionAll(
-                    selectAlignWindowFromRight(create, rightTableName, leftPrefix, rightPrefix)))
-        .groupBy(DSL.field(Fields.tid.name(), String.class));
-  }
-
-  private static SelectHavingStep<Record> selectAlignWindowFromLeft(
-      DSLContext create, String tableName, String leftPrefix, String rightPrefix) {
-    List<SelectField<?>> fields = new ArrayList<SelectField<?>>();
-    fields.add(DSL.field(Fields.tid.name(), String.class).as(Fields.tid.name()));
-    fields.add(DSL.field(Fields.tName.name(), String.class).as(Fields.tName.name()));
-    fields.add(
-        DSL.field(LAST_UPDATE_TIME_FIELD, Long.class).as(leftPrefix + LAST_UPDATE_TIME_FIELD));
-    for (String c : METRIC_COLUMNS) {
-      fields.add(DSL.field(c, Double.class).as(leftPrefix + c));
+  /** Per-thread state while merging a left and a right window. */
+  private static final class AlignedThread {
+    private final String tid;
+    private String tName;
+    private double[] left;
+    private double[] right;
+    private long leftUpdateTime = NO_UPDATE_TIME;
+    private long rightUpdateTime = NO_UPDATE_TIME;
+
+    AlignedThread(String tid) {
+      this.tid = tid;
     }
-    fields.add(DSL.val(null, Long.class).as(rightPrefix + LAST_UPDATE_TIME_FIELD));
-    for (String c : METRIC_COLUMNS) {
-      fields.add(DSL.val(null, Double.class).as(rightPrefix + c));
+
+    boolean hasLeft() {
+      return leftUpdateTime != NO_UPDATE_TIME;
+    }
+
+    boolean hasRight() {
+      return rightUpdateTime != NO_UPDATE_TIME;
     }
-    return create.select(fields).from(tableName);
   }
 
-  private static SelectHavingStep<Record> selectAlignWindowFromRight(
-      DSLContext create, String tableName, String leftPrefix, String rightPrefix) {
-    List<SelectField<?>> fields = new ArrayList<SelectField<?>>();
-    fields.add(DSL.field(Fields.tid.name(), String.class).as(Fields.tid.name()));
-    fields.add(DSL.field(Fields.tName.name(), String.class).as(Fields.tName.name()));
-    fields.add(DSL.val(null, Long.class).as(leftPrefix + LAST_UPDATE_TIME_FIELD));
-    for (String c : METRIC_COLUMNS) {
-      fields.add(DSL.val(null, Double.class).as(leftPrefix + c));
+  /** Buffers positional rows and appends them to the snapshot on execute. */
+  private final class SnapshotBatch implements BatchBindStep {
+    private final List<Object[]> rows = new ArrayList<>();
+
+    @Override
+    public BatchBindStep bind(Object... bindValues) {
+      rows.add(bindValues);
+      return this;
+    }
+
+    @Override
+    public BatchBindStep bind(Object[]... bindValues) {
+      rows.addAll(Arrays.asList(bindValues));
+      return this;
     }
-    fields.add(
-        DSL.field(LAST_UPDATE_TIME_FIELD, Long.class).as(rightPrefix + LAST_UPDATE_TIME_FIELD));
-    for (String c : METRIC_COLUMNS) {
-      fields.add(DSL.field(c, Double.class).as(rightPrefix + c));
+
+    @Override
+    public BatchBindStep bind(Map<String, Object> namedBindValues) {
+      List<Field<?>> fields = getFields();
+      Object[] row = new Object[fields.size()];
+      for (int i = 0; i < row.length; i++) {
+        row[i] = namedBindValues.get(fields.get(i).getName());
+      }
+      rows.add(row);
+      return this;
     }
-    return create.select(fields).from(tableName);
-  }
 
-  public List<Field<?>> getFields() {
-    List<Field<?>> fields = new ArrayList<Field<?>>();
-    for (String dimension : dimensionColumns) {
-      fields.add(DSL.field(dimension, String.class));
+    @Override
+    @SafeVarargs
+    public final BatchBindStep bind(Map<String, Object>... namedBindValues) {
+      for (Map<String, Object> values : namedBindValues) {
+        bind(values);
+      }
+      return this;
     }
-    for (String metric : METRIC_COLUMNS) {
-      fields.add(DSL.field(metric, Double.class));
+
+    @Override
+    public int[] execute() {
+      appendBatch(rows);
+      int[] counts = new int[rows.size()];
+      Arrays.fill(counts, 1);
+      rows.clear();
+      return counts;
     }
-    fields.add(DSL.field(DSL.name(LAST_UPDATE_TIME_FIELD), Long.class));
-    return fields;
-  }
 
-  public Set<String> getMetricColumns() {
-    return OSMetricsSnapshot.METRIC_COLUMNS;
+    @Override
+    public int size() {
+      return rows.size();
+    }
   }
 }
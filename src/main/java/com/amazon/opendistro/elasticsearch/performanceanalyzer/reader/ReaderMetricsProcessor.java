@@ -26,11 +26,18 @@ import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.AllMetric
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.AllMetrics.MetricName;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.MetricsConfiguration;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.PerformanceAnalyzerMetrics;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.ColumnarMetricsDB;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.MetricsDB;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.MetricsDBEngine;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.MetricsDBPool;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.MetricsRollupStore;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.model.MetricsModel;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.metrics.ExceptionsAndErrors;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.metrics.ReaderMetrics;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.reader_writer_shared.EventLog;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.reader_writer_shared.EventLogFileHandler;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import java.io.File;
 import java.io.IOException;
@@ -53,6 +60,8 @@ import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
 import org.apache.logging.log4j.LogManager;
@@ -92,6 +101,10 @@ public class ReaderMetricsProcessor implements Runnable {
   private static final int FAULT_DETECTION_SNAPSHOTS = 2;
   private static final int GC_INFO_SNAPSHOTS = 4;
   private static final int MASTER_THROTTLING_SNAPSHOTS = 2;
+  // The per-thread OS snapshots are kept in memory, so the sqlite tables left to reclaim are the
+  // request snapshots; a VACUUM every run rewrote the whole database for little. Once a minute.
+  private static final int VACUUM_INTERVAL_RUNS =
+      (int) (60_000 / (MetricsConfiguration.SAMPLING_INTERVAL / 2));
   private final String rootLocation;
   private static final Map<String, Double> TIMING_STATS = new HashMap<>();
   private static final Map<String, String> STATS_DATA = new HashMap<>();
@@ -104,6 +117,8 @@ public class ReaderMetricsProcessor implements Runnable {
   public static final boolean defaultBatchMetricsEnabled = false;
   // This needs to be concurrent since it may be concurrently accessed by the metrics processor thread and the query handler thread.
   private ConcurrentSkipListSet<Long> batchMetricsDBSet;
+  // Rollups of the batch metrics windows, null if they are disabled.
+  private final MetricsRollupStore batchMetricsRollups;
 
   static {
     STATS_DATA.put("MethodName", "ProcessMetrics");
@@ -111,6 +126,13 @@ public class ReaderMetricsProcessor implements Runnable {
 
   private final boolean processNewFormat;
   private final EventLogFileHandler eventLogFileHandler;
+  // Runs the event processors that can process in parallel when parallel event dispatch is
+  // enabled, null otherwise.
+  private final ExecutorService eventDispatchExecutor;
+  private final boolean tailEventFiles;
+  // The window whose event file is being tailed, null until the first run when tailing.
+  private WindowProcessing tailedWindow;
+  private long lastTailedWindowStartTime;
   // This needs to be volatile to avoid failure caused by thread local cached values.
   private static volatile ReaderMetricsProcessor current = null;
 
@@ -147,10 +169,34 @@ public class ReaderMetricsProcessor implements Runnable {
       nodeMetricsMap.put(names[i], new TreeMap<>());
     }
     eventLogFileHandler = new EventLogFileHandler(new EventLog(), rootLocation);
+    tailEventFiles = PluginSettings.instance().isTailEventFilesEnabled();
+    // Picks up after the last window a previous run of the reader closed.
+    lastTailedWindowStartTime = eventLogFileHandler.getLastEndedTail();
+    // A tailed window keeps its processors open between runs, while this thread uses the
+    // in-memory connection they write to, so its events are processed on this thread.
+    if (PluginSettings.instance().isParallelEventDispatchEnabled() && !tailEventFiles) {
+      eventDispatchExecutor =
+          Executors.newCachedThreadPool(
+              new ThreadFactoryBuilder()
+                  .setNameFormat("pa-reader-event-dispatch-%d")
+                  .setDaemon(true)
+                  .build());
+    } else {
+      eventDispatchExecutor = null;
+    }
     this.processNewFormat = processNewFormat;
     this.appContext = appContext;
     batchMetricsEnabled = defaultBatchMetricsEnabled;
     batchMetricsDBSet = new ConcurrentSkipListSet<>();
+    if (PluginSettings.instance().isBatchMetricsRollupEnabled()) {
+      batchMetricsRollups =
+          new MetricsRollupStore(
+              MetricsDB.getFilePrefix(),
+              MetricsModel.ALL_METRICS.entrySet().stream()
+                  .collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().dimensionNames)));
+    } else {
+      batchMetricsRollups = null;
+    }
     readBatchMetricsEnabledFromConf();
     restoreBatchMetricsState();
   }
@@ -171,16 +217,18 @@ public class ReaderMetricsProcessor implements Runnable {
 
       long runInterval = MetricsConfiguration.SAMPLING_INTERVAL / 2;
 
-      while (true) {
-        // Create snapshots.
-        Statement vacuumStmt = conn.createStatement();
-        try {
-          vacuumStmt.executeUpdate("VACUUM");
-        } catch (Exception e) {
-          LOG.error("Unable to run Vacuum.");
-        } finally {
-          vacuumStmt.close();
+      for (long runs = 0; ; runs++) {
+        if (runs % VACUUM_INTERVAL_RUNS == 0) {
+          Statement vacuumStmt = conn.createStatement();
+          try {
+            vacuumStmt.executeUpdate("VACUUM");
+          } catch (Exception e) {
+            LOG.error("Unable to run Vacuum.");
+          } finally {
+            vacuumStmt.close();
+          }
         }
+        // Create snapshots.
         conn.setAutoCommit(false);
         startTime = System.currentTimeMillis();
         processMetrics(rootLocation, startTime);
@@ -225,12 +273,19 @@ public class ReaderMetricsProcessor implements Runnable {
   }
 
   public void shutdown() {
+    if (eventDispatchExecutor != null) {
+      eventDispatchExecutor.shutdownNow();
+    }
     try {
       conn.close();
     } catch (Exception e) {
       LOG.error("Unable to close inmemory database connection.");
     }
 
+    MetricsDBPool.instance().clear();
+    if (batchMetricsRollups != null) {
+      batchMetricsRollups.close();
+    }
     for (MetricsDB db : metricsDBMap.values()) {
       try {
         db.close();
@@ -247,8 +302,7 @@ public class ReaderMetricsProcessor implements Runnable {
     Set<Long> recoveredMetricsdbFiles = MetricsDB.listOnDiskFiles();
     boolean shouldCleanup = PluginSettings.instance().shouldCleanupMetricsDBFiles();
     if (batchMetricsEnabled) {
-      long minTime = System.currentTimeMillis()
-          - PluginSettings.instance().getBatchMetricsRetentionPeriodMinutes() * 60 * 1000;
+      long minTime = System.currentTimeMillis() - getBatchMetricsWindowRetentionMinutes() * 60 * 1000;
       for (Long ts : recoveredMetricsdbFiles) {
         if (ts >= minTime) {
           batchMetricsDBSet.add(ts);
@@ -259,6 +313,16 @@ public class ReaderMetricsProcessor implements Runnable {
     } else if (shouldCleanup) {
       recoveredMetricsdbFiles.forEach(ts -> MetricsDB.deleteOnDiskFile(ts));
     }
+    if (batchMetricsRollups != null) {
+      batchMetricsRollups.restore(batchMetricsEnabled ? getMinRollupTime() : Long.MAX_VALUE, shouldCleanup);
+    }
+  }
+
+  /** Returns the start time of the oldest rollup bucket a batch metrics request may ask for. */
+  private long getMinRollupTime() {
+    return System.currentTimeMillis()
+        - PluginSettings.instance().getBatchMetricsRetentionPeriodMinutes() * 60 * 1000
+        - MetricsRollupStore.Resolution.FIVE_MINUTES.getMillis();
   }
 
   /**
@@ -317,19 +381,26 @@ public class ReaderMetricsProcessor implements Runnable {
         }
       }
       batchMetricsDBSet.clear();
+      if (batchMetricsRollups != null) {
+        batchMetricsRollups.close();
+        batchMetricsRollups.trim(Long.MAX_VALUE, deleteDBFiles);
+      }
     }
     readBatchMetricsEnabledFromConf();
     // The (retentionPeriod * 12 + 2)'th database can be safely removed, since getBatchMetrics never returns more than
     // the (retentionPeriod * 12) freshest metrics files. The (retentionPeriod * 12 + 1)'th file is also retained in
     // case getBatchMetrics was called at the start of this cycle, right before the newest metrics file was added to
     // the batchMetricsDBSet.
-    long maxNumBatchMetricsDBFiles = PluginSettings.instance().getBatchMetricsRetentionPeriodMinutes() * 12 + 1;
+    long maxNumBatchMetricsDBFiles = getBatchMetricsWindowRetentionMinutes() * 12 + 1;
     while (batchMetricsDBSet.size() > maxNumBatchMetricsDBFiles) {
       Long timestamp = batchMetricsDBSet.pollFirst();
       if (deleteDBFiles && !metricsDBMap.containsKey(timestamp)) {
         MetricsDB.deleteOnDiskFile(timestamp);
       }
     }
+    if (batchMetricsEnabled && batchMetricsRollups != null) {
+      batchMetricsRollups.trim(getMinRollupTime(), deleteDBFiles);
+    }
   }
 
   /** Deletes the lowest entries in the map till the size of the map is equal to maxSize. */
@@ -369,7 +440,7 @@ public class ReaderMetricsProcessor implements Runnable {
     // the end of this
     // reader cycle. The OSMetricsSnapshot expects windowEndTime in the constructor.
     OSMetricsSnapshot alignedOSSnapHolder =
-        new OSMetricsSnapshot(this.conn, "os_aligned_", currWindowStartTime);
+        new OSMetricsSnapshot("os_aligned_", currWindowStartTime);
     OSMetricsSnapshot osAlignedSnap =
         alignOSMetrics(
             prevWindowStartTime,
@@ -391,12 +462,34 @@ public class ReaderMetricsProcessor implements Runnable {
     emitMasterThrottlingMetrics(prevWindowStartTime, metricsDB);
     emitShardStateMetrics(prevWindowStartTime, metricsDB);
 
+    // All the rows of the window are written in the one transaction committed here.
     metricsDB.commit();
+    long emitDuration = System.currentTimeMillis() - mCurrT;
+    PerformanceAnalyzerApp.READER_METRICS_AGGREGATOR.updateStat(
+        ReaderMetrics.METRICSDB_ROWS_WRITTEN, "", metricsDB.getRowsWritten());
+    PerformanceAnalyzerApp.READER_METRICS_AGGREGATOR.updateStat(
+        ReaderMetrics.METRICSDB_WRITE_THROUGHPUT,
+        "",
+        metricsDB.getRowsWritten() * 1000 / Math.max(1, emitDuration));
+    if (batchMetricsEnabled) {
+      // The batch metrics API re-opens older windows from disk.
+      metricsDB.persist();
+    }
     metricsDBMap.put(prevWindowStartTime, metricsDB);
     PerformanceAnalyzerApp.READER_METRICS_AGGREGATOR.updateStat(
         ReaderMetrics.METRICSDB_FILE_SIZE, "", new File(metricsDB.getDBFilePath()).length());
     if (batchMetricsEnabled) {
       batchMetricsDBSet.add(prevWindowStartTime);
+      if (batchMetricsRollups != null) {
+        try {
+          batchMetricsRollups.add(metricsDB);
+        } catch (Exception e) {
+          // The batch metrics API falls back to the windows for the buckets that are missing.
+          LOG.error("Unable to roll up the metrics of window {}", prevWindowStartTime, e);
+          PerformanceAnalyzerApp.ERRORS_AND_EXCEPTIONS_AGGREGATOR.updateStat(
+              ExceptionsAndErrors.READER_METRICSDB_ACCESS_ERRORS, "", 1);
+        }
+      }
     }
     mFinalT = System.currentTimeMillis();
     LOG.debug("Total time taken for emitting Metrics: {}", mFinalT - mCurrT);
@@ -565,18 +658,98 @@ public class ReaderMetricsProcessor implements Runnable {
     // Step 1 from above.
     long start = System.currentTimeMillis();
 
-    // Step 2 from above.
-    long currWindowStartTime =
+    if (tailEventFiles) {
+      tailMetrics(currTimestamp);
+    } else {
+      // Step 2 from above.
+      long currWindowStartTime =
+          PerformanceAnalyzerMetrics.getTimeInterval(
+              currTimestamp, MetricsConfiguration.SAMPLING_INTERVAL);
+
+      // Step 3 from above.
+      currWindowStartTime = currWindowStartTime - (3 * MetricsConfiguration.SAMPLING_INTERVAL);
+
+      WindowProcessing window = startWindow(currWindowStartTime);
+      try {
+        eventLogFileHandler.read(currWindowStartTime, window.eventDispatcher);
+        finishWindow(window);
+      } finally {
+        // Releases the dispatch workers if the window failed before they were done.
+        window.eventDispatcher.cancelProcessing();
+      }
+    }
+
+    StatsCollector.instance()
+        .logStatsRecord(null, STATS_DATA, TIMING_STATS, start, System.currentTimeMillis());
+  }
+
+  /**
+   * Reads the window the writer is flushing as its events land, instead of waiting for the file
+   * to be complete. The writer flushes the events of a window during the next one, so at a wall
+   * clock time of 17 seconds it is writing the file named 10. That file is tailed on every run and
+   * its window is closed, and the metrics emitted, once the writer has started the next file, or
+   * two sampling intervals later if the writer has nothing more to write.
+   *
+   * @param currTimestamp The current wall clock time.
+   * @throws Exception It can throw exception
+   */
+  private void tailMetrics(long currTimestamp) throws Exception {
+    long flushedWindowStartTime =
         PerformanceAnalyzerMetrics.getTimeInterval(
-            currTimestamp, MetricsConfiguration.SAMPLING_INTERVAL);
+                currTimestamp, MetricsConfiguration.SAMPLING_INTERVAL)
+            - MetricsConfiguration.SAMPLING_INTERVAL;
+    if (tailedWindow != null) {
+      long startTime = tailedWindow.startTime;
+      // Checked before the last read, as the writer finishes a file before starting the next.
+      boolean complete =
+          startTime < flushedWindowStartTime
+              && (eventLogFileHandler.exists(startTime + MetricsConfiguration.SAMPLING_INTERVAL)
+                  || startTime
+                      <= flushedWindowStartTime - 2 * MetricsConfiguration.SAMPLING_INTERVAL);
+      eventLogFileHandler.tail(startTime, tailedWindow.eventDispatcher);
+      if (!complete) {
+        return;
+      }
+      eventLogFileHandler.endTail(startTime);
+      finishWindow(tailedWindow);
+      tailedWindow = null;
+      lastTailedWindowStartTime = startTime;
+    }
 
-    // Step 3 from above.
-    currWindowStartTime = currWindowStartTime - (3 * MetricsConfiguration.SAMPLING_INTERVAL);
+    // Windows are tailed one after the other, unless the reader fell too far behind.
+    long nextWindowStartTime = lastTailedWindowStartTime + MetricsConfiguration.SAMPLING_INTERVAL;
+    if (lastTailedWindowStartTime == 0
+        || nextWindowStartTime
+            < flushedWindowStartTime - 2 * MetricsConfiguration.SAMPLING_INTERVAL) {
+      nextWindowStartTime = flushedWindowStartTime;
+    }
+    tailedWindow = startWindow(nextWindowStartTime);
+    eventLogFileHandler.startTail(nextWindowStartTime);
+    eventLogFileHandler.tail(nextWindowStartTime, tailedWindow.eventDispatcher);
+  }
+
+  /** The event processors of a window, from its first event read to its metrics emitted. */
+  private static class WindowProcessing {
+    private final long startTime;
+    private final EventDispatcher eventDispatcher;
+    private final ClusterDetailsEventProcessor clusterDetailsEventsProcessor;
+
+    private WindowProcessing(
+        long startTime,
+        EventDispatcher eventDispatcher,
+        ClusterDetailsEventProcessor clusterDetailsEventsProcessor) {
+      this.startTime = startTime;
+      this.eventDispatcher = eventDispatcher;
+      this.clusterDetailsEventsProcessor = clusterDetailsEventsProcessor;
+    }
+  }
+
+  private WindowProcessing startWindow(long currWindowStartTime) throws Exception {
     long currWindowEndTime = currWindowStartTime + MetricsConfiguration.SAMPLING_INTERVAL;
 
     EventProcessor osProcessor =
         OSEventProcessor.buildOSMetricEventsProcessor(
-            currWindowStartTime, currWindowEndTime, conn, osMetricsMap);
+            currWindowStartTime, currWindowEndTime, osMetricsMap);
     EventProcessor requestProcessor =
         RequestEventProcessor.buildRequestMetricEventsProcessor(
             currWindowStartTime, currWindowEndTime, conn, shardRqMetricsMap);
@@ -611,7 +784,7 @@ public class ReaderMetricsProcessor implements Runnable {
     // We need to ensure that all the processors are registered, before the initialize function is
     // called.
     // After all events have been processed, we call the finalizeProcessing function.
-    EventDispatcher eventDispatcher = new EventDispatcher();
+    EventDispatcher eventDispatcher = new EventDispatcher(eventDispatchExecutor);
 
     eventDispatcher.registerEventProcessor(osProcessor);
     eventDispatcher.registerEventProcessor(requestProcessor);
@@ -627,11 +800,16 @@ public class ReaderMetricsProcessor implements Runnable {
     eventDispatcher.initializeProcessing(
         currWindowStartTime, currWindowStartTime + MetricsConfiguration.SAMPLING_INTERVAL);
 
-    eventLogFileHandler.read(currWindowStartTime, eventDispatcher);
+    return new WindowProcessing(
+        currWindowStartTime, eventDispatcher, clusterDetailsEventsProcessor);
+  }
 
-    eventDispatcher.finalizeProcessing();
+  private void finishWindow(WindowProcessing window) throws Exception {
+    ClusterDetailsEventProcessor clusterDetailsEventsProcessor =
+        window.clusterDetailsEventsProcessor;
+    window.eventDispatcher.finalizeProcessing();
 
-    emitMetrics(currWindowStartTime);
+    emitMetrics(window.startTime);
 
     // There are cases, such as tests where appContext may not be initialized.
     // We always create a new ClusterDetailsEventsProcessor object above but we may not always
@@ -641,9 +819,6 @@ public class ReaderMetricsProcessor implements Runnable {
     if (appContext != null && !clusterDetailsEventsProcessor.getNodesDetails().isEmpty()) {
       appContext.setClusterDetailsEventProcessor(clusterDetailsEventsProcessor);
     }
-
-    StatsCollector.instance()
-        .logStatsRecord(null, STATS_DATA, TIMING_STATS, start, System.currentTimeMillis());
   }
 
   /**
@@ -711,8 +886,7 @@ public class ReaderMetricsProcessor implements Runnable {
     LOG.debug("Adding new scaled OS snapshot- actualTime {}", startTime);
     OSMetricsSnapshot leftWindow = osMetricsMap.get(t1);
     OSMetricsSnapshot rightWindow = osMetricsMap.get(t2);
-    OSMetricsSnapshot.alignWindow(
-        leftWindow, rightWindow, alignedWindow.getTableName(), startTime, endTime);
+    OSMetricsSnapshot.alignWindow(leftWindow, rightWindow, alignedWindow, startTime, endTime);
     return alignedWindow;
   }
 
@@ -852,6 +1026,9 @@ public class ReaderMetricsProcessor implements Runnable {
   }
 
   public MetricsDB createMetricsDB(long timestamp) throws Exception {
+    if (PluginSettings.instance().getMetricsDBEngine() == MetricsDBEngine.COLUMNAR) {
+      return new ColumnarMetricsDB(timestamp);
+    }
     MetricsDB db = new MetricsDB(timestamp);
     return db;
   }
@@ -872,7 +1049,7 @@ public class ReaderMetricsProcessor implements Runnable {
   public NavigableSet<Long> getBatchMetrics() {
     if (batchMetricsEnabled) {
       TreeSet<Long> batchMetricsDBSetCopy = new TreeSet<>(batchMetricsDBSet.clone());
-      long maxNumBatchMetricsDBFiles =  PluginSettings.instance().getBatchMetricsRetentionPeriodMinutes() * 12;
+      long maxNumBatchMetricsDBFiles = getBatchMetricsWindowRetentionMinutes() * 12;
       while (batchMetricsDBSetCopy.size() > maxNumBatchMetricsDBFiles) {
         batchMetricsDBSetCopy.pollFirst();
       }
@@ -881,6 +1058,29 @@ public class ReaderMetricsProcessor implements Runnable {
     return null;
   }
 
+  /**
+   * This is called by operations outside of the ReaderMetricsProcessor.
+   *
+   * @return How many minutes of metricsdb files are kept for batch metrics. With rollups, the files are only kept
+   *     until the 1 minute buckets that cover them are written, and older samples are served from the buckets.
+   */
+  public long getBatchMetricsWindowRetentionMinutes() {
+    long retentionMinutes = PluginSettings.instance().getBatchMetricsRetentionPeriodMinutes();
+    if (batchMetricsRollups == null) {
+      return retentionMinutes;
+    }
+    return Math.min(retentionMinutes, PluginSettings.instance().getBatchMetricsRawRetentionPeriodMinutes());
+  }
+
+  /**
+   * This is called by operations outside of the ReaderMetricsProcessor.
+   *
+   * @return The rollups of the batch metrics windows. Null if batch metrics or its rollups are disabled.
+   */
+  public MetricsRollupStore getBatchMetricsRollups() {
+    return batchMetricsEnabled ? batchMetricsRollups : null;
+  }
+
   /**
    * Enrich event data with node metrics and calculate aggregated metrics on dimensions like (shard,
    * index, operation, role). The aggregated metrics are then written to a metricsDB.
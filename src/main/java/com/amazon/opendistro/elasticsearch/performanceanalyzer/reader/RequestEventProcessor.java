@@ -63,9 +63,9 @@ public class RequestEventProcessor implements EventProcessor {
 
   @Override
   public boolean shouldProcessEvent(Event event) {
-    if (event.key.contains(PerformanceAnalyzerMetrics.sShardBulkPath)
-        || event.key.contains(PerformanceAnalyzerMetrics.sShardFetchPath)
-        || event.key.contains(PerformanceAnalyzerMetrics.sShardQueryPath)) {
+    if (event.keyContains(PerformanceAnalyzerMetrics.sShardBulkPath)
+        || event.keyContains(PerformanceAnalyzerMetrics.sShardFetchPath)
+        || event.keyContains(PerformanceAnalyzerMetrics.sShardQueryPath)) {
       return true;
     }
     return false;
@@ -109,10 +109,10 @@ public class RequestEventProcessor implements EventProcessor {
     // The elements in the items array will be
     // [threads, 29013, shardbulk, 806214, finish]
     // we are interested in the last element: start and finish.
-    String[] items = entry.key.split(File.separatorChar == '\\' ? "\\\\" : File.separator);
+    String[] items = entry.key().split(File.separatorChar == '\\' ? "\\\\" : File.separator);
     // This is for readability.
     String startOrEnd = items[4];
-    Map<String, String> keyValueMap = ReaderMetricsProcessor.extractEntryData(entry.value);
+    Map<String, String> keyValueMap = ReaderMetricsProcessor.extractEntryData(entry.value());
     if (startOrEnd.equals(PerformanceAnalyzerMetrics.START_FILE_NAME)) {
       emitStartMetric(items, keyValueMap);
     } else if (startOrEnd.equals(PerformanceAnalyzerMetrics.FINISH_FILE_NAME)) {
@@ -85,7 +85,7 @@ public class ShardStateMetricsProcessor implements EventProcessor {
      */
     @Override
     public void processEvent(Event event) {
-        String[] lines = event.value.split(System.lineSeparator());
+        String[] lines = event.value().split(System.lineSeparator());
         String indexName = StringUtils.EMPTY;
         for (String line : lines) {
             Map<String, String> shardStateMap = extractEntryData(line);
@@ -115,7 +115,7 @@ public class ShardStateMetricsProcessor implements EventProcessor {
 
     @Override
     public boolean shouldProcessEvent(Event event) {
-        return event.key.contains(PerformanceAnalyzerMetrics.sShardStatePath);
+        return event.keyContains(PerformanceAnalyzerMetrics.sShardStatePath);
     }
 
     @Override
@@ -0,0 +1,337 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.reader_writer_shared;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.reader.EventDispatcher;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.Buffer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import javax.annotation.Nullable;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Binary encoding of the writer event files.
+ *
+ * <p>A binary file starts with {@link #HEADER}, whose last byte is the format version, followed by
+ * one frame per write. A frame starts with the length of its payload and the CRC32 of the payload,
+ * both big-endian 4-byte integers, so a reader can check a frame and step over one it cannot
+ * decode. All other integers are unsigned LEB128 varints.
+ *
+ * <pre>
+ * frame   := length crc32 payload
+ * payload := eventCount event*
+ * event   := segmentCount segment* valueLength valueBytes
+ * segment := 0 length bytes    a new key segment, which gets the next id in the frame
+ *          | id                a key segment already seen in the frame, ids start at 1
+ * </pre>
+ *
+ * <p>Keys are split on the file separator, so path segments such as "threads" or "os_metrics" are
+ * written once per frame and then referenced by id. Values are written as is.
+ */
+final class BinaryEventCodec {
+  private static final Logger LOG = LogManager.getLogger(BinaryEventCodec.class);
+
+  static final byte VERSION = 2;
+  static final int FRAME_PREFIX_LENGTH = 8;
+  // The leading 0 can never start a text file, whose records start with '^'.
+  static final byte[] HEADER = {0, 'P', 'A', 'E', VERSION};
+
+  private static final char KEY_SEPARATOR = File.separatorChar;
+
+  private final Charset charset;
+  // Handed to the processor for every event decoded.
+  private final Event eventView;
+  private byte[] scratch = new byte[1024];
+
+  BinaryEventCodec(Charset charset, Event eventView) {
+    this.charset = charset;
+    this.eventView = eventView;
+  }
+
+  /** Returns true if the bytes from the buffer's position start with the binary header magic. */
+  static boolean hasHeader(ByteBuffer buffer) {
+    if (buffer.remaining() < HEADER.length) {
+      return false;
+    }
+    int start = buffer.position();
+    for (int i = 0; i < HEADER.length - 1; i++) {
+      if (buffer.get(start + i) != HEADER[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Encodes the events as one frame.
+   *
+   * @param events the events to encode
+   * @param keyOffset number of leading key characters to drop, as in {@link EventLog#write(Event)}
+   * @return the encoded frame
+   */
+  byte[] encodeFrame(List<Event> events, int keyOffset) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(events.size() * 64);
+    Map<String, Integer> segmentIds = new HashMap<>();
+    writeVarint(out, events.size());
+    List<String> segments = new ArrayList<>();
+    for (Event event : events) {
+      segments.clear();
+      splitKey(event.key().substring(keyOffset), segments);
+      writeVarint(out, segments.size());
+      for (String segment : segments) {
+        Integer id = segmentIds.get(segment);
+        if (id != null) {
+          writeVarint(out, id);
+        } else {
+          segmentIds.put(segment, segmentIds.size() + 1);
+          writeVarint(out, 0);
+          writeBytes(out, segment.getBytes(charset));
+        }
+      }
+      writeBytes(out, event.value().getBytes(charset));
+    }
+    byte[] payload = out.toByteArray();
+    return ByteBuffer.allocate(FRAME_PREFIX_LENGTH + payload.length)
+        .putInt(payload.length)
+        .putInt(checksum(payload, 0, payload.length))
+        .put(payload)
+        .array();
+  }
+
+  /**
+   * Decodes the complete frames of a binary file from the given offset and hands each event to the
+   * processor. A frame is only handed out once all of its bytes are in the file and match its
+   * checksum, so a frame the writer is still appending is left for the next call. A frame that
+   * fails the checksum or cannot be decoded is logged and skipped, and decoding goes on with the
+   * frame after it. Only a negative length leaves nothing to resynchronize on, and then the rest of
+   * the file is skipped.
+   *
+   * @param buffer the file, starting with the header at the buffer's position, which is unchanged
+   * @param offset where to start decoding, relative to the start of the file; offsets within the
+   *     header start at the first frame
+   * @param processor the dispatcher the events are handed to
+   * @return the offset, relative to the start of the file, after the last complete frame, or the
+   *     end of the file if the rest of it was skipped
+   */
+  int decode(ByteBuffer buffer, int offset, EventDispatcher processor) {
+    int base = buffer.position();
+    byte version = buffer.get(base + HEADER.length - 1);
+    if (version != VERSION) {
+      LOG.error("Skipping event file with unsupported binary format version {}.", version);
+      return buffer.remaining();
+    }
+    ByteBuffer view = buffer.duplicate();
+    // The events are views over their own duplicate, as decoding a value moves its position.
+    ByteBuffer eventBuffer = buffer.duplicate();
+    int position = base + Math.max(offset, HEADER.length);
+    List<String> segments = new ArrayList<>();
+    while (buffer.limit() - position >= FRAME_PREFIX_LENGTH) {
+      int length = view.getInt(position);
+      if (length < 0) {
+        LOG.error(
+            "Skipping the rest of the binary event file from offset {}: negative frame length {}",
+            position - base,
+            length);
+        return buffer.remaining();
+      }
+      int payloadStart = position + FRAME_PREFIX_LENGTH;
+      if (length > buffer.limit() - payloadStart) {
+        // The frame is incomplete: either still being written or cut short by a writer that died.
+        break;
+      }
+      int next = payloadStart + length;
+      if (isValidPayload(view, payloadStart, next, segments)) {
+        walkPayload(view, payloadStart, next, segments, eventBuffer, processor);
+      } else {
+        LOG.error("Skipping corrupt binary event frame at offset {}.", position - base);
+      }
+      position = next;
+    }
+    return position - base;
+  }
+
+  /** Returns true if the payload between start and end matches its checksum and decodes. */
+  private boolean isValidPayload(ByteBuffer view, int start, int end, List<String> segments) {
+    if (view.getInt(start - 4) != checksum(view, start, end)) {
+      return false;
+    }
+    try {
+      walkPayload(view, start, end, segments, null, null);
+      return true;
+    } catch (BufferUnderflowException | CorruptFrameException e) {
+      // The checksum matched, so these bytes were written like this.
+      return false;
+    }
+  }
+
+  /**
+   * Walks the events of the payload between start and end. Without a processor it only checks
+   * that the whole payload decodes, so that a frame is handed out whole or not at all. With one,
+   * each event is handed to it as a view over eventBuffer.
+   */
+  private void walkPayload(
+      ByteBuffer view,
+      int start,
+      int end,
+      List<String> segments,
+      @Nullable ByteBuffer eventBuffer,
+      @Nullable EventDispatcher processor) {
+    int limit = view.limit();
+    ((Buffer) view).limit(end);
+    ((Buffer) view).position(start);
+    try {
+      segments.clear();
+      int definedSegments = 0;
+      int eventCount = readCount(view);
+      for (int i = 0; i < eventCount; i++) {
+        StringBuilder key = processor == null ? null : eventView.reset(eventBuffer);
+        int segmentCount = readCount(view);
+        for (int s = 0; s < segmentCount; s++) {
+          int id = readCount(view);
+          if (id == 0) {
+            int length = readLength(view);
+            if (processor == null) {
+              ((Buffer) view).position(view.position() + length);
+            } else {
+              segments.add(readString(view, length));
+            }
+            id = ++definedSegments;
+          } else if (id > definedSegments) {
+            throw new CorruptFrameException(
+                "key segment " + id + " referenced before it was defined");
+          }
+          if (key != null) {
+            if (s > 0) {
+              key.append(KEY_SEPARATOR);
+            }
+            key.append(segments.get(id - 1));
+          }
+        }
+        int valueLength = readLength(view);
+        int valueStart = view.position();
+        ((Buffer) view).position(valueStart + valueLength);
+        if (processor != null) {
+          eventView.setValue(valueStart, valueStart + valueLength);
+          processor.processEvent(eventView);
+        }
+      }
+      if (view.hasRemaining()) {
+        throw new CorruptFrameException((end - view.position()) + " bytes after the last event");
+      }
+    } finally {
+      ((Buffer) view).limit(limit);
+    }
+  }
+
+  /** Reads the length of the bytes that follow, which have to be within the buffer's limit. */
+  private static int readLength(ByteBuffer buffer) {
+    int length = readCount(buffer);
+    if (length > buffer.remaining()) {
+      throw new BufferUnderflowException();
+    }
+    return length;
+  }
+
+  private String readString(ByteBuffer buffer, int length) {
+    if (scratch.length < length) {
+      scratch = new byte[Math.max(length, scratch.length * 2)];
+    }
+    buffer.get(scratch, 0, length);
+    return new String(scratch, 0, length, charset);
+  }
+
+  private static void splitKey(String key, List<String> segments) {
+    int start = 0;
+    for (int i = 0; i < key.length(); i++) {
+      if (key.charAt(i) == KEY_SEPARATOR) {
+        segments.add(key.substring(start, i));
+        start = i + 1;
+      }
+    }
+    segments.add(key.substring(start));
+  }
+
+  private static void writeBytes(ByteArrayOutputStream out, byte[] bytes) {
+    writeVarint(out, bytes.length);
+    out.write(bytes, 0, bytes.length);
+  }
+
+  private static int checksum(byte[] bytes, int start, int end) {
+    CRC32 crc = new CRC32();
+    crc.update(bytes, start, end - start);
+    return (int) crc.getValue();
+  }
+
+  private int checksum(ByteBuffer buffer, int start, int end) {
+    int length = end - start;
+    if (buffer.hasArray()) {
+      return checksum(buffer.array(), buffer.arrayOffset() + start, buffer.arrayOffset() + end);
+    }
+    if (scratch.length < length) {
+      scratch = new byte[Math.max(length, scratch.length * 2)];
+    }
+    ByteBuffer bytes = buffer.duplicate();
+    ((Buffer) bytes).limit(end);
+    ((Buffer) bytes).position(start);
+    bytes.get(scratch, 0, length);
+    return checksum(scratch, 0, length);
+  }
+
+  static void writeVarint(ByteArrayOutputStream out, int value) {
+    while ((value & ~0x7F) != 0) {
+      out.write((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+
+  static int readVarint(ByteBuffer buffer) {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      byte b = buffer.get();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new CorruptFrameException("malformed varint");
+  }
+
+  /** Reads a varint that is a count or a length, which the writer never makes negative. */
+  private static int readCount(ByteBuffer buffer) {
+    int value = readVarint(buffer);
+    if (value < 0) {
+      throw new CorruptFrameException("negative count " + value);
+    }
+    return value;
+  }
+
+  /** Thrown for bytes that a writer could not have written, as opposed to bytes not written yet. */
+  static final class CorruptFrameException extends RuntimeException {
+    CorruptFrameException(String message) {
+      super(message);
+    }
+  }
+}
@@ -15,19 +15,104 @@
 
 package com.amazon.opendistro.elasticsearch.performanceanalyzer.reader_writer_shared;
 
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import javax.annotation.Nullable;
+
+/**
+ * A metric event, keyed by the path it was collected under.
+ *
+ * <p>The writer builds events from strings. The reader instead hands the processors one event per
+ * file that is a view over the bytes of the event being read: the key is kept in a reused builder
+ * and the value is only decoded when a processor asks for it. Such an event is only valid until
+ * the processor returns, so an event that is kept longer has to be {@link #detach() detached}.
+ */
 public class Event {
-  public String key;
-  public String value;
+  @Nullable private String key;
+  @Nullable private String value;
   public long epoch;
 
+  // Only set for a view; the key of the current event, filled in by the reader.
+  @Nullable private final StringBuilder keyChars;
+  @Nullable private final Charset charset;
+  @Nullable private ByteBuffer buffer;
+  private int valueStart;
+  private int valueEnd;
+  private byte[] scratch;
+
   public Event(String key, String value, long epoch) {
     this.key = key;
     this.value = value;
     this.epoch = epoch;
+    this.keyChars = null;
+    this.charset = null;
+  }
+
+  /** Creates an event the reader reuses as a view over the events of a file. */
+  Event(Charset charset) {
+    this.keyChars = new StringBuilder();
+    this.charset = charset;
+    this.scratch = new byte[1024];
+  }
+
+  /**
+   * Points the view at the next event. The previous key and value are dropped, and the returned
+   * builder is where the reader appends the new key before it calls {@link #setValue}.
+   *
+   * @param buffer the file, whose position the view is free to move
+   * @return the builder of the key
+   */
+  StringBuilder reset(ByteBuffer buffer) {
+    this.key = null;
+    this.value = null;
+    this.buffer = buffer;
+    keyChars.setLength(0);
+    return keyChars;
+  }
+
+  /** Sets the bounds of the value of the current event, as indexes into the buffer. */
+  void setValue(int valueStart, int valueEnd) {
+    this.valueStart = valueStart;
+    this.valueEnd = valueEnd;
+  }
+
+  public String key() {
+    if (key == null) {
+      key = keyChars.toString();
+    }
+    return key;
+  }
+
+  public String value() {
+    if (value == null) {
+      int length = valueEnd - valueStart;
+      if (scratch.length < length) {
+        scratch = new byte[Math.max(length, scratch.length * 2)];
+      }
+      ((Buffer) buffer).position(valueStart);
+      buffer.get(scratch, 0, length);
+      value = new String(scratch, 0, length, charset);
+    }
+    return value;
+  }
+
+  /** Returns true if the key contains the given string, without building the key string. */
+  public boolean keyContains(String part) {
+    return key != null ? key.contains(part) : keyChars.indexOf(part) >= 0;
+  }
+
+  public boolean isValueEmpty() {
+    return value != null ? value.isEmpty() : valueEnd == valueStart;
+  }
+
+  /** Returns an event with the same key and value that stays valid after the reader moves on. */
+  public Event detach() {
+    return keyChars == null ? this : new Event(key(), value(), epoch);
   }
 
   @Override
   public String toString() {
-    return String.format("%s:%d::%s", key, epoch, value);
+    return String.format("%s:%d::%s", key(), epoch, value());
   }
 }
@@ -17,9 +17,11 @@ package com.amazon.opendistro.elasticsearch.performanceanalyzer.reader_writer_sh
 
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.config.PluginSettings;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.reader.EventDispatcher;
-import java.io.File;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.nio.file.Paths;
+import java.util.List;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -37,9 +39,23 @@ public class EventLog {
 
   private static final char[] separator = System.lineSeparator().toCharArray();
 
-  private Ret ret;
+  // write() uses String.getBytes(), so reads decode with the same platform charset.
+  private static final Charset CHARSET = Charset.defaultCharset();
+
+  // Reused across events, for the rare key that is not ASCII.
+  private byte[] scratch = new byte[1024];
+  // Handed to the processors for every event read, see Event#reset.
+  private final Event eventView = new Event(CHARSET);
+
+  private final EventLogFormat writeFormat;
+  private final BinaryEventCodec binaryCodec = new BinaryEventCodec(CHARSET, eventView);
 
   public EventLog() {
+    this(PluginSettings.instance().getEventLogFormat());
+  }
+
+  public EventLog(EventLogFormat writeFormat) {
+    this.writeFormat = writeFormat;
     if (separator.length > 1) {
       throw new IllegalStateException("separator cannot be multi-byte");
     }
@@ -56,132 +72,180 @@ public class EventLog {
     metricLocPathLength += 2;
   }
 
+  /** Returns the format new event files are written in. */
+  public EventLogFormat getWriteFormat() {
+    return writeFormat;
+  }
+
   public byte[] write(Event metric) {
     StringBuilder sb = new StringBuilder();
     sb.append(startMarker)
-        .append(metric.key.substring(metricLocPathLength))
+        .append(metric.key().substring(metricLocPathLength))
         .append(separator)
-        .append(metric.value.toCharArray())
+        .append(metric.value().toCharArray())
         .append(endMarker)
         .append(separator);
-    return sb.toString().getBytes();
+    return sb.toString().getBytes(CHARSET);
+  }
+
+  /**
+   * Serializes the events as one frame of the binary format. A binary file starts with {@link
+   * #binaryHeader()} followed by any number of frames.
+   *
+   * @param metrics The events to serialize.
+   * @return The encoded frame.
+   */
+  public byte[] writeBinary(List<Event> metrics) {
+    return binaryCodec.encodeFrame(metrics, metricLocPathLength);
+  }
+
+  /**
+   * Returns the record the writer appends to a text file after each batch of events. It is a start
+   * marker with an empty key, which readers that do not look for it skip like any other bytes
+   * outside an event. Binary files need none, as each batch is one checksummed frame.
+   */
+  public static byte[] commitMarker() {
+    return (String.valueOf(startMarker) + String.valueOf(separator)).getBytes(CHARSET);
+  }
+
+  public static byte[] binaryHeader() {
+    return BinaryEventCodec.HEADER.clone();
+  }
+
+  /**
+   * Returns the format of a file from its leading bytes.
+   *
+   * @param byteBuffer The start of the file, from its position.
+   * @return The format the file is written in.
+   */
+  public static EventLogFormat detectFormat(ByteBuffer byteBuffer) {
+    return BinaryEventCodec.hasHeader(byteBuffer) ? EventLogFormat.BINARY : EventLogFormat.TEXT;
   }
 
   /**
    * This functions interprets the bytes and creates Event objects from it.
    *
-   * <p>A non-corrupted byte stream should start with the startMarker. It may not end with the
-   * endmarker based on how much of the actual bytes on the disk we are reading. This iterates
-   * through the bytes and tries to interpret them into Event members. A complete Event object can
-   * be something like this:
+   * <p>A non-corrupted byte stream should start with the startMarker. This scans the buffer for
+   * the markers and interprets the bytes between them into Event members. A complete Event object
+   * can be something like this:
    *
-   * <p>$heap_metrics {"current_time":1566110054768}
+   * <p>^heap_metrics {"current_time":1566110054768}
    * {"MemType":"totYoungGC","GC_Collection_Event":1, \ "GC_Collection_Time":6,
    * "Heap_Committed":-2,"Heap_Init":-2, \ "Heap_Max":-2,"Heap_Used":-2}
-   * {"MemType":"totFullGC","GC_Collection_Event":0,"GC_Collection_Time":0, \
-   * "Heap_Committed":-2,"Heap_Init":-2,"Heap_Max":-2,"Heap_Used":-2}
-   * {"MemType":"PermGen","GC_Collection_Event":-2,"GC_Collection_Time":-2, \
-   * "Heap_Committed":15335424,"Heap_Init":0,"Heap_Max":-1,"Heap_Used":14763104}
-   * {"MemType":"Survivor","GC_Collection_Event":-2, \ "GC_Collection_Time":-2,
-   * "Heap_Committed":11010048, \ "Heap_Init":11010048, "Heap_Max":11010048,"Heap_Used":6224432}
-   * {"MemType":"OldGen","GC_Collection_Event":-2,"GC_Collection_Time":-2, \
-   * "Heap_Committed":179306496,"Heap_Init":179306496, \ "Heap_Max":2863661056, "Heap_Used":16384}
-   * {"MemType":"Eden","GC_Collection_Event":-2,"GC_Collection_Time":-2, \
-   * "Heap_Committed":67108864,"Heap_Init":67108864,"Heap_Max":1409286144, \ "Heap_Used":30305704}
-   * {"MemType":"NonHeap","GC_Collection_Event":-2,"GC_Collection_Time":-2, \
-   * "Heap_Committed":21037056,"Heap_Init":2555904,"Heap_Max":-1, \ "Heap_Used":20207152}
    * {"MemType":"Heap","GC_Collection_Event":-2,"GC_Collection_Time":-2, \
    * "Heap_Committed":257425408,"Heap_Init":268435456, \ "Heap_Max":3817865216,
-   * "Heap_Used":36546520} # $heap_metrics {"current_time":1566110055024} {"MemType":"totYoun
+   * "Heap_Used":36546520}$ ^heap_metrics {"current_time":1566110055024} {"MemType":"totYoun
    *
    * <p>A Event object has three members: key, value and epoch. The serializer does not store the
-   * epoch explicitly and its part of the data. In the above example: The bytes after '$' in the
-   * line, is the key and all the other bytes leading up to '#', but not including it, is the value.
-   * Sometimes the last few bytes in themselves cannot make a complete event object, so the return
-   * also includes the count of unused bytes. The sender is supposed to send them again, in the next
-   * iteration.
+   * epoch explicitly and its part of the data. In the above example: The bytes after '^' up to the
+   * first line separator are the key and all the other bytes leading up to '$', but not including
+   * it, are the value.
    *
-   * <p>One corner case is, when the entirety of the bytes cannot create one Event object. This can
-   * happen when the value is too large to fit in the buffer. In this case, the de-serialize sends
-   * an empty list, The sender then has to read in more bytes and send it again. Sender essentially
-   * has to increase the buffer size.
+   * <p>The buffer is expected to hold the whole file, usually memory mapped, so events of any size
+   * are handled. The processors get a view over the event in the buffer rather than a copy, see
+   * {@link Event}; its value is only decoded if a processor asks for it.
+   * Trailing bytes that do not end with an endMarker are ignored. Files that start with the binary
+   * header are handed to {@link BinaryEventCodec} instead.
    *
-   * @param byteBuffer The raw bytes in the file.
+   * @param byteBuffer The raw bytes in the file, from its position to its limit.
+   * @param processor The dispatcher the events are handed to.
    */
   void read(final ByteBuffer byteBuffer, EventDispatcher processor) {
-    if (ret == null) {
-      ret = new Ret(new char[byteBuffer.limit()]);
+    int committed = read(byteBuffer, 0, processor);
+    if (committed < byteBuffer.remaining() && detectFormat(byteBuffer) == EventLogFormat.BINARY) {
+      // A writer that died mid-frame leaves a truncated tail; the complete frames are kept.
+      LOG.error("Ignoring truncated or corrupt binary event file tail at offset {}.", committed);
     }
+    ((Buffer) byteBuffer).position(byteBuffer.limit());
+  }
 
-    while (byteBuffer.hasRemaining()) {
-      char b = (char) byteBuffer.get();
-      ret = processByte(b, ret, processor);
-    }
+  /**
+   * Reads the events that were completely written after the given offset. This is used to tail a
+   * file that the writer is still appending to: the offset returned is the end of the last event
+   * in text files, or of the last frame in binary files, and is where the next call should resume.
+   * Events of a partially written binary frame are not handed out until the whole frame is there.
+   *
+   * @param byteBuffer The file from its start, at the buffer's position. The position is unchanged.
+   * @param offset Where to start reading, relative to the start of the file.
+   * @param processor The dispatcher the events are handed to.
+   * @return The offset, relative to the start of the file, up to which events were read.
+   */
+  int read(final ByteBuffer byteBuffer, int offset, EventDispatcher processor) {
+    return read(byteBuffer, offset, processor, false);
   }
 
-  static class Ret {
-    String key;
-    String value;
-    int byteIdx;
-    char[] bytes;
-
-    Ret(char[] bytes) {
-      this.key = "";
-      this.value = "";
-      this.byteIdx = 0;
-      this.bytes = bytes;
+  /**
+   * Same as {@link #read(ByteBuffer, int, EventDispatcher)}, but with committedOnly set the events
+   * of a text file are only read up to the last {@link #commitMarker()}, so a batch the writer is
+   * still appending is handed out as a whole on a later call.
+   */
+  int read(
+      final ByteBuffer byteBuffer, int offset, EventDispatcher processor, boolean committedOnly) {
+    if (detectFormat(byteBuffer) == EventLogFormat.BINARY) {
+      return binaryCodec.decode(byteBuffer, offset, processor);
+    }
+    // Bulk reads move the position, so they go through a view of the caller's buffer.
+    ByteBuffer view = byteBuffer.duplicate();
+    int base = byteBuffer.position();
+    int limit = committedOnly ? lastCommitEnd(byteBuffer, base + offset) : byteBuffer.limit();
+    if (limit < 0) {
+      return offset;
     }
+    int tokenStart = base + offset;
+    int committed = tokenStart;
+    // The bounds of the key of the current event, empty until its separator is found.
+    int keyStart = tokenStart;
+    int keyEnd = tokenStart;
+    for (int pos = tokenStart; pos < limit; pos++) {
+      byte b = byteBuffer.get(pos);
+      if (b == separator[0] && keyEnd == keyStart) {
+        keyStart = tokenStart;
+        keyEnd = pos;
+        tokenStart = pos + 1;
+      } else if (b == endMarker) {
+        appendDecoded(eventView.reset(view), view, keyStart, keyEnd);
+        eventView.setValue(tokenStart, pos);
+        processor.processEvent(eventView);
+        tokenStart = pos + 1;
+        committed = tokenStart;
+      } else if (b == startMarker) {
+        keyStart = keyEnd = pos + 1;
+        tokenStart = pos + 1;
+      }
+    }
+    return (committedOnly ? limit : committed) - base;
   }
 
-  private static Ret processByte(char b, Ret arg, EventDispatcher processor) {
-    if (b == separator[0] && arg.key.isEmpty()) {
-      arg.key = new String(arg.bytes, 0, arg.byteIdx);
-      // reset bytes
-      arg.byteIdx = 0;
-    } else if (b == endMarker) {
-      // LOG.info("EndMarker found");
-      arg.value = new String(arg.bytes, 0, arg.byteIdx);
-
-      // Iterate through the key to figure out the index of the first file separator.
-      int indexOfFirstPathSep = arg.key.indexOf(File.separatorChar);
-      // TODO: Use to find the right parser
-      String mapKey;
-      if (indexOfFirstPathSep == -1) {
-        mapKey = arg.key;
-      } else {
-        mapKey = arg.key.substring(0, indexOfFirstPathSep);
+  /** Returns the index right after the last commit marker from start on, or -1 if there is none. */
+  private static int lastCommitEnd(ByteBuffer byteBuffer, int start) {
+    int end = -1;
+    for (int pos = start; pos < byteBuffer.limit() - 1; pos++) {
+      if (byteBuffer.get(pos) == startMarker && byteBuffer.get(pos + 1) == separator[0]) {
+        end = pos + 2;
       }
+    }
+    return end;
+  }
 
-      // The keys as in the files can be of the format a/b/c. The full
-      // string goes inside the key of the Event but as part of the
-      // map's key we only take the string up to the first file Separator.
-      // So in this case, the key in the map will be just 'a'.
-      Event event = new Event(arg.key, arg.value, 0);
-      processor.processEvent(event);
-    } else if (b == startMarker) {
-      arg.key = "";
-      // reset
-      arg.byteIdx = 0;
-    } else {
-      arg.bytes[arg.byteIdx] = b;
-      arg.byteIdx += 1;
-
-      // If you run out of space, then grow the array and copy the data over.
-      if (arg.byteIdx == arg.bytes.length) {
-        // grow the bytebuffer
-        char[] newBytes = new char[arg.bytes.length * 2];
-        int i = 0;
-        for (char c : arg.bytes) {
-          newBytes[i] = c;
-          i += 1;
+  /**
+   * Appends the bytes in [start, end) decoded the same way {@link #write(Event)} encoded them. Keys
+   * are paths, so the bytes are copied as is while they are ASCII and only decoded otherwise.
+   */
+  private void appendDecoded(StringBuilder out, ByteBuffer view, int start, int end) {
+    for (int pos = start; pos < end; pos++) {
+      if (view.get(pos) < 0) {
+        int length = end - start;
+        if (scratch.length < length) {
+          scratch = new byte[Math.max(length, scratch.length * 2)];
         }
-        arg.bytes = newBytes;
+        ((Buffer) view).position(start);
+        view.get(scratch, 0, length);
+        out.append(new String(scratch, 0, length, CHARSET));
+        return;
       }
     }
-    return arg;
-  }
-
-  public void clear() {
-    ret = null;
+    for (int pos = start; pos < end; pos++) {
+      out.append((char) view.get(pos));
+    }
   }
 }
@@ -25,12 +25,20 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
-import java.nio.channels.SeekableByteChannel;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import javax.annotation.Nullable;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -41,11 +49,36 @@ public class EventLogFileHandler {
   private final String metricsLocation;
   private static final int BUFFER_SIZE = 8192;
   private static final String TMP_FILE_EXT = ".tmp";
+  // Kept next to the event files, and rewritten whenever tailing moves on, so the purge activity
+  // does not age it out.
+  static final String TAIL_STATE_FILE = "reader_tail_state";
+  private static final String ENDED_TAIL = "ended";
   private long lastProcessed;
+  // The last epoch whose tailing was ended, 0 if none.
+  private long lastEndedTail;
+  // Where tailing stopped in each tailed epoch file.
+  private final Map<Long, TailPosition> tailPositions = new HashMap<>();
+
+  /** The bytes of an epoch file that were already handed to the dispatcher. */
+  private static class TailPosition {
+    // Identifies the file across the rename, null where the file system has no such key.
+    @Nullable private final String fileKey;
+    private final int offset;
+
+    TailPosition(@Nullable String fileKey, int offset) {
+      this.fileKey = fileKey;
+      this.offset = offset;
+    }
+
+    boolean sameAs(@Nullable TailPosition other) {
+      return other != null && offset == other.offset && Objects.equals(fileKey, other.fileKey);
+    }
+  }
 
   public EventLogFileHandler(EventLog eventLog, String metricsLocation) {
     this.eventLog = eventLog;
     this.metricsLocation = metricsLocation;
+    loadTailState();
   }
 
   public void writeTmpFile(List<Event> dataEntries, long epoch) {
@@ -78,22 +111,50 @@ public class EventLogFileHandler {
     Path tmpPath = Paths.get(path.toString() + TMP_FILE_EXT);
 
     Event currEntry = null;
-    try (OutputStream out =
-        Files.newOutputStream(tmpPath, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
-      for (Event event : dataEntries) {
-        currEntry = event;
-        byte[] data = eventLog.write(event);
-        writeInternal(out, data);
+    try {
+      // Appends keep the format the file was started in, whatever the current setting.
+      EventLogFormat format = eventLog.getWriteFormat();
+      boolean newFile = !Files.exists(tmpPath) || Files.size(tmpPath) == 0;
+      if (!newFile) {
+        format = detectFormat(tmpPath);
+      }
+      try (OutputStream out =
+          Files.newOutputStream(tmpPath, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+        if (format == EventLogFormat.BINARY) {
+          if (newFile) {
+            writeInternal(out, EventLog.binaryHeader());
+          }
+          writeInternal(out, eventLog.writeBinary(dataEntries));
+          return;
+        }
+        for (Event event : dataEntries) {
+          currEntry = event;
+          byte[] data = eventLog.write(event);
+          writeInternal(out, data);
+        }
+        // A tailing reader only hands out the events of a batch once the whole batch is written.
+        writeInternal(out, EventLog.commitMarker());
       }
     } catch (IOException e) {
       e.printStackTrace();
       LOG.error(
           "Error writing entry '{}'. Cause: {}",
-          currEntry == null ? "NOT_INITIALIZED" : currEntry.key,
+          currEntry == null ? "NOT_INITIALIZED" : currEntry.key(),
           e.getMessage());
     }
   }
 
+  private static EventLogFormat detectFormat(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      ByteBuffer start = ByteBuffer.allocate(EventLog.binaryHeader().length);
+      while (start.hasRemaining() && channel.read(start) > 0) {
+        // Keep reading until the header length is reached or the file ends.
+      }
+      ((Buffer) start).flip();
+      return EventLog.detectFormat(start);
+    }
+  }
+
   public void renameFromTmp(long epoch) {
     Util.invokePrivileged(() -> renameFromTmpWithPrivilege(epoch));
   }
@@ -123,10 +184,191 @@ public class EventLogFileHandler {
       LOG.info("Didnt find {} at {}", filename, mCurrT);
       return;
     }
-    readInternal(pathToFile, BUFFER_SIZE, processor);
+    readInternal(pathToFile, processor);
     lastProcessed = timestamp;
-    // LOG.info("PARSED - {} {}", filename, ret);
-    eventLog.clear();
+  }
+
+  /**
+   * Hands the events of an epoch that were written since the last call to the processor. The
+   * writer appends to the .tmp file and then renames it, which keeps its bytes, so the offset read
+   * so far stays valid whichever of the two files is found. Only batches the writer has committed
+   * are read from the .tmp file; the rest are picked up by a later call.
+   *
+   * <p>If the writer has more events for the epoch after the rename, it starts a new .tmp file
+   * that holds only those. That file is told apart from the renamed one by its file key. What was
+   * left unread in the renamed file is read first, and then the new file from its start.
+   *
+   * <p>The positions are saved to a file in the metrics location, so a handler created after a
+   * restart knows which epochs were already tailed.
+   *
+   * @param epoch The epoch whose file is tailed.
+   * @param processor The dispatcher the new events are handed to.
+   */
+  public void tail(long epoch, EventDispatcher processor) {
+    Path path = Paths.get(metricsLocation, String.valueOf(epoch));
+    Path tmpPath = Paths.get(path.toString() + TMP_FILE_EXT);
+    TailPosition position = tailPositions.get(epoch);
+    try {
+      boolean fromTmp = Files.exists(tmpPath);
+      Path pathToFile = fromTmp ? tmpPath : path;
+      String fileKey = fileKey(pathToFile);
+      int offset = 0;
+      if (position != null) {
+        if (fileKey == null || position.fileKey == null || fileKey.equals(position.fileKey)) {
+          offset = position.offset;
+        } else if (fromTmp && position.fileKey.equals(fileKey(path))) {
+          LOG.debug(
+              "{} was renamed to {} after {} bytes were read. Reading the rest of it first.",
+              tmpPath,
+              path,
+              position.offset);
+          tailFile(path, position.offset, false, processor);
+        } else {
+          LOG.debug(
+              "{} was created again after {} bytes were read. Reading it from the start.",
+              pathToFile,
+              position.offset);
+        }
+      }
+      int read = tailFile(pathToFile, offset, fromTmp, processor);
+      TailPosition newPosition = new TailPosition(fileKey, read);
+      tailPositions.put(epoch, newPosition);
+      if (!newPosition.sameAs(position)) {
+        saveTailState();
+      }
+    } catch (NoSuchFileException ex) {
+      // Not written yet, or renamed between the check and the open; the next call finds it.
+    } catch (IOException ex) {
+      LOG.error("Error tailing the event file of epoch {}. Cause: {}", epoch, ex.getMessage());
+    }
+  }
+
+  /**
+   * Reads the events of the file from the offset on.
+   *
+   * @return The offset to read from next time; the given offset if the file could not be read.
+   */
+  private int tailFile(Path pathToFile, int offset, boolean committedOnly, EventDispatcher processor)
+      throws IOException {
+    try (FileChannel channel = FileChannel.open(pathToFile, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        LOG.error("Skipping {} as its size {} is too large to map.", pathToFile, size);
+        return offset;
+      }
+      if (size < offset) {
+        LOG.error("{} shrank to {} bytes after {} were read. Skipping it.", pathToFile, size, offset);
+        return offset;
+      }
+      if (size == offset) {
+        return offset;
+      }
+      MappedByteBuffer byteBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      return eventLog.read(byteBuffer, offset, processor, committedOnly);
+    }
+  }
+
+  @Nullable
+  private static String fileKey(Path path) throws IOException {
+    try {
+      Object fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+      return fileKey == null ? null : fileKey.toString();
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Starts tailing an epoch from the start of its file. A position restored from before a restart
+   * is dropped, as the events read up to it only lived in the dispatcher of that run.
+   *
+   * @param epoch The epoch to tail.
+   */
+  public void startTail(long epoch) {
+    TailPosition position = tailPositions.remove(epoch);
+    if (position != null) {
+      LOG.info(
+          "Reading the event file of epoch {} again from the start instead of offset {}.",
+          epoch,
+          position.offset);
+      saveTailState();
+    }
+  }
+
+  /**
+   * Stops tailing an epoch. Its offset is dropped and the epoch is not read again by {@link
+   * #read(long, EventDispatcher)}.
+   *
+   * @param epoch The epoch that was tailed.
+   */
+  public void endTail(long epoch) {
+    tailPositions.remove(epoch);
+    lastProcessed = Math.max(lastProcessed, epoch);
+    lastEndedTail = Math.max(lastEndedTail, epoch);
+    saveTailState();
+  }
+
+  /** Returns the last epoch whose tailing was ended, in this run or a previous one, or 0. */
+  public long getLastEndedTail() {
+    return lastEndedTail;
+  }
+
+  /**
+   * Saves the tail positions and the last ended epoch. The state is written to a temporary file
+   * that is then renamed over the previous state, so a reader never finds half of it.
+   */
+  private void saveTailState() {
+    StringBuilder state = new StringBuilder();
+    state.append(ENDED_TAIL).append(' ').append(lastEndedTail).append('\n');
+    for (Map.Entry<Long, TailPosition> entry : tailPositions.entrySet()) {
+      TailPosition position = entry.getValue();
+      state.append(entry.getKey()).append(' ').append(position.offset);
+      if (position.fileKey != null) {
+        state.append(' ').append(position.fileKey);
+      }
+      state.append('\n');
+    }
+    Path stateFile = Paths.get(metricsLocation, TAIL_STATE_FILE);
+    Path tmpStateFile = Paths.get(stateFile.toString() + TMP_FILE_EXT);
+    try {
+      Files.write(tmpStateFile, state.toString().getBytes(StandardCharsets.UTF_8));
+      Files.move(tmpStateFile, stateFile, REPLACE_EXISTING, ATOMIC_MOVE);
+    } catch (IOException e) {
+      LOG.error("Error saving the tail state to {}. Cause: {}", stateFile, e.getMessage());
+    }
+  }
+
+  private void loadTailState() {
+    Path stateFile = Paths.get(metricsLocation, TAIL_STATE_FILE);
+    if (!Files.exists(stateFile)) {
+      return;
+    }
+    try {
+      for (String line : Files.readAllLines(stateFile, StandardCharsets.UTF_8)) {
+        String[] fields = line.split(" ", 3);
+        if (fields.length < 2) {
+          continue;
+        }
+        if (ENDED_TAIL.equals(fields[0])) {
+          lastEndedTail = Long.parseLong(fields[1]);
+        } else {
+          tailPositions.put(
+              Long.parseLong(fields[0]),
+              new TailPosition(fields.length > 2 ? fields[2] : null, Integer.parseInt(fields[1])));
+        }
+      }
+      lastProcessed = lastEndedTail;
+    } catch (IOException | NumberFormatException e) {
+      LOG.error("Ignoring unreadable tail state in {}. Cause: {}", stateFile, e.getMessage());
+      tailPositions.clear();
+      lastEndedTail = 0;
+    }
+  }
+
+  /** Returns true if the writer has started writing the file for the epoch. */
+  public boolean exists(long epoch) {
+    Path path = Paths.get(metricsLocation, String.valueOf(epoch));
+    return Files.exists(path) || Files.exists(Paths.get(path.toString() + TMP_FILE_EXT));
   }
 
   private void writeInternal(OutputStream stream, byte[] data) throws IOException {
@@ -139,19 +381,24 @@ public class EventLogFileHandler {
     }
   }
 
-  private void readInternal(Path pathToFile, int bufferSize, EventDispatcher processor) {
-    try (SeekableByteChannel channel = Files.newByteChannel(pathToFile, StandardOpenOption.READ)) {
-      ByteBuffer byteBuffer = ByteBuffer.allocate(bufferSize);
-
-      while (channel.read(byteBuffer) > 0) {
-        ((Buffer) byteBuffer).flip();
-        // LOG.info(" MAP {}", byteBuffer);
-        eventLog.read(byteBuffer, processor);
-        ((Buffer) byteBuffer).clear();
-        // TODO: Handle edge case where buffer is too small.
+  /**
+   * Maps the whole file and parses it in one pass, so an event is never split across reads and
+   * nothing is copied through an intermediate heap buffer.
+   */
+  private void readInternal(Path pathToFile, EventDispatcher processor) {
+    try (FileChannel channel = FileChannel.open(pathToFile, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size == 0) {
+        return;
+      }
+      if (size > Integer.MAX_VALUE) {
+        LOG.error("Skipping {} as its size {} is too large to map.", pathToFile, size);
+        return;
       }
+      MappedByteBuffer byteBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      eventLog.read(byteBuffer, processor);
     } catch (IOException ex) {
-      ex.printStackTrace();
+      LOG.error("Error reading {}. Cause: {}", pathToFile, ex.getMessage());
     }
   }
 }
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.reader_writer_shared;
+
+/**
+ * Encodings of the writer event files. The format used for new files is picked through the {@code
+ * event-log-format} setting; the reader detects the format of each file from its first bytes, so
+ * both formats stay readable.
+ */
+public enum EventLogFormat {
+  /** '^' key newline value '$' records, see {@link EventLog#write(Event)}. This is the default. */
+  TEXT("text"),
+
+  /** Header plus length-prefixed frames, see {@link BinaryEventCodec}. */
+  BINARY("binary");
+
+  private final String value;
+
+  EventLogFormat(String value) {
+    this.value = value;
+  }
+
+  /**
+   * Returns the format with the given setting value.
+   *
+   * @param value the setting value, case insensitive
+   * @return the matching format
+   * @throws IllegalArgumentException if no format matches the value
+   */
+  public static EventLogFormat fromString(String value) {
+    for (EventLogFormat format : values()) {
+      if (format.value.equalsIgnoreCase(value.trim())) {
+        return format;
+      }
+    }
+    throw new IllegalArgumentException("Unknown event log format: " + value);
+  }
+
+  @Override
+  public String toString() {
+    return value;
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.rest;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.PerformanceAnalyzerApp;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.config.PluginSettings;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.metrics.ReaderMetrics;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Runs the wrapped handler on the bounded worker pool of its endpoint class instead of the thread
+ * the HttpServer dispatched the exchange on. A slow batch or rca query can then only hold up
+ * requests of its own class, and a request that finds the pool and its queue full is answered
+ * right away with a 429 instead of piling up threads.
+ */
+public class BoundedRequestHandler implements HttpHandler {
+  private static final Logger LOG = LogManager.getLogger(BoundedRequestHandler.class);
+
+  static final int HTTP_TOO_MANY_REQUESTS = 429;
+  static final String RETRY_AFTER_SECONDS = "1";
+  static final long[] LATENCY_BUCKETS_MILLIS = {10, 50, 100, 500, 1000, 5000};
+
+  /** The classes of endpoints that get a worker pool of their own. */
+  public enum EndpointClass {
+    /** Queries of the latest metrics snapshot, possibly fanned out to all the nodes. */
+    METRICS("metrics", 4, 32),
+
+    /** Batch metrics queries that can scan many metricsdb files. */
+    BATCH("batch", 2, 4),
+
+    /** Queries of the RCA and action persistence. */
+    RCA("rca", 2, 16);
+
+    private final String name;
+    private final int threads;
+    private final int queueLength;
+    private ThreadPoolExecutor executor;
+
+    EndpointClass(String name, int threads, int queueLength) {
+      this.name = name;
+      this.threads = threads;
+      this.queueLength = queueLength;
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+
+    synchronized ThreadPoolExecutor getExecutor() {
+      if (executor == null) {
+        executor =
+            new ThreadPoolExecutor(
+                threads,
+                threads,
+                60,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueLength),
+                new ThreadFactoryBuilder()
+                    .setNameFormat("pa-web-" + name + "-%d")
+                    .setDaemon(true)
+                    .build());
+        executor.allowCoreThreadTimeOut(true);
+      }
+      return executor;
+    }
+  }
+
+  private final HttpHandler delegate;
+  private final EndpointClass endpointClass;
+  private final ThreadPoolExecutor executor;
+
+  public BoundedRequestHandler(HttpHandler delegate, EndpointClass endpointClass) {
+    this(delegate, endpointClass, endpointClass.getExecutor());
+  }
+
+  @VisibleForTesting
+  BoundedRequestHandler(
+      HttpHandler delegate, EndpointClass endpointClass, ThreadPoolExecutor executor) {
+    this.delegate = delegate;
+    this.endpointClass = endpointClass;
+    this.executor = executor;
+  }
+
+  /**
+   * Wraps the handler in a {@link BoundedRequestHandler} if the bounded pools are enabled in the
+   * plugin settings, or returns it as is otherwise.
+   */
+  public static HttpHandler wrap(HttpHandler handler, EndpointClass endpointClass) {
+    if (PluginSettings.instance().isWebServiceBoundedPoolsEnabled()) {
+      return new BoundedRequestHandler(handler, endpointClass);
+    }
+    return handler;
+  }
+
+  @Override
+  public void handle(HttpExchange exchange) throws IOException {
+    long enqueuedAt = System.currentTimeMillis();
+    try {
+      executor.execute(() -> serve(exchange, enqueuedAt));
+    } catch (RejectedExecutionException e) {
+      PerformanceAnalyzerApp.READER_METRICS_AGGREGATOR.updateStat(
+          ReaderMetrics.WEB_REQUEST_REJECTED, endpointClass.toString(), 1);
+      reject(exchange);
+    }
+  }
+
+  private void serve(HttpExchange exchange, long enqueuedAt) {
+    long startTime = System.currentTimeMillis();
+    PerformanceAnalyzerApp.READER_METRICS_AGGREGATOR.updateStat(
+        ReaderMetrics.WEB_REQUEST_QUEUE_TIME, endpointClass.toString(), startTime - enqueuedAt);
+    try {
+      delegate.handle(exchange);
+    } catch (Exception e) {
+      LOG.error("Unable to serve {} request for {}", endpointClass, exchange.getRequestURI(), e);
+      exchange.close();
+    } finally {
+      long latency = System.currentTimeMillis() - startTime;
+      PerformanceAnalyzerApp.READER_METRICS_AGGREGATOR.updateStat(
+          ReaderMetrics.WEB_REQUEST_LATENCY, endpointClass.toString(), latency);
+      PerformanceAnalyzerApp.READER_METRICS_AGGREGATOR.updateStat(
+          ReaderMetrics.WEB_REQUEST_LATENCY_HISTOGRAM, latencyBucket(endpointClass, latency), 1);
+    }
+  }
+
+  private void reject(HttpExchange exchange) throws IOException {
+    byte[] response =
+        ("{\"error\":\"Too many " + endpointClass + " requests in flight. Try again later.\"}")
+            .getBytes(StandardCharsets.UTF_8);
+    try (OutputStream os = exchange.getResponseBody()) {
+      exchange.getResponseHeaders().set("Content-Type", "application/json");
+      exchange.getResponseHeaders().set("Retry-After", RETRY_AFTER_SECONDS);
+      exchange.sendResponseHeaders(HTTP_TOO_MANY_REQUESTS, response.length);
+      os.write(response);
+    }
+  }
+
+  @VisibleForTesting
+  static String latencyBucket(EndpointClass endpointClass, long latencyMillis) {
+    for (long bound : LATENCY_BUCKETS_MILLIS) {
+      if (latencyMillis <= bound) {
+        return endpointClass + "_le_" + bound + "ms";
+      }
+    }
+    long lastBound = LATENCY_BUCKETS_MILLIS[LATENCY_BUCKETS_MILLIS.length - 1];
+    return endpointClass + "_gt_" + lastBound + "ms";
+  }
+}
@@ -20,7 +20,10 @@ import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatEx
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatsCollector;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.config.PluginSettings;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.MetricsRestUtil;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.MetricsResultConverter;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.MetricsDB;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.MetricsDBPool;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.MetricsRollupStore;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.model.MetricsModel;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.net.NetClient;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.metrics.ExceptionsAndErrors;
@@ -31,6 +34,8 @@ import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.net.HttpURLConnection;
 import java.security.InvalidParameterException;
 import java.util.Arrays;
@@ -42,8 +47,8 @@ import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.jooq.Cursor;
 import org.jooq.Record;
-import org.jooq.Result;
 import org.jooq.exception.DataAccessException;
 
 /**
@@ -55,6 +60,11 @@ import org.jooq.exception.DataAccessException;
  * <p>Return 1 minute of CPU_Utilization and Latency metrics sampled at a 10s sampling period:
  * "http://localhost:9600/_opendistro/_performanceanalyzer/batch?metrics=CPU_Utilization,Latency&starttime=1566413975000&endtime=1566413980000&samplingperiod=10"
  *
+ * <p>When the batch metrics rollups are enabled, sampling periods that are a multiple of 1 or 5 minutes
+ * are served from the rollup buckets of that size, keyed by the start of the bucket, where they exist,
+ * or else from the 1 minute buckets. Only the latest batch-metrics-raw-retention-period-minutes of
+ * metricsdb files are kept then, so other sampling periods can only ask for that many minutes back.
+ *
  * <p>Return format:
  * {
  *   "1594412650000": {
@@ -89,6 +99,13 @@ public class QueryBatchRequestHandler extends MetricsHandler implements HttpHand
   public static final int DEFAULT_MAX_DATAPOINTS = 100800;  // Must be non-negative
   public static final long DEFAULT_SAMPLING_PERIOD_MILLIS = 5000;  // Must be a multiple of 5000
 
+  /**
+   * Responses up to this many characters are sent with their length, so that an error found while
+   * querying can still replace them. Longer ones are streamed as they are serialized, and end with an
+   * "error" field in place of the samples that would exceed the datapoints limit.
+   */
+  static final int RESPONSE_BUFFER_SIZE = 64 * 1024;
+
   public QueryBatchRequestHandler(NetClient netClient, MetricsRestUtil metricsRestUtil) {
     this.netClient = netClient;
     this.metricsRestUtil = metricsRestUtil;
@@ -135,6 +152,7 @@ public class QueryBatchRequestHandler extends MetricsHandler implements HttpHand
     exchange.getResponseHeaders().set("Content-Type", "application/json");
 
     Map<String, String> params = getParamsMap(exchange.getRequestURI().getQuery());
+    StreamingResponseWriter responseWriter = new StreamingResponseWriter(exchange, RESPONSE_BUFFER_SIZE);
 
     try {
       // Parse and validate parameters
@@ -203,15 +221,22 @@ public class QueryBatchRequestHandler extends MetricsHandler implements HttpHand
       if (startTime < currentTime - PluginSettings.instance().getBatchMetricsRetentionPeriodMinutes() * 60 * 1000) {
         throw new InvalidParameterException("starttime must be within the retention period");
       }
+      MetricsRollupStore rollups = mp.getBatchMetricsRollups();
+      if (rollups != null && MetricsRollupStore.coarsestResolution(samplingPeriod) == null
+          && startTime < currentTime - mp.getBatchMetricsWindowRetentionMinutes() * 60 * 1000) {
+        throw new InvalidParameterException(String.format(
+            "starttime must be within the last %d minutes for a sampling period that is not a multiple of a minute",
+            mp.getBatchMetricsWindowRetentionMinutes()));
+      }
 
       long processingStartTime = System.currentTimeMillis();
-      String queryResponse = queryFromBatchMetrics(batchMetrics, metrics, startTime, endTime, samplingPeriod,
-              DEFAULT_MAX_DATAPOINTS);
+      queryFromBatchMetrics(batchMetrics, rollups, metrics, startTime, endTime, samplingPeriod,
+          DEFAULT_MAX_DATAPOINTS, responseWriter);
+      responseWriter.finish(HttpURLConnection.HTTP_OK);
       PerformanceAnalyzerApp.READER_METRICS_AGGREGATOR.updateStat(
           ReaderMetrics.BATCH_METRICS_QUERY_PROCESSING_TIME, "", System.currentTimeMillis() - processingStartTime);
       PerformanceAnalyzerApp.READER_METRICS_AGGREGATOR.updateStat(
           ReaderMetrics.BATCH_METRICS_HTTP_SUCCESS, "", 1);
-      sendResponse(exchange, queryResponse, HttpURLConnection.HTTP_OK);
     } catch (DataAccessException e) {
       PerformanceAnalyzerApp.ERRORS_AND_EXCEPTIONS_AGGREGATOR.updateStat(
           ExceptionsAndErrors.READER_METRICSDB_ACCESS_ERRORS, "", 1);
@@ -219,63 +244,102 @@ public class QueryBatchRequestHandler extends MetricsHandler implements HttpHand
       PerformanceAnalyzerApp.READER_METRICS_AGGREGATOR.updateStat(
           ReaderMetrics.BATCH_METRICS_HTTP_HOST_ERROR, "", 1);
       String response = "{\"error\":\"" + e.toString() + "\"}";
-      sendResponse(exchange, response, HttpURLConnection.HTTP_INTERNAL_ERROR);
+      sendErrorResponse(exchange, responseWriter, response, HttpURLConnection.HTTP_INTERNAL_ERROR);
+    } catch (DatapointLimitException e) {
+      LOG.error("QueryException {} ExceptionCode: {}.", e, ReaderMetrics.BATCH_METRICS_HTTP_CLIENT_ERROR, e);
+      PerformanceAnalyzerApp.READER_METRICS_AGGREGATOR.updateStat(
+          ReaderMetrics.BATCH_METRICS_HTTP_CLIENT_ERROR, "", 1);
+      if (responseWriter.isCommitted()) {
+        // What was streamed already ends with the error.
+        responseWriter.finish(HttpURLConnection.HTTP_OK);
+      } else {
+        sendResponse(exchange, "{\"error\":\"" + e.getMessage() + ".\"}", HttpURLConnection.HTTP_BAD_REQUEST);
+      }
     } catch (InvalidParameterException e) {
       LOG.error("QueryException {} ExceptionCode: {}.", e, ReaderMetrics.BATCH_METRICS_HTTP_CLIENT_ERROR, e);
       PerformanceAnalyzerApp.READER_METRICS_AGGREGATOR.updateStat(
           ReaderMetrics.BATCH_METRICS_HTTP_CLIENT_ERROR, "", 1);
       String response = "{\"error\":\"" + e.getMessage() + ".\"}";
-      sendResponse(exchange, response, HttpURLConnection.HTTP_BAD_REQUEST);
+      sendErrorResponse(exchange, responseWriter, response, HttpURLConnection.HTTP_BAD_REQUEST);
     } catch (Exception e) {
       LOG.error("QueryException {} ExceptionCode: {}.", e, ReaderMetrics.BATCH_METRICS_HTTP_HOST_ERROR, e);
       PerformanceAnalyzerApp.READER_METRICS_AGGREGATOR.updateStat(
           ReaderMetrics.BATCH_METRICS_HTTP_HOST_ERROR, "", 1);
       String response = "{\"error\":\"" + e.toString() + "\"}";
-      sendResponse(exchange, response, HttpURLConnection.HTTP_INTERNAL_ERROR);
+      sendErrorResponse(exchange, responseWriter, response, HttpURLConnection.HTTP_INTERNAL_ERROR);
     }
   }
 
-  private int appendMetrics(Long timestamp, List<String> metrics, StringBuilder builder, int maxDatapoints) throws Exception {
-    maxDatapoints += 1;
-    builder.append("\"");
-    builder.append(timestamp);
-    builder.append("\":{");
-    MetricsDB db = MetricsDB.fetchExisting(timestamp);
-    for (int metricIndex = 0, numMetrics = metrics.size(); metricIndex < numMetrics; metricIndex++) {
-      String metric = metrics.get(metricIndex);
-      Result<Record> results = db.queryMetric(metric, MetricsModel.ALL_METRICS.get(metric).dimensionNames, maxDatapoints);
-      if (results != null) {
-        maxDatapoints -= results.size();
-        if (maxDatapoints <= 0) {
+  private int appendMetrics(Long timestamp, List<String> metrics, Writer writer, int maxDatapoints) throws Exception {
+    // Pooled, so that paging through the same windows again does not reopen their files.
+    try (MetricsDBPool.Lease lease = MetricsDBPool.instance().acquire(timestamp)) {
+      MetricsDB db = lease.getMetricsDB();
+      return appendResults(timestamp, metrics, writer, maxDatapoints,
+          (metric, limit) -> db.queryMetricLazily(metric, MetricsModel.ALL_METRICS.get(metric).dimensionNames, limit));
+    }
+  }
+
+  private int appendRollupMetrics(MetricsRollupStore rollups, MetricsRollupStore.Resolution resolution,
+                                  Long timestamp, List<String> metrics, Writer writer, int maxDatapoints)
+          throws Exception {
+    PerformanceAnalyzerApp.READER_METRICS_AGGREGATOR.updateStat(ReaderMetrics.BATCH_METRICS_ROLLUP_SAMPLES, "", 1);
+    return appendResults(timestamp, metrics, writer, maxDatapoints,
+        (metric, limit) -> rollups.queryMetricLazily(
+            resolution, timestamp, metric, MetricsModel.ALL_METRICS.get(metric).dimensionNames, limit));
+  }
+
+  /**
+   * Thrown when the response would hold more than {@link #DEFAULT_MAX_DATAPOINTS}, once the error
+   * was written to the response in place of the rest of it.
+   */
+  private static class DatapointLimitException extends InvalidParameterException {
+    DatapointLimitException(String message) {
+      super(message);
+    }
+  }
+
+  /** Queries a metric of one sample, returning null if the sample does not hold it. */
+  @FunctionalInterface
+  private interface SampleQuery {
+    Cursor<Record> query(String metric, int limit) throws Exception;
+  }
+
+  /**
+   * Writes the metrics of one sample, streaming the rows of each from the database into the writer
+   * so that the rows of a metric are never all held at once.
+   *
+   * @return the datapoints left of maxDatapoints
+   */
+  private int appendResults(Long timestamp, List<String> metrics, Writer writer, int maxDatapoints,
+                            SampleQuery sample) throws Exception {
+    writer.append("\"");
+    writer.append(Long.toString(timestamp));
+    writer.append("\":{");
+    boolean first = true;
+    for (String metric : metrics) {
+      // One more row than is left, to tell whether the limit is exceeded.
+      try (Cursor<Record> results = sample.query(metric, maxDatapoints + 1)) {
+        if (results == null) {
+          continue;
+        }
+        writer.append(first ? "\"" : ",\"");
+        writer.append(metric);
+        writer.append("\":");
+        maxDatapoints -= MetricsResultConverter.writeJson(results, maxDatapoints, writer);
+        first = false;
+        if (results.hasNext()) {
           PerformanceAnalyzerApp.READER_METRICS_AGGREGATOR.updateStat(
               ReaderMetrics.BATCH_METRICS_EXCEEDED_MAX_DATAPOINTS, "", 1);
-          throw new InvalidParameterException(String.format("requested data exceeds the %d datapoints limit", DEFAULT_MAX_DATAPOINTS));
-        }
-        builder.append("\"");
-        builder.append(metric);
-        builder.append("\":");
-        builder.append(results.formatJSON());
-        for (metricIndex += 1; metricIndex < numMetrics; metricIndex++) {
-          metric = metrics.get(metricIndex);
-          results = db.queryMetric(metric, MetricsModel.ALL_METRICS.get(metric).dimensionNames, maxDatapoints);
-          if (results != null) {
-            maxDatapoints -= results.size();
-            if (maxDatapoints <= 0) {
-              PerformanceAnalyzerApp.READER_METRICS_AGGREGATOR.updateStat(
-                  ReaderMetrics.BATCH_METRICS_EXCEEDED_MAX_DATAPOINTS, "", 1);
-              throw new InvalidParameterException(String.format("requested data exceeds the %d datapoints limit", DEFAULT_MAX_DATAPOINTS));
-            }
-            builder.append(",\"");
-            builder.append(metric);
-            builder.append("\":");
-            builder.append(results.formatJSON());
-          }
+          String message = String.format("requested data exceeds the %d datapoints limit", DEFAULT_MAX_DATAPOINTS);
+          // Closes the sample and the response with the error, so that a client that is already being
+          // streamed the response still gets well-formed JSON that tells it what went wrong.
+          writer.append("},\"error\":\"").append(message).append(".\"}");
+          throw new DatapointLimitException(message);
         }
       }
     }
-    builder.append("}");
-    db.remove();
-    return maxDatapoints - 1;
+    writer.append("}");
+    return maxDatapoints;
   }
 
   /**
@@ -284,8 +348,58 @@ public class QueryBatchRequestHandler extends MetricsHandler implements HttpHand
    */
   private String queryFromBatchMetrics(NavigableSet<Long> batchMetrics, List<String> metrics, long startTime,
                                       long endTime, long samplingPeriod, int maxDatapoints) throws Exception {
-    StringBuilder responseJson = new StringBuilder();
+    return queryFromBatchMetrics(batchMetrics, null, metrics, startTime, endTime, samplingPeriod, maxDatapoints);
+  }
+
+  /**
+   * Same as above, serving every sample from the coarsest rollup bucket that lines up with the
+   * sampling period, if rollups are given and the bucket exists, or else from a finer bucket, or else
+   * from the first window of the sample.
+   */
+  private String queryFromBatchMetrics(NavigableSet<Long> batchMetrics, MetricsRollupStore rollups,
+                                       List<String> metrics, long startTime, long endTime, long samplingPeriod,
+                                       int maxDatapoints) throws Exception {
+    StringWriter responseJson = new StringWriter();
+    queryFromBatchMetrics(batchMetrics, rollups, metrics, startTime, endTime, samplingPeriod, maxDatapoints,
+        responseJson);
+    return responseJson.toString();
+  }
+
+  /**
+   * Same as above, writing the response to responseJson one metric of one sample at a time, so that
+   * only that much of it is held in memory when the writer streams it out.
+   */
+  private void queryFromBatchMetrics(NavigableSet<Long> batchMetrics, MetricsRollupStore rollups,
+                                     List<String> metrics, long startTime, long endTime, long samplingPeriod,
+                                     int maxDatapoints, Writer responseJson) throws Exception {
+    MetricsRollupStore.Resolution resolution =
+        rollups == null ? null : MetricsRollupStore.coarsestResolution(samplingPeriod);
     responseJson.append("{");
+    if (resolution != null) {
+      boolean first = true;
+      // startTime is aligned to the sampling period, and so to the buckets.
+      for (long sampleTime = startTime; sampleTime < endTime; sampleTime += samplingPeriod) {
+        Long metricsTimestamp = batchMetrics.ceiling(sampleTime);
+        MetricsRollupStore.Resolution bucketResolution = rollups.resolutionWithBucket(resolution, sampleTime);
+        if (bucketResolution == null
+            && (metricsTimestamp == null || metricsTimestamp >= Math.min(sampleTime + samplingPeriod, endTime))) {
+          continue;
+        }
+        if (!first) {
+          responseJson.append(",");
+        }
+        first = false;
+        if (bucketResolution != null) {
+          maxDatapoints =
+              appendRollupMetrics(rollups, bucketResolution, sampleTime, metrics, responseJson, maxDatapoints);
+        } else {
+          maxDatapoints = appendMetrics(metricsTimestamp, metrics, responseJson, maxDatapoints);
+        }
+      }
+      responseJson.append("}");
+      return;
+    }
+
     Long metricsTimestamp = batchMetrics.ceiling(startTime);
     if (metricsTimestamp != null && metricsTimestamp < endTime) {
       maxDatapoints = appendMetrics(metricsTimestamp, metrics, responseJson, maxDatapoints);
@@ -299,7 +413,20 @@ public class QueryBatchRequestHandler extends MetricsHandler implements HttpHand
       }
     }
     responseJson.append("}");
-    return responseJson.toString();
+  }
+
+  /**
+   * Sends an error response in place of what was written so far, or cuts the response short if it
+   * is already being streamed.
+   */
+  private void sendErrorResponse(HttpExchange exchange, StreamingResponseWriter responseWriter, String response,
+                                 int status) throws IOException {
+    if (responseWriter.isCommitted()) {
+      LOG.error("Batch metrics response was already streamed in part, closing it with an incomplete body.");
+      exchange.close();
+      return;
+    }
+    sendResponse(exchange, response, status);
   }
 
   private void sendResponse(HttpExchange exchange, String response, int status) throws IOException {
@@ -318,8 +445,20 @@ public class QueryBatchRequestHandler extends MetricsHandler implements HttpHand
     return queryFromBatchMetrics(batchMetrics, metrics, startTime, endTime, samplingPeriod, maxDatapoints);
   }
 
+  @VisibleForTesting
+  public String queryFromBatchMetricsShim(NavigableSet<Long> batchMetrics, MetricsRollupStore rollups,
+                                          List<String> metrics, long startTime, long endTime, long samplingPeriod,
+                                          int maxDatapoints) throws Exception {
+    return queryFromBatchMetrics(batchMetrics, rollups, metrics, startTime, endTime, samplingPeriod, maxDatapoints);
+  }
+
   @VisibleForTesting
   public int appendMetricsShim(Long timestamp, List<String> metrics, StringBuilder builder, int maxDatapoints) throws Exception {
-    return appendMetrics(timestamp, metrics, builder, maxDatapoints);
+    StringWriter writer = new StringWriter();
+    try {
+      return appendMetrics(timestamp, metrics, writer, maxDatapoints);
+    } finally {
+      builder.append(writer.toString());
+    }
   }
 }
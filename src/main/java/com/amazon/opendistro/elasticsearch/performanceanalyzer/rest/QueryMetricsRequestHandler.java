@@ -18,10 +18,12 @@ package com.amazon.opendistro.elasticsearch.performanceanalyzer.rest;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.AppContext;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatExceptionCode;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatsCollector;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.config.PluginSettings;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.core.Util;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.MetricsRequest;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.MetricsResponse;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.MetricsRestUtil;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.MetricsResultConverter;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.MetricsDB;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.model.MetricAttributes;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.model.MetricsModel;
@@ -32,13 +34,21 @@ import com.amazon.opendistro.elasticsearch.performanceanalyzer.util.JsonConverte
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import io.grpc.stub.StreamObserver;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
 import java.security.InvalidParameterException;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -61,6 +71,10 @@ public class QueryMetricsRequestHandler extends MetricsHandler implements HttpHa
   private static final Logger LOG = LogManager.getLogger(QueryMetricsRequestHandler.class);
   private static final int TIME_OUT_VALUE = 2;
   private static final TimeUnit TIME_OUT_UNIT = TimeUnit.SECONDS;
+  // How long past the deadline of the remote calls to wait for them to report back.
+  private static final long DEADLINE_GRACE_MILLIS = 500;
+  // The most remote results waiting to be written when streaming the response.
+  private static final int MAX_QUEUED_REMOTE_RESULTS = 4;
   private NetClient netClient;
   MetricsRestUtil metricsRestUtil;
   private final AppContext appContext;
@@ -161,6 +175,10 @@ public class QueryMetricsRequestHandler extends MetricsHandler implements HttpHa
 
         if (nodes == null || !nodes.equals("all") || allNodes.size() <= 1) {
           sendResponse(exchange, response, HttpURLConnection.HTTP_OK);
+        } else if (PluginSettings.instance().isMetricsStreamingFanoutEnabled()) {
+          streamRemoteStats(
+              exchange, allNodes, localNodeId, localResponseWithTimestamp,
+              metricList, aggList, dimList);
         } else if (nodes.equals("all")) {
           CountDownLatch doneSignal = new CountDownLatch(allNodes.size() - 1);
           for (int i = 1; i < allNodes.size(); i++) {
@@ -239,6 +257,114 @@ public class QueryMetricsRequestHandler extends MetricsHandler implements HttpHa
     }
   }
 
+  /**
+   * Responds with chunked transfer encoding: the local result is written right away and the
+   * result of each remote node as soon as it arrives. All the remote nodes are asked at once, and
+   * each call gets the whole timeout. The results wait for the writer in a queue of at most {@link
+   * #MAX_QUEUED_REMOTE_RESULTS}, and a call whose result does not fit holds on to its callback
+   * thread until there is room, so the results held in memory are bounded by the queue and the
+   * client's callback threads rather than by the cluster size. A remote node that does not respond
+   * within the timeout is left out.
+   */
+  void streamRemoteStats(
+      HttpExchange exchange,
+      List<InstanceDetails> allNodes,
+      String localNodeId,
+      String localResponse,
+      List<String> metricList,
+      List<String> aggList,
+      List<String> dimList)
+      throws IOException {
+    MetricsRequest request =
+        MetricsRequest.newBuilder()
+            .addAllMetricList(metricList)
+            .addAllAggList(aggList)
+            .addAllDimList(dimList)
+            .setStructured(true)
+            .build();
+    long deadlineMillis = TIME_OUT_UNIT.toMillis(TIME_OUT_VALUE);
+    NodeResponses nodeResponses = new NodeResponses(MAX_QUEUED_REMOTE_RESULTS);
+
+    exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, 0);
+    try (Writer writer =
+        new BufferedWriter(
+            new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8))) {
+      writer.write("{\"" + localNodeId + "\": " + localResponse);
+      writer.flush();
+      try {
+        int pending = 0;
+        long waitUntilNanos = System.nanoTime();
+        for (int i = 1; i < allNodes.size(); i++) {
+          if (requestRemoteStats(allNodes.get(i), request, deadlineMillis, nodeResponses)) {
+            pending++;
+            waitUntilNanos =
+                System.nanoTime()
+                    + TimeUnit.MILLISECONDS.toNanos(deadlineMillis + DEADLINE_GRACE_MILLIS);
+          }
+          // Writes what already arrived, so the queue has room for the results still to come.
+          NodeResponse ready;
+          while ((ready = nodeResponses.poll(0)) != null) {
+            writeNodeResponse(writer, ready);
+            pending--;
+          }
+        }
+        for (; pending > 0; pending--) {
+          NodeResponse nodeResponse = nodeResponses.poll(waitUntilNanos - System.nanoTime());
+          if (nodeResponse == null) {
+            LOG.debug("Timeout while collecting remote stats");
+            StatsCollector.instance().logException(StatExceptionCode.REQUEST_REMOTE_ERROR);
+            break;
+          }
+          writeNodeResponse(writer, nodeResponse);
+        }
+      } catch (InterruptedException e) {
+        LOG.error("Interrupted while streaming the remote stats");
+        Thread.currentThread().interrupt();
+      } finally {
+        nodeResponses.close();
+      }
+      writer.write("}");
+    } catch (IOException e) {
+      LOG.error("Exception occurred while streaming response {}", e.getCause());
+    }
+  }
+
+  private static void writeNodeResponse(Writer writer, NodeResponse nodeResponse)
+      throws IOException {
+    if (nodeResponse.response == null) {
+      return;
+    }
+    writer.write(", \"" + nodeResponse.node.getInstanceId() + "\" :");
+    if (nodeResponse.response.hasResult()) {
+      MetricsResultConverter.writeJson(nodeResponse.response.getResult(), writer);
+    } else {
+      // The node does not know the structured form yet.
+      writer.write(nodeResponse.response.getMetricsResult());
+    }
+    writer.flush();
+  }
+
+  /** Returns false if the call could not be made, in which case no response will follow. */
+  private boolean requestRemoteStats(
+      InstanceDetails node,
+      MetricsRequest request,
+      long deadlineMillis,
+      NodeResponses nodeResponses) {
+    try {
+      this.netClient.getMetrics(
+          node, request, new QueueingStreamObserver(node, nodeResponses), deadlineMillis);
+      return true;
+    } catch (Exception e) {
+      LOG.error(
+          "Unable to collect stats for node, addr:{}, exception: {} ExceptionCode: {}",
+          node.getInstanceIp(),
+          e,
+          StatExceptionCode.REQUEST_REMOTE_ERROR.toString());
+      StatsCollector.instance().logException(StatExceptionCode.REQUEST_REMOTE_ERROR);
+      return false;
+    }
+  }
+
   private boolean isUnitLookUp(HttpExchange exchange) throws IOException {
     if (exchange.getRequestURI().toString().equals(Util.METRICS_QUERY_URL + "/units")) {
       return true;
@@ -316,6 +442,102 @@ public class QueryMetricsRequestHandler extends MetricsHandler implements HttpHa
     }
   }
 
+  private static class NodeResponse {
+    private final InstanceDetails node;
+    // null if the node failed to respond.
+    private final MetricsResponse response;
+
+    NodeResponse(InstanceDetails node, MetricsResponse response) {
+      this.node = node;
+      this.response = response;
+    }
+  }
+
+  /**
+   * The responses of the remote nodes on their way to the thread streaming the HTTP response. A
+   * response that arrives while the queue is full waits on the thread that delivered it, unless
+   * that is the streaming thread itself, which happens when a call completes right away and which
+   * must not block: such a response is kept aside instead. Once the streaming thread is done, the
+   * queue is closed and late responses are dropped.
+   */
+  private static class NodeResponses {
+    private static final long OFFER_WAIT_MILLIS = 100;
+
+    private final BlockingQueue<NodeResponse> queue;
+    private final Thread streamingThread = Thread.currentThread();
+    // Only used by the streaming thread.
+    private final Deque<NodeResponse> keptAside = new ArrayDeque<>();
+    private volatile boolean closed;
+
+    NodeResponses(int capacity) {
+      this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    void add(NodeResponse nodeResponse) {
+      if (Thread.currentThread() == streamingThread) {
+        if (!queue.offer(nodeResponse)) {
+          keptAside.add(nodeResponse);
+        }
+        return;
+      }
+      try {
+        while (!closed) {
+          if (queue.offer(nodeResponse, OFFER_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+            return;
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    /** Returns the next response, waiting up to the given time for one, or null if none came. */
+    NodeResponse poll(long timeoutNanos) throws InterruptedException {
+      NodeResponse nodeResponse = keptAside.poll();
+      if (nodeResponse != null) {
+        return nodeResponse;
+      }
+      return timeoutNanos > 0 ? queue.poll(timeoutNanos, TimeUnit.NANOSECONDS) : queue.poll();
+    }
+
+    void close() {
+      closed = true;
+      queue.clear();
+    }
+  }
+
+  /**
+   * Hands the response of a node over to the thread streaming the HTTP response. Every node gets
+   * exactly one entry, when its call completes or fails.
+   */
+  private static class QueueingStreamObserver implements StreamObserver<MetricsResponse> {
+    private final InstanceDetails node;
+    private final NodeResponses nodeResponses;
+    private MetricsResponse response;
+
+    QueueingStreamObserver(InstanceDetails node, NodeResponses nodeResponses) {
+      this.node = node;
+      this.nodeResponses = nodeResponses;
+    }
+
+    @Override
+    public void onNext(MetricsResponse value) {
+      response = value;
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      LOG.info("Metrics : Error occurred while getting Metrics for " + node.getInstanceIp());
+      StatsCollector.instance().logException(StatExceptionCode.REQUEST_REMOTE_ERROR);
+      nodeResponses.add(new NodeResponse(node, null));
+    }
+
+    @Override
+    public void onCompleted() {
+      nodeResponses.add(new NodeResponse(node, response));
+    }
+  }
+
   private static class ThreadSafeStreamObserver implements StreamObserver<MetricsResponse> {
     private final CountDownLatch doneSignal;
     private final ConcurrentHashMap<String, String> nodeResponses;
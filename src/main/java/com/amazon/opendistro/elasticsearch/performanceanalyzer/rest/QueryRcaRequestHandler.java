@@ -22,6 +22,7 @@ import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.Version;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.Stats;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.util.SQLiteQueryUtils;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.persistence.Persistable;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.persistence.RcaHistoryQuery;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
@@ -29,6 +30,7 @@ import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.net.HttpURLConnection;
 import java.security.InvalidParameterException;
 import java.util.List;
@@ -56,6 +58,12 @@ import org.apache.logging.log4j.util.Supplier;
  * <p>The cluster level RCA can only be queried from the elected master using this rest API:
  * curl "localhost:9600/_opendistro/_performanceanalyzer/rca?name=ClusterTemperatureRca"
  *
+ * <p>To get the history of a cluster level RCA over the retained RCA files, oldest first, use:
+ * curl "localhost:9600/_opendistro/_performanceanalyzer/rca?name=HotShardClusterRca&starttime=1589590000000&endtime=1589600000000&limit=100"
+ * The response holds up to limit flow units under the RCA name. If there are more, it also holds
+ * a "next_cursor", and the next page is read by adding "&cursor=" with its value to the same
+ * request. starttime defaults to the earliest retained flow unit and endtime to now.
+ *
  *
  * <p>curl "localhost:9600/_opendistro/_performanceanalyzer/rca?name=NodeTemperatureRca&local=true"|jq
  * {
@@ -93,6 +101,12 @@ public class QueryRcaRequestHandler extends MetricsHandler implements HttpHandle
   private static final String VERSION_PARAM = "v";
   private static final String LOCAL_PARAM = "local";
   private static final String VERSION_RESPONSE_PROPERTY = "version";
+  private static final String START_TIME_PARAM = "starttime";
+  private static final String END_TIME_PARAM = "endtime";
+  private static final String CURSOR_PARAM = "cursor";
+  private static final String LIMIT_PARAM = "limit";
+  private static final String NEXT_CURSOR_RESPONSE_PROPERTY = "next_cursor";
+  private static final int DEFAULT_HISTORY_LIMIT = 100;
   public static final String NAME_PARAM = "name";
   private Persistable persistable;
   private MetricsRestUtil metricsRestUtil;
@@ -112,22 +126,29 @@ public class QueryRcaRequestHandler extends MetricsHandler implements HttpHandle
       exchange.getResponseHeaders().set("Content-Type", "application/json");
 
       try {
-        synchronized (this) {
-          String query = exchange.getRequestURI().getQuery();
-          if (query != null && query.equalsIgnoreCase(VERSION_PARAM)) {
-            sendResponse(exchange, getVersion(), HttpURLConnection.HTTP_OK);
-            return;
-          }
-          //first check if we want to dump all SQL tables for debugging purpose
-          if (query != null && query.equals(DUMP_ALL)) {
-            sendResponse(exchange, dumpAllRcaTables(), HttpURLConnection.HTTP_OK);
-          }
-          else {
-            Map<String, String> params = getParamsMap(query);
-            if (isLocalTemperatureProfileRequest(params)) {
-              handleLocalRcaRequest(params, exchange);
-            } else {
-              handleClusterRcaRequest(params, exchange);
+        String query = exchange.getRequestURI().getQuery();
+        Map<String, String> historyParams = getParamsMap(query);
+        if (isRcaHistoryRequest(historyParams)) {
+          // Streamed outside the lock, so that reading hours of history does not hold up the
+          // requests for the latest results.
+          handleRcaHistoryRequest(historyParams, exchange);
+        } else {
+          synchronized (this) {
+            if (query != null && query.equalsIgnoreCase(VERSION_PARAM)) {
+              sendResponse(exchange, getVersion(), HttpURLConnection.HTTP_OK);
+              return;
+            }
+            //first check if we want to dump all SQL tables for debugging purpose
+            if (query != null && query.equals(DUMP_ALL)) {
+              sendResponse(exchange, dumpAllRcaTables(), HttpURLConnection.HTTP_OK);
+            }
+            else {
+              Map<String, String> params = getParamsMap(query);
+              if (isLocalTemperatureProfileRequest(params)) {
+                handleLocalRcaRequest(params, exchange);
+              } else {
+                handleClusterRcaRequest(params, exchange);
+              }
             }
           }
         }
@@ -189,6 +210,87 @@ public class QueryRcaRequestHandler extends MetricsHandler implements HttpHandle
     sendResponse(exchange, response, HttpURLConnection.HTTP_OK);
   }
 
+  private boolean isRcaHistoryRequest(final Map<String, String> params) {
+    return params.containsKey(START_TIME_PARAM) || params.containsKey(END_TIME_PARAM)
+        || params.containsKey(CURSOR_PARAM) || params.containsKey(LIMIT_PARAM);
+  }
+
+  private void handleRcaHistoryRequest(Map<String, String> params, HttpExchange exchange)
+      throws IOException {
+    if (!validNodeRole()) {
+      JsonObject errResponse = new JsonObject();
+      errResponse.addProperty("error", "Node being queried is not elected master.");
+      sendResponse(exchange, errResponse.toString(), HttpURLConnection.HTTP_BAD_REQUEST);
+      return;
+    }
+    List<String> rcaList = metricsRestUtil.parseArrayParam(params, NAME_PARAM, false);
+    if (rcaList.size() != 1 || !validParams(rcaList)) {
+      JsonObject errResponse = new JsonObject();
+      JsonArray errReason = new JsonArray();
+      SQLiteQueryUtils.getClusterLevelRca().forEach(errReason::add);
+      errResponse.addProperty("error", "History can be read for one cluster level RCA at a time.");
+      errResponse.add("valid_cluster_rca", errReason);
+      sendResponse(exchange, errResponse.toString(), HttpURLConnection.HTTP_BAD_REQUEST);
+      return;
+    }
+    String rca = rcaList.get(0);
+    RcaHistoryQuery query;
+    try {
+      query = new RcaHistoryQuery(rca,
+          parseLongParam(params, START_TIME_PARAM, 0L),
+          parseLongParam(params, END_TIME_PARAM, System.currentTimeMillis()),
+          params.get(CURSOR_PARAM),
+          (int) Math.min(parseLongParam(params, LIMIT_PARAM, DEFAULT_HISTORY_LIMIT),
+              RcaHistoryQuery.MAX_LIMIT + 1));
+    } catch (IllegalArgumentException e) {
+      throw new InvalidParameterException(e.getMessage());
+    }
+
+    Persistable persistable;
+    synchronized (this) {
+      persistable = this.persistable;
+    }
+    StreamingResponseWriter responseWriter =
+        new StreamingResponseWriter(exchange, QueryBatchRequestHandler.RESPONSE_BUFFER_SIZE);
+    try {
+      responseWriter.append("{\"").append(rca).append("\":[");
+      String nextCursor = null;
+      if (persistable != null) {
+        boolean[] first = {true};
+        nextCursor = persistable.readRcaHistory(query, response -> {
+          try {
+            responseWriter.append(first[0] ? "" : ",").append(response.toString());
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+          first[0] = false;
+        });
+      }
+      responseWriter.append("]");
+      if (nextCursor != null) {
+        responseWriter.append(",\"").append(NEXT_CURSOR_RESPONSE_PROPERTY).append("\":\"")
+            .append(nextCursor).append("\"");
+      }
+      responseWriter.append("}");
+      responseWriter.finish(HttpURLConnection.HTTP_OK);
+    } catch (IOException | UncheckedIOException e) {
+      LOG.error("Failed to send the history of RCA {}, closing the response.", rca, e);
+      exchange.close();
+    }
+  }
+
+  private long parseLongParam(Map<String, String> params, String name, long defaultValue) {
+    String value = params.get(name);
+    if (value == null || value.isEmpty()) {
+      return defaultValue;
+    }
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      throw new InvalidParameterException(String.format("%s should be a number", name));
+    }
+  }
+
   private boolean isLocalTemperatureProfileRequest(final Map<String, String> params) {
     final List<String> temperatureProfileRcas = SQLiteQueryUtils.getTemperatureProfileRcas();
     if (params.containsKey(LOCAL_PARAM)) {
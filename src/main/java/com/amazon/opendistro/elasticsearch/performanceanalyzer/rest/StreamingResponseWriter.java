@@ -0,0 +1,113 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.rest;
+
+import com.sun.net.httpserver.HttpExchange;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A writer for the body of an HTTP response that holds on to the first bufferSize characters, and
+ * streams the rest to the client with a chunked 200 response once the buffer overflows.
+ *
+ * <p>Until then the response is not committed, and the handler can still answer with an error
+ * instead, or finish with a response of a known length. After that, an error can only cut the
+ * response short, which leaves the client with an incomplete body.
+ */
+public class StreamingResponseWriter extends Writer {
+  private final HttpExchange exchange;
+  private final int bufferSize;
+  private StringBuilder buffer;
+  private Writer out;
+
+  public StreamingResponseWriter(HttpExchange exchange, int bufferSize) {
+    this.exchange = exchange;
+    this.bufferSize = bufferSize;
+    this.buffer = new StringBuilder();
+  }
+
+  /** Returns true if the response headers went out, and the status can no longer change. */
+  public boolean isCommitted() {
+    return out != null;
+  }
+
+  @Override
+  public void write(char[] cbuf, int off, int len) throws IOException {
+    if (out == null) {
+      if (buffer.length() + len <= bufferSize) {
+        buffer.append(cbuf, off, len);
+        return;
+      }
+      commit();
+    }
+    out.write(cbuf, off, len);
+  }
+
+  @Override
+  public void write(String str, int off, int len) throws IOException {
+    if (out == null) {
+      if (buffer.length() + len <= bufferSize) {
+        buffer.append(str, off, off + len);
+        return;
+      }
+      commit();
+    }
+    out.write(str, off, len);
+  }
+
+  private void commit() throws IOException {
+    exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, 0);
+    out =
+        new BufferedWriter(
+            new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8));
+    out.append(buffer);
+    buffer = null;
+  }
+
+  /**
+   * Completes the response, sending what is buffered with the given status if the response is not
+   * committed yet.
+   */
+  public void finish(int status) throws IOException {
+    if (out == null) {
+      byte[] response = buffer.toString().getBytes(StandardCharsets.UTF_8);
+      buffer = null;
+      exchange.sendResponseHeaders(status, response.length);
+      exchange.getResponseBody().write(response);
+    }
+    close();
+  }
+
+  @Override
+  public void flush() throws IOException {
+    if (out != null) {
+      out.flush();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (out != null) {
+      out.close();
+    } else {
+      exchange.getResponseBody().close();
+    }
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.reader_writer_shared.Event;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class MetricEventQueueTests {
+
+  @Test
+  public void testDrainInOrder() {
+    MetricEventQueue queue = new MetricEventQueue(10, 1);
+    for (int i = 0; i < 5; i++) {
+      assertTrue(queue.offer(new Event("key" + i, "value", 0)));
+    }
+    assertEquals(5, queue.size());
+
+    List<Event> drained = new ArrayList<>();
+    assertEquals(3, queue.drainTo(drained, 3));
+    assertEquals(2, queue.drainTo(drained));
+    assertTrue(queue.isEmpty());
+    for (int i = 0; i < 5; i++) {
+      assertEquals("key" + i, drained.get(i).key());
+    }
+  }
+
+  @Test
+  public void testDropsWhenFull() {
+    MetricEventQueue queue = new MetricEventQueue(6, 4);
+    assertEquals(4, queue.getStripeCount());
+    // A single producer can use the room in every stripe.
+    for (int i = 0; i < 6; i++) {
+      assertTrue(queue.offer(new Event("key" + i, "value", 0)));
+    }
+    assertFalse(queue.offer(new Event("key6", "value", 0)));
+    assertFalse(queue.offer(new Event("key7", "value", 0)));
+    assertEquals(2, queue.getDroppedCount());
+    assertEquals(6, queue.size());
+
+    assertEquals(6, queue.drainTo(new ArrayList<>()));
+    assertTrue(queue.offer(new Event("key8", "value", 0)));
+    assertEquals(2, queue.getDroppedCount());
+  }
+
+  @Test
+  public void testBlockingQueueMethods() throws InterruptedException {
+    BlockingQueue<Event> queue = new MetricEventQueue(2, 1);
+    assertNull(queue.poll());
+    assertNull(queue.poll(1, TimeUnit.MILLISECONDS));
+    queue.put(new Event("key0", "value", 0));
+    assertTrue(queue.offer(new Event("key1", "value", 0), 1, TimeUnit.MILLISECONDS));
+    assertFalse(queue.offer(new Event("key2", "value", 0), 1, TimeUnit.MILLISECONDS));
+    assertEquals(0, queue.remainingCapacity());
+
+    List<String> keys = new ArrayList<>();
+    queue.forEach(event -> keys.add(event.key()));
+    assertEquals(2, keys.size());
+    assertEquals("key0", keys.get(0));
+    assertEquals("key0", queue.peek().key());
+    assertEquals("key0", queue.take().key());
+    assertEquals("key1", queue.poll().key());
+    assertTrue(queue.isEmpty());
+    assertEquals(2, queue.remainingCapacity());
+  }
+
+  @Test
+  public void testConcurrentProducers() throws Exception {
+    final int producers = 4;
+    final int eventsPerProducer = 20000;
+    MetricEventQueue queue = new MetricEventQueue(1024, producers);
+    ExecutorService executor = Executors.newFixedThreadPool(producers);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<Integer>> offered = new ArrayList<>();
+    for (int p = 0; p < producers; p++) {
+      final int producer = p;
+      offered.add(
+          executor.submit(
+              () -> {
+                start.await();
+                int added = 0;
+                for (int i = 0; i < eventsPerProducer; i++) {
+                  if (queue.offer(new Event(producer + "/" + i, "value", 0))) {
+                    added++;
+                  }
+                }
+                return added;
+              }));
+    }
+
+    Set<String> keys = new HashSet<>();
+    List<Event> batch = new ArrayList<>();
+    start.countDown();
+    while (!allDone(offered)) {
+      batch.clear();
+      queue.drainTo(batch);
+      for (Event event : batch) {
+        assertTrue("Duplicate event " + event.key(), keys.add(event.key()));
+      }
+    }
+    batch.clear();
+    queue.drainTo(batch);
+    for (Event event : batch) {
+      assertTrue("Duplicate event " + event.key(), keys.add(event.key()));
+    }
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+    int added = 0;
+    for (Future<Integer> future : offered) {
+      added += future.get();
+    }
+    assertEquals(added, keys.size());
+    assertEquals((long) producers * eventsPerProducer - added, queue.getDroppedCount());
+    assertTrue(queue.isEmpty());
+  }
+
+  private static boolean allDone(List<Future<Integer>> futures) {
+    for (Future<Integer> future : futures) {
+      if (!future.isDone()) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.Dimensions;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.Metric;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.MetricsDB;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.jooq.Cursor;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MetricsResultConverterTests {
+  private static final List<String> DIMS = Arrays.asList("shard", "index");
+  private static final long TIMESTAMP = 1553713390L;
+
+  private MetricsDB db;
+
+  public MetricsResultConverterTests() throws ClassNotFoundException {
+    Class.forName("org.sqlite.JDBC");
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    System.setProperty("java.io.tmpdir", "/tmp");
+    db = new MetricsDB(TIMESTAMP);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    db.remove();
+    db.deleteOnDiskFile();
+  }
+
+  private void putMetric(Metric<Double> metric, String shard, String index) {
+    Dimensions dimensions = new Dimensions();
+    dimensions.put("shard", shard);
+    dimensions.put("index", index);
+    db.putMetric(metric, dimensions, 0);
+  }
+
+  private static String toJson(Result<Record> result) throws IOException {
+    StringWriter writer = new StringWriter();
+    MetricsResultConverter.writeJson(MetricsResultConverter.toMessage(TIMESTAMP, result), writer);
+    return writer.toString();
+  }
+
+  @Test
+  public void testJsonMatchesFormatJSON() throws Exception {
+    db.createMetric(Metric.cpu(10D), DIMS);
+    db.createMetric(Metric.rss(10D), DIMS);
+    putMetric(Metric.cpu(1.55800813191944D), "1", "ac-test");
+    putMetric(Metric.cpu(0.00001D), "2", "index/\"quoted\"");
+    putMetric(Metric.cpu(4D), null, "ac-test");
+    putMetric(Metric.rss(3D), "1", "ac-test");
+
+    for (String agg : MetricsDB.AGG_VALUES) {
+      Result<Record> result =
+          db.queryMetric(Arrays.asList("cpu", "rss"), Arrays.asList(agg, agg), DIMS);
+      assertEquals(
+          String.format("{\"timestamp\": %d, \"data\": %s}", TIMESTAMP, result.formatJSON()),
+          toJson(result));
+    }
+    Result<Record> result = db.queryMetric(
+        Collections.singletonList("cpu"), Collections.singletonList("sum"),
+        Collections.emptyList());
+    assertEquals(
+        String.format("{\"timestamp\": %d, \"data\": %s}", TIMESTAMP, result.formatJSON()),
+        toJson(result));
+  }
+
+  @Test
+  public void testCursorJsonMatchesFormatJSON() throws Exception {
+    db.createMetric(Metric.cpu(10D), DIMS);
+    putMetric(Metric.cpu(1.55800813191944D), "1", "ac-test");
+    putMetric(Metric.cpu(0.00001D), "2", "index/\"quoted\"");
+    putMetric(Metric.cpu(4D), null, "ac-test");
+
+    String expected = db.queryMetric("cpu", DIMS, 3).formatJSON();
+    try (Cursor<Record> cursor = db.queryMetricLazily("cpu", DIMS, 3)) {
+      StringWriter writer = new StringWriter();
+      assertEquals(3, MetricsResultConverter.writeJson(cursor, 3, writer));
+      assertEquals(expected, writer.toString());
+      assertFalse(cursor.hasNext());
+    }
+
+    // Rows past maxRecords are left in the cursor.
+    expected = db.queryMetric("cpu", DIMS, 2).formatJSON();
+    try (Cursor<Record> cursor = db.queryMetricLazily("cpu", DIMS, 3)) {
+      StringWriter writer = new StringWriter();
+      assertEquals(2, MetricsResultConverter.writeJson(cursor, 2, writer));
+      assertEquals(expected, writer.toString());
+      assertTrue(cursor.hasNext());
+    }
+  }
+
+  @Test
+  public void testNullResult() throws Exception {
+    assertEquals(
+        String.format("{\"timestamp\": %d, \"data\": {}}", TIMESTAMP), toJson(null));
+  }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.exception.DataAccessException;
+import org.jooq.impl.DSL;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ColumnarMetricsDBTests {
+  private static final List<String> DIMS = Arrays.asList("shard", "index");
+
+  private ColumnarMetricsDB db;
+  private MetricsDB sqliteDB;
+  private long timestamp;
+
+  public ColumnarMetricsDBTests() throws ClassNotFoundException {
+    Class.forName("org.sqlite.JDBC");
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    System.setProperty("java.io.tmpdir", "/tmp");
+    timestamp = 1553713390L;
+    db = new ColumnarMetricsDB(timestamp);
+    sqliteDB = new MetricsDB(timestamp + 1);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    db.remove();
+    db.deleteOnDiskFile();
+    sqliteDB.remove();
+    sqliteDB.deleteOnDiskFile();
+  }
+
+  @Test
+  public void testGroupByMatchesSQLite() throws Exception {
+    for (MetricsDB metricsDB : Arrays.asList(db, sqliteDB)) {
+      metricsDB.createMetric(Metric.cpu(10D), DIMS);
+      metricsDB.createMetric(Metric.rss(10D), DIMS);
+      putCPUMetric(metricsDB, 10D, "1", "ac-test");
+      putCPUMetric(metricsDB, 4D, "1", "ac-test");
+      putCPUMetric(metricsDB, 6D, "2", "ac-test");
+      putCPUMetric(metricsDB, 8D, "1", "ac-test-2");
+      putCPUMetric(metricsDB, 8D, null, "ac-test-2");
+      putRSSMetric(metricsDB, 1D, "1", "ac-test");
+      putRSSMetric(metricsDB, 5D, "1", "ac-test-2");
+      putRSSMetric(metricsDB, 3D, "3", "ac-test");
+    }
+
+    for (String agg : MetricsDB.AGG_VALUES) {
+      assertSameResult(
+          sqliteDB.queryMetric(Arrays.asList("cpu", "rss"), Arrays.asList(agg, agg), DIMS),
+          db.queryMetric(Arrays.asList("cpu", "rss"), Arrays.asList(agg, agg), DIMS));
+      assertSameResult(
+          sqliteDB.queryMetric(
+              Arrays.asList("cpu", "rss"), Arrays.asList(agg, MetricsDB.SUM),
+              Collections.singletonList("index")),
+          db.queryMetric(
+              Arrays.asList("cpu", "rss"), Arrays.asList(agg, MetricsDB.SUM),
+              Collections.singletonList("index")));
+      assertSameResult(
+          sqliteDB.queryMetric(
+              Arrays.asList("cpu", "pseudocpu"), Arrays.asList(agg, agg),
+              Collections.emptyList()),
+          db.queryMetric(
+              Arrays.asList("cpu", "pseudocpu"), Arrays.asList(agg, agg),
+              Collections.emptyList()));
+    }
+    assertSameResult(sqliteDB.queryMetric("cpu"), db.queryMetric("cpu"));
+    assertSameResult(
+        sqliteDB.queryMetric("rss", Collections.singletonList("shard"), 2),
+        db.queryMetric("rss", Collections.singletonList("shard"), 2));
+  }
+
+  @Test
+  public void testGroupBy() throws Exception {
+    db.createMetric(Metric.cpu(10D), DIMS);
+    db.createMetric(Metric.rss(10D), DIMS);
+    putCPUMetric(db, 10D, "1", "ac-test");
+    putCPUMetric(db, 4D, "1", "ac-test");
+    putCPUMetric(db, 6D, "2", "ac-test");
+    putCPUMetric(db, 8D, "1", "ac-test-2");
+    putRSSMetric(db, 1D, "1", "ac-test");
+    putRSSMetric(db, 5D, "1", "ac-test-2");
+    putRSSMetric(db, 3D, "2", "ac-test");
+    putRSSMetric(db, 3D, "2", "ac-test");
+    Result<Record> res =
+        db.queryMetric(Arrays.asList("cpu", "rss"), Arrays.asList("sum", "sum"), DIMS);
+    assertEquals(3, res.size());
+    assertEquals(14D, res.get(0).getValue("cpu", Double.class), 0);
+    assertEquals(1D, res.get(0).getValue("rss", Double.class), 0);
+    assertEquals(8D, res.get(1).getValue("cpu", Double.class), 0);
+    assertEquals(5D, res.get(1).getValue("rss", Double.class), 0);
+    assertEquals(6D, res.get(2).getValue("cpu", Double.class), 0);
+    assertEquals(6D, res.get(2).getValue("rss", Double.class), 0);
+  }
+
+  @Test
+  public void testTableNonexistent() throws Exception {
+    db.createMetric(Metric.cpu(10D), DIMS);
+    putCPUMetric(db, 10D, "1", "ac-test");
+    putCPUMetric(db, 4D, "1", "ac-test");
+
+    assertNull(
+        db.queryMetric(Arrays.asList("pseudocpu"), Arrays.asList("sum"), DIMS));
+    Result<Record> res =
+        db.queryMetric(Arrays.asList("cpu", "pseudocpu"), Arrays.asList("sum", "sum"), DIMS);
+    assertEquals(1, res.size());
+    assertEquals(14D, res.get(0).getValue("cpu", Double.class), 0);
+    assertNull(res.get(0).get("pseudocpu"));
+  }
+
+  @Test(expected = DataAccessException.class)
+  public void testQueryMissingTable() {
+    db.queryMetric("cpu");
+  }
+
+  @Test(expected = Exception.class)
+  public void testQueryUnknownAggregation() throws Exception {
+    db.createMetric(Metric.cpu(10D), DIMS);
+    db.queryMetric(Arrays.asList("cpu"), Arrays.asList("median"), DIMS);
+  }
+
+  @Test(expected = DataAccessException.class)
+  public void testQueryMetric_invalidDimension() {
+    db.createMetric(Metric.cpu(10D), DIMS);
+    putCPUMetric(db, 10D, "1", "ac-test");
+    db.queryMetric("cpu", Arrays.asList("shard", "operation"), 10);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testQueryMetric_invalidLimit() {
+    db.createMetric(Metric.cpu(10D), DIMS);
+    db.queryMetric("cpu", Arrays.asList("shard"), -1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testIncorrectTableName() {
+    db.startBatchPut("", 3);
+  }
+
+  @Test
+  public void testBatchPut() throws Exception {
+    db.createMetric(Metric.cpu(0D), DIMS);
+    BatchPut handle = db.startBatchPut(Metric.cpu(0D), DIMS);
+    handle.bind("1", "ac-test", 1D, 1D, 1D, 1D);
+    handle.bind("2", null, 2L, 2L, 2L, 2L);
+    handle.bind("3", "ac-test", null, null, null, null);
+    assertEquals(3, handle.size());
+    assertEquals(0, db.queryMetric("cpu").size());
+    handle.execute();
+
+    Result<Record> res = db.queryMetric("cpu");
+    assertEquals(3, res.size());
+    assertEquals("2", res.get(1).get("shard"));
+    assertNull(res.get(1).get("index"));
+    assertEquals(2D, res.get(1).getValue(MetricsDB.MAX, Double.class), 0);
+    assertNull(res.get(2).get(MetricsDB.SUM));
+
+    handle = db.startBatchPut("cpu", DIMS.size());
+    handle.bind("4", "ac-test", 4D, 4D, 4D, 4D);
+    handle.execute();
+    assertEquals(4, db.queryMetric("cpu").size());
+  }
+
+  @Test
+  public void testDeleteMetric() {
+    db.createMetric(Metric.cpu(10D), DIMS);
+    assertTrue(db.metricExists("cpu"));
+    db.deleteMetric("cpu");
+    assertFalse(db.metricExists("cpu"));
+  }
+
+  @Test
+  public void testSQLView() throws Exception {
+    db.createMetric(Metric.cpu(10D), DIMS);
+    putCPUMetric(db, 10D, "1", "ac-test");
+    putCPUMetric(db, 4D, "2", "ac-test");
+
+    Result<?> res =
+        db.getDSLContext()
+            .select(DSL.sum(DSL.field(MetricsDB.SUM, Double.class)))
+            .from(DSL.table("cpu"))
+            .fetch();
+    assertEquals(14D, Double.parseDouble(res.get(0).get(0).toString()), 0);
+  }
+
+  @Test
+  public void testPersist() throws Exception {
+    db.createMetric(Metric.cpu(10D), DIMS);
+    putCPUMetric(db, 10D, "1", "ac-test");
+    db.deleteOnDiskFile();
+    assertFalse(new File(db.getDBFilePath()).exists());
+
+    db.persist();
+    assertTrue(new File(db.getDBFilePath()).exists());
+    MetricsDB onDisk = MetricsDB.fetchExisting(timestamp);
+    try {
+      assertSameResult(db.queryMetric("cpu"), onDisk.queryMetric("cpu"));
+    } finally {
+      onDisk.remove();
+    }
+  }
+
+  private static void assertSameResult(Result<Record> expected, Result<Record> actual) {
+    if (expected == null) {
+      assertNull(actual);
+      return;
+    }
+    assertEquals(expected.size(), actual.size());
+    assertEquals(expected.fields().length, actual.fields().length);
+    for (int row = 0; row < expected.size(); row++) {
+      for (int col = 0; col < expected.fields().length; col++) {
+        Object e = expected.get(row).get(col);
+        Object a = actual.get(row).get(col);
+        if (e == null || a == null) {
+          assertEquals(e, a);
+        } else if (e instanceof Number) {
+          assertEquals(((Number) e).doubleValue(), Double.parseDouble(a.toString()), 1e-9);
+        } else {
+          assertEquals(e.toString(), a.toString());
+        }
+      }
+    }
+  }
+
+  private void putCPUMetric(MetricsDB metricsDB, Double val, String shard, String index) {
+    Dimensions dimensions = new Dimensions();
+    dimensions.put("shard", shard);
+    dimensions.put("index", index);
+    metricsDB.putMetric(Metric.cpu(val), dimensions, 0);
+  }
+
+  private void putRSSMetric(MetricsDB metricsDB, Double val, String shard, String index) {
+    Dimensions dimensions = new Dimensions();
+    dimensions.put("shard", shard);
+    dimensions.put("index", index);
+    metricsDB.putMetric(Metric.rss(val), dimensions, 0);
+  }
+}
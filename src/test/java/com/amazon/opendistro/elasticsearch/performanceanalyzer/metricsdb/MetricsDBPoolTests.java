@@ -0,0 +1,149 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MetricsDBPoolTests {
+  private Map<Long, Integer> opens;
+  private MetricsDBPool pool;
+
+  @Before
+  public void setUp() {
+    opens = new HashMap<>();
+    pool = new MetricsDBPool(2, windowStartTime -> {
+      opens.merge(windowStartTime, 1, Integer::sum);
+      return mock(MetricsDB.class);
+    });
+  }
+
+  @Test
+  public void testReusesPooledHandle() throws Exception {
+    MetricsDB db;
+    try (MetricsDBPool.Lease lease = pool.acquire(1L)) {
+      db = lease.getMetricsDB();
+    }
+    try (MetricsDBPool.Lease lease = pool.acquire(1L)) {
+      assertSame(db, lease.getMetricsDB());
+    }
+    assertEquals(1, (int) opens.get(1L));
+    assertEquals(1, pool.size());
+    verify(db, never()).remove();
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsedIdleHandle() throws Exception {
+    MetricsDBPool.Lease first = pool.acquire(1L);
+    MetricsDBPool.Lease second = pool.acquire(2L);
+    second.close();
+    // Over capacity while 1 is leased: 2 is the only idle handle.
+    MetricsDBPool.Lease third = pool.acquire(3L);
+    assertEquals(2, pool.size());
+    verify(second.getMetricsDB()).remove();
+    verify(first.getMetricsDB(), never()).remove();
+
+    first.close();
+    third.close();
+    try (MetricsDBPool.Lease lease = pool.acquire(2L)) {
+      assertNotSame(second.getMetricsDB(), lease.getMetricsDB());
+    }
+    assertEquals(2, (int) opens.get(2L));
+    verify(first.getMetricsDB()).remove();
+    verify(third.getMetricsDB(), never()).remove();
+  }
+
+  @Test
+  public void testInvalidateClosesAfterLastLease() throws Exception {
+    MetricsDBPool.Lease lease = pool.acquire(1L);
+    MetricsDBPool.Lease other = pool.acquire(1L);
+    pool.invalidate(1L);
+    assertEquals(0, pool.size());
+
+    lease.close();
+    lease.close();
+    verify(lease.getMetricsDB(), never()).remove();
+    other.close();
+    verify(lease.getMetricsDB(), times(1)).remove();
+
+    try (MetricsDBPool.Lease reopened = pool.acquire(1L)) {
+      assertNotSame(lease.getMetricsDB(), reopened.getMetricsDB());
+    }
+  }
+
+  @Test
+  public void testEndsReadTransactionWhenLastLeaseIsClosed() throws Exception {
+    MetricsDBPool.Lease lease = pool.acquire(1L);
+    MetricsDBPool.Lease other = pool.acquire(1L);
+    MetricsDB db = lease.getMetricsDB();
+    lease.close();
+    verify(db, never()).commit();
+    other.close();
+    verify(db, times(1)).commit();
+    verify(db, never()).remove();
+    assertEquals(1, pool.size());
+  }
+
+  @Test
+  public void testDropsHandleWhoseReadTransactionCannotEnd() throws Exception {
+    MetricsDB db;
+    try (MetricsDBPool.Lease lease = pool.acquire(1L)) {
+      db = lease.getMetricsDB();
+      doThrow(new Exception("closed")).when(db).commit();
+    }
+    verify(db).remove();
+    assertEquals(0, pool.size());
+    try (MetricsDBPool.Lease lease = pool.acquire(1L)) {
+      assertNotSame(db, lease.getMetricsDB());
+    }
+  }
+
+  @Test
+  public void testClear() throws Exception {
+    MetricsDBPool.Lease leased = pool.acquire(1L);
+    MetricsDBPool.Lease idle = pool.acquire(2L);
+    idle.close();
+    pool.clear();
+    assertEquals(0, pool.size());
+    verify(idle.getMetricsDB()).remove();
+    verify(leased.getMetricsDB(), never()).remove();
+    leased.close();
+    verify(leased.getMetricsDB()).remove();
+  }
+
+  @Test(expected = Exception.class)
+  public void testAcquireMissingFile() throws Exception {
+    MetricsDBPool failing = new MetricsDBPool(2, windowStartTime -> {
+      throw new Exception("no such file");
+    });
+    try {
+      failing.acquire(1L);
+    } finally {
+      assertEquals(0, failing.size());
+    }
+  }
+}
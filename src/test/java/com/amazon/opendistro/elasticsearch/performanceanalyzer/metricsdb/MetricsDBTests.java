@@ -30,7 +30,6 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
-import org.jooq.BatchBindStep;
 import org.jooq.Record;
 import org.jooq.Result;
 import org.junit.After;
@@ -340,7 +339,7 @@ public class MetricsDBTests {
           }
         };
     mdb.createMetric(new Metric<Double>(metricColumn, 0d), dims);
-    BatchBindStep handle = mdb.startBatchPut(new Metric<Double>(metricColumn, 0d), dims);
+    BatchPut handle = mdb.startBatchPut(new Metric<Double>(metricColumn, 0d), dims);
 
     Dimensions dimensions = new Dimensions();
     for (int i = 0; i < iterations; i++) {
@@ -351,6 +350,47 @@ public class MetricsDBTests {
     return mFinalT - mCurrT;
   }
 
+  @Test
+  public void testBatchPutAcrossBatches() throws Exception {
+    List<String> dims = Arrays.asList("shard", "index");
+    db.createMetric(new Metric<Double>("cpu", 0d), dims);
+    BatchPut handle = db.startBatchPut(new Metric<Double>("cpu", 0d), dims);
+    handle.bind("1", "ac-test", 1D, 1D, 1D, 1D);
+    handle.bind("2", "ac-test", 2L, 2L, 2L, 2L);
+    assertEquals(2, handle.size());
+    handle.execute();
+    assertEquals(0, handle.size());
+
+    // A later batch for the same table reuses its statement; values left out are null.
+    handle = db.startBatchPut("cpu", dims.size() + 4);
+    handle.bind("3", "ac-test", 3D);
+    handle.execute();
+    assertEquals(3, db.getRowsWritten());
+
+    Result<Record> res = db.queryMetric("cpu");
+    assertEquals(3, res.size());
+    assertEquals(2D, Double.parseDouble(res.get(1).get(MetricsDB.MAX).toString()), 0);
+    assertEquals(3D, Double.parseDouble(res.get(2).get(MetricsDB.SUM).toString()), 0);
+    assertNull(res.get(2).get(MetricsDB.MAX));
+  }
+
+  @Test
+  public void testBatchPutsOnSameTableDoNotShareRows() throws Exception {
+    List<String> dims = Arrays.asList("shard", "index");
+    db.createMetric(new Metric<Double>("cpu", 0d), dims);
+    BatchPut first = db.startBatchPut(new Metric<Double>("cpu", 0d), dims);
+    BatchPut second = db.startBatchPut(new Metric<Double>("cpu", 0d), dims);
+    first.bind("1", "ac-test", 1D, 1D, 1D, 1D);
+    second.bind("2", "ac-test", 2D, 2D, 2D, 2D);
+    first.bind("3", "ac-test", 3D, 3D, 3D, 3D);
+
+    assertEquals(2, first.execute().length);
+    assertEquals(2, db.queryMetric("cpu").size());
+    assertEquals(1, second.execute().length);
+    assertEquals(3, db.queryMetric("cpu").size());
+    assertEquals(3, db.getRowsWritten());
+  }
+
   @Test(expected = IllegalArgumentException.class)
   public void testIncorrectTableName() {
     this.db.startBatchPut("", 3);
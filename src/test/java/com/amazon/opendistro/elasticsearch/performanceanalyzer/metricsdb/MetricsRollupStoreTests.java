@@ -0,0 +1,153 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.MetricsRollupStore.Resolution;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MetricsRollupStoreTests {
+  private static final List<String> DIMS = Arrays.asList("index", "shard");
+  // The start of an hour.
+  private static final long HOUR = 1600002000000L;
+
+  private File dir;
+  private MetricsRollupStore store;
+  private final List<MetricsDB> windows = new ArrayList<>();
+
+  public MetricsRollupStoreTests() throws ClassNotFoundException {
+    Class.forName("org.sqlite.JDBC");
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    dir = Files.createTempDirectory("rollup").toFile();
+    store = newStore();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    store.close();
+    for (MetricsDB window : windows) {
+      window.remove();
+      window.deleteOnDiskFile();
+    }
+    for (File file : dir.listFiles()) {
+      file.delete();
+    }
+    dir.delete();
+  }
+
+  @Test
+  public void testCoarsestResolution() {
+    assertNull(MetricsRollupStore.coarsestResolution(5000));
+    assertNull(MetricsRollupStore.coarsestResolution(90000));
+    assertEquals(Resolution.ONE_MINUTE, MetricsRollupStore.coarsestResolution(120000));
+    assertEquals(Resolution.FIVE_MINUTES, MetricsRollupStore.coarsestResolution(600000));
+  }
+
+  @Test
+  public void testRollup() throws Exception {
+    store.add(window(HOUR, 10D));
+    store.add(window(HOUR + 5000, 20D));
+    store.add(window(HOUR + 10000, null));
+    // Buckets are only written once a window of a later bucket arrives.
+    assertTrue(store.getBuckets(Resolution.ONE_MINUTE).isEmpty());
+
+    store.add(window(HOUR + 60000, 40D));
+    assertEquals(Collections.singleton(HOUR), store.getBuckets(Resolution.ONE_MINUTE));
+    assertTrue(store.getBuckets(Resolution.FIVE_MINUTES).isEmpty());
+    // Until the 5 minute bucket is written, the sample falls back to the 1 minute bucket.
+    assertEquals(Resolution.ONE_MINUTE, store.resolutionWithBucket(Resolution.FIVE_MINUTES, HOUR));
+    assertNull(store.resolutionWithBucket(Resolution.FIVE_MINUTES, HOUR + 60000));
+
+    Result<Record> res = store.queryMetric(Resolution.ONE_MINUTE, HOUR, "cpu", DIMS, 10);
+    assertEquals(1, res.size());
+    assertEquals("ac-test", res.get(0).get("index"));
+    assertEquals(15D, res.get(0).getValue(MetricsDB.SUM, Double.class), 0);
+    assertEquals(15D, res.get(0).getValue(MetricsDB.AVG, Double.class), 0);
+    assertEquals(10D, res.get(0).getValue(MetricsDB.MIN, Double.class), 0);
+    assertEquals(20D, res.get(0).getValue(MetricsDB.MAX, Double.class), 0);
+    assertNull(store.queryMetric(Resolution.ONE_MINUTE, HOUR, "rss", DIMS, 10));
+    assertNull(store.queryMetric(Resolution.ONE_MINUTE, HOUR + 60000, "cpu", DIMS, 10));
+
+    store.add(window(HOUR + 300000, 1D));
+    assertEquals(
+        Arrays.asList(HOUR, HOUR + 60000), new ArrayList<>(store.getBuckets(Resolution.ONE_MINUTE)));
+    assertEquals(Resolution.FIVE_MINUTES, store.resolutionWithBucket(Resolution.FIVE_MINUTES, HOUR));
+    assertEquals(Resolution.ONE_MINUTE, store.resolutionWithBucket(Resolution.ONE_MINUTE, HOUR));
+    res = store.queryMetric(Resolution.FIVE_MINUTES, HOUR, "cpu", DIMS, 10);
+    assertEquals(1, res.size());
+    assertEquals(70D / 3, res.get(0).getValue(MetricsDB.SUM, Double.class), 1e-9);
+    assertEquals(10D, res.get(0).getValue(MetricsDB.MIN, Double.class), 0);
+    assertEquals(40D, res.get(0).getValue(MetricsDB.MAX, Double.class), 0);
+  }
+
+  @Test
+  public void testRestoreAndTrim() throws Exception {
+    store.add(window(HOUR, 10D));
+    store.add(window(HOUR + MetricsRollupStore.SEGMENT_MILLIS, 10D));
+    store.add(window(HOUR + 2 * MetricsRollupStore.SEGMENT_MILLIS, 10D));
+    store.close();
+
+    store = newStore();
+    store.restore(HOUR + MetricsRollupStore.SEGMENT_MILLIS, true);
+    assertFalse(new File(store.getSegmentFilePath(HOUR)).exists());
+    assertEquals(
+        Collections.singleton(HOUR + MetricsRollupStore.SEGMENT_MILLIS),
+        store.getBuckets(Resolution.FIVE_MINUTES));
+    assertEquals(
+        1, store.queryMetric(Resolution.FIVE_MINUTES, HOUR + MetricsRollupStore.SEGMENT_MILLIS, "cpu", DIMS, 10)
+            .size());
+
+    store.trim(HOUR + 2 * MetricsRollupStore.SEGMENT_MILLIS, true);
+    assertTrue(store.getBuckets(Resolution.FIVE_MINUTES).isEmpty());
+    assertFalse(new File(store.getSegmentFilePath(HOUR + MetricsRollupStore.SEGMENT_MILLIS)).exists());
+  }
+
+  private MetricsRollupStore newStore() {
+    return new MetricsRollupStore(
+        dir.getAbsolutePath() + "/metricsdb_", Collections.singletonMap("cpu", DIMS));
+  }
+
+  private MetricsDB window(long windowStartTime, Double value) throws Exception {
+    MetricsDB db = new MetricsDB(windowStartTime);
+    windows.add(db);
+    db.createMetric(Metric.cpu(0D), DIMS);
+    if (value != null) {
+      Dimensions dimensions = new Dimensions();
+      dimensions.put("index", "ac-test");
+      dimensions.put("shard", "1");
+      db.putMetric(Metric.cpu(value), dimensions, 0);
+    }
+    db.commit();
+    return db;
+  }
+}
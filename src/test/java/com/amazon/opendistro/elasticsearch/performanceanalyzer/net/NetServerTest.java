@@ -0,0 +1,113 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.MetricsRequest;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.MetricsResponse;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.handler.MetricsServerHandler;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public class NetServerTest {
+    private NetServer netServer;
+
+    @After
+    public void tearDown() {
+        netServer.shutdown();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testGetMetricsIsRejectedOnceItsPoolIsFull() throws Exception {
+        netServer = new NetServer(0, 1, false, 0, 1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        MetricsServerHandler handler = mock(MetricsServerHandler.class);
+        doAnswer(invocation -> {
+            started.countDown();
+            release.await();
+            return null;
+        }).when(handler).collectAPIData(any(), any());
+        netServer.setMetricsHandler(handler);
+
+        MetricsRequest request = MetricsRequest.getDefaultInstance();
+        netServer.getMetrics(request, mock(StreamObserver.class));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        StreamObserver<MetricsResponse> queued = mock(StreamObserver.class);
+        for (int i = 0; i < NetServer.METRICS_HANDLER_QUEUE_SIZE; i++) {
+            netServer.getMetrics(request, queued);
+        }
+        StreamObserver<MetricsResponse> rejected = mock(StreamObserver.class);
+        netServer.getMetrics(request, rejected);
+
+        ArgumentCaptor<Throwable> error = ArgumentCaptor.forClass(Throwable.class);
+        verify(rejected).onError(error.capture());
+        assertEquals(Status.Code.RESOURCE_EXHAUSTED,
+            Status.fromThrowable(error.getValue()).getCode());
+        verify(queued, never()).onError(any());
+
+        release.countDown();
+        verify(handler, timeout(10000).times(NetServer.METRICS_HANDLER_QUEUE_SIZE + 1))
+            .collectAPIData(any(), any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testGetMetricsRunsInlineWithoutAPool() {
+        netServer = new NetServer(0, 1, false);
+        MetricsServerHandler handler = mock(MetricsServerHandler.class);
+        netServer.setMetricsHandler(handler);
+        StreamObserver<MetricsResponse> responseObserver = mock(StreamObserver.class);
+
+        netServer.getMetrics(MetricsRequest.getDefaultInstance(), responseObserver);
+        verify(handler).collectAPIData(MetricsRequest.getDefaultInstance(), responseObserver);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testGetMetricsGetsAPoolWhenHandlersRunOnTheEventLoop() throws Exception {
+        netServer = new NetServer(0, 1, false, 0, 0);
+        AtomicReference<Thread> servingThread = new AtomicReference<>();
+        CountDownLatch served = new CountDownLatch(1);
+        MetricsServerHandler handler = mock(MetricsServerHandler.class);
+        doAnswer(invocation -> {
+            servingThread.set(Thread.currentThread());
+            served.countDown();
+            return null;
+        }).when(handler).collectAPIData(any(), any());
+        netServer.setMetricsHandler(handler);
+
+        netServer.getMetrics(MetricsRequest.getDefaultInstance(), mock(StreamObserver.class));
+        assertTrue(served.await(10, TimeUnit.SECONDS));
+        assertNotSame(Thread.currentThread(), servingThread.get());
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.os;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatExceptionCode;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ProcFileReaderTests {
+  private static final String STAT =
+      "4242 (elasticsearch[n) x]) S 1 4242 4242 0 -1 1077936192 "
+          + "111 0 222 0 333 444 0 0 20 0 80 0 5555 6666666 7777 18446744073709551615\n";
+  private static final String SCHEDSTAT = "123456789 987654321 4321\n";
+  private static final String IO =
+      "rchar: 100\nwchar: 200\nsyscr: 3\nsyscw: 4\nread_bytes: 4096\nwrite_bytes: 8192\n"
+          + "cancelled_write_bytes: 0\n";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Path write(String content) throws IOException {
+    Path file = folder.newFile().toPath();
+    Files.write(file, content.getBytes(StandardCharsets.US_ASCII));
+    return file;
+  }
+
+  @Test
+  public void testParseStatFieldsAfterThreadNameWithSpacesAndParentheses() throws IOException {
+    ProcFileReader reader = new ProcFileReader();
+    reader.read(write(STAT));
+    long[] values = new long[6];
+    Assert.assertTrue(reader.parseStatFields(new int[] {10, 12, 14, 15, 24}, values, 1));
+    Assert.assertArrayEquals(new long[] {0, 111, 222, 333, 444, 7777}, values);
+
+    Assert.assertFalse(reader.parseStatFields(new int[] {10, 40}, new long[2], 0));
+  }
+
+  @Test
+  public void testParseFields() throws IOException {
+    ProcFileReader reader = new ProcFileReader();
+    reader.read(write(SCHEDSTAT));
+    long[] values = new long[3];
+    Assert.assertTrue(reader.parseFields(3, values, 0));
+    Assert.assertArrayEquals(new long[] {123456789L, 987654321L, 4321L}, values);
+
+    Assert.assertFalse(reader.parseFields(4, new long[4], 0));
+  }
+
+  @Test
+  public void testParseKeyValueLines() throws IOException {
+    ProcFileReader reader = new ProcFileReader();
+    reader.read(write(IO));
+    long[] values = new long[3];
+    Assert.assertTrue(
+        reader.parseKeyValueLines(
+            ProcFileReader.asciiKeys("write_bytes", "rchar", "syscw"), values, 0));
+    Assert.assertArrayEquals(new long[] {8192, 100, 4}, values);
+
+    Assert.assertFalse(
+        reader.parseKeyValueLines(ProcFileReader.asciiKeys("rchar", "missing"), new long[2], 0));
+  }
+
+  @Test
+  public void testReadGrowsBufferAndIsReused() throws IOException {
+    ProcFileReader reader = new ProcFileReader();
+    StringBuilder longFile = new StringBuilder();
+    for (int i = 0; i < 2000; i++) {
+      longFile.append(i).append(' ');
+    }
+    reader.read(write(longFile.toString()));
+    long[] values = new long[2000];
+    Assert.assertTrue(reader.parseFields(2000, values, 0));
+    Assert.assertEquals(1999, values[1999]);
+
+    // A shorter file read afterwards does not see what is left of the longer one.
+    reader.read(write(SCHEDSTAT));
+    Assert.assertFalse(reader.parseFields(4, new long[4], 0));
+  }
+
+  @Test
+  public void testThreadProcTableReleasesSlotsOfGoneThreads() {
+    String pid = OSGlobals.getPid();
+    if (!new File("/proc/" + pid + "/task/" + pid + "/schedstat").exists()) {
+      // Only runs where the process has a /proc/pid/task/tid/schedstat.
+      return;
+    }
+    ThreadProcTable table =
+        new ThreadProcTable(
+            pid,
+            "schedstat",
+            3,
+            (reader, values, offset) -> reader.parseFields(3, values, offset),
+            StatExceptionCode.SCHEMA_PARSER_ERROR);
+
+    table.sample(Arrays.asList(pid, "-1"));
+    Assert.assertEquals(2, table.getSlotCount());
+    Assert.assertFalse(table.hasBothSamples(0));
+
+    table.sample(Arrays.asList(pid));
+    Assert.assertEquals(pid, table.getTid(0));
+    Assert.assertTrue(table.hasBothSamples(0));
+    Assert.assertTrue(table.getDelta(0, 2) >= 0);
+    // The thread that was not listed again is gone, and its slot is free.
+    Assert.assertNull(table.getTid(1));
+
+    table.sample(Arrays.asList(pid, "-2"));
+    Assert.assertEquals(2, table.getSlotCount());
+    Assert.assertEquals("-2", table.getTid(1));
+    Assert.assertFalse(table.hasBothSamples(1));
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.flow_units;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.Dimensions;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.Metric;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.MetricsDB;
+import java.util.Arrays;
+import org.jooq.Cursor;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MetricTableTest {
+  private static final Field<String> INDEX = DSL.field("IndexName", String.class);
+  private static final Field<String> SHARD = DSL.field("ShardID", String.class);
+  private static final Field<Double> SUM = DSL.field(MetricsDB.SUM, Double.class);
+  private static final Field<Long> COUNT = DSL.field("count", Long.class);
+
+  private Result<Record> result;
+
+  @Before
+  public void setUp() {
+    DSLContext context = DSL.using(SQLDialect.SQLITE);
+    result = context.newResult(new Field<?>[] {INDEX, SHARD, SUM, COUNT});
+    for (Object[] row : Arrays.asList(
+        new Object[] {"index-a", "0", 1.5D, 3L},
+        new Object[] {"index-a", "1", null, null},
+        new Object[] {"index-b", null, 4D, 5L})) {
+      Record record = context.newRecord(new Field<?>[] {INDEX, SHARD, SUM, COUNT});
+      record.fromArray(row);
+      result.add(record);
+    }
+  }
+
+  @Test
+  public void testColumns() {
+    MetricTable table = MetricTable.fromResult(result);
+    Assert.assertEquals(3, table.size());
+    Assert.assertEquals(4, table.fieldCount());
+    Assert.assertEquals(2, table.indexOf(MetricsDB.SUM));
+    Assert.assertEquals(-1, table.indexOf(MetricsDB.AVG));
+    Assert.assertFalse(table.isNumeric(table.indexOf("ShardID")));
+    Assert.assertTrue(table.isNumeric(table.indexOf("count")));
+
+    Assert.assertSame(table.getString(0, 0), table.getString(0, 1));
+    Assert.assertEquals(1D, table.getDouble(1, 1), 0);
+    Assert.assertTrue(Double.isNaN(table.getDouble(2, 1)));
+    Assert.assertNull(table.getString(2, 1));
+    Assert.assertEquals("4.0", table.getString(2, 2));
+  }
+
+  @Test
+  public void testFromLazyQuery() throws Exception {
+    MetricsDB db = new MetricsDB(1L);
+    try {
+      db.createMetric(Metric.cpu(0D), Arrays.asList("ShardID", "IndexName"));
+      for (int i = 0; i < 40; i++) {
+        Dimensions dimensions = new Dimensions();
+        dimensions.put("ShardID", String.valueOf(i % 2));
+        dimensions.put("IndexName", "index-a");
+        db.putMetric(Metric.cpu((double) i), dimensions, 0);
+      }
+      MetricTable table;
+      try (Cursor<Record> cursor = db.queryMetricLazily("cpu")) {
+        table = MetricTable.fromRecords(cursor.fields(), cursor.iterator());
+      }
+      Assert.assertEquals(40, table.size());
+      int sum = table.indexOf(MetricsDB.SUM);
+      int shard = table.indexOf("ShardID");
+      Assert.assertTrue(table.isNumeric(sum));
+      Assert.assertFalse(table.isNumeric(shard));
+      Assert.assertEquals(39D, table.getDouble(sum, 39), 0);
+      Assert.assertSame(table.getString(shard, 1), table.getString(shard, 39));
+      Assert.assertEquals(db.queryMetric("cpu"), table.toResult());
+    } finally {
+      db.remove();
+      db.deleteOnDiskFile();
+    }
+  }
+
+  @Test
+  public void testCursor() {
+    MetricTable table = MetricTable.fromResult(result);
+    int sum = table.indexOf(MetricsDB.SUM);
+    int shard = table.indexOf("ShardID");
+    double total = 0;
+    int nullShards = 0;
+    for (MetricTable.Cursor cursor = table.cursor(); cursor.next(); ) {
+      if (!cursor.isNull(sum)) {
+        total += cursor.getDouble(sum);
+      }
+      if (cursor.isNull(shard)) {
+        nullShards++;
+      }
+    }
+    Assert.assertEquals(5.5D, total, 0);
+    Assert.assertEquals(1, nullShards);
+  }
+
+  @Test
+  public void testFlowUnitAdaptsBetweenRepresentations() {
+    MetricFlowUnit fromResult = new MetricFlowUnit(0, result);
+    Assert.assertSame(result, fromResult.getData());
+    Assert.assertSame(fromResult.getTable(), fromResult.getTable());
+
+    MetricFlowUnit fromTable = new MetricFlowUnit(0, MetricTable.fromResult(result));
+    Assert.assertFalse(fromTable.isEmpty());
+    Result<Record> data = fromTable.getData();
+    Assert.assertSame(data, fromTable.getData());
+    Assert.assertEquals(result, data);
+    Assert.assertEquals(Long.valueOf(3L), data.get(0).getValue(COUNT));
+    Assert.assertNull(data.get(1).getValue(SUM));
+
+    Assert.assertNull(MetricFlowUnit.generic().getTable());
+    Assert.assertNull(MetricFlowUnit.generic().getData());
+  }
+}
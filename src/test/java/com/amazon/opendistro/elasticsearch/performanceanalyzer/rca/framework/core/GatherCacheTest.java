@@ -0,0 +1,132 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.MetricsDB;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.exception.DataAccessException;
+import org.jooq.impl.DSL;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GatherCacheTest {
+  private GatherCache<Result<Record>> cache;
+  private AtomicInteger queries;
+
+  @Before
+  public void setUp() {
+    cache = new GatherCache<>();
+    queries = new AtomicInteger();
+  }
+
+  @Test
+  public void testSameWindowIsCached() throws Exception {
+    MetricsDB db = db(5000L);
+    Result<Record> first = cache.get(db, "cpu", this::query);
+    assertSame(first, cache.get(db, "cpu", this::query));
+    cache.get(db, "rss", this::query);
+    assertEquals(2, queries.get());
+    assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void testNewerWindowDropsResults() throws Exception {
+    cache.get(db(5000L), "cpu", this::query);
+    cache.get(db(5000L), "rss", this::query);
+    cache.get(db(10000L), "cpu", this::query);
+    assertEquals(3, queries.get());
+    assertEquals(1, cache.size());
+
+    // Older windows are queried but not cached.
+    cache.get(db(5000L), "cpu", this::query);
+    cache.get(db(5000L), "cpu", this::query);
+    assertEquals(5, queries.get());
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void testClearDropsResultsOfTheSameWindow() throws Exception {
+    MetricsDB db = db(5000L);
+    cache.get(db, "cpu", this::query);
+    cache.clear();
+    assertEquals(0, cache.size());
+    cache.get(db, "cpu", this::query);
+    assertEquals(2, queries.get());
+  }
+
+  @Test
+  public void testFailureIsNotCached() throws Exception {
+    MetricsDB db = db(5000L);
+    try {
+      cache.get(db, "cpu", () -> {
+        throw new DataAccessException("no such table: cpu");
+      });
+      fail();
+    } catch (DataAccessException e) {
+      // expected
+    }
+    assertEquals(0, cache.size());
+    cache.get(db, "cpu", this::query);
+    assertEquals(1, queries.get());
+  }
+
+  @Test
+  public void testConcurrentQueriesRunOnce() throws Exception {
+    MetricsDB db = db(5000L);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<Result<Record>> first = executor.submit(() -> cache.get(db, "cpu", () -> {
+        started.countDown();
+        release.await();
+        return query();
+      }));
+      started.await();
+      Future<Result<Record>> second = executor.submit(() -> cache.get(db, "cpu", this::query));
+      release.countDown();
+      assertSame(first.get(10, TimeUnit.SECONDS), second.get(10, TimeUnit.SECONDS));
+      assertEquals(1, queries.get());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private MetricsDB db(long windowStartTime) {
+    MetricsDB db = mock(MetricsDB.class);
+    when(db.getWindowStartTime()).thenReturn(windowStartTime);
+    return db;
+  }
+
+  private Result<Record> query() {
+    queries.incrementAndGet();
+    return DSL.using(SQLDialect.SQLITE).newResult();
+  }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.AppContext;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitBatchMessage;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitEncoding;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.NodeTemperatureSummaryMessage;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.PublishResponse;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.PublishResponse.PublishResponseStatus;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.net.NetClient;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitMessage;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.GenericFlowUnit;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.util.InstanceDetails;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.messages.DataMsg;
+import com.google.common.collect.ImmutableSet;
+import io.grpc.stub.StreamObserver;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public class FlowUnitBatcherTest {
+  private static final String NODE1 = "NODE1";
+  private static final String NODE2 = "NODE2";
+  private static final InstanceDetails.Id HOST1 = new InstanceDetails.Id("host1");
+  private static final InstanceDetails.Id HOST2 = new InstanceDetails.Id("host2");
+
+  private NetClient netClient;
+  private SubscriptionManager subscriptionManager;
+  private FlowUnitBatcher uut;
+
+  @Before
+  public void setup() {
+    netClient = mock(NetClient.class);
+    subscriptionManager = mock(SubscriptionManager.class);
+    when(netClient.isBatchStreamReady(any())).thenReturn(true);
+    when(subscriptionManager.isNodeSubscribed(any())).thenReturn(true);
+    when(subscriptionManager.getSubscribersFor(NODE1)).thenReturn(ImmutableSet.of(HOST1, HOST2));
+    when(subscriptionManager.getSubscribersFor(NODE2)).thenReturn(ImmutableSet.of(HOST1));
+    uut = new FlowUnitBatcher(netClient, subscriptionManager, new AppContext(), 3);
+  }
+
+  /** A flow unit whose message carries the timestamp it was created with. */
+  private static class TimestampedFlowUnit extends GenericFlowUnit {
+    TimestampedFlowUnit(long timeStamp) {
+      super(timeStamp);
+    }
+
+    @Override
+    public FlowUnitMessage buildFlowUnitMessage(String graphNode, InstanceDetails.Id esNode) {
+      return FlowUnitMessage.newBuilder()
+          .setGraphNode(graphNode)
+          .setEsNode(esNode.toString())
+          .setTimeStamp(getTimeStamp())
+          .build();
+    }
+  }
+
+  private static DataMsg dataMsg(String graphNode, long... timestamps) {
+    List<TimestampedFlowUnit> flowUnits = new ArrayList<>();
+    for (long timestamp : timestamps) {
+      flowUnits.add(new TimestampedFlowUnit(timestamp));
+    }
+    return new DataMsg(graphNode, Collections.emptyList(), flowUnits);
+  }
+
+  private FlowUnitBatchMessage captureBatch() {
+    ArgumentCaptor<FlowUnitBatchMessage> captor = ArgumentCaptor.forClass(FlowUnitBatchMessage.class);
+    verify(netClient).publishBatch(any(), captor.capture(), any());
+    return captor.getValue();
+  }
+
+  private static List<String> describe(FlowUnitBatchMessage batch) {
+    return batch.getFlowUnitList().stream()
+        .map(m -> m.getGraphNode() + "@" + m.getTimeStamp())
+        .collect(Collectors.toList());
+  }
+
+  @Test
+  public void testFlowUnitsForAHostGoOutInOneBatch() {
+    uut.add(dataMsg(NODE1, 1));
+    uut.add(dataMsg(NODE2, 1, 2));
+    Assert.assertEquals(2, uut.getPendingHosts().size());
+    Assert.assertEquals(3, uut.getPendingCount(HOST1));
+    Assert.assertEquals(1, uut.getPendingCount(HOST2));
+
+    uut.flush(HOST1);
+    Assert.assertEquals(
+        Arrays.asList(NODE1 + "@1", NODE2 + "@1", NODE2 + "@2"),
+        describe(captureBatch()));
+    Assert.assertEquals(Collections.singletonList(HOST2), uut.getPendingHosts());
+  }
+
+  @Test
+  public void testNewerFlowUnitsReplaceBufferedOnes() {
+    uut.add(dataMsg(NODE2, 1, 2));
+    uut.add(dataMsg(NODE2, 3));
+    Assert.assertEquals(1, uut.getPendingCount(HOST1));
+    uut.flush(HOST1);
+    Assert.assertEquals(Collections.singletonList(NODE2 + "@3"), describe(captureBatch()));
+  }
+
+  @Test
+  public void testBufferIsBounded() {
+    uut.add(dataMsg(NODE1, 1));
+    uut.add(dataMsg(NODE2, 2, 3, 4));
+    // The oldest graph node is evicted first.
+    Assert.assertEquals(3, uut.getPendingCount(HOST1));
+    uut.add(dataMsg(NODE2, 5, 6, 7, 8));
+    Assert.assertEquals(3, uut.getPendingCount(HOST1));
+    uut.flush(HOST1);
+    Assert.assertEquals(
+        Arrays.asList(NODE2 + "@6", NODE2 + "@7", NODE2 + "@8"),
+        describe(captureBatch()));
+  }
+
+  @Test
+  public void testBatchIsHeldBackWhileStreamIsNotReady() {
+    when(netClient.isBatchStreamReady(HOST1)).thenReturn(false);
+    uut.add(dataMsg(NODE2, 1));
+    uut.flush(HOST1);
+    verify(netClient, never()).publishBatch(any(), any(), any());
+    Assert.assertEquals(1, uut.getPendingCount(HOST1));
+
+    when(netClient.isBatchStreamReady(HOST1)).thenReturn(true);
+    uut.add(dataMsg(NODE1, 2));
+    uut.flush(HOST1);
+    Assert.assertEquals(
+        Arrays.asList(NODE2 + "@1", NODE1 + "@2"), describe(captureBatch()));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testHostShutdownUnsubscribes() {
+    uut.add(dataMsg(NODE2, 1));
+    uut.flush(HOST1);
+    ArgumentCaptor<StreamObserver<PublishResponse>> captor =
+        ArgumentCaptor.forClass(StreamObserver.class);
+    verify(netClient).publishBatch(any(), any(), captor.capture());
+
+    captor.getValue().onNext(
+        PublishResponse.newBuilder().setDataStatus(PublishResponseStatus.NODE_SHUTDOWN).build());
+    verify(subscriptionManager).unsubscribeAndTerminateConnection(eq(NODE2), eq(HOST1));
+    verify(netClient).flushStream(HOST1);
+  }
+
+  @Test
+  public void testDeltaEncodingStartsOverOnANewStream() {
+    uut = new FlowUnitBatcher(netClient, subscriptionManager, new AppContext(), 3, true);
+    GenericFlowUnit flowUnit = new GenericFlowUnit(1) {
+      @Override
+      public FlowUnitMessage buildFlowUnitMessage(String graphNode, InstanceDetails.Id esNode) {
+        return FlowUnitMessage.newBuilder()
+            .setGraphNode(graphNode)
+            .setNodeTemperatureSummary(NodeTemperatureSummaryMessage.newBuilder().setNodeID("n"))
+            .build();
+      }
+    };
+    DataMsg dataMsg =
+        new DataMsg(NODE2, Collections.emptyList(), Collections.singletonList(flowUnit));
+    ArgumentCaptor<FlowUnitBatchMessage> captor =
+        ArgumentCaptor.forClass(FlowUnitBatchMessage.class);
+
+    when(netClient.hasBatchStream(HOST1)).thenReturn(false, true, false);
+    for (int i = 0; i < 3; i++) {
+      uut.add(dataMsg);
+      uut.flush(HOST1);
+    }
+    verify(netClient, times(3)).publishBatch(any(), captor.capture(), any());
+    Assert.assertEquals(
+        Arrays.asList(FlowUnitEncoding.FULL, FlowUnitEncoding.UNCHANGED, FlowUnitEncoding.FULL),
+        captor.getAllValues().stream()
+            .map(batch -> batch.getFlowUnit(0).getEncoding())
+            .collect(Collectors.toList()));
+  }
+
+  @Test
+  public void testNoSubscribers() {
+    when(subscriptionManager.isNodeSubscribed(NODE1)).thenReturn(false);
+    uut.add(dataMsg(NODE1, 1));
+    Assert.assertTrue(uut.getPendingHosts().isEmpty());
+    uut.flush(HOST1);
+    verify(netClient, never()).publishBatch(any(), any(), any());
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitBatchMessage;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitEncoding;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitMessage;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.HotNodeSummaryMessage;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.HotShardSummaryList;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.HotShardSummaryMessage;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.ResourceContextMessage;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FlowUnitEncoderTest {
+  private static final String NODE1 = "NODE1";
+  private static final String NODE2 = "NODE2";
+
+  private FlowUnitEncoder encoder;
+  private FlowUnitDecoder decoder;
+
+  @Before
+  public void setup() {
+    encoder = new FlowUnitEncoder();
+    decoder = new FlowUnitDecoder();
+  }
+
+  private static HotShardSummaryMessage shard(String indexName, String shardId, double cpu) {
+    return HotShardSummaryMessage.newBuilder()
+        .setIndexName(indexName)
+        .setShardId(shardId)
+        .setNodeId("node1")
+        .setCpuUtilization(cpu)
+        .setTimePeriod(60)
+        .build();
+  }
+
+  private static FlowUnitMessage flowUnit(
+      String graphNode, long timeStamp, HotShardSummaryMessage... shards) {
+    return FlowUnitMessage.newBuilder()
+        .setGraphNode(graphNode)
+        .setEsNode("node1")
+        .setTimeStamp(timeStamp)
+        .setResourceContext(ResourceContextMessage.newBuilder().setState(1))
+        .setHotNodeSummary(
+            HotNodeSummaryMessage.newBuilder()
+                .setNodeID("node1")
+                .setHostAddress("127.0.0.1")
+                .setHotShardSummaryList(
+                    HotShardSummaryList.newBuilder().addAllHotShardSummary(Arrays.asList(shards))))
+        .build();
+  }
+
+  private FlowUnitBatchMessage roundTrip(FlowUnitMessage... flowUnits) {
+    List<FlowUnitMessage> sent = Arrays.asList(flowUnits);
+    FlowUnitBatchMessage batch = encoder.encode(sent);
+    Assert.assertEquals(sent, decoder.decode(batch));
+    return batch;
+  }
+
+  @Test
+  public void testUnchangedSummaryIsLeftOut() {
+    FlowUnitBatchMessage first = roundTrip(flowUnit(NODE1, 1, shard("index1", "1", 0.5)));
+    Assert.assertEquals(FlowUnitEncoding.DELTA, first.getFlowUnit(0).getEncoding());
+
+    FlowUnitBatchMessage second = roundTrip(flowUnit(NODE1, 2, shard("index1", "1", 0.5)));
+    FlowUnitMessage encoded = second.getFlowUnit(0);
+    Assert.assertEquals(FlowUnitEncoding.UNCHANGED, encoded.getEncoding());
+    Assert.assertFalse(encoded.hasHotNodeSummary());
+    Assert.assertEquals(2, encoded.getTimeStamp());
+    Assert.assertTrue(second.getSerializedSize() < first.getSerializedSize());
+  }
+
+  @Test
+  public void testShardSummariesAreCodedAgainstTheLastSummary() {
+    FlowUnitBatchMessage first = roundTrip(
+        flowUnit(NODE1, 1, shard("index1", "1", 0.5), shard("index2", "1", 0.7)),
+        flowUnit(NODE2, 1, shard("index2", "2", 0.1)));
+    Assert.assertEquals(Arrays.asList("index1", "index2"), first.getIndexNameList());
+
+    FlowUnitBatchMessage second = roundTrip(
+        flowUnit(NODE1, 2,
+            shard("index2", "1", 0.7), shard("index1", "1", 0.9), shard("index3", "4", 0.2)));
+    Assert.assertEquals(Collections.singletonList("index3"), second.getIndexNameList());
+    FlowUnitMessage encoded = second.getFlowUnit(0);
+    Assert.assertEquals(FlowUnitEncoding.DELTA, encoded.getEncoding());
+    List<HotShardSummaryMessage> shards =
+        encoded.getHotNodeSummary().getHotShardSummaryList().getHotShardSummaryList();
+    Assert.assertEquals(HotShardSummaryMessage.newBuilder().setBaseRef(2).build(), shards.get(0));
+    Assert.assertEquals("", shards.get(1).getIndexName());
+    Assert.assertEquals(1, shards.get(1).getIndexNameRef());
+    Assert.assertEquals(0.9, shards.get(1).getCpuUtilization(), 0);
+    Assert.assertEquals(3, shards.get(2).getIndexNameRef());
+  }
+
+  @Test
+  public void testFlowUnitsWithoutShardsAreSentInFull() {
+    FlowUnitMessage empty = FlowUnitMessage.newBuilder().setGraphNode(NODE1).build();
+    Assert.assertEquals(FlowUnitEncoding.FULL, roundTrip(empty).getFlowUnit(0).getEncoding());
+    Assert.assertEquals(FlowUnitEncoding.FULL, roundTrip(empty).getFlowUnit(0).getEncoding());
+  }
+
+  @Test
+  public void testResetStartsOver() {
+    roundTrip(flowUnit(NODE1, 1, shard("index1", "1", 0.5)));
+    encoder.reset();
+    decoder = new FlowUnitDecoder();
+    FlowUnitBatchMessage batch = roundTrip(flowUnit(NODE1, 2, shard("index1", "1", 0.5)));
+    Assert.assertEquals(FlowUnitEncoding.DELTA, batch.getFlowUnit(0).getEncoding());
+    Assert.assertEquals(Collections.singletonList("index1"), batch.getIndexNameList());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testDecodingWithoutTheLastSummaryFails() {
+    encoder.encode(Collections.singletonList(flowUnit(NODE1, 1, shard("index1", "1", 0.5))));
+    decoder.decode(
+        encoder.encode(Collections.singletonList(flowUnit(NODE1, 2, shard("index1", "1", 0.5)))));
+  }
+}
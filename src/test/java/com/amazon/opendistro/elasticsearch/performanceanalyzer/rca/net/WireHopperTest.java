@@ -164,6 +164,40 @@ public class WireHopperTest {
         uut.sendData(msg);
     }
 
+    @Test
+    public void testSendDataBatched() throws Exception {
+        netServer.setSendDataHandler(new PublishRequestHandler(nodeStateManager, receivedFlowUnitStore, serverExecutor));
+        uut = new WireHopper(nodeStateManager, netClient, subscriptionManager, clientExecutor, receivedFlowUnitStore,
+            uut.getAppContext(), new FlowUnitBatcher(netClient, subscriptionManager, uut.getAppContext(), 10));
+        clientExecutor.set(executorService);
+        subscriptionManager.setCurrentLocus(LOCUS);
+        subscriptionManager.addSubscriber(NODE1, new InstanceDetails.Id(LOCALHOST_INSTANCE), LOCUS);
+        subscriptionManager.addSubscriber(NODE2, new InstanceDetails.Id(LOCALHOST_INSTANCE), LOCUS);
+        ClusterDetailsEventProcessor clusterDetailsEventProcessor = new ClusterDetailsEventProcessor();
+        clusterDetailsEventProcessor.setNodesDetails(Collections.singletonList(
+                ClusterDetailsEventProcessorTestHelper.newNodeDetails(LOCALHOST_INSTANCE, LOCALHOST, false)));
+        uut.getAppContext().setClusterDetailsEventProcessor(clusterDetailsEventProcessor);
+
+        // Nothing goes out until the flush at the end of the scheduler run.
+        uut.sendData(new DataMsg(NODE1, Lists.newArrayList(NODE2),
+            Collections.singletonList(new SymptomFlowUnit(TIMESTAMP))));
+        uut.sendData(new DataMsg(NODE2, Lists.newArrayList(NODE1),
+            Lists.newArrayList(new SymptomFlowUnit(TIMESTAMP), new SymptomFlowUnit(TIMESTAMP + 1))));
+        Thread.sleep(100);
+        Assert.assertTrue(receivedFlowUnitStore.drainAll().isEmpty());
+
+        uut.flushData();
+        WaitFor.waitFor(() -> nodeStateManager.getLastReceivedTimestamp(NODE2, new InstanceDetails.Id(LOCALHOST_INSTANCE)) != 0, 10,
+                TimeUnit.SECONDS);
+        Assert.assertEquals(1, receivedFlowUnitStore.drainNode(NODE1).size());
+        Assert.assertEquals(2, receivedFlowUnitStore.drainNode(NODE2).size());
+        // verify resilience to RejectedExecutionException
+        uut.sendData(new DataMsg(NODE1, Lists.newArrayList(NODE2),
+            Collections.singletonList(new SymptomFlowUnit(TIMESTAMP))));
+        clientExecutor.set(rejectingExecutor);
+        uut.flushData();
+    }
+
     @Test
     public void testReadFromWire() throws Exception {
         netServer.setSubscribeHandler(new SubscribeServerHandler(subscriptionManager, serverExecutor));
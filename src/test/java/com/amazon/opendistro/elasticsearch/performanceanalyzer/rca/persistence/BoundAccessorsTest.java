@@ -0,0 +1,85 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.persistence;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.persistence.actions.PersistedAction;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BoundAccessorsTest {
+  @Test
+  public void testPrimitiveAccessors() throws Exception {
+    BoundAccessors.Getter getter =
+        BoundAccessors.getter(PersistedAction.class.getDeclaredMethod("getTimestamp"));
+    BoundAccessors.Setter setter = BoundAccessors.setter(
+        PersistedAction.class.getDeclaredMethod("setTimestamp", long.class));
+    BoundAccessors.Getter isGetter =
+        BoundAccessors.getter(PersistedAction.class.getDeclaredMethod("isActionable"));
+    BoundAccessors.Setter isSetter = BoundAccessors.setter(
+        PersistedAction.class.getDeclaredMethod("setActionable", boolean.class));
+
+    PersistedAction action = new PersistedAction();
+    setter.set(action, 42L);
+    isSetter.set(action, true);
+    Assert.assertEquals(42L, action.getTimestamp());
+    Assert.assertEquals(42L, getter.get(action));
+    Assert.assertEquals(Boolean.TRUE, isGetter.get(action));
+  }
+
+  @Test
+  public void testObjectAccessors() throws Exception {
+    BoundAccessors.Getter getter =
+        BoundAccessors.getter(PersistedAction.class.getDeclaredMethod("getActionName"));
+    BoundAccessors.Setter setter = BoundAccessors.setter(
+        PersistedAction.class.getDeclaredMethod("setActionName", String.class));
+
+    PersistedAction action = (PersistedAction) BoundAccessors.factory(PersistedAction.class)
+        .newInstance();
+    setter.set(action, "ModifyQueueCapacity");
+    Assert.assertEquals("ModifyQueueCapacity", action.getActionName());
+    Assert.assertEquals("ModifyQueueCapacity", getter.get(action));
+  }
+
+  @Test
+  public void testNonPublicClassInSamePackage() throws Exception {
+    BoundAccessors.Getter getter = BoundAccessors.getter(Row.class.getDeclaredMethod("getValue"));
+    BoundAccessors.Setter setter =
+        BoundAccessors.setter(Row.class.getDeclaredMethod("setValue", int.class));
+
+    Row row = (Row) BoundAccessors.factory(Row.class).newInstance();
+    setter.set(row, 7);
+    Assert.assertEquals(7, getter.get(row));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSetterRejectsWrongType() throws Exception {
+    BoundAccessors.Setter setter = BoundAccessors.setter(
+        PersistedAction.class.getDeclaredMethod("setTimestamp", long.class));
+    setter.set(new PersistedAction(), "not a long");
+  }
+
+  static class Row {
+    private int value;
+
+    public int getValue() {
+      return value;
+    }
+
+    public void setValue(int value) {
+      this.value = value;
+    }
+  }
+}
@@ -24,12 +24,14 @@ import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.summaries.ResourceUtil;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.Node;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.scheduler.FlowUnitOperationArgWrapper;
+import com.google.gson.JsonElement;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 import org.apache.commons.io.FileUtils;
@@ -130,6 +132,125 @@ public class SQLitePersistorTest {
     Assert.assertTrue(readTableStr.contains("HotResourceSummary"));
   }
 
+  @Test
+  public void readLatestRcaUntilNextWrite() throws IOException, SQLException {
+    ResourceContext context = new ResourceContext(Resources.State.UNHEALTHY);
+    HotResourceSummary summary =
+        new HotResourceSummary(
+            ResourceUtil.OLD_GEN_HEAP_USAGE,
+            70,
+            71,
+            60);
+    Node rca = new TestRca();
+    SQLitePersistor sqlite =
+        new SQLitePersistor(
+            testLocation.toString(), baseFilename, String.valueOf(1), TimeUnit.HOURS, 1);
+
+    Assert.assertEquals(0, sqlite.read(rca.name()).getAsJsonArray().size());
+    Assert.assertTrue(sqlite.getAllPersistedRcas().isEmpty());
+
+    sqlite.write(rca, new ResourceFlowUnit(1000L, context, summary, true));
+    JsonElement first = sqlite.read(rca.name()).getAsJsonArray().get(0);
+    Assert.assertTrue(first.toString().contains("1000"));
+    Assert.assertEquals(Collections.singletonList(rca.name()), sqlite.getAllPersistedRcas());
+
+    // Nothing was written since, so the same response is served without going to SQLite.
+    Assert.assertSame(first, sqlite.read(rca.name()).getAsJsonArray().get(0));
+
+    sqlite.write(rca, new ResourceFlowUnit(2000L, context, summary, true));
+    JsonElement second = sqlite.read(rca.name()).getAsJsonArray().get(0);
+    Assert.assertNotSame(first, second);
+    Assert.assertTrue(second.toString().contains("2000"));
+    Assert.assertEquals(Collections.singletonList(rca.name()), sqlite.getAllPersistedRcas());
+    sqlite.close();
+  }
+
+  @Test
+  public void readRcaHistoryAcrossRotatedFiles() throws IOException, SQLException, InterruptedException {
+    ResourceContext context = new ResourceContext(Resources.State.UNHEALTHY);
+    HotResourceSummary summary =
+        new HotResourceSummary(
+            ResourceUtil.OLD_GEN_HEAP_USAGE,
+            70,
+            71,
+            60);
+    Node rca = new TestRca();
+    SQLitePersistor sqlite =
+        new SQLitePersistor(
+            testLocation.toString(), baseFilename, String.valueOf(5), TimeUnit.SECONDS, 1);
+
+    sqlite.write(rca, new ResourceFlowUnit(1000L, context, summary, true));
+    sqlite.write(rca, new ResourceFlowUnit(2000L, context, summary, true));
+    Thread.sleep(1000);
+    // Rotates the file with the first two flow units.
+    sqlite.write(rca, new ResourceFlowUnit(3000L, context, summary, true));
+    Thread.sleep(1000);
+    // Rotates the file with the third one.
+    sqlite.write(rca, new ResourceFlowUnit(4000L, context, summary, true));
+
+    List<JsonElement> page = new ArrayList<>();
+    String cursor = sqlite.readRcaHistory(new RcaHistoryQuery(rca.name(), 0, 5000, null, 2), page::add);
+    Assert.assertEquals(2, page.size());
+    Assert.assertTrue(page.get(0).toString().contains("1000"));
+    Assert.assertTrue(page.get(1).toString().contains("2000"));
+    Assert.assertNotNull(cursor);
+
+    page.clear();
+    cursor = sqlite.readRcaHistory(new RcaHistoryQuery(rca.name(), 0, 5000, cursor, 2), page::add);
+    Assert.assertEquals(2, page.size());
+    Assert.assertTrue(page.get(0).toString().contains("3000"));
+    Assert.assertTrue(page.get(1).toString().contains("4000"));
+    Assert.assertNull(cursor);
+
+    // Only the file with the third flow unit overlaps this range.
+    page.clear();
+    cursor = sqlite.readRcaHistory(new RcaHistoryQuery(rca.name(), 2500, 3500, null, 10), page::add);
+    Assert.assertEquals(1, page.size());
+    Assert.assertTrue(page.get(0).toString().contains("3000"));
+    Assert.assertNull(cursor);
+    sqlite.close();
+  }
+
+  @Test
+  public void readRcaHistoryKeepsFlowUnitsOfTheLastTimestampInOnePage()
+      throws IOException, SQLException, InterruptedException {
+    ResourceContext context = new ResourceContext(Resources.State.UNHEALTHY);
+    HotResourceSummary summary =
+        new HotResourceSummary(
+            ResourceUtil.OLD_GEN_HEAP_USAGE,
+            70,
+            71,
+            60);
+    Node rca = new TestRca();
+    SQLitePersistor sqlite =
+        new SQLitePersistor(
+            testLocation.toString(), baseFilename, String.valueOf(5), TimeUnit.SECONDS, 1);
+
+    sqlite.write(rca, new ResourceFlowUnit(1000L, context, summary, true));
+    sqlite.write(rca, new ResourceFlowUnit(2000L, context, summary, true));
+    sqlite.write(rca, new ResourceFlowUnit(2000L, context, summary, true));
+    Thread.sleep(1000);
+    // Rotates the file, so that flow units of the same timestamp are in two files.
+    sqlite.write(rca, new ResourceFlowUnit(2000L, context, summary, true));
+    sqlite.write(rca, new ResourceFlowUnit(3000L, context, summary, true));
+
+    List<JsonElement> page = new ArrayList<>();
+    String cursor = sqlite.readRcaHistory(new RcaHistoryQuery(rca.name(), 0, 5000, null, 2), page::add);
+    Assert.assertEquals(4, page.size());
+    Assert.assertTrue(page.get(0).toString().contains("1000"));
+    for (int i = 1; i < 4; i++) {
+      Assert.assertTrue(page.get(i).toString().contains("2000"));
+    }
+    Assert.assertEquals("2000", cursor);
+
+    page.clear();
+    cursor = sqlite.readRcaHistory(new RcaHistoryQuery(rca.name(), 0, 5000, cursor, 2), page::add);
+    Assert.assertEquals(1, page.size());
+    Assert.assertTrue(page.get(0).toString().contains("3000"));
+    Assert.assertNull(cursor);
+    sqlite.close();
+  }
+
   @Test
   public void concurrentWriteAndRotate() throws IOException, SQLException {
     ResourceContext context = new ResourceContext(Resources.State.UNHEALTHY);
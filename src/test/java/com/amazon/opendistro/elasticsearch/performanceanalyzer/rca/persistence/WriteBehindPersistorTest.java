@@ -0,0 +1,136 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.persistence;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.persistence.actions.PersistedAction;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.util.WaitFor;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WriteBehindPersistorTest {
+  private static final int NUM_ACTIONS = 50;
+
+  private Path testLocation;
+
+  @Before
+  public void init() throws IOException {
+    String cwd = System.getProperty("user.dir");
+    testLocation = Paths.get(cwd, "src", "test", "resources", "tmp", "write_behind");
+    Files.createDirectories(testLocation);
+    FileUtils.cleanDirectory(testLocation.toFile());
+  }
+
+  @After
+  public void cleanup() throws IOException {
+    FileUtils.deleteDirectory(testLocation.toFile());
+  }
+
+  @Test
+  public void testWritesArePersistedByTheWriterThread() throws Exception {
+    SQLitePersistor sqlitePersistor = new SQLitePersistor(
+        testLocation.toString(), "rca.test.file", "1", TimeUnit.HOURS, 1);
+    WriteBehindPersistor persistable = new WriteBehindPersistor(sqlitePersistor);
+    try {
+      for (int i = 0; i < NUM_ACTIONS; i++) {
+        persistable.write(newAction("Action" + i));
+      }
+      WaitFor.waitFor(() -> {
+        List<PersistedAction> actions = persistable.readAllForMaxField(PersistedAction.class,
+            PersistedAction.SQL_SCHEMA_CONSTANTS.TIMESTAMP_COL_NAME, Long.class);
+        return actions != null && actions.size() == NUM_ACTIONS;
+      }, 10, TimeUnit.SECONDS);
+      List<PersistedAction> actions = persistable.readAllForMaxField(PersistedAction.class,
+          PersistedAction.SQL_SCHEMA_CONSTANTS.TIMESTAMP_COL_NAME, Long.class);
+      Assert.assertEquals("Action0", actions.get(0).getActionName());
+      Assert.assertEquals("Action" + (NUM_ACTIONS - 1),
+          actions.get(NUM_ACTIONS - 1).getActionName());
+    } finally {
+      persistable.close();
+    }
+  }
+
+  @Test
+  public void testCloseDrainsTheQueue() throws Exception {
+    PersistorBase persistor = mock(PersistorBase.class);
+    doAnswer(invocation -> {
+      // Slow enough for the writes to pile up behind the first batch.
+      Thread.sleep(10);
+      invocation.<PersistorBase.WriteBatch>getArgument(0).writeTo(persistor);
+      return null;
+    }).when(persistor).writeInTransaction(any());
+
+    WriteBehindPersistor persistable = new WriteBehindPersistor(persistor);
+    for (int i = 0; i < NUM_ACTIONS; i++) {
+      persistable.write(newAction("Action" + i));
+    }
+    persistable.close();
+
+    verify(persistor, times(NUM_ACTIONS)).write(any(PersistedAction.class));
+    verify(persistor).close();
+  }
+
+  @Test
+  public void testWritesAreDroppedWhenTheQueueIsFull() throws Exception {
+    PersistorBase persistor = mock(PersistorBase.class);
+    Object lock = new Object();
+    doAnswer(invocation -> {
+      synchronized (lock) {
+        invocation.<PersistorBase.WriteBatch>getArgument(0).writeTo(persistor);
+      }
+      return null;
+    }).when(persistor).writeInTransaction(any());
+
+    WriteBehindPersistor persistable = new WriteBehindPersistor(persistor, 1);
+    synchronized (lock) {
+      persistable.write(newAction("Taken"));
+      // Give the writer thread time to take the first write off the queue.
+      Thread.sleep(200);
+      persistable.write(newAction("Queued"));
+      persistable.write(newAction("Dropped"));
+    }
+    persistable.close();
+
+    verify(persistor, times(2)).write(any(PersistedAction.class));
+  }
+
+  private static PersistedAction newAction(String name) {
+    PersistedAction action = new PersistedAction();
+    action.setActionName(name);
+    action.setNodeIds("{node1}");
+    action.setNodeIps("{}");
+    action.setActionable(true);
+    action.setCoolOffPeriod(0);
+    action.setMuted(false);
+    action.setSummary("summary");
+    action.setTimestamp(1L);
+    return action;
+  }
+}
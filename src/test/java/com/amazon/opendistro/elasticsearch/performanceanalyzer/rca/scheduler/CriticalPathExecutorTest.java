@@ -0,0 +1,202 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.Symptom;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.flow_units.SymptomFlowUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.junit.After;
+import org.junit.Test;
+
+public class CriticalPathExecutorTest {
+  private static final int SLOW_NODE_MILLIS = 50;
+
+  private final List<String> executionOrder = Collections.synchronizedList(new ArrayList<>());
+  private ForkJoinPool pool;
+
+  @After
+  public void tearDown() {
+    if (pool != null) {
+      pool.shutdownNow();
+    }
+  }
+
+  private static class NamedSymptom extends Symptom {
+    private final String name;
+
+    NamedSymptom(String name) {
+      super(1);
+      this.name = name;
+    }
+
+    @Override
+    public String name() {
+      return name;
+    }
+
+    @Override
+    public SymptomFlowUnit operate() {
+      return SymptomFlowUnit.generic();
+    }
+  }
+
+  private Tasklet tasklet(String name, int sleepMillis) {
+    return new Tasklet(
+        new NamedSymptom(name),
+        null,
+        null,
+        new HashMap<>(),
+        null,
+        args -> {
+          if (sleepMillis > 0) {
+            RcaSchedulerAsyncTaskTest.sleepWithInterruptHandler(sleepMillis);
+          }
+          executionOrder.add(args.getNode().name());
+        });
+  }
+
+  private static List<String> names(List<TickTimeline.Entry> entries) {
+    return entries.stream().map(TickTimeline.Entry::getNodeName).collect(Collectors.toList());
+  }
+
+  /**
+   * Once the costs are known, the root of the slow chain runs first, and the slow node runs before
+   * the root of the other chain, although both are ready at the same time.
+   */
+  @Test
+  public void testCriticalPathRunsFirst() {
+    pool = new ForkJoinPool(1);
+    Tasklet fastRoot = tasklet("fast-root", 0);
+    Tasklet fastChild = tasklet("fast-child", 0).addPredecessor(fastRoot);
+    Tasklet slowRoot = tasklet("slow-root", 0);
+    Tasklet slowChild = tasklet("slow-child", SLOW_NODE_MILLIS).addPredecessor(slowRoot);
+    List<List<Tasklet>> levels =
+        Arrays.asList(
+            Arrays.asList(fastRoot, slowRoot), Arrays.asList(fastChild, slowChild));
+
+    CriticalPathExecutor executor = new CriticalPathExecutor(pool);
+    executor.execute(levels).join();
+    assertTrue(slowChild.getEstimatedCostMicros() >= SLOW_NODE_MILLIS * 1000);
+
+    executionOrder.clear();
+    TickTimeline timeline = executor.execute(levels).join();
+    assertEquals(
+        Arrays.asList("slow-root", "slow-child", "fast-root", "fast-child"), executionOrder);
+    assertEquals(executionOrder, names(timeline.getEntries()));
+  }
+
+  @Test
+  public void testTimelineCriticalPath() {
+    pool = new ForkJoinPool(2);
+    Tasklet fastRoot = tasklet("fast-root", 0);
+    Tasklet fastChild = tasklet("fast-child", 0).addPredecessor(fastRoot);
+    Tasklet slowRoot = tasklet("slow-root", 0);
+    Tasklet slowChild = tasklet("slow-child", SLOW_NODE_MILLIS).addPredecessor(slowRoot);
+    Tasklet sink = tasklet("sink", 0).addPredecessor(slowChild).addPredecessor(fastChild);
+
+    TickTimeline timeline =
+        new CriticalPathExecutor(pool)
+            .execute(
+                Arrays.asList(
+                    Arrays.asList(fastRoot, slowRoot),
+                    Arrays.asList(fastChild, slowChild),
+                    Collections.singletonList(sink)))
+            .join();
+    assertEquals(5, timeline.getEntries().size());
+    assertEquals(
+        Arrays.asList("slow-root", "slow-child", "sink"), names(timeline.getCriticalPath()));
+    for (TickTimeline.Entry entry : timeline.getEntries()) {
+      assertTrue(entry.getStartMicros() <= entry.getEndMicros());
+    }
+  }
+
+  @Test
+  public void testFailedNodeDoesNotBlockSuccessors() {
+    pool = new ForkJoinPool(2);
+    Tasklet failing =
+        new Tasklet(
+            new NamedSymptom("failing"),
+            null,
+            null,
+            new HashMap<>(),
+            null,
+            args -> {
+              throw new IllegalStateException("failing node");
+            });
+    Tasklet child = tasklet("child", 0).addPredecessor(failing);
+
+    TickTimeline timeline =
+        new CriticalPathExecutor(pool)
+            .execute(
+                Arrays.asList(
+                    Collections.singletonList(failing), Collections.singletonList(child)))
+            .join();
+    assertEquals(Collections.singletonList("child"), executionOrder);
+    assertEquals(Arrays.asList("failing", "child"), names(timeline.getCriticalPath()));
+    assertTrue(failing.getNode().getFlowUnits().isEmpty());
+  }
+
+  @Test
+  public void testErrorInNodeFailsTheRun() throws InterruptedException {
+    pool = new ForkJoinPool(2);
+    Error error = new Error("failing node");
+    Tasklet failing =
+        new Tasklet(
+            new NamedSymptom("failing"),
+            null,
+            null,
+            new HashMap<>(),
+            null,
+            args -> {
+              throw error;
+            });
+    Tasklet child = tasklet("child", 0).addPredecessor(failing);
+
+    try {
+      new CriticalPathExecutor(pool)
+          .execute(
+              Arrays.asList(
+                  Collections.singletonList(failing), Collections.singletonList(child)))
+          .join();
+      throw new AssertionError("The run completed normally");
+    } catch (CompletionException e) {
+      assertSame(error, e.getCause());
+    }
+    pool.shutdown();
+    assertTrue(pool.awaitTermination(1, TimeUnit.SECONDS));
+    assertTrue(executionOrder.isEmpty());
+  }
+
+  @Test
+  public void testNothingToRun() {
+    pool = new ForkJoinPool(1);
+    assertTrue(
+        new CriticalPathExecutor(pool).execute(Collections.emptyList()).join()
+            .getEntries().isEmpty());
+  }
+}
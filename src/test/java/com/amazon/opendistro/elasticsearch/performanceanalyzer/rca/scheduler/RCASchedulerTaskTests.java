@@ -35,11 +35,13 @@ import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.messages.Inte
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net.WireHopper;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.spec.helpers.AssertHelper;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 
@@ -302,6 +304,104 @@ public class RCASchedulerTaskTests {
     skyLabsTask.run();
   }
 
+  /**
+   * Runs a graph with nodes of different evaluation intervals through all the scheduler modes and
+   * checks that the nodes run on the same ticks and that a node downstream of an idle node sees no
+   * flow units from it.
+   */
+  @Test
+  public void eventDrivenSchedulingMatchesFullGraphRun() {
+    boolean[][] modes = {{false, false}, {true, false}, {false, true}, {true, true}};
+    for (boolean[] mode : modes) {
+      boolean eventDriven = mode[0];
+      boolean criticalPathFirst = mode[1];
+      List<Integer> upstreamSizesSeen = Collections.synchronizedList(new ArrayList<>());
+      AtomicInteger everyOtherRuns = new AtomicInteger(0);
+      AtomicInteger everyThirdRuns = new AtomicInteger(0);
+      AnalysisGraph graph =
+          new AnalysisGraph() {
+            @Override
+            public void construct() {
+              Metric metric =
+                  new CPU_Utilization(1) {
+                    @Override
+                    public MetricFlowUnit gather(Queryable queryable) {
+                      return MetricFlowUnit.generic();
+                    }
+                  };
+              Symptom everyOther =
+                  new Symptom(2) {
+                    @Override
+                    public SymptomFlowUnit operate() {
+                      everyOtherRuns.incrementAndGet();
+                      return SymptomFlowUnit.generic();
+                    }
+
+                    @Override
+                    public String name() {
+                      return "every-other";
+                    }
+                  };
+              Symptom everyTick =
+                  new Symptom(1) {
+                    @Override
+                    public SymptomFlowUnit operate() {
+                      upstreamSizesSeen.add(everyOther.getFlowUnits().size());
+                      return SymptomFlowUnit.generic();
+                    }
+
+                    @Override
+                    public String name() {
+                      return "every-tick";
+                    }
+                  };
+              Symptom everyThird =
+                  new Symptom(3) {
+                    @Override
+                    public SymptomFlowUnit operate() {
+                      everyThirdRuns.incrementAndGet();
+                      return SymptomFlowUnit.generic();
+                    }
+
+                    @Override
+                    public String name() {
+                      return "every-third";
+                    }
+                  };
+              addLeaf(metric);
+              everyOther.addAllUpstreams(Collections.singletonList(metric));
+              everyTick.addAllUpstreams(Collections.singletonList(everyOther));
+              everyThird.addAllUpstreams(Collections.singletonList(metric));
+            }
+          };
+
+      RCASchedulerTask task =
+          new RCASchedulerTask(
+              100,
+              Executors.newFixedThreadPool(2),
+              RcaUtil.getAnalysisGraphComponents(graph),
+              null,
+              null,
+              new RcaConf() {
+                @Override
+                public Map<String, String> getTagMap() {
+                  return Collections.emptyMap();
+                }
+              },
+              null,
+              new AppContext(),
+              eventDriven,
+              criticalPathFirst);
+      for (int tick = 0; tick < 6; tick++) {
+        task.run();
+      }
+      assertEquals(Arrays.asList(0, 1, 0, 1, 0, 1), upstreamSizesSeen);
+      assertEquals(3, everyOtherRuns.get());
+      assertEquals(2, everyThirdRuns.get());
+      assertEquals(criticalPathFirst, task.getLastTimeline() != null);
+    }
+  }
+
   @Test
   public void mergeLists() {
     List<List<String>> l1 =
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.reader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.reader_writer_shared.Event;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EventDispatcherTests {
+  private ExecutorService executor;
+
+  @Before
+  public void setup() {
+    executor = Executors.newCachedThreadPool();
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testSerialDispatch() {
+    RecordingProcessor os = new RecordingProcessor("os_metrics");
+    RecordingProcessor http = new RecordingProcessor("http");
+    EventDispatcher dispatcher = new EventDispatcher();
+    dispatch(dispatcher, os, http, 10);
+
+    assertEquals(10, os.processed.size());
+    assertEquals(10, http.processed.size());
+    assertTrue(os.finalized);
+    assertTrue(http.finalized);
+  }
+
+  @Test
+  public void testParallelDispatch() {
+    RecordingProcessor os = new RecordingProcessor("os_metrics");
+    os.parallel = true;
+    RecordingProcessor http = new RecordingProcessor("http");
+    EventDispatcher dispatcher = new EventDispatcher(executor);
+    int numEvents = EventDispatcher.QUEUE_CAPACITY * 3;
+    dispatch(dispatcher, os, http, numEvents);
+
+    assertEquals(numEvents, os.processed.size());
+    assertEquals(numEvents, http.processed.size());
+    // Each processor sees its events in file order.
+    for (int i = 0; i < numEvents; i++) {
+      assertEquals("threads/" + i + "/os_metrics", os.processed.get(i));
+    }
+    assertTrue(os.finalized);
+    assertTrue(http.finalized);
+    assertTrue(os.sawAllEventsBeforeFinalize);
+    assertTrue(http.sawAllEventsBeforeFinalize);
+    // Only the processor that can process in parallel left the calling thread.
+    assertEquals(1, os.threads.size());
+    assertFalse(os.threads.contains(Thread.currentThread()));
+    assertEquals(Collections.singleton(Thread.currentThread()), http.threads);
+  }
+
+  @Test
+  public void testCancelReleasesWorkers() throws Exception {
+    ExecutorService singleThread = Executors.newSingleThreadExecutor();
+    try {
+      RecordingProcessor os = new RecordingProcessor("os_metrics");
+      os.parallel = true;
+      EventDispatcher dispatcher = new EventDispatcher(singleThread);
+      dispatcher.registerEventProcessor(os);
+      dispatcher.initializeProcessing(0, 5000);
+      dispatcher.processEvent(new Event("threads/1/os_metrics", "", 0));
+      // The window is abandoned without being finalized.
+      dispatcher.cancelProcessing();
+
+      // The worker gave its thread back.
+      assertEquals(
+          Boolean.TRUE, singleThread.submit(() -> Boolean.TRUE).get(10, TimeUnit.SECONDS));
+      // Nothing is left to wait for once cancelled.
+      dispatcher.cancelProcessing();
+    } finally {
+      singleThread.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testParallelDispatchPropagatesFailure() {
+    RecordingProcessor os = new RecordingProcessor("os_metrics");
+    os.parallel = true;
+    os.failOn = "threads/3/os_metrics";
+    RecordingProcessor http = new RecordingProcessor("http");
+    EventDispatcher dispatcher = new EventDispatcher(executor);
+    try {
+      dispatch(dispatcher, os, http, EventDispatcher.QUEUE_CAPACITY * 2);
+      fail("Expected the processor failure to be rethrown");
+    } catch (IllegalStateException e) {
+      assertEquals("injected", e.getCause().getMessage());
+    }
+    assertEquals(3, os.processed.size());
+  }
+
+  @Test
+  public void testKeysOfTheSameShapeAreRoutedOnce() {
+    RecordingProcessor os = new RecordingProcessor("os_metrics");
+    RecordingProcessor http = new RecordingProcessor("http");
+    EventDispatcher dispatcher = new EventDispatcher();
+    dispatch(dispatcher, os, http, 10);
+    dispatcher.processEvent(new Event("gc_info", "", 0));
+    dispatcher.processEvent(new Event("gc_info", "", 0));
+
+    assertEquals(10, os.processed.size());
+    assertEquals(10, http.processed.size());
+    // One lookup for each of the os, http and unmatched gc_info shapes.
+    assertEquals(3, os.lookups);
+    assertEquals(2, http.lookups);
+  }
+
+  @Test
+  public void testKeyShape() {
+    assertEquals(
+        "threads/#/shardbulk/#/start",
+        EventDispatcher.keyShape("threads/29013/shardbulk/806214/start"));
+    assertEquals("threads/#/os_metrics", EventDispatcher.keyShape("threads/1/os_metrics"));
+    assertEquals("indices/logs-2020/#", EventDispatcher.keyShape("indices/logs-2020/0"));
+    assertEquals("node_metrics", EventDispatcher.keyShape("node_metrics"));
+    assertEquals("#", EventDispatcher.keyShape("123"));
+  }
+
+  private static void dispatch(
+      EventDispatcher dispatcher, RecordingProcessor os, RecordingProcessor http, int numEvents) {
+    dispatcher.registerEventProcessor(os);
+    dispatcher.registerEventProcessor(http);
+    dispatcher.initializeProcessing(0, 5000);
+    for (int i = 0; i < numEvents; i++) {
+      dispatcher.processEvent(new Event("threads/" + i + "/os_metrics", "", 0));
+      dispatcher.processEvent(new Event("http/" + i, "", 0));
+    }
+    os.expected = numEvents;
+    http.expected = numEvents;
+    dispatcher.finalizeProcessing();
+  }
+
+  private static class RecordingProcessor implements EventProcessor {
+    private final String keyPart;
+    private final List<String> processed = new ArrayList<>();
+    private final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+    private String failOn;
+    private boolean parallel;
+    private volatile int expected;
+    private boolean finalized;
+    private boolean sawAllEventsBeforeFinalize;
+    private int lookups;
+
+    RecordingProcessor(String keyPart) {
+      this.keyPart = keyPart;
+    }
+
+    @Override
+    public void initializeProcessing(long startTime, long endTime) {}
+
+    @Override
+    public void finalizeProcessing() {
+      sawAllEventsBeforeFinalize = processed.size() == expected;
+      finalized = true;
+    }
+
+    @Override
+    public void processEvent(Event event) {
+      if (event.key().equals(failOn)) {
+        throw new IllegalStateException("injected");
+      }
+      processed.add(event.key());
+      threads.add(Thread.currentThread());
+    }
+
+    @Override
+    public boolean shouldProcessEvent(Event event) {
+      lookups++;
+      return event.keyContains(keyPart);
+    }
+
+    @Override
+    public void commitBatchIfRequired() {}
+
+    @Override
+    public boolean canProcessInParallel() {
+      return parallel;
+    }
+  }
+}
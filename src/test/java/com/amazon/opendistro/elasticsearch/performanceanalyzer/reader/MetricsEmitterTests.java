@@ -89,7 +89,7 @@ public class MetricsEmitterTests extends AbstractReaderTests {
     Float tUtil = Float.parseFloat(res.get(0).get("tUtil").toString());
     assertEquals(0.07048611f, tUtil.floatValue(), 0);
 
-    OSMetricsSnapshot osMetricsSnap = new OSMetricsSnapshot(conn, 1L);
+    OSMetricsSnapshot osMetricsSnap = new OSMetricsSnapshot(1L);
     // Create OSMetricsSnapshot
     Map<String, Double> metrics = new HashMap<>();
     Map<String, String> osDim = new HashMap<>();
@@ -156,7 +156,7 @@ public class MetricsEmitterTests extends AbstractReaderTests {
     Float tUtil = Float.parseFloat(res.get(0).get("tUtil").toString());
     assertEquals(0.07048611f, tUtil.floatValue(), 0);
 
-    OSMetricsSnapshot osMetricsSnap = new OSMetricsSnapshot(conn, 1L);
+    OSMetricsSnapshot osMetricsSnap = new OSMetricsSnapshot(1L);
     // Create OSMetricsSnapshot
     Map<String, Double> metrics = new HashMap<>();
     Map<String, String> osDim = new HashMap<>();
@@ -16,11 +16,11 @@
 package com.amazon.opendistro.elasticsearch.performanceanalyzer.reader;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.AllMetrics;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.AllMetrics.OSMetrics;
-import java.sql.Connection;
-import java.sql.DriverManager;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import org.jooq.BatchBindStep;
@@ -30,10 +30,8 @@ import org.junit.Test;
 
 @SuppressWarnings("serial")
 public class OSMetricsSnapshotTests {
-  private static final String DB_URL = "jdbc:sqlite:";
 
-  public OSMetricsSnapshotTests() throws ClassNotFoundException {
-    Class.forName("org.sqlite.JDBC");
+  public OSMetricsSnapshotTests() {
     System.setProperty("java.io.tmpdir", "/tmp");
   }
 
@@ -44,9 +42,7 @@ public class OSMetricsSnapshotTests {
     System.out.println("1000: " + runBatchTest(1000, 1));
     System.out.println("10000: " + runBatchTest(10000, 1));
     System.out.println("300000: " + runBatchTest(300000, 1));
-    Connection conn = DriverManager.getConnection(DB_URL);
-    conn.setAutoCommit(false);
-    OSMetricsSnapshot osMetricsSnap = new OSMetricsSnapshot(conn, 1L);
+    OSMetricsSnapshot osMetricsSnap = new OSMetricsSnapshot(1L);
 
     Thread t1 =
         new Thread(
@@ -90,7 +86,6 @@ public class OSMetricsSnapshotTests {
     t1.join();
     t2.join();
     t3.join();
-    conn.commit();
   }
 
   @Test
@@ -173,8 +168,7 @@ public class OSMetricsSnapshotTests {
   }
 
   private Long runBatchTest(int iterations, long timestamp) throws Exception {
-    Connection conn = DriverManager.getConnection(DB_URL);
-    OSMetricsSnapshot osMetricsSnap = new OSMetricsSnapshot(conn, timestamp);
+    OSMetricsSnapshot osMetricsSnap = new OSMetricsSnapshot(timestamp);
     Map<String, String> dimensions = new HashMap<>();
     Map<String, Double> osMetrics = new HashMap<>();
     AllMetrics.OSMetrics[] metrics = AllMetrics.OSMetrics.values();
@@ -191,7 +185,6 @@ public class OSMetricsSnapshotTests {
     }
 
     long mCurrT = System.currentTimeMillis();
-    conn.setAutoCommit(false);
     BatchBindStep handle = osMetricsSnap.startBatchPut();
     for (int i = 0; i < iterations; i++) {
       handle.bind(metricVals);
@@ -199,7 +192,6 @@ public class OSMetricsSnapshotTests {
 
     }
     handle.execute();
-    conn.commit();
     long mFinalT = System.currentTimeMillis();
     return mFinalT - mCurrT;
   }
@@ -230,8 +222,7 @@ public class OSMetricsSnapshotTests {
   @Test
   public void testCreateOSMetrics() throws Exception {
     //
-    Connection conn = DriverManager.getConnection(DB_URL);
-    OSMetricsSnapshot osMetricsSnap = new OSMetricsSnapshot(conn, 7000L);
+    OSMetricsSnapshot osMetricsSnap = new OSMetricsSnapshot(7000L);
     // Create OSMetricsSnapshot
     Map<String, Double> metrics = new HashMap<>();
     Map<String, String> dimensions = new HashMap<>();
@@ -244,7 +235,7 @@ public class OSMetricsSnapshotTests {
     metrics.put(OSMetrics.CPU_UTILIZATION.toString(), 5.0d);
     metrics.put(OSMetrics.PAGING_RSS.toString(), 3.63d);
     osMetricsSnap.putMetric(metrics, dimensions, 7000L);
-    OSMetricsSnapshot os2 = new OSMetricsSnapshot(conn, 12000L);
+    OSMetricsSnapshot os2 = new OSMetricsSnapshot(12000L);
     dimensions.put("tid", "1");
     metrics.put(OSMetrics.CPU_UTILIZATION.toString(), 2.3333d);
     metrics.put(OSMetrics.PAGING_RSS.toString(), 3.63d);
@@ -258,8 +249,8 @@ public class OSMetricsSnapshotTests {
     metrics.put(OSMetrics.PAGING_RSS.toString(), 3.63d);
     os2.putMetric(metrics, dimensions, 12000L);
 
-    OSMetricsSnapshot osFinal = new OSMetricsSnapshot(conn, 3L);
-    OSMetricsSnapshot.alignWindow(osMetricsSnap, os2, osFinal.getTableName(), 5000L, 10000L);
+    OSMetricsSnapshot osFinal = new OSMetricsSnapshot(3L);
+    OSMetricsSnapshot.alignWindow(osMetricsSnap, os2, osFinal, 5000L, 10000L);
     Result<Record> res = osFinal.fetchAll();
     // System.out.println(res);
     Double cpu =
@@ -272,8 +263,7 @@ public class OSMetricsSnapshotTests {
   @Test
   public void testAlignWindow() throws Exception {
     //
-    Connection conn = DriverManager.getConnection(DB_URL);
-    OSMetricsSnapshot osMetricsSnap = new OSMetricsSnapshot(conn, 5000L);
+    OSMetricsSnapshot osMetricsSnap = new OSMetricsSnapshot(5000L);
     // Create OSMetricsSnapshot
     Map<String, Double> metrics = new HashMap<>();
     Map<String, String> dimensions = new HashMap<>();
@@ -284,7 +274,7 @@ public class OSMetricsSnapshotTests {
     dimensions.put("tid", "2");
     metrics.put("CPU_Utilization", 20d);
     osMetricsSnap.putMetric(metrics, dimensions, 8000L);
-    OSMetricsSnapshot os2 = new OSMetricsSnapshot(conn, 10000L);
+    OSMetricsSnapshot os2 = new OSMetricsSnapshot(10000L);
     dimensions.put("tid", "1");
     metrics.put("CPU_Utilization", 20d);
     os2.putMetric(metrics, dimensions, 13000L);
@@ -292,8 +282,8 @@ public class OSMetricsSnapshotTests {
     metrics.put("CPU_Utilization", 30d);
     os2.putMetric(metrics, dimensions, 12000L);
 
-    OSMetricsSnapshot osFinal = new OSMetricsSnapshot(conn, 3L);
-    OSMetricsSnapshot.alignWindow(osMetricsSnap, os2, osFinal.getTableName(), 5000L, 10000L);
+    OSMetricsSnapshot osFinal = new OSMetricsSnapshot(3L);
+    OSMetricsSnapshot.alignWindow(osMetricsSnap, os2, osFinal, 5000L, 10000L);
     Result<Record> res = osFinal.fetchAll();
     assertEquals(3, res.size());
     // System.out.println(res);
@@ -304,4 +294,29 @@ public class OSMetricsSnapshotTests {
     cpu = Double.parseDouble(res.get(2).get("CPU_Utilization").toString());
     assertEquals(cpu.doubleValue(), 30, 0);
   }
+
+  @Test
+  public void testDeleteByTid() {
+    OSMetricsSnapshot osMetricsSnap = new OSMetricsSnapshot(5000L);
+    Map<String, Double> metrics = new HashMap<>();
+    Map<String, String> dimensions = new HashMap<>();
+    for (int i = 1; i <= 3; i++) {
+      dimensions.put("tid", String.valueOf(i));
+      dimensions.put("tName", "thread-" + i);
+      metrics.put(OSMetrics.CPU_UTILIZATION.toString(), (double) i);
+      osMetricsSnap.putMetric(metrics, dimensions, 1000L * i);
+    }
+
+    osMetricsSnap.deleteByTid(Arrays.asList("2"));
+    Result<Record> res = osMetricsSnap.fetchAll();
+    assertEquals(2, res.size());
+    assertEquals("1", res.get(0).get("tid"));
+    assertEquals("3", res.get(1).get("tid"));
+    assertEquals(3d, res.get(1).get(OSMetrics.CPU_UTILIZATION.toString()));
+    assertNull(res.get(1).get(OSMetrics.PAGING_RSS.toString()));
+
+    Map<String, Long> lastUpdateTimePerTid = osMetricsSnap.getLastUpdateTimePerTid();
+    assertEquals(2, lastUpdateTimePerTid.size());
+    assertEquals(Long.valueOf(3000L), lastUpdateTimePerTid.get("3"));
+  }
 }
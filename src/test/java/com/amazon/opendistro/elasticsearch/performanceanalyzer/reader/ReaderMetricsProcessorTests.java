@@ -44,6 +44,7 @@ import java.util.NavigableSet;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import org.apache.commons.io.FileUtils;
 import org.jooq.Field;
 import org.jooq.Record;
 import org.jooq.Result;
@@ -115,6 +116,56 @@ public class ReaderMetricsProcessorTests extends AbstractReaderTests {
     mp.deleteDBs();
   }
 
+  @Test
+  public void testTailedWindowsCloseOnceNextFileStarts() throws Exception {
+    deleteAll();
+    // Tails copies of the test files, written one after the other as the writer would.
+    Path tailRoot = Files.createTempDirectory("pa-reader-tail");
+    PluginSettings.instance().setTailEventFilesEnabled(true);
+    try {
+      ReaderMetricsProcessor mp =
+          new ReaderMetricsProcessor(tailRoot.toString(), true, new AppContext());
+      copyEventFile(1566413960000L, tailRoot);
+
+      // The writer is flushing the window of 1566413960000.
+      mp.processMetrics(tailRoot.toString(), 1566413965001L);
+      // It has not started the next file yet, so the window stays open.
+      mp.processMetrics(tailRoot.toString(), 1566413970001L);
+      assertTrue(mp.getMetricsDBMap().isEmpty());
+
+      copyEventFile(1566413965000L, tailRoot);
+      mp.processMetrics(tailRoot.toString(), 1566413970001L);
+      // The window of 1566413960000 is closed, and the one of 1566413965000 is tailed.
+      assertEquals(ImmutableSet.of(1566413955000L), mp.getMetricsDBMap().keySet());
+
+      copyEventFile(1566413970000L, tailRoot);
+      mp.processMetrics(tailRoot.toString(), 1566413975001L);
+      assertEquals(
+          ImmutableSet.of(1566413955000L, 1566413960000L), mp.getMetricsDBMap().keySet());
+
+      Result<Record> res =
+          mp.getMetricsDB()
+              .getValue()
+              .queryMetric(
+                  Arrays.asList("Cache_FieldData_Size"),
+                  Arrays.asList("sum"),
+                  Arrays.asList("ShardID", "IndexName"));
+      for (Record record : res) {
+        assertEquals(record.get("IndexName"), "nyc_taxis");
+      }
+      mp.deleteDBs();
+    } finally {
+      PluginSettings.instance().setTailEventFilesEnabled(false);
+      FileUtils.deleteDirectory(tailRoot.toFile());
+    }
+  }
+
+  private void copyEventFile(long epoch, Path tailRoot) throws Exception {
+    Files.copy(
+        Paths.get(rootLocation, String.valueOf(epoch)),
+        tailRoot.resolve(String.valueOf(epoch)));
+  }
+
   public void deleteAll() {
     final File folder = new File("/tmp");
     final File[] files =
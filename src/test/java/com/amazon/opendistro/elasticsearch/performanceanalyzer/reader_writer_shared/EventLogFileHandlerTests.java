@@ -0,0 +1,361 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.reader_writer_shared;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.config.PluginSettings;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.reader.EventDispatcher;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class EventLogFileHandlerTests {
+  private static final long EPOCH = 1566413970000L;
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private EventLogFileHandler handler;
+  private String keyPrefix;
+
+  @Before
+  public void setup() {
+    handler = new EventLogFileHandler(new EventLog(), folder.getRoot().getAbsolutePath());
+    // EventLog strips the metrics location and the epoch directory from the keys it writes.
+    keyPrefix =
+        Paths.get(PluginSettings.instance().getMetricsLocation()).toString()
+            + File.separator
+            + System.currentTimeMillis()
+            + File.separator;
+  }
+
+  @Test
+  public void testReadWrittenEvents() {
+    StringBuilder largeValue = new StringBuilder();
+    while (largeValue.length() < 20000) {
+      largeValue
+          .append("{\"MemType\":\"Heap\",\"Heap_Used\":36546520}")
+          .append(System.lineSeparator());
+    }
+    List<Event> events =
+        Arrays.asList(
+            new Event(keyPrefix + "threads/7069/os_metrics", "current_time:1566413969000", EPOCH),
+            new Event(keyPrefix + "heap_metrics", largeValue.toString(), EPOCH),
+            new Event(keyPrefix + "pending_tasks", "", EPOCH));
+    handler.writeTmpFile(events, EPOCH);
+    handler.renameFromTmp(EPOCH);
+
+    RecordingDispatcher dispatcher = new RecordingDispatcher();
+    handler.read(EPOCH, dispatcher);
+
+    assertEquals(
+        Arrays.asList("threads/7069/os_metrics", "heap_metrics", "pending_tasks"), dispatcher.keys);
+    assertEquals(
+        Arrays.asList("current_time:1566413969000", largeValue.toString(), ""), dispatcher.values);
+  }
+
+  @Test
+  public void testReadBinaryEvents() throws Exception {
+    EventLogFileHandler binaryHandler =
+        new EventLogFileHandler(
+            new EventLog(EventLogFormat.BINARY), folder.getRoot().getAbsolutePath());
+    StringBuilder largeValue = new StringBuilder();
+    while (largeValue.length() < 20000) {
+      largeValue.append("current_time:1566413969000").append(System.lineSeparator());
+    }
+    binaryHandler.writeTmpFile(
+        Arrays.asList(
+            new Event(keyPrefix + "threads/7069/os_metrics", largeValue.toString(), EPOCH),
+            new Event(keyPrefix + "threads/7070/os_metrics", "", EPOCH)),
+        EPOCH);
+    // A second batch for the same epoch is appended as another frame.
+    binaryHandler.writeTmpFile(
+        Arrays.asList(new Event(keyPrefix + "threads/7069/os_metrics", "tid:7069", EPOCH)), EPOCH);
+    binaryHandler.renameFromTmp(EPOCH);
+
+    RecordingDispatcher dispatcher = new RecordingDispatcher();
+    // The reader detects the format from the file, whatever the handler writes.
+    handler.read(EPOCH, dispatcher);
+
+    assertEquals(
+        Arrays.asList(
+            "threads/7069/os_metrics", "threads/7070/os_metrics", "threads/7069/os_metrics"),
+        dispatcher.keys);
+    assertEquals(Arrays.asList(largeValue.toString(), "", "tid:7069"), dispatcher.values);
+  }
+
+  @Test
+  public void testCorruptBinaryFramesAreSkipped() throws Exception {
+    EventLogFileHandler binaryHandler =
+        new EventLogFileHandler(
+            new EventLog(EventLogFormat.BINARY), folder.getRoot().getAbsolutePath());
+    binaryHandler.writeTmpFile(
+        Arrays.asList(new Event(keyPrefix + "heap_metrics", "Heap_Used:1", EPOCH)), EPOCH);
+    // One event whose only key segment refers to segment 3, which the frame never defined.
+    byte[] payload = {1, 1, 3, 0};
+    CRC32 crc = new CRC32();
+    crc.update(payload);
+    // A frame that fails its checksum, then one that passes it but cannot be decoded.
+    Files.write(tmpPath(), frame(payload, (int) crc.getValue() + 1), StandardOpenOption.APPEND);
+    Files.write(tmpPath(), frame(payload, (int) crc.getValue()), StandardOpenOption.APPEND);
+    binaryHandler.writeTmpFile(
+        Arrays.asList(new Event(keyPrefix + "heap_metrics", "Heap_Used:2", EPOCH)), EPOCH);
+
+    RecordingDispatcher dispatcher = new RecordingDispatcher();
+    binaryHandler.tail(EPOCH, dispatcher);
+    assertEquals(Arrays.asList("Heap_Used:1", "Heap_Used:2"), dispatcher.values);
+
+    // The corrupt frames are not retried.
+    binaryHandler.writeTmpFile(
+        Arrays.asList(new Event(keyPrefix + "heap_metrics", "Heap_Used:3", EPOCH)), EPOCH);
+    binaryHandler.tail(EPOCH, dispatcher);
+    assertEquals(Arrays.asList("Heap_Used:1", "Heap_Used:2", "Heap_Used:3"), dispatcher.values);
+  }
+
+  @Test
+  public void testAppendKeepsFileFormat() {
+    handler.writeTmpFile(
+        Arrays.asList(new Event(keyPrefix + "heap_metrics", "Heap_Used:1", EPOCH)), EPOCH);
+    new EventLogFileHandler(new EventLog(EventLogFormat.BINARY), folder.getRoot().getAbsolutePath())
+        .writeTmpFile(
+            Arrays.asList(new Event(keyPrefix + "heap_metrics", "Heap_Used:2", EPOCH)), EPOCH);
+    handler.renameFromTmp(EPOCH);
+
+    RecordingDispatcher dispatcher = new RecordingDispatcher();
+    handler.read(EPOCH, dispatcher);
+
+    assertEquals(Arrays.asList("Heap_Used:1", "Heap_Used:2"), dispatcher.values);
+  }
+
+  @Test
+  public void testReadMissingOrEmptyFile() throws Exception {
+    EventDispatcher dispatcher = mock(EventDispatcher.class);
+    handler.read(EPOCH, dispatcher);
+    folder.newFile(String.valueOf(EPOCH + 5000));
+    handler.read(EPOCH + 5000, dispatcher);
+    verify(dispatcher, never()).processEvent(any());
+  }
+
+  @Test
+  public void testTailLeavesUncommittedBatchForNextCall() throws Exception {
+    handler.writeTmpFile(
+        Arrays.asList(
+            new Event(keyPrefix + "heap_metrics", "Heap_Used:1", EPOCH),
+            new Event(keyPrefix + "heap_metrics", "Heap_Used:2", EPOCH)),
+        EPOCH);
+    byte[] third =
+        new EventLog().write(new Event(keyPrefix + "heap_metrics", "Heap_Used:3", EPOCH));
+    int half = third.length / 2;
+    Files.write(tmpPath(), Arrays.copyOfRange(third, 0, half), StandardOpenOption.APPEND);
+
+    RecordingDispatcher dispatcher = new RecordingDispatcher();
+    handler.tail(EPOCH, dispatcher);
+    assertEquals(Arrays.asList("Heap_Used:1", "Heap_Used:2"), dispatcher.values);
+
+    Files.write(
+        tmpPath(), Arrays.copyOfRange(third, half, third.length), StandardOpenOption.APPEND);
+    // The event is complete, but the writer has not committed its batch yet.
+    handler.tail(EPOCH, dispatcher);
+    assertEquals(Arrays.asList("Heap_Used:1", "Heap_Used:2"), dispatcher.values);
+
+    Files.write(tmpPath(), EventLog.commitMarker(), StandardOpenOption.APPEND);
+    handler.tail(EPOCH, dispatcher);
+    assertEquals(Arrays.asList("Heap_Used:1", "Heap_Used:2", "Heap_Used:3"), dispatcher.values);
+  }
+
+  @Test
+  public void testTailReadsOnlyWhatWasAppendedSinceLastCall() {
+    for (EventLogFormat format : EventLogFormat.values()) {
+      long epoch = EPOCH + format.ordinal() * 5000;
+      EventLogFileHandler formatHandler =
+          new EventLogFileHandler(new EventLog(format), folder.getRoot().getAbsolutePath());
+      RecordingDispatcher dispatcher = new RecordingDispatcher();
+      // Nothing is written yet.
+      formatHandler.tail(epoch, dispatcher);
+
+      formatHandler.writeTmpFile(
+          Arrays.asList(new Event(keyPrefix + "heap_metrics", "Heap_Used:1", epoch)), epoch);
+      formatHandler.tail(epoch, dispatcher);
+      // Nothing was appended since.
+      formatHandler.tail(epoch, dispatcher);
+      formatHandler.writeTmpFile(
+          Arrays.asList(
+              new Event(keyPrefix + "heap_metrics", "Heap_Used:2", epoch),
+              new Event(keyPrefix + "heap_metrics", "Heap_Used:3", epoch)),
+          epoch);
+      formatHandler.tail(epoch, dispatcher);
+
+      assertEquals(
+          format.toString(),
+          Arrays.asList("Heap_Used:1", "Heap_Used:2", "Heap_Used:3"),
+          dispatcher.values);
+    }
+  }
+
+  @Test
+  public void testTailFollowsRenameAndEndTailStopsReads() {
+    handler.writeTmpFile(
+        Arrays.asList(new Event(keyPrefix + "heap_metrics", "Heap_Used:1", EPOCH)), EPOCH);
+    RecordingDispatcher dispatcher = new RecordingDispatcher();
+    handler.tail(EPOCH, dispatcher);
+    handler.writeTmpFile(
+        Arrays.asList(new Event(keyPrefix + "heap_metrics", "Heap_Used:2", EPOCH)), EPOCH);
+    handler.renameFromTmp(EPOCH);
+
+    // The renamed file has the same bytes, so reading goes on from where it stopped.
+    handler.tail(EPOCH, dispatcher);
+    assertEquals(Arrays.asList("Heap_Used:1", "Heap_Used:2"), dispatcher.values);
+
+    handler.endTail(EPOCH);
+    handler.read(EPOCH, dispatcher);
+    assertEquals(2, dispatcher.values.size());
+  }
+
+  @Test
+  public void testTailSkipsFileThatShrank() throws Exception {
+    handler.writeTmpFile(
+        Arrays.asList(
+            new Event(keyPrefix + "heap_metrics", "Heap_Used:1", EPOCH),
+            new Event(keyPrefix + "heap_metrics", "Heap_Used:2", EPOCH)),
+        EPOCH);
+    RecordingDispatcher dispatcher = new RecordingDispatcher();
+    handler.tail(EPOCH, dispatcher);
+    try (FileChannel channel = FileChannel.open(tmpPath(), StandardOpenOption.WRITE)) {
+      channel.truncate(channel.size() / 2);
+    }
+
+    handler.tail(EPOCH, dispatcher);
+    assertEquals(Arrays.asList("Heap_Used:1", "Heap_Used:2"), dispatcher.values);
+  }
+
+  @Test
+  public void testTailReadsTmpFileCreatedAgainFromStart() throws Exception {
+    handler.writeTmpFile(
+        Arrays.asList(new Event(keyPrefix + "heap_metrics", "Heap_Used:1", EPOCH)), EPOCH);
+    RecordingDispatcher dispatcher = new RecordingDispatcher();
+    handler.tail(EPOCH, dispatcher);
+    handler.renameFromTmp(EPOCH);
+    Object renamedFileKey =
+        Files.readAttributes(
+                tmpPath().resolveSibling(String.valueOf(EPOCH)), BasicFileAttributes.class)
+            .fileKey();
+    // The new file is only told apart where the file system has file keys.
+    Assume.assumeNotNull(renamedFileKey);
+
+    // More events for the epoch after the rename go to a new .tmp file, which is longer than
+    // what was read from the first one.
+    handler.writeTmpFile(
+        Arrays.asList(
+            new Event(keyPrefix + "heap_metrics", "Heap_Used:2", EPOCH),
+            new Event(keyPrefix + "heap_metrics", "Heap_Used:3", EPOCH)),
+        EPOCH);
+    handler.tail(EPOCH, dispatcher);
+    assertEquals(Arrays.asList("Heap_Used:1", "Heap_Used:2", "Heap_Used:3"), dispatcher.values);
+  }
+
+  @Test
+  public void testTailReadsRestOfRenamedFileBeforeNewTmpFile() throws Exception {
+    handler.writeTmpFile(
+        Arrays.asList(new Event(keyPrefix + "heap_metrics", "Heap_Used:1", EPOCH)), EPOCH);
+    RecordingDispatcher dispatcher = new RecordingDispatcher();
+    handler.tail(EPOCH, dispatcher);
+    handler.writeTmpFile(
+        Arrays.asList(new Event(keyPrefix + "heap_metrics", "Heap_Used:2", EPOCH)), EPOCH);
+    handler.renameFromTmp(EPOCH);
+    Assume.assumeNotNull(
+        Files.readAttributes(
+                tmpPath().resolveSibling(String.valueOf(EPOCH)), BasicFileAttributes.class)
+            .fileKey());
+
+    handler.writeTmpFile(
+        Arrays.asList(new Event(keyPrefix + "heap_metrics", "Heap_Used:3", EPOCH)), EPOCH);
+    handler.tail(EPOCH, dispatcher);
+    assertEquals(Arrays.asList("Heap_Used:1", "Heap_Used:2", "Heap_Used:3"), dispatcher.values);
+  }
+
+  @Test
+  public void testTailStateIsRestoredByANewHandler() {
+    handler.writeTmpFile(
+        Arrays.asList(new Event(keyPrefix + "heap_metrics", "Heap_Used:1", EPOCH)), EPOCH);
+    RecordingDispatcher dispatcher = new RecordingDispatcher();
+    handler.tail(EPOCH, dispatcher);
+    handler.endTail(EPOCH);
+    long next = EPOCH + 5000;
+    handler.writeTmpFile(
+        Arrays.asList(new Event(keyPrefix + "heap_metrics", "Heap_Used:2", next)), next);
+    handler.tail(next, dispatcher);
+    handler.writeTmpFile(
+        Arrays.asList(new Event(keyPrefix + "heap_metrics", "Heap_Used:3", next)), next);
+
+    EventLogFileHandler restarted =
+        new EventLogFileHandler(new EventLog(), folder.getRoot().getAbsolutePath());
+    assertEquals(EPOCH, restarted.getLastEndedTail());
+    // Goes on from the saved offset.
+    RecordingDispatcher restartedDispatcher = new RecordingDispatcher();
+    restarted.tail(next, restartedDispatcher);
+    assertEquals(Arrays.asList("Heap_Used:3"), restartedDispatcher.values);
+    // Unless told to start over.
+    restartedDispatcher.values.clear();
+    restarted.startTail(next);
+    restarted.tail(next, restartedDispatcher);
+    assertEquals(Arrays.asList("Heap_Used:2", "Heap_Used:3"), restartedDispatcher.values);
+    // An ended epoch is not read again.
+    restarted.read(EPOCH, restartedDispatcher);
+    assertEquals(2, restartedDispatcher.values.size());
+  }
+
+  private static byte[] frame(byte[] payload, int checksum) {
+    return ByteBuffer.allocate(8 + payload.length)
+        .putInt(payload.length)
+        .putInt(checksum)
+        .put(payload)
+        .array();
+  }
+
+  private Path tmpPath() {
+    return Paths.get(folder.getRoot().getAbsolutePath(), EPOCH + ".tmp");
+  }
+
+  /** Keeps the keys and values of the events it is handed, in order. */
+  private static class RecordingDispatcher extends EventDispatcher {
+    private final List<String> keys = new ArrayList<>();
+    private final List<String> values = new ArrayList<>();
+
+    @Override
+    public void processEvent(Event event) {
+      keys.add(event.key());
+      values.add(event.value());
+    }
+  }
+}
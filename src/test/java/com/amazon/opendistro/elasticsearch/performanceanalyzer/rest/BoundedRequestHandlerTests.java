@@ -0,0 +1,99 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rest.BoundedRequestHandler.EndpointClass;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class BoundedRequestHandlerTests {
+
+  @Test
+  public void testRejectsOnceThePoolAndQueueAreFull() throws Exception {
+    ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1));
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger served = new AtomicInteger();
+    BoundedRequestHandler handler =
+        new BoundedRequestHandler(
+            exchange -> {
+              started.countDown();
+              try {
+                release.await();
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+              served.incrementAndGet();
+            },
+            EndpointClass.BATCH,
+            executor);
+    try {
+      HttpExchange running = mock(HttpExchange.class);
+      HttpExchange queued = mock(HttpExchange.class);
+      HttpExchange rejected = mock(HttpExchange.class);
+      Headers headers = new Headers();
+      ByteArrayOutputStream body = new ByteArrayOutputStream();
+      when(rejected.getResponseHeaders()).thenReturn(headers);
+      when(rejected.getResponseBody()).thenReturn(body);
+
+      handler.handle(running);
+      assertTrue(started.await(10, TimeUnit.SECONDS));
+      handler.handle(queued);
+      handler.handle(rejected);
+
+      verify(rejected)
+          .sendResponseHeaders(eq(BoundedRequestHandler.HTTP_TOO_MANY_REQUESTS), anyLong());
+      assertEquals(BoundedRequestHandler.RETRY_AFTER_SECONDS, headers.getFirst("Retry-After"));
+      assertTrue(body.toString().contains("batch"));
+      verify(queued, never())
+          .sendResponseHeaders(eq(BoundedRequestHandler.HTTP_TOO_MANY_REQUESTS), anyLong());
+
+      release.countDown();
+      executor.shutdown();
+      assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+      assertEquals(2, served.get());
+    } finally {
+      release.countDown();
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testLatencyBucket() {
+    assertEquals("metrics_le_10ms", BoundedRequestHandler.latencyBucket(EndpointClass.METRICS, 0));
+    assertEquals("metrics_le_10ms", BoundedRequestHandler.latencyBucket(EndpointClass.METRICS, 10));
+    assertEquals("rca_le_50ms", BoundedRequestHandler.latencyBucket(EndpointClass.RCA, 11));
+    assertEquals("batch_le_5000ms", BoundedRequestHandler.latencyBucket(EndpointClass.BATCH, 4999));
+    assertEquals("batch_gt_5000ms", BoundedRequestHandler.latencyBucket(EndpointClass.BATCH, 5001));
+  }
+}
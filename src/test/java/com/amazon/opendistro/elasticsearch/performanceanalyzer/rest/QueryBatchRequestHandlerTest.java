@@ -253,11 +253,15 @@ public class QueryBatchRequestHandlerTest {
     prepareMetricDB(timestamp, true, true, true, expectedResponseBuilder);
     List<String> metrics = Arrays.asList("CPU_Utilization", "Paging_RSS", "Sched_Runtime");
     for (int i = 0; i < 3; i++) {
+      StringBuilder builder = new StringBuilder();
       try {
-        handler.appendMetricsShim(timestamp, metrics, new StringBuilder(), i);
+        handler.appendMetricsShim(timestamp, metrics, builder, i);
         Assert.fail();
       } catch (InvalidParameterException e) {
       }
+      // The sample and the response are closed with the error, for a response that is being streamed.
+      Assert.assertTrue(builder.toString().endsWith(
+          "},\"error\":\"requested data exceeds the 100800 datapoints limit.\"}"));
     }
     StringBuilder actualResponseBuilder = new StringBuilder();
     handler.appendMetricsShim(timestamp, metrics, actualResponseBuilder, 3);
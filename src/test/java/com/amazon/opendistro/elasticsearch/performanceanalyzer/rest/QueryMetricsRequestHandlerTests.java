@@ -16,21 +16,42 @@
 package com.amazon.opendistro.elasticsearch.performanceanalyzer.rest;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.AppContext;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.MetricsRequest;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.MetricsResponse;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.MetricsResult;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.AllMetrics;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.AllMetrics.OSMetrics;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.MetricsRestUtil;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.handler.MetricsServerHandler;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.net.NetClient;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.util.InstanceDetails;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.reader.ReaderMetricsProcessor;
+import com.sun.net.httpserver.HttpExchange;
+import io.grpc.Status;
 import io.grpc.stub.StreamObserver;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.security.InvalidParameterException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
 @SuppressWarnings("serial")
 public class QueryMetricsRequestHandlerTests {
@@ -116,6 +137,123 @@ public class QueryMetricsRequestHandlerTests {
         responseObserver);
   }
 
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testStreamRemoteStats() throws Exception {
+    List<InstanceDetails> nodes = new ArrayList<>();
+    // More remote nodes than results fit in the queue.
+    for (int i = 1; i <= 7; i++) {
+      nodes.add(new InstanceDetails(
+          new InstanceDetails.Id("node" + i), new InstanceDetails.Ip("127.0.0." + i), 0));
+    }
+    NetClient netClient = mock(NetClient.class);
+    doAnswer(invocation -> {
+      InstanceDetails node = invocation.getArgument(0);
+      StreamObserver<MetricsResponse> observer = invocation.getArgument(2);
+      switch (node.getInstanceId().toString()) {
+        case "node2":
+          observer.onNext(MetricsResponse.newBuilder()
+              .setResult(MetricsResult.newBuilder().setTimestamp(5)).build());
+          observer.onCompleted();
+          break;
+        case "node3":
+          observer.onError(Status.DEADLINE_EXCEEDED.asRuntimeException());
+          break;
+        default:
+          // A node that only knows the JSON string form.
+          observer.onNext(MetricsResponse.newBuilder().setMetricsResult("{\"x\": 1}").build());
+          observer.onCompleted();
+      }
+      return null;
+    }).when(netClient).getMetrics(any(), any(), any(), anyLong());
+    HttpExchange exchange = mock(HttpExchange.class);
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    when(exchange.getResponseBody()).thenReturn(body);
+
+    new QueryMetricsRequestHandler(netClient, metricsRestUtil, new AppContext())
+        .streamRemoteStats(exchange, nodes, "node1", "{\"local\": 1}",
+            Arrays.asList("CPU_Utilization"), Arrays.asList("sum"), Arrays.asList("ShardID"));
+
+    assertEquals(
+        "{\"node1\": {\"local\": 1}, \"node2\" :{\"timestamp\": 5, \"data\": {}}, "
+            + "\"node4\" :{\"x\": 1}, \"node5\" :{\"x\": 1}, \"node6\" :{\"x\": 1}, "
+            + "\"node7\" :{\"x\": 1}}",
+        new String(body.toByteArray(), StandardCharsets.UTF_8));
+    ArgumentCaptor<MetricsRequest> request = ArgumentCaptor.forClass(MetricsRequest.class);
+    verify(netClient).getMetrics(eq(nodes.get(1)), request.capture(), any(), anyLong());
+    assertTrue(request.getValue().getStructured());
+    verify(exchange).sendResponseHeaders(200, 0);
+  }
+
+  @Test
+  public void testStreamRemoteStatsAsksAllNodesAtOnce() throws Exception {
+    List<InstanceDetails> nodes = new ArrayList<>();
+    for (int i = 1; i <= 10; i++) {
+      nodes.add(new InstanceDetails(
+          new InstanceDetails.Id("node" + i), new InstanceDetails.Ip("127.0.0." + i), 0));
+    }
+    // Every node responds on its own thread once all of them were asked, so more results arrive
+    // together than fit in the queue.
+    CountDownLatch allAsked = new CountDownLatch(nodes.size() - 1);
+    NetClient netClient = mock(NetClient.class);
+    doAnswer(invocation -> {
+      InstanceDetails node = invocation.getArgument(0);
+      StreamObserver<MetricsResponse> observer = invocation.getArgument(2);
+      allAsked.countDown();
+      new Thread(() -> {
+        try {
+          allAsked.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        observer.onNext(MetricsResponse.newBuilder()
+            .setMetricsResult("\"" + node.getInstanceId() + "\"").build());
+        observer.onCompleted();
+      }).start();
+      return null;
+    }).when(netClient).getMetrics(any(), any(), any(), anyLong());
+    HttpExchange exchange = mock(HttpExchange.class);
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    when(exchange.getResponseBody()).thenReturn(body);
+
+    new QueryMetricsRequestHandler(netClient, metricsRestUtil, new AppContext())
+        .streamRemoteStats(exchange, nodes, "node1", "{\"local\": 1}",
+            Arrays.asList("CPU_Utilization"), Arrays.asList("sum"), Arrays.asList("ShardID"));
+
+    String response = new String(body.toByteArray(), StandardCharsets.UTF_8);
+    for (int i = 2; i <= 10; i++) {
+      assertTrue(response, response.contains("\"node" + i + "\" :\"node" + i + "\""));
+    }
+    // Each node gets the whole timeout.
+    verify(netClient, times(nodes.size() - 1)).getMetrics(any(), any(), any(), eq(2000L));
+  }
+
+  @Test
+  public void testStreamRemoteStatsClosesObjectWhenInterrupted() throws Exception {
+    List<InstanceDetails> nodes = new ArrayList<>();
+    for (int i = 1; i <= 2; i++) {
+      nodes.add(new InstanceDetails(
+          new InstanceDetails.Id("node" + i), new InstanceDetails.Ip("127.0.0." + i), 0));
+    }
+    // The remote node never responds.
+    NetClient netClient = mock(NetClient.class);
+    HttpExchange exchange = mock(HttpExchange.class);
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    when(exchange.getResponseBody()).thenReturn(body);
+
+    Thread.currentThread().interrupt();
+    try {
+      new QueryMetricsRequestHandler(netClient, metricsRestUtil, new AppContext())
+          .streamRemoteStats(exchange, nodes, "node1", "{\"local\": 1}",
+              Arrays.asList("CPU_Utilization"), Arrays.asList("sum"), Arrays.asList("ShardID"));
+      assertTrue(Thread.currentThread().isInterrupted());
+    } finally {
+      Thread.interrupted();
+    }
+    assertEquals(
+        "{\"node1\": {\"local\": 1}}", new String(body.toByteArray(), StandardCharsets.UTF_8));
+  }
+
   @Test
   public void testParseArrayParameter() throws Exception {
     String rootLocation = "test_files/dev/shm";
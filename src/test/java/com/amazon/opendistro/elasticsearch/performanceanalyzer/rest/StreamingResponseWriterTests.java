@@ -0,0 +1,66 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.sun.net.httpserver.HttpExchange;
+import java.io.ByteArrayOutputStream;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StreamingResponseWriterTests {
+  private HttpExchange exchange;
+  private ByteArrayOutputStream body;
+
+  @Before
+  public void setUp() {
+    exchange = mock(HttpExchange.class);
+    body = new ByteArrayOutputStream();
+    when(exchange.getResponseBody()).thenReturn(body);
+  }
+
+  @Test
+  public void testSmallResponseIsSentWithItsLength() throws Exception {
+    StreamingResponseWriter writer = new StreamingResponseWriter(exchange, 16);
+    writer.append("{\"é\":").append("1}");
+    assertFalse(writer.isCommitted());
+    writer.finish(HttpURLConnection.HTTP_OK);
+
+    verify(exchange).sendResponseHeaders(HttpURLConnection.HTTP_OK, 8);
+    assertEquals("{\"é\":1}", new String(body.toByteArray(), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testLargeResponseIsStreamed() throws Exception {
+    StreamingResponseWriter writer = new StreamingResponseWriter(exchange, 4);
+    writer.append("{\"a\"");
+    assertFalse(writer.isCommitted());
+    writer.append(":[1,2,3]}");
+    assertTrue(writer.isCommitted());
+    verify(exchange).sendResponseHeaders(HttpURLConnection.HTTP_OK, 0);
+
+    writer.finish(HttpURLConnection.HTTP_OK);
+    assertEquals("{\"a\":[1,2,3]}", new String(body.toByteArray(), StandardCharsets.UTF_8));
+  }
+}